@@ -69,15 +69,19 @@ public class AudioTypes {
 
     // Bombs
     public static AudioType fire_bomb(final EntityData ed, final BombLevelEnum level) {
+        return AudioType.create(fire_bomb(level), ed);
+    }
+
+    public static String fire_bomb(final BombLevelEnum level) {
         switch (level.level) {
         case 1:
-            return AudioType.create(FIRE_BOMBS_L1, ed);
+            return FIRE_BOMBS_L1;
         case 2:
-            return AudioType.create(FIRE_BOMBS_L2, ed);
+            return FIRE_BOMBS_L2;
         case 3:
-            return AudioType.create(FIRE_BOMBS_L3, ed);
+            return FIRE_BOMBS_L3;
         case 4:
-            return AudioType.create(FIRE_BOMBS_L4, ed);
+            return FIRE_BOMBS_L4;
         default:
             throw new UnsupportedOperationException("Unknown bomb level: " + level.level);
         }
@@ -85,15 +89,19 @@ public class AudioTypes {
 
     // Bullets
     public static AudioType fire_bullet(final EntityData ed, final GunLevelEnum level) {
+        return AudioType.create(fire_bullet(level), ed);
+    }
+
+    public static String fire_bullet(final GunLevelEnum level) {
         switch (level.level) {
         case 1:
-            return AudioType.create(FIRE_GUNS_L1, ed);
+            return FIRE_GUNS_L1;
         case 2:
-            return AudioType.create(FIRE_GUNS_L2, ed);
+            return FIRE_GUNS_L2;
         case 3:
-            return AudioType.create(FIRE_GUNS_L3, ed);
+            return FIRE_GUNS_L3;
         case 4:
-            return AudioType.create(FIRE_GUNS_L4, ed);
+            return FIRE_GUNS_L4;
         default:
             throw new UnsupportedOperationException("Unknown gun level: " + level.level);
         }
@@ -50,19 +50,32 @@ import com.simsilica.mathd.trans.TransitionBuffer;
  * Furthermore, special care is taken to make sure that all BodyPosition objecst
  * for a particular entity share the internal data buffer.
  *
+ * A BodyPosition created with a history of 0 keeps no transition buffer and
+ * only remembers the most recent frame in place. That is what the server uses,
+ * as it only reads positions through the getLast*() methods, and it means
+ * publishing a frame does not allocate.
+ *
  * @author Paul Speed
  */
 public final class BodyPosition implements EntityComponent {
     // private transient int size;
     private transient TransitionBuffer<PositionTransition3d> position;
     private transient PositionTransition3d lastTransition;
+    private transient Vec3d lastLocation;
+    private transient Quatd lastOrientation;
+    private transient boolean hasFrame;
 
     public BodyPosition() {
     }
 
     public BodyPosition(final int history) {
         // size = (byte) history;
-        position = PositionTransition3d.createBuffer(history);
+        if (history > 0) {
+            position = PositionTransition3d.createBuffer(history);
+        } else {
+            lastLocation = new Vec3d();
+            lastOrientation = new Quatd();
+        }
     }
 
     /**
@@ -71,14 +84,14 @@ public final class BodyPosition implements EntityComponent {
      * components before use.
      */
     public void initialize(final EntityId id, final int sz) {
-        if (position == null) {
+        if (!isInitialized()) {
             // size = sz;
             position = BodyPositionCache.getBuffer(id, sz);
         }
     }
 
     public boolean isInitialized() {
-        return position != null;
+        return position != null || lastLocation != null;
     }
 
     public TransitionBuffer<PositionTransition3d> getBuffer() {
@@ -86,6 +99,13 @@ public final class BodyPosition implements EntityComponent {
     }
 
     public void addFrame(final long endTime, final Vec3d pos, final Quatd quat, final boolean visible) {
+        if (position == null) {
+            // No history, just keep the latest values
+            lastLocation.set(pos);
+            lastOrientation.set(quat);
+            hasFrame = true;
+            return;
+        }
         final PositionTransition3d trans = new PositionTransition3d(endTime, pos, quat, visible);
         getBuffer().addTransition(trans);
         lastTransition = trans;
@@ -97,7 +117,7 @@ public final class BodyPosition implements EntityComponent {
 
     /**
      * A convenience method for the server-side code to get the most recent update
-     * applied through addFrame().
+     * applied through addFrame(). Always null when no history is kept.
      */
     public PositionTransition3d getLastFrame() {
         return lastTransition;
@@ -108,6 +128,9 @@ public final class BodyPosition implements EntityComponent {
      * applied through addFrame().
      */
     public Vec3d getLastLocation() {
+        if (position == null) {
+            return hasFrame ? lastLocation.clone() : null;
+        }
         if (lastTransition == null) {
             return null;
         }
@@ -119,6 +142,9 @@ public final class BodyPosition implements EntityComponent {
      * orientation applied through addFrame().
      */
     public Quatd getLastOrientation() {
+        if (position == null) {
+            return hasFrame ? lastOrientation.clone() : null;
+        }
         if (lastTransition == null) {
             return null;
         }
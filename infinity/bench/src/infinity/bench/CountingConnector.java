@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jme3.network.kernel.Connector;
+import com.jme3.network.kernel.ConnectorFactory;
+
+/**
+ * Wraps a SpiderMonkey connector to count the bytes read from it, which are
+ * the bytes the server sent on that channel with the protocol's framing
+ * included. The counters are shared by all connectors made by one Factory.
+ *
+ * @author Asser
+ */
+public class CountingConnector implements Connector {
+
+    private final Connector delegate;
+    private final LongAdder bytesIn;
+
+    public CountingConnector(final Connector delegate, final LongAdder bytesIn) {
+        this.delegate = delegate;
+        this.bytesIn = bytesIn;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean available() {
+        return delegate.available();
+    }
+
+    @Override
+    public ByteBuffer read() {
+        final ByteBuffer result = delegate.read();
+        if (result != null) {
+            bytesIn.add(result.remaining());
+        }
+        return result;
+    }
+
+    @Override
+    public void write(final ByteBuffer data) {
+        delegate.write(data);
+    }
+
+    /**
+     * Counts the extra channels a client opens after the main connection.
+     */
+    public static class Factory implements ConnectorFactory {
+
+        private final ConnectorFactory delegate;
+        private final LongAdder bytesIn;
+
+        public Factory(final ConnectorFactory delegate, final LongAdder bytesIn) {
+            this.delegate = delegate;
+            this.bytesIn = bytesIn;
+        }
+
+        @Override
+        public Connector createConnector(final int channel, final int port) throws IOException {
+            return new CountingConnector(delegate.createConnector(channel, port), bytesIn);
+        }
+    }
+}
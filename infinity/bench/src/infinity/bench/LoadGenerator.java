@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import infinity.InfinityConstants;
+import infinity.server.GameServer;
+import infinity.server.ScheduledGameSystemManager;
+
+/**
+ * Drives a game server with many synthetic clients over loopback and reports
+ * how the server holds up: tick times, input-to-physics latency and the bytes
+ * every client receives.
+ *
+ * Without -host the server is started in this process, which lets the report
+ * include the tick times but shares the CPU with the clients. To find the real
+ * ceiling run the server on its own with -metrics and point this at it with
+ * -host and -metrics.
+ *
+ * <pre>
+ * LoadGenerator -clients 200 -duration 60
+ * LoadGenerator -host 10.0.0.5 -clients 400 -metrics http://10.0.0.5:9100/metrics
+ * </pre>
+ *
+ * @author Asser
+ */
+public class LoadGenerator {
+
+    static Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private String host;
+    private int port = InfinityConstants.DEFAULT_PORT;
+    private int clientCount = 100;
+    private double inputRate = 60;
+    private double fireRate = 2;
+    private long rampMillis = 20;
+    private long warmupSeconds = 10;
+    private long durationSeconds = 60;
+    private String metricsUrl;
+
+    private GameServer server;
+    private final LoadStats stats = new LoadStats();
+    private final List<SyntheticClient> clients = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService driver;
+
+    public void run() throws IOException, InterruptedException {
+        if (host == null) {
+            host = "127.0.0.1";
+            server = new GameServer(port, "Load test");
+            server.start();
+        }
+
+        driver = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+                r -> {
+                    final Thread t = new Thread(r, "LoadDriver");
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        connectAll();
+
+        System.out.println("Warming up for " + warmupSeconds + " s...");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+
+        stats.startRecording();
+        if (server != null) {
+            server.getSystems().reset();
+        }
+        final long[] bytesBefore = new long[clients.size()];
+        final long[] messagesBefore = new long[clients.size()];
+        for (int i = 0; i < bytesBefore.length; i++) {
+            bytesBefore[i] = clients.get(i).getBytesReceived();
+            messagesBefore[i] = clients.get(i).getMessagesReceived();
+        }
+        final long start = System.nanoTime();
+
+        System.out.println("Measuring for " + durationSeconds + " s...");
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+        long lastBytes = totalBytes();
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(PROGRESS_INTERVAL, Math.max(1, end - System.currentTimeMillis())));
+            final long bytes = totalBytes();
+            final int connected = connectedCount();
+            final double rate = (bytes - lastBytes) / 1024.0 / (PROGRESS_INTERVAL / 1000.0) / Math.max(1, connected);
+            System.out.println(String.format("connected:%d  latency p99:%s ms  received:%.1f kB/s per client",
+                    Integer.valueOf(connected), toMillis(stats.nextWindow(99)), Double.valueOf(rate)));
+            lastBytes = bytes;
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        report(seconds, bytesBefore, messagesBefore);
+
+        driver.shutdownNow();
+        for (final SyntheticClient c : clients) {
+            c.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void connectAll() throws InterruptedException {
+        System.out.println("Connecting " + clientCount + " clients to " + host + ":" + port + "...");
+        final long period = (long) (1e9 / inputRate);
+        int failed = 0;
+        for (int i = 0; i < clientCount; i++) {
+            final SyntheticClient c = new SyntheticClient(i, host, port, fireRate, stats);
+            try {
+                c.connect(TimeUnit.SECONDS.toMillis(30));
+            } catch (final IOException e) {
+                log.error("Client " + i + " failed to connect", e);
+                failed++;
+                continue;
+            }
+            clients.add(c);
+            // Spread the clients over the input period like real players would be
+            driver.scheduleAtFixedRate(() -> {
+                try {
+                    c.sendInput();
+                    c.maybeFire(inputRate);
+                } catch (final RuntimeException e) {
+                    log.error("Error driving client", e);
+                }
+            }, ThreadLocalRandom.current().nextLong(period), period, TimeUnit.NANOSECONDS);
+            Thread.sleep(rampMillis);
+        }
+        System.out.println("Connected " + clients.size() + " clients, " + failed + " failed");
+    }
+
+    private long totalBytes() {
+        long result = 0;
+        for (final SyntheticClient c : clients) {
+            result += c.getBytesReceived();
+        }
+        return result;
+    }
+
+    private int connectedCount() {
+        int result = 0;
+        for (final SyntheticClient c : clients) {
+            if (c.isConnected()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void report(final double seconds, final long[] bytesBefore, final long[] messagesBefore)
+            throws IOException {
+        System.out.println();
+        System.out.println(String.format("Clients: %d connected of %d, %.0f inputs/s and %.1f shots/s each",
+                Integer.valueOf(connectedCount()), Integer.valueOf(clientCount), Double.valueOf(inputRate),
+                Double.valueOf(fireRate)));
+
+        if (server != null) {
+            final ScheduledGameSystemManager systems = server.getSystems();
+            final StringBuilder sb = new StringBuilder("Server tick ms: mean " + toMillis(systems.getMeanTickTime()));
+            for (final double p : PERCENTILES) {
+                sb.append("  p").append(label(p)).append(' ').append(toMillis(systems.getTickTime(p)));
+            }
+            sb.append("  ticks ").append(systems.getTickCount()).append("  overruns ")
+                    .append(systems.getOverrunCount());
+            System.out.println(sb);
+        } else if (metricsUrl != null) {
+            System.out.println("Server tick from " + metricsUrl + ":");
+            for (final String line : scrape(metricsUrl)) {
+                System.out.println("  " + line);
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder("Input-to-physics latency ms:");
+        for (final double p : PERCENTILES) {
+            sb.append("  p").append(label(p)).append(' ').append(toMillis(stats.getLatency(p)));
+        }
+        sb.append("  max ").append(toMillis(stats.getMaxLatency()));
+        sb.append("  samples ").append(stats.getSampleCount()).append("  lost ").append(stats.getLost());
+        System.out.println(sb);
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        long messages = 0;
+        for (int i = 0; i < bytesBefore.length; i++) {
+            final long bytes = clients.get(i).getBytesReceived() - bytesBefore[i];
+            min = Math.min(min, bytes);
+            max = Math.max(max, bytes);
+            total += bytes;
+            messages += clients.get(i).getMessagesReceived() - messagesBefore[i];
+        }
+        final int n = Math.max(1, bytesBefore.length);
+        System.out.println(String.format("Received per client: %.1f kB/s mean  %.1f min  %.1f max  %.0f messages/s",
+                Double.valueOf(total / 1024.0 / seconds / n), Double.valueOf(min / 1024.0 / seconds),
+                Double.valueOf(max / 1024.0 / seconds), Double.valueOf(messages / seconds / n)));
+    }
+
+    /**
+     * @return the tick lines of a server's metrics endpoint
+     */
+    private static List<String> scrape(final String url) throws IOException {
+        final List<String> result = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new URL(url).openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("infinity_tick")) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String label(final double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private static String toMillis(final double nanos) {
+        return String.format("%.2f", Double.valueOf(nanos / 1000000.0));
+    }
+
+    public static void main(final String... args) throws Exception {
+        final LoadGenerator gen = new LoadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            if ("-host".equals(args[i])) {
+                gen.host = args[++i];
+            } else if ("-port".equals(args[i])) {
+                gen.port = Integer.parseInt(args[++i]);
+            } else if ("-clients".equals(args[i])) {
+                gen.clientCount = Integer.parseInt(args[++i]);
+            } else if ("-rate".equals(args[i])) {
+                gen.inputRate = Double.parseDouble(args[++i]);
+            } else if ("-fire".equals(args[i])) {
+                gen.fireRate = Double.parseDouble(args[++i]);
+            } else if ("-ramp".equals(args[i])) {
+                gen.rampMillis = Long.parseLong(args[++i]);
+            } else if ("-warmup".equals(args[i])) {
+                gen.warmupSeconds = Long.parseLong(args[++i]);
+            } else if ("-duration".equals(args[i])) {
+                gen.durationSeconds = Long.parseLong(args[++i]);
+            } else if ("-metrics".equals(args[i])) {
+                gen.metricsUrl = args[++i];
+            } else {
+                System.err.println("Unknown argument:" + args[i]);
+                return;
+            }
+        }
+        gen.run();
+        System.exit(0);
+    }
+}
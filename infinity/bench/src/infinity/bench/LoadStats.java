@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bench;
+
+import infinity.server.profile.TickHistogram;
+
+/**
+ * The latencies collected from all synthetic clients, both since the start of
+ * the measurement and for the current progress window.
+ *
+ * @author Asser
+ */
+public class LoadStats {
+
+    private final TickHistogram latency = new TickHistogram();
+    private final TickHistogram window = new TickHistogram();
+    private long lost;
+    private boolean recording;
+
+    public synchronized void recordLatency(final long nanos) {
+        window.record(nanos);
+        if (recording) {
+            latency.record(nanos);
+        }
+    }
+
+    public synchronized void recordLost() {
+        if (recording) {
+            lost++;
+        }
+    }
+
+    /**
+     * Starts the measurement, everything before this was warmup.
+     */
+    public synchronized void startRecording() {
+        latency.reset();
+        lost = 0;
+        recording = true;
+    }
+
+    public synchronized long getLatency(final double percentile) {
+        return latency.getValueAtPercentile(percentile);
+    }
+
+    public synchronized long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    public synchronized long getSampleCount() {
+        return latency.getCount();
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    /**
+     * Returns the given percentile of the latencies since the last call and
+     * starts a new window.
+     */
+    public synchronized long nextWindow(final double percentile) {
+        final long result = window.getValueAtPercentile(percentile);
+        window.reset();
+        return result;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.Name;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.ethereal.EtherealHost;
+import com.simsilica.ethereal.zone.ZoneManager;
+import com.simsilica.ext.mblock.BlocksResourceShapeFactory;
+import com.simsilica.ext.mblock.SphereFactory;
+import com.simsilica.ext.mphys.EntityBodyFactory;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ShapeFactory;
+import com.simsilica.ext.mphys.ShapeFactoryRegistry;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.config.DefaultBlockSet;
+import com.simsilica.mblock.phys.Collider;
+import com.simsilica.mblock.phys.MBlockCollisionSystem;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mblock.phys.collision.ColliderFactories;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.base.DefaultWorld;
+import com.simsilica.mworld.db.LeafDb;
+import com.simsilica.mworld.db.LeafDbCache;
+import com.simsilica.sim.GameSystemManager;
+import com.simsilica.sim.common.DecaySystem;
+
+import infinity.InfinityConstants;
+import infinity.es.ShapeNames;
+import infinity.server.AssetLoaderService;
+import infinity.server.BodyPositionPublisher;
+import infinity.server.CollisionLeafDb;
+import infinity.server.EmptyLeafDb;
+import infinity.server.ZoneNetworkSystem;
+import infinity.sim.GameEntities;
+import infinity.sim.InfinityEntityBodyFactory;
+import infinity.sim.InfinityPhysicsManager;
+import infinity.systems.AttackSystem;
+import infinity.systems.AudioEventSystem;
+import infinity.systems.ContactSystem;
+import infinity.systems.EnergySystem;
+import infinity.systems.InfinityTimeSystem;
+import infinity.systems.LagCompensationSystem;
+import infinity.systems.MapSystem;
+import infinity.systems.ProjectileSystem;
+
+/**
+ * Boots the server side simulation the same way GameServer does, minus the
+ * SpiderMonkey server and its hosted services. The systems are driven directly
+ * through GameSystemManager.update() so that one call is one server tick.
+ *
+ * @author Asser
+ */
+public class SimulationHarness {
+
+    /**
+     * Ships are laid out on a square grid this far apart so that they do not
+     * start out overlapping each other.
+     */
+    private static final double SHIP_SPACING = 4;
+
+    private final GameSystemManager systems = new GameSystemManager();
+    private final List<EntityId> ships = new ArrayList<>();
+    private DefaultEntityData ed;
+    private ZoneManager zones;
+    private AttackSystem attacks;
+
+    /**
+     * Registers all of the simulation systems. The order mirrors GameServer so
+     * that the tick order is the same as on a live server.
+     */
+    public void setup() {
+        ed = new DefaultEntityData();
+        systems.register(EntityData.class, ed);
+
+        final LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
+        systems.register(LeafDb.class, leafDb);
+
+        final DefaultWorld world = new DefaultWorld(leafDb);
+        systems.register(DefaultWorld.class, world);
+
+        systems.addSystem(new DecaySystem());
+
+        final ShapeFactoryRegistry<MBlockShape> shapeFactory = new ShapeFactoryRegistry<>();
+        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.SHIP_WARBIRD, 1, ed), new SphereFactory());
+        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BOMBL1, 1, ed), new SphereFactory());
+        shapeFactory.registerFactory(ShapeInfo.create(ShapeNames.BULLETL1, 1, ed), new SphereFactory());
+        shapeFactory.setDefaultFactory(new BlocksResourceShapeFactory(ed));
+        systems.register(ShapeFactory.class, shapeFactory);
+
+        final InfinityEntityBodyFactory bodyFactory = new InfinityEntityBodyFactory(ed,
+                Gravity.ZERO.getLinearAcceleration(), shapeFactory);
+        final MPhysSystem<MBlockShape> mphys = new MPhysSystem<>(InfinityConstants.PHYSICS_GRID, bodyFactory);
+        final Collider[] colliders = new ColliderFactories(true).createColliders(DefaultBlockSet.createBlockTypes());
+        mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(new CollisionLeafDb(leafDb), colliders));
+
+        systems.register(MPhysSystem.class, mphys);
+        systems.register(PhysicsSpace.class, mphys.getPhysicsSpace());
+        systems.register(InfinityPhysicsManager.class, new InfinityPhysicsManager(mphys.getPhysicsSpace()));
+        systems.register(EntityBodyFactory.class, bodyFactory);
+
+        systems.register(EnergySystem.class, new EnergySystem());
+        systems.register(ProjectileSystem.class, new ProjectileSystem());
+        attacks = systems.register(AttackSystem.class, new AttackSystem());
+        systems.register(LagCompensationSystem.class, new LagCompensationSystem());
+        systems.register(AudioEventSystem.class,
+                new AudioEventSystem(InfinityConstants.ZONE_GRID, InfinityConstants.ZONE_RADIUS));
+
+        final ContactSystem contactSystem = new ContactSystem();
+        systems.register(ContactSystem.class, contactSystem);
+        mphys.getPhysicsSpace().setContactDispatcher(contactSystem);
+        systems.register(InfinityTimeSystem.class, new InfinityTimeSystem());
+
+        // The asset loader is normally initialized by the hosted service manager.
+        // It ignores the manager, so we can initialize it by hand.
+        final AssetLoaderService assetLoader = new AssetLoaderService();
+        assetLoader.initialize(null);
+        systems.register(MapSystem.class, new MapSystem(assetLoader));
+
+        // The ethereal host is never attached to a server, we only want its zones
+        final EtherealHost ethereal = new EtherealHost(InfinityConstants.OBJECT_PROTOCOL,
+                InfinityConstants.ZONE_GRID, InfinityConstants.ZONE_RADIUS);
+        ethereal.getZones().setSupportLargeObjects(true);
+        zones = ethereal.getZones();
+        systems.addSystem(new ZoneNetworkSystem<>(zones));
+        systems.addSystem(new BodyPositionPublisher<>());
+
+        systems.initialize();
+        systems.start();
+    }
+
+    /**
+     * Spawns the ships and runs the simulation until MapSystem has loaded the
+     * arena, so that the map load does not end up inside a measured tick.
+     *
+     * @param shipCount the number of ships to spawn
+     */
+    public void populate(final int shipCount) {
+        final PhysicsSpace<EntityId, MBlockShape> space = getPhysicsSpace();
+        final long time = systems.getStepTime().getTime();
+
+        final int side = (int) Math.ceil(Math.sqrt(shipCount));
+        final double offset = side * SHIP_SPACING * 0.5;
+        for (int i = 0; i < shipCount; i++) {
+            final EntityId owner = ed.createEntity();
+            ed.setComponent(owner, new Name("bench" + i));
+
+            final EntityId ship = GameEntities.createWarbird(ed, owner, space, time);
+            final Vec3d pos = new Vec3d((i % side) * SHIP_SPACING - offset, 0.5, (i / side) * SHIP_SPACING - offset);
+            ed.setComponent(ship, new SpawnPosition(space.getGrid(), pos));
+            ships.add(ship);
+        }
+
+        final MapSystem map = systems.get(MapSystem.class);
+        while (!map.isMapLoaded()) {
+            tick();
+        }
+    }
+
+    /**
+     * Queues a gun attack for every ship whose index falls on the stride, so a
+     * stride of 4 has a quarter of the ships firing.
+     *
+     * @param stride fire on every stride'th ship
+     * @param phase  offset into the stride, rotate this to spread the firing
+     */
+    public void fire(final int stride, final int phase) {
+        for (int i = phase % stride; i < ships.size(); i += stride) {
+            attacks.sessionAttack(ships.get(i), AttackSystem.GUN);
+        }
+    }
+
+    /**
+     * Runs one full server tick. The zone history is purged afterwards just like
+     * the ethereal state collector would on a live server.
+     */
+    public void tick() {
+        systems.update();
+        zones.purgeState();
+    }
+
+    public void shutdown() {
+        systems.stop();
+        systems.terminate();
+    }
+
+    public GameSystemManager getSystems() {
+        return systems;
+    }
+
+    public EntityData getEntityData() {
+        return ed;
+    }
+
+    public List<EntityId> getShips() {
+        return ships;
+    }
+
+    private PhysicsSpace<EntityId, MBlockShape> getPhysicsSpace() {
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> mphys = systems.get(MPhysSystem.class);
+        return mphys.getPhysicsSpace();
+    }
+}
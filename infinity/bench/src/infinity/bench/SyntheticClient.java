@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.Client;
+import com.jme3.network.ClientStateListener;
+import com.jme3.network.Message;
+import com.jme3.network.MessageListener;
+import com.jme3.network.client.DefaultClient;
+import com.jme3.network.client.TcpConnectorFactory;
+import com.jme3.network.kernel.tcp.SocketConnector;
+import com.jme3.network.kernel.udp.UdpConnector;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.EtherealClient;
+import com.simsilica.ethereal.SharedObject;
+import com.simsilica.ethereal.SharedObjectListener;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.InfinityConstants;
+import infinity.client.GameClient;
+import infinity.client.GameSessionClientService;
+import infinity.es.input.MovementInput;
+import infinity.net.AudioEvents;
+import infinity.net.GameSessionListener;
+import infinity.net.InputFrames;
+import infinity.systems.AttackSystem;
+
+/**
+ * One scripted player. It connects with the same GameClient and services as
+ * the real client, so the server does the same work for it, and it consumes
+ * the SimEthereal and ES updates like the real client does.
+ *
+ * The script flies the ship through a loop of turn and thrust phases and fires
+ * the guns now and then. Inputs are sent as InputFrames like the real client
+ * sends them, with a new sequence number every time. The server acknowledges
+ * the input its physics used through GameSessionListener.inputConsumed(), the
+ * time between sending an input and its acknowledgement is the input-to-physics
+ * latency.
+ *
+ * @author Asser
+ */
+public class SyntheticClient {
+
+    static Logger log = LoggerFactory.getLogger(SyntheticClient.class);
+
+    /**
+     * Turn and thrust per script phase, the ship flies a rough figure eight.
+     */
+    private static final double[][] SCRIPT = { { 0, 1 }, { 1, 1 }, { 0, 1 }, { -1, 1 }, { 0, 0 }, { 0, -1 } };
+
+    /**
+     * How long one script phase lasts.
+     */
+    private static final long PHASE_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    /**
+     * Inputs that have not come back after this long are counted as lost.
+     */
+    private static final long LOST_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final int index;
+    private final String host;
+    private final int port;
+    private final double fireRate;
+    private final LoadStats stats;
+    private final Random random;
+
+    private GameClient client;
+    private GameSessionClientService session;
+    private EntityId avatar;
+    private final Vec3d viewLocation = new Vec3d();
+    private final Quatd viewRotation = new Quatd();
+
+    // The newest inputs, newest first, and the number of them sent so far
+    private final int[] inputs = new int[InputFrames.REDUNDANCY];
+    private int sentInputs;
+    private short sequence;
+
+    private final ArrayDeque<Sent> pending = new ArrayDeque<>();
+    private long start;
+
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private volatile boolean connected;
+
+    public SyntheticClient(final int index, final String host, final int port, final double fireRate,
+            final LoadStats stats) {
+        this.index = index;
+        this.host = host;
+        this.port = port;
+        this.fireRate = fireRate;
+        this.stats = stats;
+        this.random = new Random(index);
+    }
+
+    /**
+     * Connects and waits until the game session is up.
+     */
+    public void connect(final long timeout) throws IOException {
+        // Every channel reads through a counting connector, the extra channels
+        // are made by the factory once the main connection is up
+        final InetAddress address = InetAddress.getByName(host);
+        final Client c = new DefaultClient(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION,
+                new CountingConnector(new SocketConnector(address, port), bytesReceived),
+                new CountingConnector(new UdpConnector(address, port), bytesReceived),
+                new CountingConnector.Factory(new TcpConnectorFactory(address), bytesReceived));
+        client = new GameClient(c);
+        c.addMessageListener(new MessageCounter());
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        c.addClientStateListener(new ClientStateListener() {
+            @Override
+            public void clientConnected(final Client source) {
+                ready.countDown();
+            }
+
+            @Override
+            public void clientDisconnected(final Client source, final DisconnectInfo info) {
+                if (connected) {
+                    log.warn("Client " + index + " disconnected:" + info);
+                }
+                connected = false;
+            }
+        });
+        client.start();
+        try {
+            if (!ready.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Client " + index + " timed out connecting");
+            }
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted connecting client " + index, e);
+        }
+
+        session = client.getService(GameSessionClientService.class);
+        avatar = session.getAvatar();
+        session.addGameSessionListener(new InputAcknowledger());
+        client.getService(EtherealClient.class).addObjectListener(new AvatarTracker());
+
+        start = System.nanoTime();
+        connected = true;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Sends the input for this moment of the script, called at the input rate.
+     */
+    public void sendInput() {
+        if (!connected) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final double[] phase = SCRIPT[(int) (((now - start) / PHASE_NANOS + index) % SCRIPT.length)];
+
+        // Every send is a new input so that every one is acknowledged
+        System.arraycopy(inputs, 0, inputs, 1, inputs.length - 1);
+        inputs[0] = InputFrames.pack(phase[0], phase[1], MovementInput.NONE);
+        sentInputs = Math.min(sentInputs + 1, inputs.length);
+        sequence++;
+
+        synchronized (pending) {
+            pending.add(new Sent(sequence, now));
+            while (now - pending.peek().time > LOST_NANOS) {
+                pending.poll();
+                stats.recordLost();
+            }
+        }
+        session.input(new InputFrames(sequence, inputs, sentInputs));
+
+        synchronized (viewLocation) {
+            session.setView(viewRotation, viewLocation);
+        }
+    }
+
+    /**
+     * Fires the guns at the fire rate on average, called at the input rate.
+     */
+    public void maybeFire(final double inputRate) {
+        if (connected && random.nextDouble() < fireRate / inputRate) {
+            session.attack(AttackSystem.GUN);
+        }
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    public void close() {
+        connected = false;
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private static class Sent {
+        private final short sequence;
+        private final long time;
+
+        Sent(final short sequence, final long time) {
+            this.sequence = sequence;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Measures the latency of the inputs the server acknowledges. The server
+     * only acknowledges the last of several inputs used during a tick and
+     * drops inputs when the client gets too far ahead, the ones before the
+     * acknowledged input are counted as seen at the same time.
+     */
+    private class InputAcknowledger implements GameSessionListener {
+        @Override
+        public void setAvatar(final EntityId avatar) {
+            return;
+        }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            return;
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            return;
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            final long now = System.nanoTime();
+            synchronized (pending) {
+                // Sequence numbers wrap around, newer is a positive difference.
+                // Repeated acknowledgements find nothing older left.
+                while (!pending.isEmpty() && (short) (sequence - pending.peek().sequence) >= 0) {
+                    stats.recordLatency(now - pending.poll().time);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the messages the server sends us, the bytes are counted by the
+     * connectors.
+     */
+    private class MessageCounter implements MessageListener<Client> {
+        @Override
+        public void messageReceived(final Client source, final Message m) {
+            messagesReceived.increment();
+        }
+    }
+
+    /**
+     * Follows our own ship in the SimEthereal updates so that the view we send
+     * stays on it, just like the real client's camera.
+     */
+    private class AvatarTracker implements SharedObjectListener {
+        @Override
+        public void beginFrame(final long time) {
+            return;
+        }
+
+        @Override
+        public void objectUpdated(final SharedObject obj) {
+            final Long id = obj.getEntityId();
+            if (id != null && id.longValue() == avatar.getId()) {
+                synchronized (viewLocation) {
+                    viewLocation.set(obj.getWorldPosition());
+                    viewRotation.set(obj.getWorldRotation());
+                }
+            }
+        }
+
+        @Override
+        public void objectRemoved(final SharedObject obj) {
+            return;
+        }
+
+        @Override
+        public void endFrame() {
+            return;
+        }
+    }
+}
@@ -56,6 +56,17 @@ public class InfinityConstants {
 
     public static final int DEFAULT_PORT = 6942;
 
+    /**
+     * The port clients log in to the lobby on. The lobby also uses the next two
+     * ports for its chat and ES channels.
+     */
+    public static final int DEFAULT_LOBBY_PORT = 6930;
+
+    /**
+     * The port arena processes register with the lobby on.
+     */
+    public static final int DEFAULT_REGISTRY_PORT = 6933;
+
     /**
      * We add an extra channel on the client->server connection to send chat related
      * messages. This is its own separate TCP socket that avoids tying up the main
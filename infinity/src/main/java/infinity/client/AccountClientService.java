@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.client;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.service.AbstractClientService;
+import com.jme3.network.service.ClientServiceManager;
+import com.jme3.network.service.rmi.RmiClientService;
+
+import infinity.net.AccountSession;
+import infinity.net.AccountSessionListener;
+
+/**
+ * The client side of the account services, used to log in to the lobby and
+ * find the game server of an arena.
+ *
+ * @author Asser
+ */
+public class AccountClientService extends AbstractClientService implements AccountSession {
+
+    static Logger log = LoggerFactory.getLogger(AccountClientService.class);
+
+    private RmiClientService rmiService;
+    private AccountSession delegate;
+
+    private final AccountCallback sessionCallback = new AccountCallback();
+    private final List<AccountSessionListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String getServerInfo() {
+        return getDelegate().getServerInfo();
+    }
+
+    @Override
+    public void login(final String playerName) {
+        getDelegate().login(playerName);
+    }
+
+    @Override
+    public void joinArena(final String arenaId) {
+        getDelegate().joinArena(arenaId);
+    }
+
+    private AccountSession getDelegate() {
+        // Looked up lazily for the same reasons as in GameSessionClientService
+        if (delegate == null) {
+            delegate = rmiService.getRemoteObject(AccountSession.class);
+            log.debug("delegate:" + delegate);
+            if (delegate == null) {
+                throw new RuntimeException("No account session found");
+            }
+        }
+        return delegate;
+    }
+
+    /**
+     * Adds a listener that will be notified about account-related events. Note that
+     * these listeners are called on the networking thread.
+     */
+    public void addAccountSessionListener(final AccountSessionListener l) {
+        listeners.add(l);
+    }
+
+    public void removeAccountSessionListener(final AccountSessionListener l) {
+        listeners.remove(l);
+    }
+
+    @Override
+    protected void onInitialize(final ClientServiceManager s) {
+        rmiService = getService(RmiClientService.class);
+        if (rmiService == null) {
+            throw new RuntimeException("AccountClientService requires RMI service");
+        }
+        rmiService.share(sessionCallback, AccountSessionListener.class);
+    }
+
+    /**
+     * Shared with the server over RMI so that it can notify us about account
+     * related stuff.
+     */
+    private class AccountCallback implements AccountSessionListener {
+
+        @Override
+        public void notifyLoginStatus(final boolean loggedIn) {
+            log.info("notifyLoginStatus(" + loggedIn + ")");
+            for (final AccountSessionListener l : listeners) {
+                l.notifyLoginStatus(loggedIn);
+            }
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            log.info("redirect(" + arenaId + ", " + host + ", " + port + ")");
+            for (final AccountSessionListener l : listeners) {
+                l.redirect(arenaId, host, port);
+            }
+        }
+    }
+}
@@ -19,11 +19,10 @@ import com.simsilica.lemur.input.FunctionId;
 import com.simsilica.lemur.input.InputMapper;
 import com.simsilica.lemur.input.InputState;
 import com.simsilica.lemur.input.StateFunctionListener;
-import com.simsilica.mathd.Quatd;
-import com.simsilica.mathd.Vec3d;
 
 import infinity.es.input.MovementInput;
 import infinity.net.GameSession;
+import infinity.net.InputFrames;
 import infinity.systems.ActionSystem;
 import infinity.systems.AttackSystem;
 import infinity.systems.AvatarSystem;
@@ -34,9 +33,10 @@ import infinity.systems.AvatarSystem;
  */
 public class AvatarMovementState extends BaseAppState implements AnalogFunctionListener, StateFunctionListener {
 
-    // private float timeSinceLastSend = 0;
-    // private final float sendFrequency = 1f / 20f; // 20 times a second, every 50
-    // ms
+    private float timeSinceLastSend = 0;
+    // Resend the current input this often even when nothing changes, so that
+    // lost packets are made up for
+    private final float keyframeInterval = 0.25f;
 
     static Logger log = LoggerFactory.getLogger(AvatarMovementState.class);
     // private MovementTarget target;
@@ -53,10 +53,12 @@ public class AvatarMovementState extends BaseAppState implements AnalogFunctionL
     private double speed = 1;
 
     private final double rotateSpeed = 1.5;
-    private final Vec3d thrust = new Vec3d(); // not a direction, just 3 values
-    private MovementInput movementInput;
-    private final Quatd facing = new Quatd();
-    private final byte flags = (byte) 0;
+    private final byte flags = MovementInput.NONE;
+
+    // The newest inputs, newest first, and the number of them sent so far
+    private final int[] inputs = new int[InputFrames.REDUNDANCY];
+    private int sentInputs;
+    private short sequence;
 
     private InputManager inputManager;
     private GameSession session;
@@ -142,38 +144,22 @@ public class AvatarMovementState extends BaseAppState implements AnalogFunctionL
 
     @Override
     public void update(final float tpf) {
-        // timeSinceLastSend += tpf;
-
-        // if (timeSinceLastSend > sendFrequency) {
-
-        thrust.x = (float) (rotate * rotateSpeed);
-        // thrust.y is left out because y is the upwards axis
-        thrust.z = (float) (forward * speed); // Z is forward
-
-        movementInput = new MovementInput(thrust, facing, flags);
-
-        // TODO: Figure out a way to only send when we are pressing keys
-        // if (thrust.x != 0.0 || thrust.y != 0.0) {
-        session.move(movementInput);
-        // }
-
-        // timeSinceLastSend = 0;
-
-        /*
-         * if (this.entity.getId().getId() == watchedAvatar.getId().getId()) {
-         *
-         * Quatd cameraRotation = new
-         * Quatd(getApplication().getCamera().getRotation().clone()); Vec3d
-         * avatarWorldTranslation = new
-         * Vec3d(model.spatial.getWorldTranslation().clone());
-         *
-         * gameSession.setView(cameraRotation, avatarWorldTranslation);
-         *
-         * Vector3f cameraWorldTranslation = new Vec3d(avatarWorldTranslation).add(0,
-         * 40, 0).toVector3f();
-         * getState(WorldViewState.class).setViewLocation(cameraWorldTranslation); }
-         */
-        // }
+        timeSinceLastSend += tpf;
+
+        // thrust.y is left out because y is the upwards axis, z is forward
+        final int input = InputFrames.pack(rotate * rotateSpeed, forward * speed, flags);
+        if (input != inputs[0]) {
+            // A new input, it goes in front of the ones we repeat
+            System.arraycopy(inputs, 0, inputs, 1, inputs.length - 1);
+            inputs[0] = input;
+            sequence++;
+            sentInputs = Math.min(sentInputs + 1, inputs.length);
+        } else if (timeSinceLastSend < keyframeInterval || sentInputs == 0) {
+            // Nothing changed and the server was told recently enough
+            return;
+        }
+        session.input(new InputFrames(sequence, inputs, sentInputs));
+        timeSinceLastSend = 0;
     }
 
     @Override
@@ -260,6 +246,20 @@ public class AvatarMovementState extends BaseAppState implements AnalogFunctionL
         // this.target = target;
     }
 
+    /**
+     * @return the packed input the player is giving right now
+     */
+    public int getInput() {
+        return inputs[0];
+    }
+
+    /**
+     * @return the sequence number the current input was sent with
+     */
+    public short getSequence() {
+        return sequence;
+    }
+
     void setSession(final GameSession session) {
         this.session = session;
     }
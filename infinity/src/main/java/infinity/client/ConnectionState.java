@@ -53,6 +53,7 @@ import com.jme3.network.ErrorListener;
 import com.jme3.network.service.ClientService;
 
 import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
 import com.simsilica.es.client.EntityDataClientService;
 import com.simsilica.ethereal.EtherealClient;
 import com.simsilica.ethereal.TimeSource;
@@ -63,6 +64,10 @@ import com.simsilica.lemur.OptionPanel;
 import com.simsilica.lemur.OptionPanelState;
 import com.simsilica.state.CompositeAppState;
 
+import infinity.net.AudioEvents;
+import infinity.net.GameSessionListener;
+import infinity.sim.CoreGameConstants;
+
 //import com.simsilica.demo.net.AccountSessionListener;
 //import com.simsilica.demo.client.AccountClientService;
 ////import com.simsilica.demo.view.GameSessionState;
@@ -77,14 +82,21 @@ public class ConnectionState extends CompositeAppState {
 
     static Logger log = LoggerFactory.getLogger(ConnectionState.class);
 
+    /**
+     * How long we wait for the lobby to place us, in milliseconds.
+     */
+    private static final long LOBBY_TIMEOUT = 10000;
+
     private final AppState parent;
 
-    private final String host;
-    private final int port;
+    private String host;
+    private int port;
     private final boolean autoLogin;
+    private boolean viaLobby;
 
     private GameClient client;
     private final ConnectionObserver connectionObserver = new ConnectionObserver();
+    private final RedirectObserver redirectObserver = new RedirectObserver();
     private Connector connector;
     private Thread renderThread;
 
@@ -97,10 +109,20 @@ public class ConnectionState extends CompositeAppState {
     }
 
     public ConnectionState(final AppState parent, final String host, final int port, final boolean autoLogin) {
+        this(parent, host, port, autoLogin, false);
+    }
+
+    /**
+     * @param viaLobby true if host and port are those of a lobby that sends us on
+     *                 to the game server of the default arena
+     */
+    public ConnectionState(final AppState parent, final String host, final int port, final boolean autoLogin,
+            final boolean viaLobby) {
         this.parent = parent;
         this.host = host;
         this.port = port;
         this.autoLogin = autoLogin;
+        this.viaLobby = viaLobby;
     }
 
     public int getClientId() {
@@ -256,6 +278,8 @@ public class ConnectionState extends CompositeAppState {
     protected void onConnected() {
         log.info("onConnected()");
 
+        getService(GameSessionClientService.class).addGameSessionListener(redirectObserver);
+
         EventBus.publish(ClientEvent.clientConnected, new ClientEvent());
 
         closeConnectingPanel();
@@ -276,8 +300,44 @@ public class ConnectionState extends CompositeAppState {
         }
     }
 
-    protected void onDisconnected(final DisconnectInfo info) {
+    /**
+     * Drops the current connection and connects to another game server, the
+     * game session is rebuilt once the new connection is up.
+     */
+    protected void onRedirect(final String arenaId, final String newHost, final int newPort) {
+        log.info("onRedirect(" + arenaId + ", " + newHost + ", " + newPort + ")");
+
+        final GameSessionState session = getState(GameSessionState.class);
+        if (session != null) {
+            getStateManager().detach(session);
+        }
+
+        // Forget the client first so that its disconnect is not mistaken
+        // for losing the connection
+        final GameClient old = client;
+        client = null;
+        if (old != null) {
+            old.close();
+        }
+
+        if (newHost != null) {
+            host = newHost;
+        }
+        port = newPort;
+
+        connectingPanel = new OptionPanel("Joining " + arenaId + "...", new ExitAction("Cancel", true));
+        getState(OptionPanelState.class).show(connectingPanel);
+
+        connector = new Connector();
+        connector.start();
+    }
+
+    protected void onDisconnected(final Client c, final DisconnectInfo info) {
         log.info("onDisconnected(" + info + ")");
+        if (client == null || client.getClient() != c) {
+            // A client we already let go of when redirecting
+            return;
+        }
         EventBus.publish(ClientEvent.clientDisconnected, new ClientEvent());
         closeConnectingPanel();
         if (!closing) {
@@ -331,7 +391,7 @@ public class ConnectionState extends CompositeAppState {
             getApplication().enqueue(new Callable<>() {
                 @Override
                 public Object call() {
-                    onDisconnected(info);
+                    onDisconnected(c, info);
                     return null;
                 }
             });
@@ -344,6 +404,34 @@ public class ConnectionState extends CompositeAppState {
         }
     }
 
+    private class RedirectObserver implements GameSessionListener {
+        @Override
+        public void setAvatar(final EntityId avatar) {
+            return;
+        }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            return;
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String newHost, final int newPort) {
+            getApplication().enqueue(new Callable<>() {
+                @Override
+                public Object call() {
+                    onRedirect(arenaId, newHost, newPort);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            return;
+        }
+    }
+
     // private class AccountObserver implements AccountSessionListener {
     //
     // public void notifyLoginStatus( final boolean loggedIn ) {
@@ -366,6 +454,14 @@ public class ConnectionState extends CompositeAppState {
         public void run() {
 
             try {
+                if (viaLobby) {
+                    final LobbyClient lobby = new LobbyClient(host, port);
+                    lobby.join(System.getProperty("user.name"), CoreGameConstants.DEFAULTARENAID, LOBBY_TIMEOUT);
+                    host = lobby.getArenaHost();
+                    port = lobby.getArenaPort();
+                    // Redirects after this go straight to the game servers
+                    viaLobby = false;
+                }
                 log.info("Creating game client for:" + host + " " + port);
                 final GameClient c = new GameClient(host, port);
                 if (closing) {
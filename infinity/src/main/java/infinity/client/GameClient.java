@@ -71,8 +71,15 @@ public class GameClient {
     private final EntityData ed;
 
     public GameClient(final String host, final int port) throws IOException {
-        log.info("Connecting to:" + host + " " + port);
-        client = Network.connectToServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, host, port);
+        this(connect(host, port));
+    }
+
+    /**
+     * Sets up the services on a client that is connected but not started, for
+     * callers that build the client's connectors themselves.
+     */
+    public GameClient(final Client client) {
+        this.client = client;
 
         // client.addMessageListener(new MessageDebugger());
 
@@ -91,6 +98,11 @@ public class GameClient {
         ed = client.getServices().getService(EntityDataClientService.class).getEntityData();
     }
 
+    private static Client connect(final String host, final int port) throws IOException {
+        log.info("Connecting to:" + host + " " + port);
+        return Network.connectToServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, host, port);
+    }
+
     public TimeSource getTimeSource() {
         return client.getServices().getService(EtherealClient.class).getTimeSource();
     }
@@ -50,7 +50,9 @@ import com.simsilica.mathd.Quatd;
 import com.simsilica.mathd.Vec3d;
 
 import infinity.es.input.MovementInput;
+import infinity.net.AudioEvents;
 import infinity.net.GameSession;
+import infinity.net.InputFrames;
 import infinity.net.GameSessionListener;
 
 /**
@@ -149,6 +151,11 @@ public class GameSessionClientService extends AbstractClientService implements G
         getDelegate().move(movementForces);
     }
 
+    @Override
+    public void input(final InputFrames frames) {
+        getDelegate().input(frames);
+    }
+
     @Override
     public EntityId getPlayer() {
         return getDelegate().getPlayer();
@@ -179,6 +186,11 @@ public class GameSessionClientService extends AbstractClientService implements G
         getDelegate().map(mapInput, coords);
     }
 
+    @Override
+    public void joinArena(final String arenaId) {
+        getDelegate().joinArena(arenaId);
+    }
+
     /**
      * Shared with the server over RMI so that it can notify us about account
      * related stuff.
@@ -193,5 +205,27 @@ public class GameSessionClientService extends AbstractClientService implements G
                 l.setAvatar(avatar);
             }
         }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            for (final GameSessionListener l : listeners) {
+                l.playAudio(events);
+            }
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            log.info("redirect(" + arenaId + ", " + host + ", " + port + ")");
+            for (final GameSessionListener l : listeners) {
+                l.redirect(arenaId, host, port);
+            }
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            for (final GameSessionListener l : listeners) {
+                l.inputConsumed(sequence, time);
+            }
+        }
     }
 }
@@ -76,7 +76,7 @@ public class GameSessionState extends CompositeAppState {
     // private final boolean hostIsLocal = false;
 
     public GameSessionState() {
-        super(new AvatarMovementState(), new CameraState(),
+        super(new AvatarMovementState(), new PredictionState(), new CameraState(),
                 // new LightingState(),
                 new TimeState(), // Has to be before any visuals that might need it.
                 new SkyState(),
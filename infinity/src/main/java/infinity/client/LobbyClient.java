@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.client;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.Client;
+import com.jme3.network.ClientStateListener;
+import com.jme3.network.Network;
+import com.jme3.network.service.rmi.RmiClientService;
+import com.jme3.network.service.rpc.RpcClientService;
+
+import infinity.InfinityConstants;
+import infinity.net.AccountSessionListener;
+import infinity.sim.CoreGameConstants;
+
+/**
+ * Logs in to the lobby and asks it which game server runs an arena. This only
+ * uses a short lived connection, the game itself is played on a GameClient
+ * connected to the host and port the lobby answers with.
+ *
+ * @author Asser
+ */
+public class LobbyClient {
+
+    static Logger log = LoggerFactory.getLogger(LobbyClient.class);
+
+    private final String lobbyHost;
+    private final int lobbyPort;
+
+    private volatile String arenaHost;
+    private volatile int arenaPort = -1;
+
+    public LobbyClient(final String lobbyHost, final int lobbyPort) {
+        this.lobbyHost = lobbyHost;
+        this.lobbyPort = lobbyPort;
+    }
+
+    /**
+     * Logs in and joins the arena, blocking until the lobby has answered.
+     *
+     * @param timeout how long to wait for the lobby in milliseconds
+     * @throws IOException if the lobby can not be reached, does not answer in time
+     *                     or has no game server for the arena
+     */
+    public void join(final String playerName, final String arenaId, final long timeout) throws IOException {
+        log.info("Joining " + arenaId + " through lobby " + lobbyHost + ":" + lobbyPort);
+        final Client client = Network.connectToServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION,
+                lobbyHost, lobbyPort);
+        final AccountClientService accounts = new AccountClientService();
+        client.getServices().addServices(new RpcClientService(), new RmiClientService(), accounts);
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch answered = new CountDownLatch(1);
+        client.addClientStateListener(new ClientStateListener() {
+            @Override
+            public void clientConnected(final Client c) {
+                connected.countDown();
+            }
+
+            @Override
+            public void clientDisconnected(final Client c, final DisconnectInfo info) {
+                answered.countDown();
+            }
+        });
+        accounts.addAccountSessionListener(new AccountSessionListener() {
+            @Override
+            public void notifyLoginStatus(final boolean loggedIn) {
+                if (loggedIn) {
+                    accounts.joinArena(arenaId);
+                } else {
+                    answered.countDown();
+                }
+            }
+
+            @Override
+            public void redirect(final String id, final String host, final int port) {
+                arenaHost = host == null ? lobbyHost : host;
+                arenaPort = port;
+                answered.countDown();
+            }
+        });
+
+        client.start();
+        try {
+            if (!connected.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out connecting to lobby " + lobbyHost + ":" + lobbyPort);
+            }
+            accounts.login(playerName);
+            if (!answered.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for the lobby to place us in " + arenaId);
+            }
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted joining " + arenaId, e);
+        } finally {
+            if (client.isStarted()) {
+                client.close();
+            }
+        }
+        if (arenaPort < 0) {
+            throw new IOException("The lobby has no game server for " + arenaId);
+        }
+        log.info("Lobby sent us to " + arenaHost + ":" + arenaPort);
+    }
+
+    /**
+     * @return the host of the game server from the last join()
+     */
+    public String getArenaHost() {
+        return arenaHost;
+    }
+
+    /**
+     * @return the port of the game server from the last join()
+     */
+    public int getArenaPort() {
+        return arenaPort;
+    }
+
+    /**
+     * Asks a lobby for an arena and prints where it sent us, to check a lobby
+     * setup without starting the game.
+     */
+    public static void main(final String... args) throws Exception {
+        String host = "127.0.0.1";
+        int port = InfinityConstants.DEFAULT_LOBBY_PORT;
+        String arena = CoreGameConstants.DEFAULTARENAID;
+        for (int i = 0; i < args.length; i++) {
+            if ("-host".equals(args[i])) {
+                host = args[++i];
+            } else if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-arena".equals(args[i])) {
+                arena = args[++i];
+            }
+        }
+        final LobbyClient lobby = new LobbyClient(host, port);
+        lobby.join(System.getProperty("user.name"), arena, 10000);
+        System.out.println(arena + " is on " + lobby.getArenaHost() + ":" + lobby.getArenaPort());
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.EtherealClient;
+import com.simsilica.ethereal.SharedObject;
+import com.simsilica.ethereal.SharedObjectListener;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.net.AudioEvents;
+import infinity.net.GameSessionListener;
+import infinity.sim.ShipMotion;
+
+/**
+ * Predicts where the player's own ship is, so that the ship answers the
+ * controls right away instead of a round trip later. The inputs from
+ * AvatarMovementState are run through the same ShipMotion model the server
+ * uses, one physics step at a time, and every step is kept for a couple of
+ * seconds.
+ *
+ * The server tells which input its physics used last and in which step. When a
+ * SimEthereal frame for the ship arrives, that is used to find the local step
+ * that matches the frame. The step is reset to the server's position and the
+ * inputs since are replayed on top of it. The ship is drawn with the difference
+ * from before the correction fading out, so it does not jump.
+ *
+ * @author Asser
+ */
+public class PredictionState extends BaseAppState {
+
+    static Logger log = LoggerFactory.getLogger(PredictionState.class);
+
+    // A power of two, a bit over two seconds of steps
+    private static final int HISTORY = 128;
+
+    /**
+     * The most steps run in one frame, a long stall is not caught up.
+     */
+    private static final int MAX_STEPS = 10;
+
+    /**
+     * Errors smaller than this are left alone.
+     */
+    private static final double TOLERANCE = 0.01;
+
+    /**
+     * The part of a correction that is still shown after one second.
+     */
+    private static final double CORRECTION_FADE = 0.001;
+
+    private final ConcurrentLinkedQueue<Sample> samples = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<long[]> acks = new ConcurrentLinkedQueue<>();
+    private final ObjectObserver objectObserver = new ObjectObserver();
+    private final InputObserver inputObserver = new InputObserver();
+
+    private AvatarMovementState movement;
+    private GameSessionClientService session;
+    private EtherealClient ethereal;
+    private volatile long avatarId = -1;
+
+    private final ShipMotion motion = new ShipMotion();
+    private final ShipMotion[] states = new ShipMotion[HISTORY];
+    private final int[] inputs = new int[HISTORY];
+    private final short[] sequences = new short[HISTORY];
+    // The number of steps run so far, step n is kept at n modulo HISTORY
+    private long steps;
+    private double accumulated;
+    private boolean predicting;
+
+    private short ackSequence;
+    private long ackTime = -1;
+
+    private final Vec3d offset = new Vec3d();
+    private final Vec3d before = new Vec3d();
+
+    public PredictionState() {
+        for (int i = 0; i < HISTORY; i++) {
+            states[i] = new ShipMotion();
+        }
+    }
+
+    @Override
+    protected void initialize(final Application app) {
+        movement = getState(AvatarMovementState.class);
+        session = getState(ConnectionState.class).getService(GameSessionClientService.class);
+        ethereal = getState(ConnectionState.class).getService(EtherealClient.class);
+    }
+
+    @Override
+    protected void cleanup(final Application app) {
+        return;
+    }
+
+    @Override
+    protected void onEnable() {
+        final EntityId avatar = session.getAvatar();
+        avatarId = avatar == null ? -1 : avatar.getId();
+        predicting = false;
+        samples.clear();
+        acks.clear();
+        ackTime = -1;
+        offset.set(0, 0, 0);
+        ethereal.addObjectListener(objectObserver);
+        session.addGameSessionListener(inputObserver);
+    }
+
+    @Override
+    protected void onDisable() {
+        ethereal.removeObjectListener(objectObserver);
+        session.removeGameSessionListener(inputObserver);
+        predicting = false;
+    }
+
+    /**
+     * @return true once the ship's position is known and being predicted
+     */
+    public boolean isPredicting() {
+        return predicting;
+    }
+
+    /**
+     * @return the predicted position with what is left of the last correction
+     */
+    public Vec3d getPosition(final Vec3d store) {
+        return store.set(motion.getPosition()).addLocal(offset);
+    }
+
+    public Quatd getOrientation() {
+        return motion.getOrientation();
+    }
+
+    @Override
+    public void update(final float tpf) {
+        long[] ack;
+        while ((ack = acks.poll()) != null) {
+            // Unreliable, so an older one can come in last
+            if (ack[1] > ackTime) {
+                ackSequence = (short) ack[0];
+                ackTime = ack[1];
+            }
+        }
+
+        Sample sample;
+        Sample newest = null;
+        while ((sample = samples.poll()) != null) {
+            newest = sample;
+        }
+        if (newest != null) {
+            if (!predicting) {
+                motion.set(newest.position, newest.orientation);
+                predicting = true;
+            } else {
+                reconcile(newest);
+            }
+        }
+        if (!predicting) {
+            return;
+        }
+
+        accumulated += tpf;
+        int count = 0;
+        while (accumulated >= ShipMotion.STEP && count++ < MAX_STEPS) {
+            accumulated -= ShipMotion.STEP;
+            final int input = movement.getInput();
+            motion.step(input, ShipMotion.STEP);
+
+            final int index = (int) (steps & (HISTORY - 1));
+            inputs[index] = input;
+            sequences[index] = movement.getSequence();
+            states[index].set(motion);
+            steps++;
+        }
+        if (count > MAX_STEPS) {
+            accumulated = 0;
+        }
+
+        offset.multLocal(Math.pow(CORRECTION_FADE, tpf));
+    }
+
+    /**
+     * Lines the server frame up with a local step, resets that step to the
+     * server's position and replays the inputs since.
+     */
+    private void reconcile(final Sample sample) {
+        if (ackTime < 0 || sample.time < ackTime) {
+            // Nothing to line the frame up with yet
+            return;
+        }
+        final long oldest = Math.max(0, steps - HISTORY);
+
+        // The first local step that used the input the server used last
+        long first = -1;
+        for (long n = steps - 1; n >= oldest; n--) {
+            final short s = sequences[(int) (n & (HISTORY - 1))];
+            if (s == ackSequence) {
+                first = n;
+            } else if (first >= 0 || (short) (s - ackSequence) < 0) {
+                break;
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+
+        final long step = first + (sample.time - ackTime) / ShipMotion.STEP_NANOS;
+        if (step >= steps) {
+            return;
+        }
+        final ShipMotion state = states[(int) (step & (HISTORY - 1))];
+        if (state.getPosition().distanceSq(sample.position) < TOLERANCE * TOLERANCE) {
+            return;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Correcting step " + step + " from:" + state.getPosition() + " to:" + sample.position);
+        }
+
+        getPosition(before);
+        state.set(sample.position, sample.orientation);
+        motion.set(state);
+        for (long n = step + 1; n < steps; n++) {
+            final int index = (int) (n & (HISTORY - 1));
+            motion.step(inputs[index], ShipMotion.STEP);
+            states[index].set(motion);
+        }
+        // Keep drawing the ship where it was and fade the difference out
+        offset.set(before).subtractLocal(motion.getPosition());
+    }
+
+    private static class Sample {
+        private final long time;
+        private final Vec3d position;
+        private final Quatd orientation;
+
+        Sample(final long time, final Vec3d position, final Quatd orientation) {
+            this.time = time;
+            this.position = position;
+            this.orientation = orientation;
+        }
+    }
+
+    /**
+     * Picks the ship's frames out of the SimEthereal updates, on the network
+     * thread.
+     */
+    private class ObjectObserver implements SharedObjectListener {
+        private long frameTime;
+
+        @Override
+        public void beginFrame(final long time) {
+            frameTime = time;
+        }
+
+        @Override
+        public void objectUpdated(final SharedObject obj) {
+            final Long id = obj.getEntityId();
+            if (id != null && id.longValue() == avatarId) {
+                samples.add(new Sample(frameTime, new Vec3d(obj.getWorldPosition()),
+                        new Quatd(obj.getWorldRotation())));
+            }
+        }
+
+        @Override
+        public void objectRemoved(final SharedObject obj) {
+            return;
+        }
+
+        @Override
+        public void endFrame() {
+            return;
+        }
+    }
+
+    private class InputObserver implements GameSessionListener {
+
+        @Override
+        public void setAvatar(final EntityId avatar) {
+            avatarId = avatar.getId();
+        }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            return;
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            return;
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            acks.add(new long[] { sequence, time });
+        }
+    }
+}
@@ -44,4 +44,12 @@ public interface AudioFactory {
 
     AudioNode createAudio(Entity e);
 
+    /**
+     * Creates the audio for one of the AudioTypes names
+     *
+     * @param audioType the audio type name
+     * @return the audio node
+     */
+    AudioNode createAudio(String audioType);
+
 }
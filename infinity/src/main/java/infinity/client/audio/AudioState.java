@@ -27,6 +27,7 @@ package infinity.client.audio;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,11 +46,16 @@ import com.simsilica.es.EntityContainer;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 
+import com.simsilica.mathd.Vec3d;
+
 import infinity.client.ConnectionState;
+import infinity.client.GameSessionClientService;
 import infinity.es.AudioType;
 import infinity.es.AudioTypes;
 import infinity.es.BodyPosition;
 import infinity.es.Parent;
+import infinity.net.AudioEvents;
+import infinity.net.GameSessionListener;
 
 /**
  *
@@ -72,6 +78,14 @@ public class AudioState extends BaseAppState {
     private Map<EntityId, AudioNode> soundIndex = new HashMap<>();
     private Node soundRoot;
 
+    // Sounds that arrive as audio events instead of entities. They come in on
+    // the networking thread and are played on the next update.
+    private GameSessionClientService session;
+    private final AudioEventObserver audioEventObserver = new AudioEventObserver();
+    private final ConcurrentLinkedQueue<AudioEvents> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, AudioNode> eventNodes = new HashMap<>();
+    private final Vec3d eventPos = new Vec3d();
+
     // private long time;
 
     public AudioState(final SIAudioFactory factory) {
@@ -85,6 +99,7 @@ public class AudioState extends BaseAppState {
         factory.setState(this);
         // timeState = getState(TimeState.class);
         ed = getState(ConnectionState.class).getEntityData();
+        session = getState(ConnectionState.class).getService(GameSessionClientService.class);
 
         // This state just needs to know which sounds to play and where to play them
         // audio = ed.getEntities(AudioType.class, BodyPosition.class);
@@ -110,11 +125,16 @@ public class AudioState extends BaseAppState {
         sounds = new AudioContainer(ed);
         sounds.start();
 
+        session.addGameSessionListener(audioEventObserver);
+
         ((SimpleApplication) getApplication()).getRootNode().attachChild(soundRoot);
     }
 
     @Override
     protected void onDisable() {
+        session.removeGameSessionListener(audioEventObserver);
+        pendingEvents.clear();
+
         sounds.stop();
         sounds = null;
     }
@@ -129,6 +149,57 @@ public class AudioState extends BaseAppState {
         // time = timeState.getTime();
 
         sounds.update();
+
+        AudioEvents events;
+        while ((events = pendingEvents.poll()) != null) {
+            playEvents(events);
+        }
+    }
+
+    protected void playEvents(final AudioEvents events) {
+        for (int i = 0; i < events.size(); i++) {
+            final int type = events.getType(i);
+
+            // One node per audio type, overlapping sounds are played as instances
+            AudioNode node = eventNodes.get(type);
+            if (node == null) {
+                node = factory.createAudio(ed.getStrings().getString(type));
+                eventNodes.put(type, node);
+                soundRoot.attachChild(node);
+            }
+
+            events.getPosition(i, eventPos);
+            node.setLocalTranslation((float) eventPos.x, (float) eventPos.y, (float) eventPos.z);
+            // playInstance() uses the world position, so it has to be current
+            node.updateGeometricState();
+            node.playInstance();
+        }
+    }
+
+    /**
+     * Queues the audio events sent by the server for the render thread.
+     */
+    private class AudioEventObserver implements GameSessionListener {
+
+        @Override
+        public void setAvatar(final EntityId avatar) {
+            return;
+        }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            pendingEvents.add(events);
+        }
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            return;
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            return;
+        }
     }
 
     /**
@@ -220,6 +220,11 @@ public class InfinityBlockGeometryIndex {
         final Node result = target;
         result.detachAllChildren();
 
+        // Empty leaves don't carry a cell array at all
+        if (cells == null) {
+            return result;
+        }
+
         final DefaultPartBuffer buffer = new DefaultPartBuffer();
 
         final int xSize = cells.getSizeX();
@@ -89,6 +89,7 @@ import com.simsilica.state.DebugHudState;
 import infinity.InfinityConstants;
 import infinity.client.ConnectionState;
 import infinity.client.GameSessionClientService;
+import infinity.client.PredictionState;
 import infinity.es.BodyPosition;
 import infinity.es.LargeGridCell;
 import infinity.es.LargeObject;
@@ -142,6 +143,8 @@ public class ModelViewState extends BaseAppState {
     // private Spatial avatarSpatial;
     private TransitionBuffer<PositionTransition3d> avatarBuffer;
     private Vector3f avatarPos;
+    private PredictionState prediction;
+    private final Vec3d predicted = new Vec3d();
 
     {
         testCoords.add(new Vector4f(0, 64, 0, 0.5f));
@@ -354,6 +357,7 @@ public class ModelViewState extends BaseAppState {
         models.start();
         largeModels.start();
         gameSession = getState(ConnectionState.class).getService(GameSessionClientService.class);
+        prediction = getState(PredictionState.class);
     }
 
     @Override
@@ -839,7 +843,18 @@ public class ModelViewState extends BaseAppState {
             // span of time that contains the time we want. PositionTransition3d
             // represents a starting and an ending pos+rot over a span of time.
             final PositionTransition3d trans = buffer.getTransition(time);
-            if (trans != null) {
+            if (isAvatar && prediction != null && prediction.isEnabled() && prediction.isPredicting()) {
+                // Our own ship is drawn where we predict it to be instead of
+                // where the server was a round trip ago
+                final Vector3f p = prediction.getPosition(predicted).toVector3f();
+                p.subtractLocal(centerCellWorld);
+                model.spatial.setLocalTranslation(p);
+                model.spatial.setLocalRotation(prediction.getOrientation().toQuaternion());
+                if (trans != null) {
+                    setVisible(trans.getVisibility(time));
+                }
+                updateAvatarView(p);
+            } else if (trans != null) {
                 final Vector3f p = trans.getPosition(time, true).toVector3f();
 
                 // Make the position relative to our "conveyor"
@@ -850,21 +865,25 @@ public class ModelViewState extends BaseAppState {
                 setVisible(trans.getVisibility(time));
 
                 if (isAvatar) {
-                    final Vector3f avatarWorldPos = model.spatial.getWorldTranslation();
-                    getApplication().getCamera().setLocation(avatarWorldPos.add(0, 40, 0));
-                    getApplication().getCamera().lookAt(avatarWorldPos, Vector3f.UNIT_Y);
-
-                    getState(WorldViewState.class).setViewLocation(p.clone().addLocal(centerCellWorld));
-                    //gameSession.setView(new Quatd(getApplication().getCamera().getRotation()),
-                    //        new Vec3d(getApplication().getCamera().getLocation()));
-
-                    gameSession.setView(new Quatd(model.spatial.getLocalRotation()), new Vec3d(model.spatial.getLocalTranslation()));
-                    //log.debug("Mob[" + entity.getId() + "] LOCAL: position:" + model.spatial.getLocalTranslation() +", rotation:"+ model.spatial.getLocalRotation());
-                    //log.debug("Mob[" + entity.getId() + "] WORLD: position:" + model.spatial.getWorldTranslation() +", rotation:"+ model.spatial.getWorldRotation());
+                    updateAvatarView(p);
                 }
             }
         }
 
+        private void updateAvatarView(final Vector3f p) {
+            final Vector3f avatarWorldPos = model.spatial.getWorldTranslation();
+            getApplication().getCamera().setLocation(avatarWorldPos.add(0, 40, 0));
+            getApplication().getCamera().lookAt(avatarWorldPos, Vector3f.UNIT_Y);
+
+            getState(WorldViewState.class).setViewLocation(p.clone().addLocal(centerCellWorld));
+            //gameSession.setView(new Quatd(getApplication().getCamera().getRotation()),
+            //        new Vec3d(getApplication().getCamera().getLocation()));
+
+            gameSession.setView(new Quatd(model.spatial.getLocalRotation()), new Vec3d(model.spatial.getLocalTranslation()));
+            //log.debug("Mob[" + entity.getId() + "] LOCAL: position:" + model.spatial.getLocalTranslation() +", rotation:"+ model.spatial.getLocalRotation());
+            //log.debug("Mob[" + entity.getId() + "] WORLD: position:" + model.spatial.getWorldTranslation() +", rotation:"+ model.spatial.getWorldRotation());
+        }
+
         protected void setVisible(final boolean f) {
 //log.info("setVisible(" + entity.getId() + ", " + f + ")");
             if (visible == f) {
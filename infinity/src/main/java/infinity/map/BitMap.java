@@ -30,6 +30,7 @@ import java.awt.image.MemoryImageSource;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.swing.JPanel;
 
@@ -41,6 +42,7 @@ public class BitMap extends JPanel {
     public final static int BI_BITFIELDS = 3; // Bitfields
 
     private final BufferedInputStream m_stream;
+    private final ByteBuffer m_buffer;
 
     private byte[] fileHeader;
     private byte[] infoHeader;
@@ -65,6 +67,19 @@ public class BitMap extends JPanel {
 
     public BitMap(final BufferedInputStream stream) {
         m_stream = stream;
+        m_buffer = null;
+    }
+
+    /**
+     * Reads the bitmap straight out of a buffer, such as a memory mapped .lvl
+     * file. The buffer is duplicated so the caller's position is left alone.
+     *
+     * @param buffer the buffer holding the bitmap, starting at position 0
+     */
+    public BitMap(final ByteBuffer buffer) {
+        m_stream = null;
+        m_buffer = buffer.duplicate();
+        m_buffer.rewind();
     }
 
     public void readBitMap(final boolean trans) {
@@ -219,6 +234,10 @@ public class BitMap extends JPanel {
     public byte[] readIn(final int n) {
 
         final byte[] b = new byte[n];
+        if (m_buffer != null) {
+            m_buffer.get(b, 0, Math.min(n, m_buffer.remaining()));
+            return b;
+        }
         try {
             m_stream.read(b);
             // fileData.addByteArray( b );
@@ -229,6 +248,9 @@ public class BitMap extends JPanel {
     }
 
     public int readByte() {
+        if (m_buffer != null) {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 255 : 0;
+        }
         try {
             final byte[] b = new byte[1];
             m_stream.read(b);
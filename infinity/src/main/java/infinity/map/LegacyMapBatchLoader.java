@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mblock.Direction;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+
+import infinity.server.EmptyLeafDb;
+
+/**
+ * Writes a legacy map into the world one MBlock leaf at a time instead of one
+ * cell at a time. Each leaf is built once, with the side masks of all of its
+ * tiles calculated in a single pass over the tile plane, and is stored exactly
+ * once.
+ *
+ * The work can be spread over several ticks by calling step() with a time
+ * budget until it returns true.
+ *
+ * When created from a MapCache the leaves are read back from the cache instead
+ * of being calculated. A loader working from a LevelFile can be given a
+ * MapCache.Builder to produce that cache as it goes.
+ *
+ * Only wall tiles become cells, see isWall(). The other legacy tiles (doors,
+ * flyovers, safe zones, asteroids, wormholes etc.) are not solid for ships and
+ * are left out of the leaves.
+ *
+ * Note: leaves are stored straight into the LeafDb, bypassing the World, so no
+ * CellChangeEvents are fired and the WorldHostedService does not push anything
+ * to the clients. A client that already paged in a leaf keeps its old copy
+ * until it pages the leaf in again. That is fine for the arena map, which
+ * MapSystem loads shortly after the server starts, but a map loaded into an
+ * arena that players are already looking at has to go through the World
+ * instead.
+ *
+ * @author Asser
+ */
+public class LegacyMapBatchLoader {
+
+    static Logger log = LoggerFactory.getLogger(LegacyMapBatchLoader.class);
+
+    private static final int LEAF_SIZE = LeafInfo.SIZE;
+
+    /**
+     * The cell value we currently give every legacy tile.
+     */
+    public static final int TILE_CELL_VALUE = 10;
+
+    // Legacy tile ranges, see the tile table in MapSystem
+    private static final int LAST_NORMAL_TILE = 161;
+    private static final int FIRST_ASTEROID_TILE = 216;
+    private static final int STATION_TILE = 219;
+    private static final int BORDER_TILE = 228;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int[] DIR_X = new int[DIRECTIONS.length];
+    private static final int[] DIR_Y = new int[DIRECTIONS.length];
+    private static final int[] DIR_Z = new int[DIRECTIONS.length];
+    private static final int[] DIR_MASK = new int[DIRECTIONS.length];
+
+    static {
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            final Vec3i v = DIRECTIONS[i].getVec3i();
+            DIR_X[i] = v.x;
+            DIR_Y[i] = v.y;
+            DIR_Z[i] = v.z;
+            DIR_MASK[i] = DIRECTIONS[i].getBitMask();
+        }
+    }
+
+    private final LeafDb leafDb;
+    private final LevelFile map;
+    private final MapCache cache;
+    private MapCache.Builder cacheBuilder;
+    private final int width;
+    private final int depth;
+
+    // World cell of plane x, z = 0, 0
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+
+    // Leaf coordinates covered by the map
+    private final int leafY;
+    private final int leafXStart;
+    private final int leafZStart;
+    private final int leafXCount;
+    private final int leafZCount;
+
+    private int nextLeaf;
+    private int tileCount;
+
+    /**
+     * @param leafDb      the leaf database to store the leaves in
+     * @param map         the legacy map to load
+     * @param arenaOffset where to position the map
+     */
+    public LegacyMapBatchLoader(final LeafDb leafDb, final LevelFile map, final Vec3d arenaOffset) {
+        this(leafDb, map, null, LevelFile.MAP_SIZE, Coordinates.worldToCell(arenaOffset.x),
+                Coordinates.worldToCell(arenaOffset.y), Coordinates.worldToCell(arenaOffset.z));
+    }
+
+    /**
+     * @param leafDb the leaf database to store the leaves in
+     * @param cache  the pre-baked map to load
+     */
+    public LegacyMapBatchLoader(final LeafDb leafDb, final MapCache cache) {
+        this(leafDb, null, cache, cache.getMapSize(), cache.getOriginX(), cache.getOriginY(), cache.getOriginZ());
+    }
+
+    private LegacyMapBatchLoader(final LeafDb leafDb, final LevelFile map, final MapCache cache, final int size,
+            final int originX, final int originY, final int originZ) {
+        this.leafDb = leafDb;
+        this.map = map;
+        this.cache = cache;
+        width = size;
+        depth = size;
+
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+
+        leafY = Math.floorDiv(originY, LEAF_SIZE);
+        leafXStart = Math.floorDiv(originX, LEAF_SIZE);
+        leafZStart = Math.floorDiv(originZ, LEAF_SIZE);
+        leafXCount = Math.floorDiv(originX + width - 1, LEAF_SIZE) - leafXStart + 1;
+        leafZCount = Math.floorDiv(originZ + depth - 1, LEAF_SIZE) - leafZStart + 1;
+    }
+
+    /**
+     * Collects everything this loader calculates into the builder and writes the
+     * cache once the whole map has been loaded. Only useful when loading from a
+     * LevelFile.
+     *
+     * @param cacheBuilder the builder to fill
+     */
+    public void setCacheBuilder(final MapCache.Builder cacheBuilder) {
+        this.cacheBuilder = cacheBuilder;
+    }
+
+    /**
+     * Returns the tile type at plane coordinate x, z. The legacy map is stored
+     * mirrored on both axes relative to our world.
+     */
+    private int getTile(final int x, final int z) {
+        if (x < 0 || z < 0 || x >= width || z >= depth) {
+            return 0;
+        }
+        return map.getTile(width - x - 1, depth - z - 1);
+    }
+
+    /**
+     * Returns true for the legacy tiles that ships collide with: the normal
+     * tiles (which include the border), asteroids, the space station and the
+     * internal border tile. Doors are left open since nothing opens and closes
+     * them yet.
+     *
+     * @param tile the legacy tile type
+     * @return true if the tile becomes a solid cell
+     */
+    public static boolean isWall(final int tile) {
+        return tile > 0 && tile <= LAST_NORMAL_TILE || tile >= FIRST_ASTEROID_TILE && tile <= STATION_TILE
+                || tile == BORDER_TILE;
+    }
+
+    /**
+     * Calculates the cell value, including side masks, for plane coordinate x, z.
+     */
+    private int getCellValue(final int x, final int z) {
+        if (!isWall(getTile(x, z))) {
+            return 0;
+        }
+        int sideMask = 0;
+        for (int d = 0; d < DIR_MASK.length; d++) {
+            // The arena is a single layer so up and down are always open
+            if (DIR_Y[d] != 0 || !isWall(getTile(x + DIR_X[d], z + DIR_Z[d]))) {
+                sideMask |= DIR_MASK[d];
+            }
+        }
+        return MaskUtils.setSideMask(TILE_CELL_VALUE, sideMask);
+    }
+
+    /**
+     * @return true when all leaves have been stored
+     */
+    public boolean isDone() {
+        return nextLeaf >= leafXCount * leafZCount;
+    }
+
+    /**
+     * @return the number of tiles written so far
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Builds and stores leaves until the time budget is used up. At least one
+     * leaf is processed per call.
+     *
+     * @param budgetNanos the time to spend, in nanoseconds
+     * @return true when the whole map has been loaded
+     */
+    public boolean step(final long budgetNanos) {
+        final long start = System.nanoTime();
+        while (!isDone()) {
+            final int leaf = nextLeaf++;
+            loadLeaf(leafXStart + leaf % leafXCount, leafZStart + leaf / leafXCount);
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        if (isDone()) {
+            log.info("Loaded " + tileCount + " tiles into " + (leafXCount * leafZCount) + " leaves"
+                    + (cache != null ? " from the map cache" : ""));
+            writeCache();
+            return true;
+        }
+        return false;
+    }
+
+    private void writeCache() {
+        if (cacheBuilder == null) {
+            return;
+        }
+        try {
+            cacheBuilder.write();
+        } catch (final IOException e) {
+            log.warn("Could not write the map cache", e);
+        }
+        cacheBuilder = null;
+    }
+
+    /**
+     * Loads the whole map in one go.
+     */
+    public void loadAll() {
+        step(Long.MAX_VALUE);
+    }
+
+    private void loadLeaf(final int leafX, final int leafZ) {
+        final long leafId = Coordinates.leafToLeafId(leafX, leafY, leafZ);
+        final Vec3i world = Coordinates.leafIdToWorld(leafId);
+        final LeafData existing = leafDb.loadLeaf(leafId);
+        final int layer = originY - world.y;
+
+        // Only allocated once there is something to put in it, most leaves of an
+        // arena have no tiles at all
+        CellArray cells = null;
+        int empty = LeafInfo.CELL_COUNT;
+
+        // Keep whatever the leaf already had outside of the map plane
+        if (existing != null && !existing.isEmpty()) {
+            cells = new CellArray(LEAF_SIZE);
+            for (int i = 0; i < LEAF_SIZE; i++) {
+                for (int j = 0; j < LEAF_SIZE; j++) {
+                    for (int k = 0; k < LEAF_SIZE; k++) {
+                        if (j == layer && isOnPlane(world.x + i, world.z + k)) {
+                            continue;
+                        }
+                        final int val = existing.getCell(i, j, k);
+                        if (val != 0) {
+                            cells.setCell(i, j, k, val);
+                            empty--;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (cache != null) {
+            if (cells == null && cache.getNextLeafCellCount() > 0) {
+                cells = new CellArray(LEAF_SIZE);
+            }
+            final int count = cache.readLeaf(leafId, cells);
+            empty -= count;
+            tileCount += count;
+        } else {
+            if (cacheBuilder != null) {
+                cacheBuilder.beginLeaf(leafId);
+            }
+            for (int i = 0; i < LEAF_SIZE; i++) {
+                final int x = world.x + i - originX;
+                for (int k = 0; k < LEAF_SIZE; k++) {
+                    final int z = world.z + k - originZ;
+                    final int val = getCellValue(x, z);
+                    if (val != 0) {
+                        if (cells == null) {
+                            cells = new CellArray(LEAF_SIZE);
+                        }
+                        cells.setCell(i, layer, k, val);
+                        empty--;
+                        tileCount++;
+                        if (cacheBuilder != null) {
+                            cacheBuilder.addLeafCell(i, layer, k, val);
+                        }
+                    }
+                }
+            }
+            if (cacheBuilder != null) {
+                cacheBuilder.endLeaf();
+            }
+        }
+
+        if (cells == null) {
+            leafDb.storeLeaf(EmptyLeafDb.createEmptyLeaf(leafId));
+        } else {
+            leafDb.storeLeaf(new LeafData(new LeafInfo(world, leafId), cells, empty));
+        }
+    }
+
+    private boolean isOnPlane(final int worldX, final int worldZ) {
+        final int x = worldX - originX;
+        final int z = worldZ - originZ;
+        return x >= 0 && z >= 0 && x < width && z < depth;
+    }
+}
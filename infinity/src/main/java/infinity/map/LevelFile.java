@@ -27,10 +27,13 @@ package infinity.map;
 
 import java.awt.Image;
 import java.awt.image.MemoryImageSource;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Vector;
 
 import javax.swing.JOptionPane;
@@ -40,7 +43,7 @@ public class LevelFile extends JPanel {
     private static final long serialVersionUID = -4658344536954311587L;
     public String m_file;
     private final BitMap m_bitmap;
-    private BufferedInputStream m_stream;
+    private ByteBuffer m_buffer;
     private boolean m_containsBM;
     private boolean hasELVLData;
 
@@ -51,8 +54,8 @@ public class LevelFile extends JPanel {
     // Vector of loaded regions
     public Vector<Region> loadedRegions;
 
-    // unknown ELVL chunks read in on load
-    public Vector<Byte> unknownELVLData = new Vector<>();
+    // unknown ELVL chunks read in on load, already encoded the way they are saved
+    public ByteArrayOutputStream unknownELVLData = new ByteArrayOutputStream();
 
     // the actual data we're going to save, as a Vector of Bytes... saved by
     // makeELvlDataForSaving
@@ -67,25 +70,42 @@ public class LevelFile extends JPanel {
     // private int m_compressionType;
     // private int m_colorsUsed;
 
-    private final short[][] m_level = new short[1024][1024];
+    // eLVL tags as read by a little endian getInt()
+    private static final int ELVL_TAG = 'e' | 'l' << 8 | 'v' << 16 | 'l' << 24;
+    private static final int ATTR_TAG = 'A' | 'T' << 8 | 'T' << 16 | 'R' << 24;
+    private static final int REGN_TAG = 'R' | 'E' << 8 | 'G' << 16 | 'N' << 24;
 
     /**
-     * Reads in a *.lvl file.
+     * The width and height of a level in tiles.
+     */
+    public static final int MAP_SIZE = 1024;
+
+    // One unsigned byte per tile, indexed x + y * MAP_SIZE
+    private final byte[] m_level = new byte[MAP_SIZE * MAP_SIZE];
+
+    // Lazily created copy of m_level for the callers that want short[x][y]
+    private short[][] m_map;
+
+    /**
+     * Reads in a *.lvl file. The buffer is duplicated so the caller's position
+     * is left alone, which means the same buffer can be handed to the BitMap and
+     * to the LevelFile.
      *
-     * @param bufferedStream The file to load/save to
+     * @param buffer         The contents of the file, typically memory mapped
      * @param b              The tileset bitmap (note read in default bitmap if lvl
      *                       file does not contain bitmap portion)
      * @param hasBMP         if the file has bmp information
      * @param hasELVL        if the file has the extended lvz information
      * @param file           string representation of the file (path)
      */
-    public LevelFile(final BufferedInputStream bufferedStream, final BitMap b, final boolean hasBMP,
-            final boolean hasELVL, final String file) {
+    public LevelFile(final ByteBuffer buffer, final BitMap b, final boolean hasBMP, final boolean hasELVL,
+            final String file) {
 
         m_bitmap = b;
         m_containsBM = hasBMP;
         hasELVLData = hasELVL;
-        m_stream = bufferedStream;
+        m_buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        m_buffer.rewind();
         m_file = file;
     }
 
@@ -152,33 +172,30 @@ public class LevelFile extends JPanel {
             error = "File ended before we could read the eLVL header.";
         } else {
             // read header
-            final byte[] header = readIn(12);
-            final ByteArray headerArray = new ByteArray(header);
-            ByteArray curData;
+            final int tag = m_buffer.getInt();
+            final int size = m_buffer.getInt(); // total size of the metadata section
+            m_buffer.getInt(); // reserved
 
-            if (!headerArray.readString(0, 4).equals("elvl")) {
+            if (tag != ELVL_TAG) {
                 error = "The elvl header tag was not detected at the start of " + " the eLVL data section.";
             } else {
-                final int size = headerArray.readLittleEndianInt(4); // total size of the metadata section
                 int current = 12; // current number of bytes read
 
                 while (current < size && error == null) {
                     if (available(8)) {
-                        curData = new ByteArray(readIn(8));
+                        final int typeTag = m_buffer.getInt();
+                        final int chunkLength = m_buffer.getInt();
                         current += 8;
-                        final String type = curData.readString(0, 4);
-                        final int chunkLength = curData.readLittleEndianInt(4);
 
-                        if (!available(chunkLength)) {
-                            error = "EOF while reading in a eLVL chunk of type " + type;
+                        if (chunkLength < 0 || !available(chunkLength)) {
+                            error = "EOF while reading in a eLVL chunk of type " + tagToString(typeTag);
 
                             break;
                         }
 
-                        if (type.equals("ATTR")) { // attribute chunk
+                        if (typeTag == ATTR_TAG) { // attribute chunk
                             current += chunkLength;
-                            curData = new ByteArray(readIn(chunkLength));
-                            final String attr = curData.readString(0, chunkLength);
+                            final String attr = readString(chunkLength);
                             final String[] keyTag = attr.split("=");
                             if (keyTag.length != 2) {
                                 error = "ATTR tag does not contain exactly " + "one '=' sign: " + attr;
@@ -189,8 +206,8 @@ public class LevelFile extends JPanel {
                             row.add(keyTag[0]);
                             row.add(keyTag[1]);
                             eLvlAttrs.add(row);
-                        } else if (type.equals("REGN")) { // region chunk
-                            curData = new ByteArray(readIn(chunkLength));
+                        } else if (typeTag == REGN_TAG) { // region chunk
+                            final ByteArray curData = new ByteArray(readIn(chunkLength));
                             current += chunkLength;
 
                             final Region r = new Region();
@@ -204,29 +221,20 @@ public class LevelFile extends JPanel {
                             loadedRegions.add(r);
                         } else // unknown chunk
                         {
-                            // System.out.println("unknown chunk: " + type);
-                            curData = new ByteArray(readIn(chunkLength));
-
-                            // encode header
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(0)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(1)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(2)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(3)));
-                            final byte[] dword = BitmapSaving.toDWORD(chunkLength);
-                            for (int c = 0; c < 4; ++c) {
-                                unknownELVLData.add(Byte.valueOf(dword[c]));
-                            }
-
-                            // encode data
-                            for (int c = 0; c < chunkLength; ++c) {
-                                final byte b = curData.readByte(c);
-                                unknownELVLData.add(Byte.valueOf(b));
-                            }
+                            // System.out.println("unknown chunk: " + tagToString(typeTag));
+                            // The chunk header and data are copied straight
+                            // through, they are only written out again on save
+                            unknownELVLData.write(BitmapSaving.toDWORD(typeTag), 0, 4);
+                            unknownELVLData.write(BitmapSaving.toDWORD(chunkLength), 0, 4);
+                            unknownELVLData.write(readIn(chunkLength), 0, chunkLength);
+                            current += chunkLength;
 
                             // encode padding
                             final int padding = 4 - chunkLength % 4;
                             if (padding != 4) {
-                                unknownELVLData.add(Byte.valueOf((byte) 0));
+                                for (int c = 0; c < padding; ++c) {
+                                    unknownELVLData.write(0);
+                                }
                             }
                         }
 
@@ -234,7 +242,7 @@ public class LevelFile extends JPanel {
                         final int padding = 4 - (chunkLength % 4);
                         if (padding != 4) {
                             if (available(padding)) {
-                                readIn(padding);
+                                m_buffer.position(m_buffer.position() + padding);
                                 current += padding;
                             } else {
                                 JOptionPane.showMessageDialog(null, "EOF while reading eLVL chunk padding.");
@@ -256,13 +264,21 @@ public class LevelFile extends JPanel {
      *
      * @return null or the error message
      */
-    public String readLevel() throws IOException {
+    public String readLevel() {
+        final int start;
         if (hasELVLData) {
-            readIn(m_bitmap.ELvlOffset);
+            start = m_bitmap.ELvlOffset;
         } else if (m_containsBM) {
-            readIn(m_bitmap.getFileSize());
+            start = m_bitmap.getFileSize();
+        } else {
+            start = 0;
         }
 
+        if (start < 0 || start > m_buffer.limit()) {
+            return "The tile data offset " + start + " is outside of the file.";
+        }
+        m_buffer.position(start);
+
         String error = null;
 
         // right now we're at our tile data, or our eLVL Data
@@ -271,19 +287,19 @@ public class LevelFile extends JPanel {
         }
 
         if (error == null) {
-            while (available(4)) {
-                final byte[] b = readIn(4);
-                final ByteArray array = new ByteArray(b);
-                final int i = array.readLittleEndianInt(0);
+            final ByteBuffer buffer = m_buffer;
+            final byte[] level = m_level;
+            while (buffer.remaining() >= 4) {
+                final int i = buffer.getInt();
                 final int tile = i >> 24 & 0x00ff;
                 final int y = (i >> 12) & 0x03FF;
                 final int x = i & 0x03FF;
-                m_level[x][y] = (short) tile;
+                level[x + y * MAP_SIZE] = (byte) tile;
             }
         }
 
-        // Close the stream so it doesn't remain opened.
-        m_stream.close();
+        // Let go of the buffer so a mapped file can be unmapped
+        m_buffer = null;
 
         return error;
     }
@@ -365,7 +381,9 @@ public class LevelFile extends JPanel {
         }
 
         // now any unknown tags we enocuntered while loading
-        eLVLData.addAll(unknownELVLData);
+        for (final byte b : unknownELVLData.toByteArray()) {
+            eLVLData.add(Byte.valueOf(b));
+        }
     }
 
     /**
@@ -449,23 +467,25 @@ public class LevelFile extends JPanel {
     }
 
     public byte[] readIn(final int n) {
-        final byte[] b = new byte[n];
-        try {
-            m_stream.read(b);
-            return b;
-        } catch (final IOException e) {
-            System.out.println(e);
-            return new byte[0];
-        }
+        final byte[] b = new byte[Math.min(n, m_buffer.remaining())];
+        m_buffer.get(b);
+        return b;
     }
 
     public boolean available(final int n) {
-        try {
-            return m_stream.available() >= n;
-        } catch (final IOException e) {
-            System.out.println(e);
-            return false;
+        return m_buffer.remaining() >= n;
+    }
+
+    private String readString(final int n) {
+        return new String(readIn(n), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String tagToString(final int tag) {
+        final char[] c = new char[4];
+        for (int i = 0; i < 4; i++) {
+            c[i] = (char) ((tag >> (i * 8)) & 0xff);
         }
+        return new String(c);
     }
 
     public Image getTileSet() {
@@ -493,7 +513,43 @@ public class LevelFile extends JPanel {
         return tiles;
     }
 
-    public short[][] getMap() {
+    /**
+     * Returns the tile at the given level coordinate, 0 is no tile.
+     *
+     * @param x the x coordinate, 0 to MAP_SIZE - 1
+     * @param y the y coordinate, 0 to MAP_SIZE - 1
+     * @return the tile type 0-255
+     */
+    public int getTile(final int x, final int y) {
+        return m_level[x + y * MAP_SIZE] & 0xff;
+    }
+
+    /**
+     * Returns the tile plane itself, one unsigned byte per tile indexed
+     * x + y * MAP_SIZE. Callers must not modify it.
+     *
+     * @return the tile plane
+     */
+    public byte[] getTilePlane() {
         return m_level;
     }
+
+    /**
+     * Returns the tiles as short[x][y]. The array is only built on the first call
+     * since the server never needs it, use getTile() where possible.
+     *
+     * @return the level tiles
+     */
+    public short[][] getMap() {
+        if (m_map == null) {
+            final short[][] map = new short[MAP_SIZE][MAP_SIZE];
+            for (int y = 0; y < MAP_SIZE; y++) {
+                for (int x = 0; x < MAP_SIZE; x++) {
+                    map[x][y] = (short) (m_level[x + y * MAP_SIZE] & 0xff);
+                }
+            }
+            m_map = map;
+        }
+        return m_map;
+    }
 }
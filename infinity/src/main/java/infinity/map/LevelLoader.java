@@ -26,9 +26,13 @@
 package infinity.map;
 
 import java.awt.Image;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Vector;
 
 import com.jme3.asset.AssetInfo;
@@ -71,7 +75,6 @@ public class LevelLoader implements AssetLoader {
     // private int m_colorsUsed;
     protected Image m_tileset;
     protected Image[] m_tiles;
-    protected short[][] m_map;
 
     // private final short[][] m_level = new short[1024][1024];
     private AssetManager am;
@@ -84,25 +87,67 @@ public class LevelLoader implements AssetLoader {
         am = assetInfo.getManager();
         m_file = assetInfo.getKey().getName();
 
+        // Assets may live inside a jar so they cannot be mapped, read the whole
+        // file once instead of opening it twice
+        final ByteBuffer data;
+        try (InputStream is = assetInfo.openStream()) {
+            data = ByteBuffer.wrap(is.readAllBytes());
+        }
+
+        return load(data);
+    }
+
+    /**
+     * Loads a level file that lives on disk by memory mapping it, the tiles are
+     * decoded straight out of the mapped pages.
+     *
+     * @param assetManager the asset manager used to load the default tileset
+     * @param path         the .lvl file
+     * @return the loaded level
+     * @throws IOException if the file could not be mapped
+     */
+    public LevelFile load(final AssetManager assetManager, final Path path) throws IOException {
+        am = assetManager;
+        m_file = path.toString();
+
+        return load(mapFile(path));
+    }
+
+    /**
+     * Maps the given file read only. The mapping stays valid after the channel
+     * is closed and goes away once the buffer is garbage collected.
+     *
+     * @param path the file to map
+     * @return the mapped file
+     * @throws IOException if the file could not be opened
+     */
+    public static MappedByteBuffer mapFile(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private LevelFile load(final ByteBuffer data) {
         String errorWithELVL = null;
-        BitMap bmp;
+        BitMap bmp = new BitMap(data);
 
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            bmp = new BitMap(bis);
+        try {
             bmp.readBitMap(false);
-        }
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            if (bmp.isBitMap()) {
-                m_lvlFile = new LevelFile(bis, bmp, true, bmp.hasELVL, m_file);
+
+            final boolean hasBMP = bmp.isBitMap();
+            if (hasBMP) {
+                m_lvlFile = new LevelFile(data, bmp, true, bmp.hasELVL, m_file);
             } else {
                 bmp = loadDefaultTileset();
-                m_lvlFile = new LevelFile(bis, bmp, false, bmp.hasELVL, m_file);
+                m_lvlFile = new LevelFile(data, bmp, false, bmp.hasELVL, m_file);
             }
             errorWithELVL = m_lvlFile.readLevel();
 
             if (errorWithELVL != null) {
 
-                m_lvlFile = new LevelFile(bis, bmp, false, false, m_file); // attempt load without meta data
+                // attempt load without meta data, the bitmap size covers the eLVL
+                // data so skipping it lands on the tiles
+                m_lvlFile = new LevelFile(data, bmp, hasBMP, false, m_file);
                 final String error = m_lvlFile.readLevel();
 
                 if (error != null) { // I give up
@@ -114,8 +159,6 @@ public class LevelLoader implements AssetLoader {
             }
 
             m_tileset = m_lvlFile.getTileSet();
-
-            m_map = m_lvlFile.getMap();
             m_tiles = m_lvlFile.getTiles();
 
             if (errorWithELVL != null) {
@@ -128,7 +171,6 @@ public class LevelLoader implements AssetLoader {
             m_lvlFile = new LevelFile(bmp);
 
             m_tileset = m_lvlFile.getTileSet();
-            m_map = m_lvlFile.getMap();
             m_tiles = m_lvlFile.getTiles();
         }
 
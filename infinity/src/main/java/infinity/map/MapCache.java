@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.LeafInfo;
+
+/**
+ * A pre-baked legacy map, stored next to the .lvl file it was built from. The
+ * cache holds everything LegacyMapBatchLoader would otherwise calculate, so a
+ * warm start neither parses the .lvl nor calculates any side masks.
+ *
+ * Layout, all little endian:
+ *
+ * <pre>
+ * header  magic 'LVLC', version, source length, source crc32, map size,
+ *         origin cell x, y, z, leaf count
+ * leaves  per leaf: leaf id, cell count, then cell count pairs of leaf cell
+ *         index and cell value
+ * </pre>
+ *
+ * The cache is only valid for the source file it was built from and for the
+ * same arena offset. The header is checked with a plain read before anything
+ * is mapped, so a stale cache is never mapped and can be replaced right away.
+ *
+ * Only maps that are plain files get a cache. Maps packed in a jar have no
+ * place to put one and are parsed on every load.
+ *
+ * @author Asser
+ */
+public class MapCache {
+
+    public static final String EXTENSION = ".lvlc";
+
+    /**
+     * Bump this whenever the layout or the way cells are calculated changes.
+     */
+    public static final int VERSION = 3;
+
+    private static final int MAGIC = 'L' | 'V' << 8 | 'L' << 16 | 'C' << 24;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 5;
+    private static final int LEAF_SIZE = LeafInfo.SIZE;
+
+    private final ByteBuffer buffer;
+    private final int mapSize;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int leafCount;
+
+    // Read position of the next leaf
+    private int leafPosition;
+
+    private MapCache(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        mapSize = buffer.getInt(24);
+        originX = buffer.getInt(28);
+        originY = buffer.getInt(32);
+        originZ = buffer.getInt(36);
+        leafCount = buffer.getInt(40);
+        leafPosition = HEADER_SIZE;
+    }
+
+    /**
+     * @param source the .lvl file
+     * @return where the cache for the given map lives
+     */
+    public static Path getCachePath(final Path source) {
+        final String name = source.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return source.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + EXTENSION);
+    }
+
+    /**
+     * Calculates the checksum that ties a cache to its source file.
+     *
+     * @param source the .lvl file
+     * @return the crc32 of the file
+     * @throws IOException if the file could not be read
+     */
+    public static long checksum(final Path source) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(LevelLoader.mapFile(source));
+        return crc.getValue();
+    }
+
+    /**
+     * Memory maps the cache if it exists and was built from the given source and
+     * for the given origin.
+     *
+     * @param cache    the cache file
+     * @param length   the length of the .lvl file
+     * @param checksum the checksum of the .lvl file
+     * @param originX  the world cell of map plane x = 0
+     * @param originY  the world cell of the map plane
+     * @param originZ  the world cell of map plane z = 0
+     * @return the cache or null if it is missing or stale
+     * @throws IOException if the cache exists but could not be mapped
+     */
+    public static MapCache open(final Path cache, final long length, final long checksum, final int originX,
+            final int originY, final int originZ) throws IOException {
+        if (!Files.isRegularFile(cache) || Files.size(cache) < HEADER_SIZE) {
+            return null;
+        }
+
+        // Check the header before mapping anything. A stale cache is about to be
+        // replaced, and a file that is still mapped can't be replaced on every
+        // platform.
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) != length
+                || header.getLong(16) != checksum || header.getInt(28) != originX || header.getInt(32) != originY
+                || header.getInt(36) != originZ) {
+            return null;
+        }
+        return new MapCache(LevelLoader.mapFile(cache).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public int getMapSize() {
+        return mapSize;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return the number of cells in the leaf that readLeaf() reads next
+     */
+    public int getNextLeafCellCount() {
+        return buffer.getInt(leafPosition + 8);
+    }
+
+    /**
+     * Reads the next leaf into the cell array. Leaves are read in the order they
+     * were written.
+     *
+     * @param leafId the leaf that is expected next
+     * @param cells  the cell array to write the cells to, may be null if the leaf
+     *               has no cells
+     * @return the number of cells written
+     */
+    public int readLeaf(final long leafId, final CellArray cells) {
+        final long id = buffer.getLong(leafPosition);
+        if (id != leafId) {
+            throw new IllegalStateException("Map cache has leaf " + id + " where " + leafId + " was expected");
+        }
+        final int count = buffer.getInt(leafPosition + 8);
+        int pos = leafPosition + 12;
+        for (int c = 0; c < count; c++) {
+            final int index = buffer.getInt(pos);
+            final int i = index % LEAF_SIZE;
+            final int k = (index / LEAF_SIZE) % LEAF_SIZE;
+            final int j = index / (LEAF_SIZE * LEAF_SIZE);
+            cells.setCell(i, j, k, buffer.getInt(pos + 4));
+            pos += 8;
+        }
+        leafPosition = pos;
+        return count;
+    }
+
+    /**
+     * Collects the results of a LegacyMapBatchLoader run and writes them out as
+     * a cache file.
+     */
+    public static class Builder {
+
+        private final Path target;
+        private final long length;
+        private final long checksum;
+        private final int mapSize;
+        private final int originX;
+        private final int originY;
+        private final int originZ;
+
+        private ByteBuffer leaves = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private int leafCount;
+        private int leafStart;
+        private int leafCells;
+
+        /**
+         * @param target   the cache file to write
+         * @param length   the length of the .lvl file
+         * @param checksum the checksum of the .lvl file
+         * @param mapSize  the width and depth of the map, in tiles
+         * @param originX  the world cell of map plane x = 0
+         * @param originY  the world cell of the map plane
+         * @param originZ  the world cell of map plane z = 0
+         */
+        public Builder(final Path target, final long length, final long checksum, final int mapSize,
+                final int originX, final int originY, final int originZ) {
+            this.target = target;
+            this.length = length;
+            this.checksum = checksum;
+            this.originX = originX;
+            this.originY = originY;
+            this.originZ = originZ;
+            this.mapSize = mapSize;
+        }
+
+        public void beginLeaf(final long leafId) {
+            ensureCapacity(12);
+            leafStart = leaves.position();
+            leaves.putLong(leafId);
+            leaves.putInt(0);
+            leafCells = 0;
+        }
+
+        public void addLeafCell(final int i, final int j, final int k, final int value) {
+            ensureCapacity(8);
+            leaves.putInt(i + (k + j * LEAF_SIZE) * LEAF_SIZE);
+            leaves.putInt(value);
+            leafCells++;
+        }
+
+        public void endLeaf() {
+            leaves.putInt(leafStart + 8, leafCells);
+            leafCount++;
+        }
+
+        private void ensureCapacity(final int bytes) {
+            if (leaves.remaining() < bytes) {
+                final int position = leaves.position();
+                leaves = ByteBuffer.wrap(Arrays.copyOf(leaves.array(), leaves.capacity() * 2))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                leaves.position(position);
+            }
+        }
+
+        /**
+         * Writes the cache. The file is written next to the target first and then
+         * moved in place, so a half written cache is never picked up.
+         *
+         * @throws IOException if the cache could not be written
+         */
+        public void write() throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(checksum);
+            header.putInt(mapSize).putInt(originX).putInt(originY).putInt(originZ).putInt(leafCount);
+            header.flip();
+
+            final ByteBuffer leafData = leaves.duplicate();
+            leafData.flip();
+
+            final Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer[] parts = { header, leafData };
+                long remaining = header.remaining() + leafData.remaining();
+                while (remaining > 0) {
+                    remaining -= channel.write(parts);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.util.Arrays;
+
+/**
+ * A dense, fixed size grid of map tiles on the x/z plane. Each cell holds the
+ * id of the tile entity in that cell and a parallel bitset tracks which cells
+ * are occupied, so neighbour tests are a single word read and no keys are ever
+ * allocated.
+ *
+ * Cells are addressed by integer tile coordinates, which is the floor of the
+ * world coordinate. The grid covers [originX, originX + size) by [originZ,
+ * originZ + size). Cells outside of that are always empty.
+ *
+ * A TileGrid is not thread safe. It is meant to be owned by one thread, for
+ * MapSystem that is the game loop thread, and other threads have to hand their
+ * edits over to the owner instead of touching the grid themselves.
+ *
+ * @author Asser
+ */
+public class TileGrid {
+
+    /**
+     * Value returned for cells that have no tile.
+     */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    public static final int NORTH = 0x01;
+    public static final int NORTH_EAST = 0x02;
+    public static final int EAST = 0x04;
+    public static final int SOUTH_EAST = 0x08;
+    public static final int SOUTH = 0x10;
+    public static final int SOUTH_WEST = 0x20;
+    public static final int WEST = 0x40;
+    public static final int NORTH_WEST = 0x80;
+
+    /**
+     * Neighbour offsets, in the same order as the bits of the neighbour mask.
+     * North is +z and east is +x.
+     */
+    public static final int[] NEIGHBOUR_DX = { 0, 1, 1, 1, 0, -1, -1, -1 };
+    public static final int[] NEIGHBOUR_DZ = { 1, 1, 0, -1, -1, -1, 0, 1 };
+
+    private final int originX;
+    private final int originZ;
+    private final int size;
+    private final long[] ids;
+    private final long[] occupied;
+    private int count;
+
+    public TileGrid(final int originX, final int originZ, final int size) {
+        this.originX = originX;
+        this.originZ = originZ;
+        this.size = size;
+        ids = new long[size * size];
+        occupied = new long[(size * size + 63) >>> 6];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    /**
+     * Packs a pair of tile coordinates into a single long key.
+     *
+     * @param x the tile x-coordinate
+     * @param z the tile z-coordinate
+     * @return the packed key
+     */
+    public static long pack(final int x, final int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    public static int unpackX(final long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int unpackZ(final long key) {
+        return (int) key;
+    }
+
+    /**
+     * @param coord a world coordinate
+     * @return the tile coordinate that contains it
+     */
+    public static int toTile(final double coord) {
+        return (int) Math.floor(coord);
+    }
+
+    public boolean contains(final int x, final int z) {
+        final int i = x - originX;
+        final int k = z - originZ;
+        return i >= 0 && k >= 0 && i < size && k < size;
+    }
+
+    private int index(final int x, final int z) {
+        return (z - originZ) * size + (x - originX);
+    }
+
+    public boolean isSet(final int x, final int z) {
+        if (!contains(x, z)) {
+            return false;
+        }
+        final int index = index(x, z);
+        return (occupied[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return the entity id of the tile at x, z or EMPTY
+     */
+    public long get(final int x, final int z) {
+        if (!contains(x, z)) {
+            return EMPTY;
+        }
+        return ids[index(x, z)];
+    }
+
+    /**
+     * Sets the tile id at x, z.
+     *
+     * @return false if x, z is outside of the grid
+     */
+    public boolean set(final int x, final int z, final long id) {
+        if (!contains(x, z)) {
+            return false;
+        }
+        final int index = index(x, z);
+        if (ids[index] == EMPTY) {
+            count++;
+        }
+        ids[index] = id;
+        occupied[index >>> 6] |= 1L << index;
+        return true;
+    }
+
+    /**
+     * Clears the tile at x, z.
+     *
+     * @return the id of the tile that was removed or EMPTY
+     */
+    public long remove(final int x, final int z) {
+        if (!contains(x, z)) {
+            return EMPTY;
+        }
+        final int index = index(x, z);
+        final long old = ids[index];
+        if (old != EMPTY) {
+            count--;
+        }
+        ids[index] = EMPTY;
+        occupied[index >>> 6] &= ~(1L << index);
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(ids, EMPTY);
+        Arrays.fill(occupied, 0);
+        count = 0;
+    }
+
+    /**
+     * @return the number of tiles in the grid
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns which of the eight neighbours of x, z hold a tile, one bit per
+     * neighbour as defined by the direction constants.
+     */
+    public int getNeighbourMask(final int x, final int z) {
+        int mask = 0;
+        for (int i = 0; i < 8; i++) {
+            if (isSet(x + NEIGHBOUR_DX[i], z + NEIGHBOUR_DZ[i])) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the wang blob tile index for x, z based on its neighbours.
+     */
+    public int getWangBlobMask(final int x, final int z) {
+        return toWangBlob(getNeighbourMask(x, z));
+    }
+
+    /**
+     * Converts a raw 8-neighbour mask into a wang blob index. A corner only
+     * counts when both of the edges next to it are set.
+     *
+     * @param neighbours the raw neighbour mask
+     * @return the wang blob index, 0-255
+     */
+    public static int toWangBlob(final int neighbours) {
+        int mask = neighbours;
+        if ((mask & NORTH) == 0) {
+            mask &= ~(NORTH_EAST | NORTH_WEST);
+        }
+        if ((mask & WEST) == 0) {
+            mask &= ~(NORTH_WEST | SOUTH_WEST);
+        }
+        if ((mask & SOUTH) == 0) {
+            mask &= ~(SOUTH_EAST | SOUTH_WEST);
+        }
+        if ((mask & EAST) == 0) {
+            mask &= ~(SOUTH_EAST | NORTH_EAST);
+        }
+        return mask;
+    }
+}
@@ -33,4 +33,14 @@ public interface AccountSession {
      */
     @Asynchronous
     void login(String playerName);
+
+    /**
+     * Called by the client after logging in to find the game server of an
+     * arena. The server responds asynchronously with a redirect() to the
+     * client's AccountSessionListener.
+     *
+     * @param arenaId the arena to play in
+     */
+    @Asynchronous
+    void joinArena(String arenaId);
 }
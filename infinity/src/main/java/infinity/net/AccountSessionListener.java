@@ -23,4 +23,15 @@ public interface AccountSessionListener {
      */
     @Asynchronous
     void notifyLoginStatus(boolean loggedIn);
+
+    /**
+     * Called by the server in response to joinArena() with the game server the
+     * client should connect to.
+     *
+     * @param arenaId the arena that was joined
+     * @param host    the host to connect to, null for the current host
+     * @param port    the port to connect to, -1 if the arena is not available
+     */
+    @Asynchronous
+    void redirect(String arenaId, String host, int port);
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.net;
+
+import java.util.Arrays;
+
+import com.simsilica.mathd.Vec3d;
+
+/**
+ * A batch of fire-and-forget sounds for one tick. The audio types are the
+ * string ids of the AudioTypes names in the EntityData string index, the
+ * positions are world locations and the owners are entity ids (0 if the sound
+ * has no owner).
+ *
+ * The server keeps one batch per listener and refills it every tick, so the
+ * arrays can be longer than size(). AudioEventsSerializer only writes the
+ * entries in use.
+ *
+ * @author Asser
+ */
+public class AudioEvents {
+
+    private long time;
+    private int size;
+    private int[] types;
+    private double[] positions;
+    private long[] owners;
+
+    protected AudioEvents() {
+    }
+
+    public AudioEvents(final long time, final int capacity) {
+        this.time = time;
+        types = new int[capacity];
+        positions = new double[capacity * 3];
+        owners = new long[capacity];
+    }
+
+    /**
+     * Empties the batch for a new tick, keeping the capacity.
+     */
+    public void reset(final long time) {
+        this.time = time;
+        size = 0;
+    }
+
+    public void add(final int type, final double x, final double y, final double z, final long owner) {
+        if (size == types.length) {
+            final int capacity = Math.max(4, size * 2);
+            types = Arrays.copyOf(types, capacity);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            owners = Arrays.copyOf(owners, capacity);
+        }
+        types[size] = type;
+        positions[size * 3] = x;
+        positions[size * 3 + 1] = y;
+        positions[size * 3 + 2] = z;
+        owners[size] = owner;
+        size++;
+    }
+
+    /**
+     * @return the server time of the tick the sounds were played on
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getType(final int index) {
+        return types[index];
+    }
+
+    public Vec3d getPosition(final int index, final Vec3d store) {
+        return store.set(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]);
+    }
+
+    /**
+     * @return one coordinate of the flat x, y, z position array
+     */
+    double coordinateAt(final int index) {
+        return positions[index];
+    }
+
+    public long getOwner(final int index) {
+        return owners[index];
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[time=" + time + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.jme3.network.serializing.Serializer;
+
+/**
+ * Writes an AudioEvents batch with only the entries in use, so a batch that is
+ * refilled every tick does not send its spare capacity.
+ *
+ * @author Asser
+ */
+public class AudioEventsSerializer extends Serializer {
+
+    @Override
+    public <T> T readObject(final ByteBuffer data, final Class<T> c) throws IOException {
+        final long time = data.getLong();
+        final int size = data.getInt();
+        final AudioEvents events = new AudioEvents(time, size);
+        for (int i = 0; i < size; i++) {
+            events.add(data.getInt(), data.getDouble(), data.getDouble(), data.getDouble(), data.getLong());
+        }
+        return c.cast(events);
+    }
+
+    @Override
+    public void writeObject(final ByteBuffer buffer, final Object object) throws IOException {
+        final AudioEvents events = (AudioEvents) object;
+        buffer.putLong(events.getTime());
+        buffer.putInt(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            buffer.putInt(events.getType(i));
+            buffer.putDouble(events.coordinateAt(i * 3));
+            buffer.putDouble(events.coordinateAt(i * 3 + 1));
+            buffer.putDouble(events.coordinateAt(i * 3 + 2));
+            buffer.putLong(events.getOwner(i));
+        }
+    }
+}
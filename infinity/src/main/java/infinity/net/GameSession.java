@@ -69,6 +69,14 @@ public interface GameSession {
     @Asynchronous(reliable = false)
     void move(MovementInput movementForces);
 
+    /**
+     * Sends the newest changes of the player's controls. Unlike move() this
+     * does not touch the avatar's MovementInput component, the inputs are
+     * queued for the avatar's driver and used one per physics step.
+     */
+    @Asynchronous(reliable = false)
+    void input(InputFrames frames);
+
     /**
      * Perform an action, such as placing a brick, firing off burst, placing a decoy
      * etc.
@@ -102,6 +110,13 @@ public interface GameSession {
     @Asynchronous(reliable = true)
     void map(byte mapInput, Vec3d coords);
 
+    /**
+     * Move to another arena. The server answers with a redirect to the game
+     * server that hosts the arena.
+     */
+    @Asynchronous(reliable = true)
+    void joinArena(String arenaId);
+
 //
 //    /**
 //     * RMI call to create a tile
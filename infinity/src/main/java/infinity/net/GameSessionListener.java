@@ -54,4 +54,32 @@ public interface GameSessionListener {
      */
     @Asynchronous
     void setAvatar(EntityId avatar);
+
+    /**
+     * Called once per server tick with the sounds that were played near the
+     * player. Sounds are fire-and-forget, so losing a batch is fine.
+     */
+    @Asynchronous(reliable = false)
+    void playAudio(AudioEvents events);
+
+    /**
+     * Called when the player should reconnect to another game server, for
+     * example when moving to a different arena.
+     *
+     * @param arenaId the arena the player is moving to
+     * @param host    the host to connect to, null for the current host
+     * @param port    the port to connect to
+     */
+    @Asynchronous
+    void redirect(String arenaId, String host, int port);
+
+    /**
+     * Called when the server's physics starts using one of the inputs sent
+     * with GameSession.input(), and now and then after that.
+     *
+     * @param sequence the sequence number of the input
+     * @param time     the server time of the physics step that first used it
+     */
+    @Asynchronous(reliable = false)
+    void inputConsumed(short sequence, long time);
 }
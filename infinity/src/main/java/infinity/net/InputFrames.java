@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.net;
+
+/**
+ * The newest few movement inputs of a client, three bytes each. Every input is
+ * a change of the client's controls and gets the next sequence number, the
+ * older ones are repeated so that a lost packet does not lose a change. The
+ * client resends the same frames now and then when nothing changes, so that the
+ * server catches up even if every packet with a change was lost.
+ *
+ * Rotation and thrust are stored as signed fixed point with 1/32 steps.
+ *
+ * @author Asser
+ */
+public class InputFrames {
+
+    /**
+     * The number of inputs a client sends in every packet.
+     */
+    public static final int REDUNDANCY = 3;
+
+    private static final double SCALE = 32;
+
+    private short sequence;
+    private byte[] data;
+
+    protected InputFrames() {
+    }
+
+    /**
+     * @param sequence the sequence number of the newest input
+     * @param inputs   packed inputs, newest first
+     * @param count    the number of inputs to send
+     */
+    public InputFrames(final short sequence, final int[] inputs, final int count) {
+        this.sequence = sequence;
+        data = new byte[count * 3];
+        for (int i = 0; i < count; i++) {
+            data[i * 3] = (byte) inputs[i];
+            data[i * 3 + 1] = (byte) (inputs[i] >> 8);
+            data[i * 3 + 2] = (byte) (inputs[i] >> 16);
+        }
+    }
+
+    /**
+     * @return the sequence number of the newest input, the input at index i has
+     *         sequence number getSequence() - i
+     */
+    public short getSequence() {
+        return sequence;
+    }
+
+    public int size() {
+        return data.length / 3;
+    }
+
+    /**
+     * @param index 0 for the newest input
+     */
+    public int getInput(final int index) {
+        return pack(data[index * 3], data[index * 3 + 1], data[index * 3 + 2]);
+    }
+
+    /**
+     * Packs an input into the low three bytes of an int.
+     *
+     * @param rotate rotational velocity around the up axis
+     * @param thrust forward thrust
+     * @param flags  the MovementInput flags
+     */
+    public static int pack(final double rotate, final double thrust, final byte flags) {
+        return pack(quantize(rotate), quantize(thrust), flags);
+    }
+
+    private static int pack(final byte rotate, final byte thrust, final byte flags) {
+        return (rotate & 0xff) | (thrust & 0xff) << 8 | (flags & 0xff) << 16;
+    }
+
+    private static byte quantize(final double value) {
+        return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(value * SCALE)));
+    }
+
+    public static double getRotate(final int input) {
+        return (byte) input / SCALE;
+    }
+
+    public static double getThrust(final int input) {
+        return (byte) (input >> 8) / SCALE;
+    }
+
+    public static byte getFlags(final int input) {
+        return (byte) (input >> 16);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[sequence=" + sequence + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.net.lobby;
+
+import com.jme3.network.service.rmi.Asynchronous;
+
+/**
+ * The lobby's view of an arena process. Arena processes connect to the lobby
+ * and use this to tell it where they are, how busy they are and which arenas
+ * they run.
+ *
+ * @author Asser
+ */
+public interface ArenaRegistry {
+
+    /**
+     * Announces the process, called once right after connecting.
+     *
+     * @param host     the host clients should connect to
+     * @param basePort the port of the default arena of the process
+     */
+    @Asynchronous
+    void register(String host, int basePort);
+
+    /**
+     * Sent periodically with the current state of the process.
+     *
+     * @param generation the arena generation of the process when the arenas
+     *                   were listed, it goes up every time an arena is opened
+     *                   or closed. An older list than the lobby already knows
+     *                   is ignored.
+     * @param tickLoad the summed tick time of all arenas divided by the tick
+     *                 budget, 1 means one core is fully used
+     * @param players  the connections over all arenas
+     * @param arenas   the running arenas
+     * @param ports    the port of every arena in the same order
+     */
+    @Asynchronous
+    void report(long generation, double tickLoad, int players, String[] arenas, int[] ports);
+
+    /**
+     * Answers an ArenaProcess.openArena() request.
+     *
+     * @param port       the port of the arena, -1 if it could not be opened
+     * @param generation the arena generation of the process right after the
+     *                   arena was opened
+     */
+    @Asynchronous
+    void arenaOpened(String arenaId, int port, long generation);
+
+    /**
+     * Asks the lobby where an arena runs, for players that want to move to
+     * another arena. The answer comes back through ArenaProcess.routed().
+     */
+    @Asynchronous
+    void route(int requestId, String arenaId);
+}
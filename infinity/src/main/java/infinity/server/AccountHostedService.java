@@ -77,12 +77,22 @@ public class AccountHostedService extends AbstractHostedConnectionService implem
     private RmiHostedService rmiService;
 
     private final String serverInfo;
+    private final ArenaRouter router;
     private EntityData ed;
 
     private final HashMap<EntityId, HostedConnection> playerConnectionMap = new HashMap<>();
 
     public AccountHostedService(final String serverInfo) {
+        this(serverInfo, null);
+    }
+
+    /**
+     * @param router finds the game servers of the arenas players join, null if
+     *               joining arenas through this service is not supported
+     */
+    public AccountHostedService(final String serverInfo, final ArenaRouter router) {
         this.serverInfo = serverInfo;
+        this.router = router;
         operators = new HashMap<>();
     }
 
@@ -227,6 +237,20 @@ public class AccountHostedService extends AbstractHostedConnectionService implem
             EventBus.publish(AccountEvent.playerLoggedOn, new AccountEvent(conn, playerName, player));
         }
 
+        @Override
+        public void joinArena(final String arenaId) {
+            log.info("joinArena(" + arenaId + ") for:" + conn);
+            if (player == null) {
+                log.warn("Ignoring joinArena() before login from:" + conn);
+                return;
+            }
+            if (router == null) {
+                getCallback().redirect(arenaId, null, -1);
+                return;
+            }
+            router.route(arenaId, (id, host, port) -> getCallback().redirect(id, host, port));
+        }
+
         public void dispose() {
             // The player is the ship is the entity... so we need to delete
             // the ship
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts the arenas of one server process. Every arena is a GameServer of its
+ * own with its own entity data, physics space, world and game loop thread, so a
+ * busy arena only slows down itself. Arenas listen on consecutive blocks of
+ * ports after the default arena and players move between them by reconnecting
+ * to the port of the arena they join.
+ *
+ * All arenas share one fork-join pool for their parallel system phases.
+ *
+ * When the process is part of a lobby the arenas a player moves to are looked
+ * up through the lobby router instead, they may run in another process.
+ *
+ * Players can only join running arenas and the configured openable ones, see
+ * requestArena(). Any arena can be opened through openArena(), which is meant
+ * for operators. Either way a host runs at most getMaxArenas() arenas and the
+ * arena ids are limited to ARENA_ID, they name the arena's world directory.
+ *
+ * @author Asser
+ */
+public class ArenaHost implements ArenaRouter {
+
+    static Logger log = LoggerFactory.getLogger(ArenaHost.class);
+
+    /**
+     * The number of ports a GameServer uses: the main port and the chat, ES and
+     * terrain channels.
+     */
+    public static final int PORTS_PER_ARENA = 4;
+
+    /**
+     * The default maximum number of arenas of one host, the default arena
+     * included.
+     */
+    public static final int DEFAULT_MAX_ARENAS = 8;
+
+    /**
+     * What an arena id may look like.
+     */
+    public static final Pattern ARENA_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final int basePort;
+    private final String description;
+    private final ForkJoinPool pool;
+    private final Map<String, Arena> arenas = new LinkedHashMap<>();
+    private final BitSet usedSlots = new BitSet();
+    private final Set<String> openable = new HashSet<>();
+    private int maxArenas = DEFAULT_MAX_ARENAS;
+    // Counts every change to the arenas
+    private long generation;
+    private volatile ArenaRouter router;
+
+    /**
+     * @param basePort    the port of the default arena
+     * @param description the server description handed to every arena
+     */
+    public ArenaHost(final int basePort, final String description) {
+        this.basePort = basePort;
+        this.description = description;
+        this.pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @return the port of the default arena
+     */
+    public int getBasePort() {
+        return basePort;
+    }
+
+    /**
+     * @return the pool the arenas run their parallel system phases on
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the arenas that are started when a player asks to join them.
+     */
+    public synchronized void setOpenableArenas(final String... arenaIds) {
+        for (final String id : arenaIds) {
+            checkArenaId(id);
+        }
+        openable.clear();
+        openable.addAll(Arrays.asList(arenaIds));
+    }
+
+    public synchronized void setMaxArenas(final int maxArenas) {
+        this.maxArenas = maxArenas;
+    }
+
+    public synchronized int getMaxArenas() {
+        return maxArenas;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id does not match ARENA_ID
+     */
+    public static void checkArenaId(final String arenaId) {
+        if (arenaId == null || !ARENA_ID.matcher(arenaId).matches()) {
+            throw new IllegalArgumentException("Invalid arena id:" + arenaId);
+        }
+    }
+
+    /**
+     * Routes arena lookups through another router, normally the lobby.
+     *
+     * @param router the router to use, null to only use the arenas of this host
+     */
+    public void setRouter(final ArenaRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public void route(final String arenaId, final Destination destination) {
+        final ArenaRouter r = router;
+        if (r != null) {
+            r.route(arenaId, destination);
+            return;
+        }
+        destination.redirect(arenaId, null, requestArena(arenaId));
+    }
+
+    /**
+     * Returns the port of an arena a player asked to join. Only running arenas
+     * and the openable ones are joined, the latter are started if needed.
+     *
+     * @return the port, or -1 if the arena may not be joined or could not be
+     *         started
+     */
+    public synchronized int requestArena(final String arenaId) {
+        final Arena existing = arenas.get(arenaId);
+        if (existing != null) {
+            return existing.getPort();
+        }
+        if (!openable.contains(arenaId)) {
+            log.warn("Refusing to open arena:" + arenaId);
+            return -1;
+        }
+        try {
+            return openArena(arenaId);
+        } catch (final IOException | IllegalStateException e) {
+            log.error("Unable to open arena:" + arenaId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Adds the arena that was created outside of the host, normally the default
+     * arena on the base port.
+     */
+    public synchronized void addArena(final String arenaId, final GameServer server) {
+        final int slot = (server.getPort() - basePort) / PORTS_PER_ARENA;
+        usedSlots.set(slot);
+        arenas.put(arenaId, new Arena(server, slot, false));
+        generation++;
+    }
+
+    /**
+     * Returns the port of the arena, starting the arena first if it is not
+     * running yet.
+     *
+     * @throws IllegalArgumentException if the id does not match ARENA_ID
+     * @throws IllegalStateException    if the host already runs its maximum
+     *                                  number of arenas
+     */
+    public synchronized int openArena(final String arenaId) throws IOException {
+        final Arena existing = arenas.get(arenaId);
+        if (existing != null) {
+            return existing.getPort();
+        }
+        checkArenaId(arenaId);
+        if (arenas.size() >= maxArenas) {
+            throw new IllegalStateException("Already running " + arenas.size() + " arenas, not opening:" + arenaId);
+        }
+
+        final int slot = usedSlots.nextClearBit(0);
+        final int port = basePort + slot * PORTS_PER_ARENA;
+        log.info("Opening arena " + arenaId + " on port " + port);
+        final GameServer server = new GameServer(port, description, arenaId, this);
+        usedSlots.set(slot);
+        arenas.put(arenaId, new Arena(server, slot, true));
+        generation++;
+        server.start();
+        return port;
+    }
+
+    /**
+     * Kicks the players of an arena and stops it. Arenas that were added rather
+     * than opened by the host are left alone.
+     */
+    public synchronized void closeArena(final String arenaId) {
+        final Arena arena = arenas.get(arenaId);
+        if (arena == null || !arena.owned) {
+            return;
+        }
+        arenas.remove(arenaId);
+        generation++;
+        log.info("Closing arena " + arenaId);
+        arena.server.close("Arena closed.");
+        usedSlots.clear(arena.slot);
+    }
+
+    /**
+     * @return the port of a running arena, or -1 if it is not running
+     */
+    public synchronized int getPort(final String arenaId) {
+        final Arena arena = arenas.get(arenaId);
+        return arena == null ? -1 : arena.getPort();
+    }
+
+    public synchronized GameServer getArena(final String arenaId) {
+        final Arena arena = arenas.get(arenaId);
+        return arena == null ? null : arena.server;
+    }
+
+    /**
+     * @return a number that goes up every time an arena is added, opened or
+     *         closed
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized String[] getArenaIds() {
+        return arenas.keySet().toArray(new String[arenas.size()]);
+    }
+
+    /**
+     * @return the ports of the running arenas, in the order of getArenaIds()
+     */
+    public synchronized int[] getArenaPorts() {
+        final int[] result = new int[arenas.size()];
+        int i = 0;
+        for (final Arena arena : arenas.values()) {
+            result[i++] = arena.getPort();
+        }
+        return result;
+    }
+
+    /**
+     * @return the summed tick load of all arenas, see
+     *         ProfiledGameSystemManager.getLoad()
+     */
+    public synchronized double getLoad() {
+        double result = 0;
+        for (final Arena arena : arenas.values()) {
+            result += arena.server.getSystems().getLoad();
+        }
+        return result;
+    }
+
+    /**
+     * @return the connections over all arenas
+     */
+    public synchronized int getPlayerCount() {
+        int result = 0;
+        for (final Arena arena : arenas.values()) {
+            result += arena.server.getServer().getConnections().size();
+        }
+        return result;
+    }
+
+    /**
+     * Closes every arena the host opened and shuts down the shared pool.
+     */
+    public void close() {
+        final List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(arenas.keySet());
+        }
+        for (final String id : ids) {
+            closeArena(id);
+        }
+        pool.shutdown();
+    }
+
+    private static class Arena {
+        private final GameServer server;
+        private final int slot;
+        private final boolean owned;
+
+        Arena(final GameServer server, final int slot, final boolean owned) {
+            this.server = server;
+            this.slot = slot;
+            this.owned = owned;
+        }
+
+        int getPort() {
+            return server.getPort();
+        }
+    }
+}
@@ -5,6 +5,11 @@
  */
 package infinity.server;
 
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import com.jme3.asset.AssetKey;
 import com.jme3.asset.AssetLoader;
 import com.jme3.asset.AssetManager;
@@ -45,6 +50,10 @@ public class AssetLoaderService extends AbstractHostedService {
         return;
     }
 
+    public AssetManager getAssetManager() {
+        return am;
+    }
+
     public void registerLoader(final Class<? extends AssetLoader> loaderClass, final String... extensions) {
         am.registerLoader(loaderClass, extensions);
     }
@@ -57,4 +66,23 @@ public class AssetLoaderService extends AbstractHostedService {
         return am.loadAsset(name);
     }
 
+    /**
+     * Finds the file an asset is loaded from.
+     *
+     * @param name the asset name
+     * @return the path to the asset, or null if the asset is not a plain file
+     *         (for example when it is packed in a jar)
+     */
+    public Path getAssetPath(final String name) {
+        final URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (@SuppressWarnings("unused") final URISyntaxException e) {
+            return null;
+        }
+    }
+
 }
@@ -42,12 +42,15 @@ import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.ext.mphys.ObjectStatusListener;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
 import com.simsilica.mphys.AbstractShape;
 import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 
 import infinity.es.BodyPosition;
+import infinity.util.LongObjectMap;
 
 /**
  * Publishes to a BodyPosition component so that server-side systems have easy
@@ -61,6 +64,12 @@ import infinity.es.BodyPosition;
  * update events from the network. The BodyPosition component itself is actually
  * transferred empty.
  *
+ * The BodyPosition of every loaded body is also kept in a side index keyed on
+ * the entity id, so publishing a frame does not have to look the component up
+ * in the EntityData. Frames for bodies that have not moved since their last
+ * frame are skipped, and the published BodyPositions keep no history so the
+ * frames that are published do not allocate.
+ *
  * @author Paul Speed
  */
 public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGameSystem {
@@ -96,10 +105,36 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
         system.removePhysicsListener(observer);
     }
 
+    /**
+     * The published BodyPosition of a body and what was last published to it.
+     */
+    private static class Published {
+        private final BodyPosition position;
+        private final Vec3d lastPosition = new Vec3d();
+        private final Quatd lastOrientation = new Quatd();
+
+        public Published(final BodyPosition position) {
+            this.position = position;
+        }
+
+        public void addFrame(final long time, final Vec3d pos, final Quatd orient, final boolean visible) {
+            position.addFrame(time, pos, orient, visible);
+            lastPosition.set(pos);
+            lastOrientation.set(orient);
+        }
+
+        public boolean hasMoved(final Vec3d pos, final Quatd orient) {
+            return !lastPosition.equals(pos) || !lastOrientation.equals(orient);
+        }
+    }
+
     private class PhysicsObserver implements PhysicsListener<EntityId, S>, ObjectStatusListener<S> {
 
         private long frameTime;
 
+        // The BodyPosition of every loaded body, by entity id
+        private final LongObjectMap<Published> index = new LongObjectMap<>(1024);
+
         // private final Vector3f posf = new Vector3f();
         // private final Quaternion orientf = new Quaternion();
 
@@ -130,12 +165,16 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
             if (log.isTraceEnabled()) {
                 log.trace("update(" + body + ")");
             }
-            final BodyPosition p = ed.getComponent(body.id, BodyPosition.class);
+            final Published p = index.get(body.id.getId());
             if (p == null) {
                 // Until we have remove notifications
                 log.error("No body position for:" + body.id);
                 return;
             }
+            if (!p.hasMoved(body.position, body.orientation)) {
+                // Nothing new to publish
+                return;
+            }
             p.addFrame(frameTime, body.position, body.orientation, true);
         }
 
@@ -144,14 +183,16 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
             if (log.isTraceEnabled()) {
                 log.trace("objectLoaded(" + id + ", " + body + ")");
             }
-            // The server side needs hardly any backlog. We'll use 3 just in case
-            // but 2 (even possibly 1) should be fine. If we ever need to rewind
-            // for shot resolution then we can increase the backlog as necessary
-            final BodyPosition bPos = new BodyPosition(3);
+            // The server side only ever reads the latest frame, shot resolution
+            // keeps its own history in LagCompensationSystem. So no backlog,
+            // which lets the BodyPosition update its last frame in place.
+            final BodyPosition bPos = new BodyPosition(0);
+            final Published p = new Published(bPos);
+            index.put(id.getId(), p);
 
             // We have the body and the position, might as well just set it to
             // its initial value.
-            bPos.addFrame(frameTime, body.position, body.orientation, true);
+            p.addFrame(frameTime, body.position, body.orientation, true);
 
 //log.info("set body position on:" + id);
             ed.setComponent(body.id, bPos);
@@ -169,7 +210,7 @@ public class BodyPositionPublisher<S extends AbstractShape> extends AbstractGame
             // unlikely to have a BodyPosition anymore. Also, this BodyPosition updating
             // is only used on the server and so is unlikely to care about historical
             // visibility, etc..
-            final BodyPosition p = ed.getComponent(id, BodyPosition.class);
+            final Published p = index.remove(id.getId());
             if (p == null) {
                 return; // just in case
             }
@@ -36,9 +36,9 @@
 
 package infinity.server;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
@@ -54,11 +54,18 @@ import com.simsilica.es.server.ComponentVisibility;
 import com.simsilica.ethereal.NetworkStateListener;
 
 import infinity.es.BodyPosition;
+import infinity.util.LongSet;
+import infinity.util.SortedIdDiff;
 
 /**
  * Limits the client's visibility of any entity containing a BodyPosition to
  * just what the SimEthereal visibility says they can see.
  *
+ * The ids that were visible at the last collectChanges() are kept both as a
+ * sorted array and as a primitive set. The new active ids are copied into a
+ * second array and sorted, and a merge of the two sorted arrays yields exactly
+ * the ids that came and went, without boxing or per-id allocations.
+ *
  * @author Paul Speed
  */
 public class BodyVisibility implements ComponentVisibility {
@@ -70,7 +77,20 @@ public class BodyVisibility implements ComponentVisibility {
 
     // private final Set<Long> lastActiveIds;
 
-    private final Map<EntityId, BodyPosition> lastValues = new HashMap<>();
+    /**
+     * The ids visible as of the last collectChanges(), sorted, and the same ids
+     * as a set for lookups.
+     */
+    private long[] visibleIds = new long[64];
+    private int visibleCount;
+    private final LongSet visible = new LongSet(64);
+
+    /**
+     * Scratch array for the active ids, swapped with visibleIds after the diff.
+     */
+    private long[] activeIds = new long[64];
+
+    private final Diff diff = new Diff();
 
     protected BodyVisibility(final NetworkStateListener netState,
             @SuppressWarnings("unused") final Set<Long> lastActiveIds) {
@@ -94,11 +114,10 @@ public class BodyVisibility implements ComponentVisibility {
 
     @Override
     public <T extends EntityComponent> T getComponent(final EntityId entityId, final Class<T> type) {
-        log.info("getComponent(" + entityId + ", " + type + ")");
-        // if( !netState.getActiveIds().contains(entityId) ) {
-        // return null;
-        // }
-        if (!lastValues.containsKey(entityId)) {
+        if (log.isTraceEnabled()) {
+            log.trace("getComponent(" + entityId + ", " + type + ")");
+        }
+        if (!visible.contains(entityId.getId())) {
             return null;
         }
         return ed.getComponent(entityId, type);
@@ -113,32 +132,40 @@ public class BodyVisibility implements ComponentVisibility {
             throw new UnsupportedOperationException("Filtering + body visibility not yet supported");
         }
 
-        /*
-         * Set<Long> active = netState.getActiveIds(); log.info("active:" + active);
-         *
-         * Set<EntityId> results = new HashSet<>(); for( Long l : active ) {
-         * results.add(new EntityId(l)); }
-         *
-         * return results;
-         */
-        return lastValues.keySet();
+        // Only used when a client sets up a new entity set, so it is fine to
+        // build this on demand
+        final Set<EntityId> results = new HashSet<>(visibleCount * 2);
+        for (int i = 0; i < visibleCount; i++) {
+            results.add(new EntityId(visibleIds[i]));
+        }
+        return results;
     }
 
     @Override
     public boolean collectChanges(final Queue<EntityChange> updates) {
         final Set<Long> active = netState.getActiveIds();
-        boolean changed = false;
         if (log.isTraceEnabled()) {
             log.trace("active:" + active);
-            log.info("updates before:" + updates);
+            log.trace("updates before:" + updates);
         }
 
+        // Copy the active ids into the scratch array and sort them
+        final int activeCount = active.size();
+        if (activeIds.length < activeCount) {
+            activeIds = new long[Math.max(activeCount, activeIds.length * 2)];
+        }
+        int count = 0;
+        for (final Long l : active) {
+            activeIds[count++] = l.longValue();
+        }
+        Arrays.sort(activeIds, 0, count);
+
         // Remove any BodyPosition updates that don't belong to the active
         // set
         for (final Iterator<EntityChange> it = updates.iterator(); it.hasNext();) {
             final EntityChange change = it.next();
             if (change.getComponentType() == BodyPosition.class
-                    && !active.contains(Long.valueOf(change.getEntityId().getId()))) {
+                    && Arrays.binarySearch(activeIds, 0, count, change.getEntityId().getId()) < 0) {
                 if (log.isTraceEnabled()) {
                     log.trace("removing irrelevant change:" + change);
                 }
@@ -146,40 +173,60 @@ public class BodyVisibility implements ComponentVisibility {
             }
         }
 
-        // First process the removals
-        for (final Iterator<EntityId> it = lastValues.keySet().iterator(); it.hasNext();) {
-            final EntityId id = it.next();
-            if (active.contains(Long.valueOf(id.getId()))) {
-                continue;
-            }
+        // Anything only in the old ids was removed and anything only in the new
+        // ones was added
+        diff.begin(updates);
+        SortedIdDiff.diff(visibleIds, visibleCount, activeIds, count, diff);
+        final boolean changed = diff.end();
+
+        final long[] swap = visibleIds;
+        visibleIds = activeIds;
+        visibleCount = count;
+        activeIds = swap;
+
+        if (changed && log.isDebugEnabled()) {
+            log.debug("done collectChanges() " + visibleCount + " visible");
+        }
+
+        return changed;
+    }
+
+    /**
+     * Turns the ids that came and went into entity changes.
+     */
+    private class Diff implements SortedIdDiff.Listener {
+        private Queue<EntityChange> updates;
+        private boolean changed;
+
+        public void begin(final Queue<EntityChange> updates) {
+            this.updates = updates;
+            changed = false;
+        }
+
+        public boolean end() {
+            updates = null;
+            return changed;
+        }
+
+        @Override
+        public void added(final long is) {
             if (log.isTraceEnabled()) {
-                log.trace("removing:" + id);
+                log.trace("adding:" + is);
             }
-            updates.add(new EntityChange(id, BodyPosition.class));
-            it.remove();
+            visible.add(is);
+            final EntityId id = new EntityId(is);
+            updates.add(new EntityChange(id, ed.getComponent(id, BodyPosition.class)));
             changed = true;
         }
 
-        // Now the adds
-        for (final Long l : active) {
-            final EntityId id = new EntityId(l.longValue());
-            if (lastValues.containsKey(id)) {
-                continue;
-            }
+        @Override
+        public void removed(final long was) {
             if (log.isTraceEnabled()) {
-                log.trace("adding:" + id);
+                log.trace("removing:" + was);
             }
-            final BodyPosition pos = ed.getComponent(id, BodyPosition.class);
-            lastValues.put(id, pos);
-            updates.add(new EntityChange(id, pos));
+            visible.remove(was);
+            updates.add(new EntityChange(new EntityId(was), BodyPosition.class));
             changed = true;
         }
-
-        if (changed) {
-            log.info("done collectChanges() " + active);
-        }
-
-        return changed;
     }
-
 }
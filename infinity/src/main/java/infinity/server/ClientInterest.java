@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.es.Filters;
+import com.simsilica.ethereal.NetworkStateListener;
+import com.simsilica.mathd.Grid;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+
+import infinity.InfinityConstants;
+import infinity.es.BodyPosition;
+import infinity.es.Frequency;
+import infinity.es.LargeGridCell;
+import infinity.es.Parent;
+import infinity.util.LongObjectMap;
+
+/**
+ * Works out which entities one client is interested in, for the
+ * InterestVisibility filters registered on its connection.
+ *
+ * A client cares about the mobile entities (anything with a BodyPosition) in
+ * its SimEthereal zones and the mobile entities on its own frequency. Entities
+ * without a BodyPosition are static or not spatial at all and are let through,
+ * with two exceptions: large objects only within a few large grid cells of the
+ * client's view, and child entities only when their parent is.
+ *
+ * The mobile ids are snapshot into a sorted array. The filters on a connection
+ * are run back to back, so the snapshot is only rebuilt once per
+ * REFRESH_INTERVAL and shared between them.
+ *
+ * Once an entity is a mobile body, a child of one or a large object it stays
+ * one, so that kind is looked up once and cached until the filters forget() it
+ * when its components are removed. Entities that look static are not cached:
+ * ships and their children get their BodyPosition only when the physics body
+ * loads, after their other components were set.
+ *
+ * @author Asser
+ */
+public class ClientInterest {
+
+    static Logger log = LoggerFactory.getLogger(ClientInterest.class);
+
+    /**
+     * How long a snapshot of the mobile ids is reused, in nanoseconds.
+     */
+    private static final long REFRESH_INTERVAL = 5_000_000L;
+
+    /**
+     * How many large grid cells around the view cell count as near. This is one
+     * more than the client's model views use so that a view that just crossed a
+     * cell border does not lose its large objects.
+     */
+    private static final int LARGE_CELL_RADIUS = 2;
+
+    /**
+     * Returned by getMobileParent() for entities that are not children of a
+     * mobile body.
+     */
+    public static final long NO_PARENT = -1;
+
+    private final Grid largeGrid = InfinityConstants.LARGE_OBJECT_GRID;
+    private final EntityData ed;
+    private final NetworkStateListener netState;
+    private final EntityId avatarId;
+
+    /**
+     * The mobile entities on the avatar's frequency, created on first refresh so
+     * that it is only ever touched from the thread sending the updates.
+     */
+    private EntitySet team;
+    private int teamFreq;
+
+    private long[] mobileIds = new long[64];
+    private int mobileCount;
+    private boolean refreshed;
+    private long lastRefresh;
+
+    private volatile Vec3i viewCell;
+    private Vec3i nearCenter;
+    private final long[] nearCells = new long[(LARGE_CELL_RADIUS * 2 + 1) * (LARGE_CELL_RADIUS * 2 + 1)];
+
+    /**
+     * The cached kind of the non-static entities seen so far, keyed by entity
+     * id.
+     */
+    private final LongObjectMap<Kind> kinds = new LongObjectMap<>(256);
+
+    public ClientInterest(final EntityData ed, final NetworkStateListener netState, final EntityId avatarId) {
+        this.ed = ed;
+        this.netState = netState;
+        this.avatarId = avatarId;
+    }
+
+    /**
+     * Called with the client's view location whenever it changes.
+     */
+    public void setViewLocation(final Vec3d location) {
+        viewCell = largeGrid.worldToCell(location);
+    }
+
+    /**
+     * Rebuilds the snapshot of mobile ids unless it was rebuilt within the last
+     * REFRESH_INTERVAL.
+     */
+    public void refresh() {
+        final long now = System.nanoTime();
+        if (refreshed && now - lastRefresh < REFRESH_INTERVAL) {
+            return;
+        }
+        refreshed = true;
+        lastRefresh = now;
+
+        updateTeam();
+        updateNearCells();
+
+        final Set<Long> active = netState.getActiveIds();
+        final int max = active.size() + (team == null ? 0 : team.size());
+        if (mobileIds.length < max) {
+            mobileIds = new long[Math.max(max, mobileIds.length * 2)];
+        }
+        int count = 0;
+        for (final Long l : active) {
+            mobileIds[count++] = l.longValue();
+        }
+        if (team != null) {
+            for (final Entity e : team) {
+                mobileIds[count++] = e.getId().getId();
+            }
+        }
+        Arrays.sort(mobileIds, 0, count);
+
+        // Team mates in the zones are in there twice
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || mobileIds[unique - 1] != mobileIds[i]) {
+                mobileIds[unique++] = mobileIds[i];
+            }
+        }
+        mobileCount = unique;
+    }
+
+    /**
+     * Returns the sorted snapshot of interesting mobile ids. Only the first
+     * getMobileCount() entries are valid.
+     */
+    public long[] getMobileIds() {
+        return mobileIds;
+    }
+
+    public int getMobileCount() {
+        return mobileCount;
+    }
+
+    public boolean isMobile(final long id) {
+        return Arrays.binarySearch(mobileIds, 0, mobileCount, id) >= 0;
+    }
+
+    /**
+     * Returns true if the entity is not a mobile body and the client should see
+     * it anyway. Mobile bodies are decided by the snapshot instead.
+     */
+    public synchronized boolean isStaticRelevant(final EntityId id) {
+        final Kind kind = getKind(id);
+        switch (kind.type) {
+            case Kind.MOBILE:
+                return false;
+            case Kind.CHILD:
+                return isMobile(kind.ref);
+            case Kind.LARGE:
+                return isNear(kind.ref);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns the id of the entity's parent if that parent is a mobile body,
+     * else NO_PARENT. Such children come and go with their parent.
+     */
+    public synchronized long getMobileParent(final EntityId id) {
+        final Kind kind = getKind(id);
+        return kind.type == Kind.CHILD ? kind.ref : NO_PARENT;
+    }
+
+    /**
+     * Drops the cached kind of the entity, called when one of its components
+     * is removed so that a removed entity does not stay in the cache.
+     */
+    public synchronized void forget(final long id) {
+        kinds.remove(id);
+    }
+
+    /**
+     * Releases the team entity set.
+     */
+    public void release() {
+        if (team != null) {
+            team.release();
+            team = null;
+        }
+    }
+
+    private void updateTeam() {
+        final Frequency freq = ed.getComponent(avatarId, Frequency.class);
+        if (freq == null) {
+            release();
+            return;
+        }
+        if (team == null) {
+            teamFreq = freq.getFreq();
+            team = ed.getEntities(Filters.fieldEquals(Frequency.class, "freq", Integer.valueOf(teamFreq)),
+                    Frequency.class, BodyPosition.class);
+        } else if (freq.getFreq() != teamFreq) {
+            teamFreq = freq.getFreq();
+            team.resetFilter(Filters.fieldEquals(Frequency.class, "freq", Integer.valueOf(teamFreq)));
+        }
+        team.applyChanges();
+    }
+
+    private void updateNearCells() {
+        final Vec3i center = viewCell;
+        if (center == null || nearCenter != null && center.x == nearCenter.x && center.z == nearCenter.z) {
+            return;
+        }
+        nearCenter = center;
+        int index = 0;
+        for (int x = center.x - LARGE_CELL_RADIUS; x <= center.x + LARGE_CELL_RADIUS; x++) {
+            for (int z = center.z - LARGE_CELL_RADIUS; z <= center.z + LARGE_CELL_RADIUS; z++) {
+                nearCells[index++] = largeGrid.cellToId(x, 0, z);
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("near cells around:" + center);
+        }
+    }
+
+    private Kind getKind(final EntityId id) {
+        Kind kind = kinds.get(id.getId());
+        if (kind == null) {
+            kind = classify(id);
+            if (kind != Kind.PLAIN_STATIC) {
+                kinds.put(id.getId(), kind);
+            }
+        }
+        return kind;
+    }
+
+    private Kind classify(final EntityId id) {
+        if (ed.getComponent(id, BodyPosition.class) != null) {
+            return Kind.MOBILE_BODY;
+        }
+        final Parent parent = ed.getComponent(id, Parent.class);
+        if (parent != null) {
+            final EntityId parentId = parent.getParentEntity();
+            if (ed.getComponent(parentId, BodyPosition.class) == null) {
+                // The parent may still get its body
+                return Kind.PLAIN_STATIC;
+            }
+            return new Kind(Kind.CHILD, parentId.getId());
+        }
+        final LargeGridCell cell = ed.getComponent(id, LargeGridCell.class);
+        if (cell != null) {
+            return new Kind(Kind.LARGE, cell.getCellId());
+        }
+        return Kind.PLAIN_STATIC;
+    }
+
+    private boolean isNear(final long cellId) {
+        if (nearCenter == null) {
+            // No view yet, rather send too much than too little
+            return true;
+        }
+        for (final long near : nearCells) {
+            if (near == cellId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * What decides whether the client sees an entity: the snapshot for mobile
+     * bodies, the parent for children of mobile bodies, the near cells for
+     * large objects. Plain static entities are always seen.
+     */
+    private static final class Kind {
+        static final int MOBILE = 0;
+        static final int STATIC = 1;
+        static final int CHILD = 2;
+        static final int LARGE = 3;
+
+        static final Kind MOBILE_BODY = new Kind(MOBILE, 0);
+        static final Kind PLAIN_STATIC = new Kind(STATIC, 0);
+
+        final int type;
+
+        /**
+         * The parent id for children, the large cell id for large objects.
+         */
+        final long ref;
+
+        Kind(final int type, final long ref) {
+            this.type = type;
+            this.ref = ref;
+        }
+    }
+}
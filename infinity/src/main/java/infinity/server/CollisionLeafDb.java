@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+
+/**
+ * The LeafDb view handed to MBlockCollisionSystem. Empty leaves come out of
+ * the world LeafDb without a cell array, which the collision system in MOSS was
+ * never written for, so they are handed to it with one shared array of empty
+ * cells instead. Nothing is allocated per empty leaf beyond the LeafData and
+ * the collision system finds no cells to collide with.
+ *
+ * Leaves with cells are passed through as is.
+ *
+ * @author Asser
+ */
+public class CollisionLeafDb implements LeafDb {
+
+    /**
+     * Shared by every empty leaf, never written to.
+     */
+    private static final CellArray EMPTY_CELLS = new CellArray(LeafInfo.SIZE);
+
+    private final LeafDb delegate;
+
+    public CollisionLeafDb(final LeafDb delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public LeafData loadLeaf(final long leafId) {
+        final LeafData leaf = delegate.loadLeaf(leafId);
+        if (leaf == null || leaf.getRawCells() != null) {
+            return leaf;
+        }
+        return new LeafData(leaf.getInfo(), EMPTY_CELLS, LeafInfo.CELL_COUNT);
+    }
+
+    @Override
+    public void storeLeaf(final LeafData leaf) {
+        delegate.storeLeaf(leaf);
+    }
+}
@@ -64,7 +64,7 @@ public class EmptyLeafDb implements LeafDb {
     // private final double yRange = yMax - yMin;
     // private final double xScale = 256;
     // private final double zScale = 256;
-    private final CellData worldData = new GeneratedCellData();
+    private final GeneratedCellData worldData = new GeneratedCellData();
 
     public EmptyLeafDb() {
         /*
@@ -116,10 +116,26 @@ public class EmptyLeafDb implements LeafDb {
      * return result; }
      */
 
+    /**
+     * Creates a leaf that has no cells at all. No cell array is allocated, so
+     * these are cheap to hand out and anything that checks isEmpty() skips them.
+     *
+     * @param leafId the id of the leaf
+     * @return the empty leaf
+     */
+    public static LeafData createEmptyLeaf(final long leafId) {
+        return new LeafData(new LeafInfo(Coordinates.leafIdToWorld(leafId), leafId), null);
+    }
+
     @Override
     public LeafData loadLeaf(final long leafId) {
         final Vec3i world = Coordinates.leafIdToWorld(leafId);
 
+        // Most of the world is empty space, don't go cell by cell through it
+        if (worldData.isEmpty(world.x, world.y, world.z, LEAF_SIZE)) {
+            return createEmptyLeaf(leafId);
+        }
+
         // Create the CellArray for the leaf
         final CellArray cells = new CellArray(LEAF_SIZE);
 
@@ -148,6 +164,9 @@ public class EmptyLeafDb implements LeafDb {
             }
         }
 
+        if (empty == LeafInfo.CELL_COUNT) {
+            return createEmptyLeaf(leafId);
+        }
         return new LeafData(new LeafInfo(world, leafId), cells, empty);
         // if( count > 0 ) {
         // return new LeafData(new LeafInfo(world, leafId), cells);
@@ -174,6 +193,14 @@ public class EmptyLeafDb implements LeafDb {
             return 0;
         }
 
+        /**
+         * Returns true if there are no cells in the given cube. Has to agree with
+         * getCell().
+         */
+        public boolean isEmpty(final int x, final int y, final int z, final int size) {
+            return true;
+        }
+
         @Override
         public int getCell(final int x, final int y, final int z, final int defaultValue) {
             return getCell(x, y, z);
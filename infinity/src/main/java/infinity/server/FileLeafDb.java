@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+
+import infinity.jfr.LeafLoadedEvent;
+
+/**
+ * A LeafDb that keeps the leaves on disk so that world edits survive a restart.
+ *
+ * Leaves are grouped into regions of 8x8x8 leaves, one file per region. A
+ * region file starts with an index of offset, length and capacity per leaf,
+ * followed by the leaves themselves. Empty leaves take no space beyond their
+ * kind and flat leaves only store their one layer, run length encoded. Region
+ * files are memory mapped for both reading and writing, and only a bounded
+ * number of them are kept open, least recently used first out.
+ *
+ * Leaves that have never been stored are loaded from the fallback LeafDb.
+ *
+ * @author Asser
+ */
+public class FileLeafDb implements LeafDb {
+
+    static Logger log = LoggerFactory.getLogger(FileLeafDb.class);
+
+    public static final int LEAF_SIZE = LeafInfo.SIZE;
+
+    /**
+     * The default number of region files kept open at a time.
+     */
+    public static final int DEFAULT_OPEN_REGIONS = 64;
+
+    private static final int MAGIC = 'M' | 'W' << 8 | 'R' << 16 | 'G' << 24;
+    private static final int VERSION = 1;
+
+    // The ways a leaf can be encoded
+    private static final int KIND_EMPTY = 0;
+    private static final int KIND_RUNS = 1;
+    private static final int KIND_FLAT = 2;
+
+    // A region is REGION_SIZE leaves along each axis
+    private static final int REGION_SHIFT = 3;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+    private static final int REGION_MASK = REGION_SIZE - 1;
+    private static final int SLOTS = REGION_SIZE * REGION_SIZE * REGION_SIZE;
+    // Magic, version, end of the used part of the file and one unused int, then
+    // offset, length and capacity per slot
+    private static final int INDEX_OFFSET = 16;
+    private static final int HEADER_SIZE = INDEX_OFFSET + SLOTS * 12;
+    // Room for leaves in a new region file, doubled whenever it runs out
+    private static final int INITIAL_DATA_SIZE = 64 * 1024;
+    // Don't bother compacting for less garbage than this
+    private static final int MIN_COMPACT_GARBAGE = 64 * 1024;
+
+    private static final String STAMP_FILE = "stamps.properties";
+
+    private final Path directory;
+    private final LeafDb fallback;
+    private final Map<Long, Region> regions;
+    private final Properties stamps = new Properties();
+
+    // Reused for encoding, a leaf can never have more runs than cells
+    private final int[] runs = new int[LeafInfo.CELL_COUNT * 2];
+
+    /**
+     * @param directory the directory to keep the region files in, it is created
+     *                  if it does not exist
+     * @param fallback  where to load leaves from that were never stored
+     * @throws IOException if the directory could not be created
+     */
+    public FileLeafDb(final Path directory, final LeafDb fallback) throws IOException {
+        this(directory, fallback, DEFAULT_OPEN_REGIONS);
+    }
+
+    /**
+     * @param directory   the directory to keep the region files in, it is created
+     *                    if it does not exist
+     * @param fallback    where to load leaves from that were never stored
+     * @param openRegions the maximum number of region files kept open
+     * @throws IOException if the directory could not be created
+     */
+    public FileLeafDb(final Path directory, final LeafDb fallback, final int openRegions) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fallback = fallback;
+        regions = new LinkedHashMap<Long, Region>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Region> eldest) {
+                if (size() > openRegions) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        final Path stampFile = directory.resolve(STAMP_FILE);
+        if (Files.exists(stampFile)) {
+            try (InputStream in = Files.newInputStream(stampFile)) {
+                stamps.load(in);
+            }
+        }
+        log.info("Storing leaves in " + this.directory.toAbsolutePath());
+    }
+
+    @Override
+    public synchronized LeafData loadLeaf(final long leafId) {
+        final LeafLoadedEvent event = new LeafLoadedEvent();
+        event.begin();
+
+        final Vec3i world = Coordinates.leafIdToWorld(leafId);
+        final int leafX = Math.floorDiv(world.x, LEAF_SIZE);
+        final int leafY = Math.floorDiv(world.y, LEAF_SIZE);
+        final int leafZ = Math.floorDiv(world.z, LEAF_SIZE);
+
+        try {
+            final Region region = getRegion(leafX, leafY, leafZ, false);
+            if (region != null) {
+                final ByteBuffer data = region.read(slot(leafX, leafY, leafZ));
+                if (data != null) {
+                    final LeafData result = decode(world, leafId, data);
+                    commit(event, leafId, true);
+                    return result;
+                }
+            }
+        } catch (final IOException e) {
+            log.error("Error reading leaf " + leafId + ", falling back to a generated leaf", e);
+        }
+        final LeafData result = fallback.loadLeaf(leafId);
+        commit(event, leafId, false);
+        return result;
+    }
+
+    private static void commit(final LeafLoadedEvent event, final long leafId, final boolean fromDisk) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.leafId = leafId;
+            event.fromDisk = fromDisk;
+            event.commit();
+        }
+    }
+
+    @Override
+    public synchronized void storeLeaf(final LeafData leaf) {
+        final Vec3i world = leaf.getInfo().location;
+        final int leafX = Math.floorDiv(world.x, LEAF_SIZE);
+        final int leafY = Math.floorDiv(world.y, LEAF_SIZE);
+        final int leafZ = Math.floorDiv(world.z, LEAF_SIZE);
+
+        try {
+            final Region region = getRegion(leafX, leafY, leafZ, true);
+            region.write(slot(leafX, leafY, leafZ), encode(leaf));
+        } catch (final IOException e) {
+            log.error("Error storing leaf " + leaf.getInfo().leafId, e);
+        }
+    }
+
+    /**
+     * Returns a value stored alongside the leaves, used to remember what has been
+     * written into the world across restarts.
+     *
+     * @param key the stamp name
+     * @return the stamp, or -1 if there is none
+     */
+    public synchronized long getStamp(final String key) {
+        final String value = stamps.getProperty(key);
+        return value == null ? -1 : Long.parseLong(value);
+    }
+
+    /**
+     * Stores a value alongside the leaves, see getStamp().
+     *
+     * @param key   the stamp name
+     * @param value the stamp value
+     */
+    public synchronized void setStamp(final String key, final long value) {
+        stamps.setProperty(key, String.valueOf(value));
+        try (OutputStream out = Files.newOutputStream(directory.resolve(STAMP_FILE))) {
+            stamps.store(out, "World stamps");
+        } catch (final IOException e) {
+            log.error("Error storing stamp " + key, e);
+        }
+    }
+
+    /**
+     * Flushes and closes all open region files. Regions are opened again on the
+     * next load or store.
+     */
+    public synchronized void close() {
+        for (final Iterator<Region> it = regions.values().iterator(); it.hasNext();) {
+            it.next().close();
+            it.remove();
+        }
+    }
+
+    private Region getRegion(final int leafX, final int leafY, final int leafZ, final boolean create)
+            throws IOException {
+        final int rx = leafX >> REGION_SHIFT;
+        final int ry = leafY >> REGION_SHIFT;
+        final int rz = leafZ >> REGION_SHIFT;
+        final Long key = Long.valueOf((rx & 0x1fffffL) | (ry & 0x1fffffL) << 21 | (rz & 0x1fffffL) << 42);
+
+        Region region = regions.get(key);
+        if (region == null) {
+            final Path file = directory.resolve("r." + rx + "." + ry + "." + rz + ".leaves");
+            if (!create && !Files.exists(file)) {
+                return null;
+            }
+            region = new Region(file);
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    private static int slot(final int leafX, final int leafY, final int leafZ) {
+        return (leafX & REGION_MASK) | (leafY & REGION_MASK) << REGION_SHIFT
+                | (leafZ & REGION_MASK) << (REGION_SHIFT * 2);
+    }
+
+    /**
+     * Encodes the leaf as one of three kinds: empty leaves are just the kind,
+     * leaves with all cells in one y layer (any leaf of a flat arena) run length
+     * encode that layer only, and everything else run length encodes all cells,
+     * x fastest then z then y.
+     */
+    private ByteBuffer encode(final LeafData leaf) {
+        if (leaf.isEmpty()) {
+            final ByteBuffer result = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            result.putInt(KIND_EMPTY).rewind();
+            return result;
+        }
+
+        // Find out which layers have anything in them
+        int layers = 0;
+        for (int j = 0; j < LEAF_SIZE; j++) {
+            for (int k = 0; k < LEAF_SIZE; k++) {
+                for (int i = 0; i < LEAF_SIZE; i++) {
+                    if (leaf.getCell(i, j, k) != 0) {
+                        layers |= 1 << j;
+                        break;
+                    }
+                }
+                if ((layers & (1 << j)) != 0) {
+                    break;
+                }
+            }
+        }
+
+        final boolean flat = Integer.bitCount(layers) == 1;
+        final int layer = Integer.numberOfTrailingZeros(layers);
+        final int count = flat ? encodeRuns(leaf, layer, layer + 1) : encodeRuns(leaf, 0, LEAF_SIZE);
+
+        final ByteBuffer result = ByteBuffer.allocate(16 + count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(flat ? KIND_FLAT : KIND_RUNS);
+        result.putInt(flat ? layer : 0);
+        result.putInt(countEmpty(count) + (flat ? LeafInfo.CELL_COUNT - LEAF_SIZE * LEAF_SIZE : 0));
+        result.putInt(count / 2);
+        result.asIntBuffer().put(runs, 0, count);
+        result.rewind();
+        return result;
+    }
+
+    /**
+     * Run length encodes the layers from yStart up to yEnd into the runs array.
+     *
+     * @return the number of ints used in the runs array
+     */
+    private int encodeRuns(final LeafData leaf, final int yStart, final int yEnd) {
+        int count = 0;
+        int run = 0;
+        int last = leaf.getCell(0, yStart, 0);
+        for (int j = yStart; j < yEnd; j++) {
+            for (int k = 0; k < LEAF_SIZE; k++) {
+                for (int i = 0; i < LEAF_SIZE; i++) {
+                    final int val = leaf.getCell(i, j, k);
+                    if (val != last) {
+                        runs[count++] = run;
+                        runs[count++] = last;
+                        last = val;
+                        run = 0;
+                    }
+                    run++;
+                }
+            }
+        }
+        runs[count++] = run;
+        runs[count++] = last;
+        return count;
+    }
+
+    private int countEmpty(final int count) {
+        int empty = 0;
+        for (int r = 0; r < count; r += 2) {
+            if (runs[r + 1] == 0) {
+                empty += runs[r];
+            }
+        }
+        return empty;
+    }
+
+    private static LeafData decode(final Vec3i world, final long leafId, final ByteBuffer data) {
+        final int kind = data.getInt();
+        if (kind == KIND_EMPTY) {
+            return EmptyLeafDb.createEmptyLeaf(leafId);
+        }
+        final int layer = data.getInt();
+        final int empty = data.getInt();
+        final int runCount = data.getInt();
+        final CellArray cells = new CellArray(LEAF_SIZE);
+
+        // For flat leaves the index runs over the one layer only
+        int index = kind == KIND_FLAT ? layer * LEAF_SIZE * LEAF_SIZE : 0;
+        for (int r = 0; r < runCount; r++) {
+            final int run = data.getInt();
+            final int val = data.getInt();
+            if (val != 0) {
+                for (int end = index + run; index < end; index++) {
+                    cells.setCell(index % LEAF_SIZE, index / (LEAF_SIZE * LEAF_SIZE), (index / LEAF_SIZE) % LEAF_SIZE,
+                            val);
+                }
+            } else {
+                index += run;
+            }
+        }
+        return new LeafData(new LeafInfo(world, leafId), cells, empty);
+    }
+
+    /**
+     * One region file and its leaf index.
+     *
+     * The whole file is mapped read/write and leaves are written straight into
+     * the mapping. The file is grown, and mapped again, in chunks that double in
+     * size, so a store only remaps when the region actually runs out of room.
+     * Each slot remembers the capacity it was given, a leaf that fits is written
+     * over its old copy. When a leaf has to move and more than half of the used
+     * part of the file is garbage the live leaves are packed together first.
+     */
+    private static class Region {
+        private final Path file;
+        private final FileChannel channel;
+        private final int[] offsets = new int[SLOTS];
+        private final int[] lengths = new int[SLOTS];
+        private final int[] capacities = new int[SLOTS];
+        private MappedByteBuffer mapped;
+        // End of the used part of the file and the bytes held by live slots
+        private int end;
+        private int live;
+
+        public Region(final Path file) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                if (channel.size() == 0) {
+                    reset();
+                } else {
+                    open();
+                }
+            } catch (final IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void reset() throws IOException {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + INITIAL_DATA_SIZE);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            mapped.putInt(0, MAGIC).putInt(4, VERSION);
+            setEnd(HEADER_SIZE);
+        }
+
+        private void open() throws IOException {
+            final ByteBuffer start = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(start, 0);
+            if (start.getInt(0) != MAGIC) {
+                throw new IOException("Not a region file:" + file);
+            }
+            if (start.getInt(4) != VERSION) {
+                throw new IOException("Unsupported region file version " + start.getInt(4) + ", expected " + VERSION
+                        + ":" + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            end = mapped.getInt(8);
+            for (int i = 0; i < SLOTS; i++) {
+                offsets[i] = mapped.getInt(INDEX_OFFSET + i * 12);
+                lengths[i] = mapped.getInt(INDEX_OFFSET + i * 12 + 4);
+                capacities[i] = mapped.getInt(INDEX_OFFSET + i * 12 + 8);
+                live += capacities[i];
+            }
+        }
+
+        /**
+         * @return the leaf data or null if the leaf has not been stored
+         */
+        public ByteBuffer read(final int slot) {
+            if (offsets[slot] == 0) {
+                return null;
+            }
+            final ByteBuffer result = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            result.limit(offsets[slot] + lengths[slot]).position(offsets[slot]);
+            return result;
+        }
+
+        /**
+         * Writes the leaf over its old copy if it fits, otherwise at the end of the
+         * used part of the file, and then updates the index.
+         */
+        public void write(final int slot, final ByteBuffer data) throws IOException {
+            final int length = data.remaining();
+            int offset = offsets[slot];
+            int capacity = capacities[slot];
+            if (offset == 0 || length > capacity) {
+                // Give up the old space and take new space at the end
+                live -= capacity;
+                setSlot(slot, 0, 0, 0);
+                final int used = end - HEADER_SIZE;
+                if (used - live > used / 2 && used - live >= MIN_COMPACT_GARBAGE) {
+                    compact();
+                }
+                if ((long) end + length > Integer.MAX_VALUE) {
+                    throw new IOException("Region file is full:" + file);
+                }
+                ensureSize(end + length);
+                offset = end;
+                capacity = length;
+                live += length;
+                setEnd(end + length);
+            }
+            final ByteBuffer target = mapped.duplicate();
+            target.position(offset);
+            target.put(data);
+            setSlot(slot, offset, length, capacity);
+        }
+
+        /**
+         * Moves all live leaves down to the start of the data area, in file order,
+         * so that the garbage between them ends up past the new end.
+         */
+        private void compact() {
+            final long[] order = new long[SLOTS];
+            int count = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (offsets[i] != 0) {
+                    order[count++] = (long) offsets[i] << 32 | i;
+                }
+            }
+            Arrays.sort(order, 0, count);
+
+            int position = HEADER_SIZE;
+            byte[] copy = new byte[0];
+            for (int c = 0; c < count; c++) {
+                final int slot = (int) order[c];
+                final int length = lengths[slot];
+                if (offsets[slot] != position) {
+                    if (copy.length < length) {
+                        copy = new byte[length];
+                    }
+                    final ByteBuffer from = mapped.duplicate();
+                    from.position(offsets[slot]);
+                    from.get(copy, 0, length);
+                    final ByteBuffer to = mapped.duplicate();
+                    to.position(position);
+                    to.put(copy, 0, length);
+                }
+                setSlot(slot, position, length, length);
+                position += length;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Compacted " + file + " from " + end + " to " + position + " bytes");
+            }
+            live = position - HEADER_SIZE;
+            setEnd(position);
+        }
+
+        /**
+         * Grows the file, and the mapping with it, to hold at least size bytes.
+         */
+        private void ensureSize(final int size) throws IOException {
+            if (size <= mapped.capacity()) {
+                return;
+            }
+            final long grown = Math.min(Math.max((long) size, mapped.capacity() * 2L), Integer.MAX_VALUE);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void setSlot(final int slot, final int offset, final int length, final int capacity) {
+            offsets[slot] = offset;
+            lengths[slot] = length;
+            capacities[slot] = capacity;
+            final int entry = INDEX_OFFSET + slot * 12;
+            mapped.putInt(entry, offset).putInt(entry + 4, length).putInt(entry + 8, capacity);
+        }
+
+        private void setEnd(final int end) {
+            this.end = end;
+            mapped.putInt(8, end);
+        }
+
+        public void close() {
+            try {
+                mapped.force();
+                mapped = null;
+                channel.close();
+            } catch (final IOException e) {
+                log.error("Error closing region file " + file, e);
+            }
+        }
+    }
+}
@@ -40,13 +40,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.jme3.network.HostedConnection;
-import com.jme3.network.Network;
 import com.jme3.network.Server;
+import com.jme3.network.base.DefaultServer;
+import com.jme3.network.kernel.tcp.SelectorKernel;
+import com.jme3.network.kernel.udp.UdpKernel;
 import com.jme3.network.serializing.Serializer;
 import com.jme3.network.serializing.serializers.FieldSerializer;
 import com.jme3.network.service.AbstractHostedService;
@@ -57,7 +62,6 @@ import com.jme3.network.service.rpc.RpcHostedService;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.Name;
-import com.simsilica.es.base.DefaultEntityData;
 import com.simsilica.es.common.Decay;
 import com.simsilica.es.server.EntityDataHostedService;
 import com.simsilica.es.server.EntityUpdater; // from SiO2
@@ -87,7 +91,6 @@ import com.simsilica.mworld.db.LeafDb;
 import com.simsilica.mworld.db.LeafDbCache;
 import com.simsilica.mworld.net.server.WorldHostedService;
 import com.simsilica.sim.GameLoop;
-import com.simsilica.sim.GameSystemManager;
 import com.simsilica.sim.common.DecaySystem;
 
 import infinity.InfinityConstants;
@@ -103,17 +106,29 @@ import infinity.es.PointLightComponent;
 import infinity.es.ShapeNames;
 import infinity.es.TileType;
 import infinity.es.input.MovementInput;
+import infinity.net.AudioEvents;
+import infinity.net.AudioEventsSerializer;
+import infinity.net.InputFrames;
 import infinity.server.chat.ChatHostedService;
+import infinity.server.lobby.LobbyLink;
+import infinity.server.profile.CountingEntityData;
+import infinity.server.profile.CountingKernel;
+import infinity.server.profile.MetricsEndpoint;
+import infinity.sim.CoreGameConstants;
 import infinity.sim.InfinityEntityBodyFactory;
 import infinity.sim.InfinityPhysicsManager;
 import infinity.systems.ArenaSystem;
 import infinity.systems.AttackSystem;
+import infinity.systems.AudioEventSystem;
 import infinity.systems.AvatarSystem;
+import infinity.systems.BotSystem;
 import infinity.systems.ContactSystem;
 import infinity.systems.EnergySystem;
 import infinity.systems.InfinityTimeSystem;
+import infinity.systems.LagCompensationSystem;
 import infinity.systems.MapSystem;
 import infinity.systems.MovementSystem;
+import infinity.systems.ProjectileSystem;
 import infinity.systems.SettingsSystem;
 import infinity.util.AdaptiveLoadingService;
 
@@ -133,23 +148,72 @@ public class GameServer {
     static Logger log = LoggerFactory.getLogger(GameServer.class);
 
     private Server server;
-    private GameSystemManager systems;
+    private final int port;
+    private final String arenaId;
+    private final ArenaHost arenaHost;
+    private final boolean ownsArenaHost;
+    private ScheduledGameSystemManager systems;
     private GameLoop loop;
+    private FileLeafDb leafStore;
+    private MetricsEndpoint metrics;
+    private CountingKernel reliableKernel;
+    private CountingKernel fastKernel;
+
+    /**
+     * Where the world leaves are stored, relative to the working directory.
+     */
+    public static final String WORLD_DIRECTORY = "world";
+
+    /**
+     * Where the worlds of the arenas other than the default one are stored,
+     * inside the world directory.
+     */
+    public static final String ARENA_DIRECTORY = "arenas";
+
+    private static boolean serializersRegistered;
 
     // private String description;
 
-    public GameServer(final int port, @SuppressWarnings("unused") final String description) throws IOException {
-        // this.description = description;
+    public GameServer(final int port, final String description) throws IOException {
+        this(port, description, CoreGameConstants.DEFAULTARENAID, null);
+    }
 
-        // Make sure we are running with a fresh serializer registry
-        Serializer.initialize();
+    /**
+     * Creates the server of one arena.
+     *
+     * @param arenaHost the host the arena belongs to, or null to create a new host
+     *                  with this server as its default arena
+     */
+    public GameServer(final int port, final String description, final String arenaId, final ArenaHost arenaHost)
+            throws IOException {
+        // this.description = description;
+        this.port = port;
+        this.arenaId = arenaId;
+        this.ownsArenaHost = arenaHost == null;
+        this.arenaHost = ownsArenaHost ? new ArenaHost(port, description) : arenaHost;
+
+        // Make sure we are running with a fresh serializer registry. The registry
+        // is static, so arenas in the same process must not reset it under each
+        // other.
+        synchronized (GameServer.class) {
+            if (!serializersRegistered) {
+                Serializer.initialize();
+                registerSerializers();
+                serializersRegistered = true;
+            }
+        }
 
-        systems = new GameSystemManager();
+        systems = new ScheduledGameSystemManager(this.arenaHost.getPool());
         loop = new GameLoop(systems);
 
         // Create the SpiderMonkey server and setup our standard
         // initial hosted services
-        server = Network.createServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, port, port);
+        // The same kernels Network.createServer() would use, wrapped so the
+        // metrics can count the traffic on them
+        reliableKernel = new CountingKernel(new SelectorKernel(port), "reliable");
+        fastKernel = new CountingKernel(new UdpKernel(port), "fast");
+        server = new DefaultServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, reliableKernel,
+                fastKernel);
 
         // Create a separate channel to do chat stuff so it doesn't interfere
         // with any real game stuff.
@@ -193,13 +257,19 @@ public class GameServer {
 
         // Setup our entity data and the hosting service
         // Make the EntityData available to other systems
-        final DefaultEntityData ed = new DefaultEntityData();
+        final CountingEntityData ed = new CountingEntityData();
         systems.register(EntityData.class, ed);
+        systems.setEntityCounter(ed);
         server.getServices().addService(new EntityDataHostedService(InfinityConstants.ES_CHANNEL, ed));
 
-        // Just create a test world for now
+        // Keep the world on disk so edits survive a restart, leaves that were never
+        // stored come from the generator
         // LeafDb leafDb2 = new LeafDbCache(new TestLeafDb());
-        final LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
+        leafStore = new FileLeafDb(getWorldDirectory(arenaId), new EmptyLeafDb());
+        systems.register(FileLeafDb.class, leafStore);
+        final LeafDb leafDb = new LeafDbCache(leafStore);
+
+        systems.register(LeafDb.class, leafDb);
 
         final DefaultWorld world = new DefaultWorld(leafDb);
         systems.register(DefaultWorld.class, world);
@@ -263,7 +333,8 @@ public class GameServer {
 
         final Collider[] colliders = new ColliderFactories(true).createColliders(DefaultBlockSet.createBlockTypes());
 
-        mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(leafDb, colliders));
+        // Empty leaves have no cell array, the collision system gets a shared empty one
+        mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(new CollisionLeafDb(leafDb), colliders));
 
         // mphys.addPhysicsListener(new PositionUpdater(ed));
         // systems.register(InfinityMPhysSystem.class, mphys);
@@ -277,8 +348,14 @@ public class GameServer {
         systems.register(EnergySystem.class, new EnergySystem());
         systems.register(AvatarSystem.class, new AvatarSystem(chp));
         systems.register(MovementSystem.class, new MovementSystem());
+        systems.register(ProjectileSystem.class, new ProjectileSystem());
         systems.register(AttackSystem.class, new AttackSystem());
-        systems.register(ArenaSystem.class, new ArenaSystem());
+        systems.register(LagCompensationSystem.class, new LagCompensationSystem());
+        systems.register(AudioEventSystem.class,
+                new AudioEventSystem(InfinityConstants.ZONE_GRID, InfinityConstants.ZONE_RADIUS));
+        systems.register(ArenaSystem.class, new ArenaSystem(arenaId, this.arenaHost));
+        final BotSystem bots = systems.register(BotSystem.class, new BotSystem(this.arenaHost.getPool()));
+        systems.addSystem(bots.getPopulation());
 
         // Set up contacts to be filtered
         final ContactSystem contactSystem = new ContactSystem();
@@ -338,9 +415,6 @@ public class GameServer {
         // And the system that will publish the BodyPosition components
         systems.addSystem(new BodyPositionPublisher<>());
 
-        // Register some custom serializers
-        registerSerializers();
-
         // NavGraph navGraph = new NavGraph();
         // systems.register(NavGraph.class, navGraph);
         //
@@ -359,6 +433,20 @@ public class GameServer {
         // log.info("Initializing game systems...");
         // Initialize the game system manager to prepare to start later
         // systems.initialize();
+
+        if (ownsArenaHost) {
+            this.arenaHost.addArena(arenaId, this);
+        }
+    }
+
+    private static Path getWorldDirectory(final String arenaId) {
+        if (CoreGameConstants.DEFAULTARENAID.equals(arenaId)) {
+            return Paths.get(WORLD_DIRECTORY);
+        }
+        // Keeps the arena name from walking out of the arena directory, and two
+        // arenas from sharing one
+        ArenaHost.checkArenaId(arenaId);
+        return Paths.get(WORLD_DIRECTORY, ARENA_DIRECTORY, arenaId);
     }
 
     protected void registerSerializers() {
@@ -395,13 +483,27 @@ public class GameServer {
         Serializer.registerClass(Decay.class, new FieldSerializer());
 
         Serializer.registerClass(MovementInput.class, new FieldSerializer());
+        Serializer.registerClass(AudioEvents.class, new AudioEventsSerializer());
+        Serializer.registerClass(InputFrames.class, new FieldSerializer());
     }
 
     public Server getServer() {
         return server;
     }
 
-    public GameSystemManager getSystems() {
+    public int getPort() {
+        return port;
+    }
+
+    public String getArenaId() {
+        return arenaId;
+    }
+
+    public ArenaHost getArenaHost() {
+        return arenaHost;
+    }
+
+    public ScheduledGameSystemManager getSystems() {
         return systems;
     }
 
@@ -416,12 +518,28 @@ public class GameServer {
         log.info("Game server started.");
     }
 
+    /**
+     * Serves the server metrics over http on the given port until the server is
+     * closed.
+     */
+    public void startMetrics(final int port) throws IOException {
+        metrics = new MetricsEndpoint(server, systems, port);
+        metrics.addChannel(reliableKernel);
+        metrics.addChannel(fastKernel);
+        metrics.start();
+    }
+
     /**
      * Kicks all current connection, closes the network host, stops all systems, and
      * finally terminates them. The GameServer is not restartable at this point.
      */
     public void close(final String kickMessage) {
         log.info("Stopping game server..." + kickMessage);
+        if (metrics != null) {
+            metrics.stop();
+        }
+        // The loop runs its phases on the arena host's pool, so it has to stop
+        // before the pool is shut down with the host at the end
         loop.stop();
 
         if (kickMessage != null) {
@@ -436,6 +554,10 @@ public class GameServer {
             systems.stop();
             systems.terminate();
         }
+        leafStore.close();
+        if (ownsArenaHost) {
+            arenaHost.close();
+        }
         log.info("Game server stopped.");
     }
 
@@ -481,11 +603,51 @@ public class GameServer {
         final StringWriter sOut = new StringWriter();
         try (PrintWriter out = new PrintWriter(sOut)) {
             boolean hasDescription = false;
-            for (int i = 0; i < args.length; i++) {
-                if ("-m".equals(args[i])) {
-                    out.println(args[++i]);
-                    hasDescription = true;
+            int metricsPort = -1;
+            boolean serial = false;
+            int port = InfinityConstants.DEFAULT_PORT;
+            String host = "127.0.0.1";
+            String lobbyHost = null;
+            int registryPort = InfinityConstants.DEFAULT_REGISTRY_PORT;
+            int botCount = 0;
+            String[] openable = new String[0];
+            int maxArenas = ArenaHost.DEFAULT_MAX_ARENAS;
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    if ("-m".equals(args[i])) {
+                        out.println(args[++i]);
+                        hasDescription = true;
+                    } else if ("-metrics".equals(args[i])) {
+                        metricsPort = Integer.parseInt(args[++i]);
+                    } else if ("-serial".equals(args[i])) {
+                        serial = true;
+                    } else if ("-port".equals(args[i])) {
+                        port = Integer.parseInt(args[++i]);
+                    } else if ("-host".equals(args[i])) {
+                        // The address other machines reach this server on
+                        host = args[++i];
+                    } else if ("-lobby".equals(args[i])) {
+                        lobbyHost = args[++i];
+                    } else if ("-registry".equals(args[i])) {
+                        registryPort = Integer.parseInt(args[++i]);
+                    } else if ("-bots".equals(args[i])) {
+                        botCount = Integer.parseInt(args[++i]);
+                    } else if ("-arenas".equals(args[i])) {
+                        // The arenas players may start by joining them
+                        openable = args[++i].split(",");
+                        for (final String id : openable) {
+                            ArenaHost.checkArenaId(id);
+                        }
+                    } else if ("-maxArenas".equals(args[i])) {
+                        maxArenas = Integer.parseInt(args[++i]);
+                    }
                 }
+            } catch (final IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Bad arguments:" + Arrays.toString(args));
+                System.err.println("Usage: GameServer [-m description] [-metrics port] [-serial] [-port port]"
+                        + " [-host address] [-lobby host] [-registry port] [-bots count] [-arenas id,id...]"
+                        + " [-maxArenas count]");
+                return;
             }
             if (!hasDescription) {
                 // Put a default description in
@@ -502,24 +664,87 @@ public class GameServer {
             out.flush();
             final String desc = sOut.toString();
 
-            final GameServer gs = new GameServer(InfinityConstants.DEFAULT_PORT, desc);
-            gs.start();
+            final GameServer gs = new GameServer(port, desc);
+            gs.systems.setParallel(!serial);
+            LobbyLink lobby = null;
+            try {
+                gs.arenaHost.setMaxArenas(maxArenas);
+                gs.arenaHost.setOpenableArenas(openable);
+                gs.start();
+                if (metricsPort > 0) {
+                    gs.startMetrics(metricsPort);
+                }
+                final BotSystem bots = gs.systems.get(BotSystem.class);
+                bots.addBots(botCount);
+                if (lobbyHost != null) {
+                    lobby = new LobbyLink(gs.arenaHost, host, lobbyHost, registryPort);
+                    gs.arenaHost.setRouter(lobby);
+                    lobby.start();
+                }
 
-            final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.length() == 0) {
-                    continue;
+                final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() == 0) {
+                        continue;
+                    }
+                    if ("exit".equals(line)) {
+                        break;
+                    }
+                    try {
+                        if ("stats".equals(line)) {
+                            gs.logStats();
+                        } else if ("profile".equals(line)) {
+                            System.out.print(gs.systems.getReport());
+                        } else if ("profile reset".equals(line)) {
+                            gs.systems.reset();
+                        } else if ("arenas".equals(line)) {
+                            for (final String id : gs.arenaHost.getArenaIds()) {
+                                System.out.println(id + " port:" + gs.arenaHost.getPort(id));
+                            }
+                        } else if (line.startsWith("arena open ")) {
+                            final String id = line.substring("arena open ".length()).trim();
+                            System.out.println("Arena " + id + " on port:" + gs.arenaHost.openArena(id));
+                        } else if (line.startsWith("arena close ")) {
+                            gs.arenaHost.closeArena(line.substring("arena close ".length()).trim());
+                        } else if ("bots".equals(line)) {
+                            System.out.println(bots.getBotCount() + " bots, minimum population:"
+                                    + bots.getMinimumPopulation());
+                        } else if (line.startsWith("bots add ")) {
+                            bots.addBots(Integer.parseInt(line.substring("bots add ".length()).trim()));
+                        } else if (line.startsWith("bots remove ")) {
+                            bots.addBots(-Integer.parseInt(line.substring("bots remove ".length()).trim()));
+                        } else if (line.startsWith("bots fill ")) {
+                            bots.setMinimumPopulation(
+                                    Integer.parseInt(line.substring("bots fill ".length()).trim()));
+                        } else if ("schedule".equals(line)) {
+                            System.out.println((gs.systems.isParallel() ? "Parallel" : "Serial") + " phases:");
+                            System.out.print(gs.systems.getSchedule());
+                        } else if ("schedule serial".equals(line)) {
+                            gs.systems.setParallel(false);
+                        } else if ("schedule parallel".equals(line)) {
+                            gs.systems.setParallel(true);
+                        } else if (line.startsWith("profile dump ")) {
+                            final Path file = Paths.get(line.substring("profile dump ".length()).trim());
+                            gs.systems.dump(file);
+                            System.out.println("Profile written to:" + file.toAbsolutePath());
+                        } else {
+                            System.err.println("Unknown command:" + line);
+                        }
+                    } catch (final NumberFormatException e) {
+                        System.err.println("Not a number:" + line);
+                        System.err.println("Usage: bots add <count> | bots remove <count> | bots fill <count>");
+                    } catch (final IOException | IllegalArgumentException | IllegalStateException e) {
+                        System.err.println("Error running:" + line + " " + e);
+                    }
                 }
-                if ("exit".equals(line)) {
-                    break;
-                } else if ("stats".equals(line)) {
-                    gs.logStats();
-                } else {
-                    System.err.println("Unknown command:" + line);
+            } finally {
+                if (lobby != null) {
+                    gs.arenaHost.setRouter(null);
+                    lobby.close();
                 }
+                gs.close();
             }
-            gs.close();
         }
     }
 
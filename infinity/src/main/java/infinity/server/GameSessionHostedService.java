@@ -35,6 +35,7 @@
  */
 package infinity.server;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -48,6 +49,7 @@ import com.jme3.network.service.Service;
 import com.jme3.network.service.rmi.RmiHostedService;
 import com.jme3.network.service.rmi.RmiRegistry;
 
+import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.Name;
@@ -60,13 +62,28 @@ import com.simsilica.mathd.Vec3d;
 import com.simsilica.mphys.PhysicsSpace;
 import com.simsilica.sim.GameSystemManager;
 
+import infinity.es.ArenaId;
+import infinity.es.Frequency;
+import infinity.es.Gold;
+import infinity.es.TileType;
 import infinity.es.input.MovementInput;
+import infinity.es.ship.Energy;
 import infinity.es.ship.Player;
+import infinity.es.ship.weapons.BombFireDelay;
+import infinity.es.ship.weapons.GravityBombFireDelay;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.es.ship.weapons.MineFireDelay;
+import infinity.net.AudioEvents;
 import infinity.net.GameSession;
 import infinity.net.GameSessionListener;
+import infinity.net.InputFrames;
 import infinity.sim.GameEntities;
+import infinity.systems.ArenaSystem;
 import infinity.systems.AttackSystem;
+import infinity.systems.AudioEventSystem;
+import infinity.systems.LagCompensationSystem;
 import infinity.systems.MapSystem;
+import infinity.systems.MovementSystem;
 
 /**
  *
@@ -79,6 +96,14 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
     private static final String ATTRIBUTE_SESSION = "game.session";
 
+    /**
+     * The components that are only replicated for entities in or near the
+     * client's zones or on its team. BodyPosition has its own BodyVisibility.
+     */
+    private static final List<Class<? extends EntityComponent>> INTEREST_TYPES = Arrays.asList(Energy.class,
+            Gold.class, Frequency.class, TileType.class, GunFireDelay.class, BombFireDelay.class,
+            MineFireDelay.class, GravityBombFireDelay.class);
+
     private final GameSystemManager gameSystems;
     private EntityData ed;
 
@@ -171,7 +196,8 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
     /**
      * The connection-specific 'host' for the GameSession.
      */
-    private class GameSessionImpl implements GameSession {
+    private class GameSessionImpl
+            implements GameSession, AudioEventSystem.AudioListener, MovementSystem.InputListener {
 
         private boolean selfSet = false;
 
@@ -199,6 +225,10 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
         private final EntityId playerEntityId;
         // private final BinIndex binIndex;
         private final AttackSystem attackSystem;
+        private final AudioEventSystem audioSystem;
+        private final ArenaSystem arenaSystem;
+        private final MovementSystem movementSystem;
+        private ClientInterest interest;
         // private MapSystem mapSystem;
 
         public GameSessionImpl(final HostedConnection conn) {
@@ -207,16 +237,24 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             phys = gameSystems.get(PhysicsSpace.class, true);
             // mphys = gameSystems.get(MPhysSystem.class, true);
             attackSystem = gameSystems.get(AttackSystem.class, true);
+            audioSystem = gameSystems.get(AudioEventSystem.class, true);
+            arenaSystem = gameSystems.get(ArenaSystem.class, true);
+            movementSystem = gameSystems.get(MovementSystem.class, true);
             // this.mapSystem = gameSystems.get(MapSystem.class, true);
 
             // binIndex = phys.getBinIndex();
 
             playerEntityId = ed.createEntity();
             ed.setComponent(playerEntityId, new Name(conn.getAttribute("player")));
+            ed.setComponent(playerEntityId, new ArenaId(arenaSystem.getArenaId()));
 
             avatarEntityId = GameEntities.createWarbird(ed, playerEntityId, phys, 0);
 
             ed.setComponent(avatarEntityId, new Player());
+            ed.setComponent(avatarEntityId, new ArenaId(arenaSystem.getArenaId()));
+            // Gets the avatar a driver before the first input arrives, the input
+            // stream feeds the driver directly after that
+            ed.setComponent(avatarEntityId, new MovementInput(new Vec3d()));
 
             System.out.println("avatarId(" + avatarEntityId.getId() + ")");
 
@@ -250,18 +288,37 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             // BodyVisibility(ethereal.getStateListener(conn)));
             hed.registerComponentVisibility(new BodyVisibility(ethereal.getStateListener(conn)));
 
+            // Everything else that changes a lot is limited to what is in the
+            // zones or on the same team
+            interest = new ClientInterest(ed, ethereal.getStateListener(conn), avatarEntityId);
+            for (final Class<? extends EntityComponent> type : INTEREST_TYPES) {
+                hed.registerComponentVisibility(new InterestVisibility(interest, type));
+            }
+
+            // Sounds are sent straight to the client instead of as entities
+            audioSystem.addAudioListener(this);
+            // Lets the client line its prediction up with the server
+            movementSystem.addInputListener(avatarEntityId, this);
+
             log.info("GameSessionImpl.initialized()");
         }
 
         public void close() {
             log.debug("Closing game session for:" + conn);
+            audioSystem.removeAudioListener(this);
+            movementSystem.removeInputListener(avatarEntityId);
+            if (interest != null) {
+                interest.release();
+            }
             // Remove our physics body
             //// physics.removeBody(shipEntity);
             // Physics body is now removed as a side-effect of the entity
             // going away.
 
-            // Remove the ship we created
-            // ed.removeEntity(shipEntity);
+            // Remove the ship we created, players moving to another arena
+            // would otherwise leave their ship behind
+            ed.removeEntity(avatarEntityId);
+            ed.removeEntity(playerEntityId);
         }
 
         @Override
@@ -293,6 +350,9 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             }
 
             lastViewLoc.set(location);
+            if (interest != null) {
+                interest.setViewLocation(location);
+            }
             lastViewOrient.set(rotation);
         }
 
@@ -329,11 +389,37 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             return callback;
         }
 
+        @Override
+        public void getAudioLocation(final Vec3d store) {
+            store.set(lastViewLoc);
+        }
+
+        @Override
+        public void playAudio(final AudioEvents events) {
+            final GameSessionListener l = getCallback(false);
+            if (l != null) {
+                l.playAudio(events);
+            }
+        }
+
         @Override
         public void move(final MovementInput movementForces) {
             ed.setComponent(avatarEntityId, movementForces);
         }
 
+        @Override
+        public void input(final InputFrames frames) {
+            movementSystem.getInputBuffer(avatarEntityId).offer(frames);
+        }
+
+        @Override
+        public void inputConsumed(final short sequence, final long time) {
+            final GameSessionListener l = getCallback(false);
+            if (l != null) {
+                l.inputConsumed(sequence, time);
+            }
+        }
+
         @Override
         public void action(final byte actionInput) {
             return;
@@ -341,7 +427,10 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
         @Override
         public void attack(final byte attackInput) {
-            attackSystem.sessionAttack(avatarEntityId, attackInput);
+            // The player aimed at ships they see a round trip and a bit late
+            final NetworkStateListener nsl = getService(EtherealHost.class).getStateListener(conn);
+            final long ping = nsl == null ? 0 : nsl.getConnectionStats().getAveragePingTime();
+            attackSystem.sessionAttack(avatarEntityId, attackInput, LagCompensationSystem.getCompensation(ping));
         }
 
         @Override
@@ -354,6 +443,23 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
             return;
         }
 
+        @Override
+        public void joinArena(final String arenaId) {
+            if (arenaId == null || arenaId.equals(arenaSystem.getArenaId())) {
+                return;
+            }
+            arenaSystem.routeArena(arenaId, (id, host, port) -> {
+                if (port < 0) {
+                    log.warn("Arena " + id + " is not available for:" + conn);
+                    return;
+                }
+                log.info("Sending " + conn + " to arena " + id + " on " + host + ":" + port);
+                // The client reconnects to the other arena and this session
+                // is closed when the connection goes away
+                getCallback(true).redirect(id, host, port);
+            });
+        }
+
         @Override
         public void map(final byte mapInput, final Vec3d coords) {
             switch (mapInput) {
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.ComponentFilter;
+import com.simsilica.es.EntityChange;
+import com.simsilica.es.EntityComponent;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.server.ComponentVisibility;
+
+import infinity.util.LongObjectMap;
+import infinity.util.LongSet;
+import infinity.util.SortedIdDiff;
+
+/**
+ * Limits the client's visibility of one component type to the entities its
+ * ClientInterest says it cares about: mobile entities in its zones or on its
+ * team, plus static entities. One of these is registered per component type and
+ * they all share the connection's ClientInterest.
+ *
+ * Like BodyVisibility, the mobile ids seen at the last collectChanges() are
+ * kept sorted and merged against the new snapshot. Entities coming into view
+ * get their current component sent, entities leaving it get a removal. The
+ * children of a mobile entity with the component are tracked per parent so
+ * that they come and go with it.
+ *
+ * @author Asser
+ */
+public class InterestVisibility implements ComponentVisibility {
+
+    static Logger log = LoggerFactory.getLogger(InterestVisibility.class);
+
+    private final ClientInterest interest;
+    private final Class<? extends EntityComponent> type;
+    private EntityData ed;
+
+    /**
+     * The interest snapshot as of the last collectChanges(), sorted.
+     */
+    private long[] shownIds = new long[64];
+    private int shownCount;
+
+    /**
+     * The shown ids that have the component and were sent to the client.
+     */
+    private final LongSet visible = new LongSet(64);
+
+    /**
+     * The entities with the component whose parent is mobile, keyed by parent
+     * id, whether they are visible or not.
+     */
+    private final LongObjectMap<Children> children = new LongObjectMap<>();
+
+    private final Diff diff = new Diff();
+
+    public InterestVisibility(final ClientInterest interest, final Class<? extends EntityComponent> type) {
+        this.interest = interest;
+        this.type = type;
+    }
+
+    @Override
+    public Class<? extends EntityComponent> getComponentType() {
+        return type;
+    }
+
+    @Override
+    public void initialize(final EntityData entityData) {
+        ed = entityData;
+    }
+
+    @Override
+    public <T extends EntityComponent> T getComponent(final EntityId entityId, final Class<T> componentType) {
+        if (!isVisible(entityId)) {
+            return null;
+        }
+        return ed.getComponent(entityId, componentType);
+    }
+
+    @Override
+    public synchronized Set<EntityId> getEntityIds(@SuppressWarnings("rawtypes") final ComponentFilter filter) {
+        if (log.isTraceEnabled()) {
+            log.trace("getEntityIds(" + filter + ") for:" + type.getSimpleName());
+        }
+        // Only used when a client sets up a new entity set, so it is fine to
+        // scan the component here
+        final Set<EntityId> results = new HashSet<>();
+        for (final EntityId id : ed.findEntities(filter, type)) {
+            addChild(id);
+            if (isVisible(id)) {
+                visible.add(id.getId());
+                results.add(id);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized boolean collectChanges(final Queue<EntityChange> updates) {
+        interest.refresh();
+        final long[] mobileIds = interest.getMobileIds();
+        final int count = interest.getMobileCount();
+
+        // Drop the changes of our type that the client is not interested in
+        for (final Iterator<EntityChange> it = updates.iterator(); it.hasNext();) {
+            final EntityChange change = it.next();
+            if (change.getComponentType() != type) {
+                continue;
+            }
+            final long id = change.getEntityId().getId();
+            final boolean relevant = Arrays.binarySearch(mobileIds, 0, count, id) >= 0
+                    || interest.isStaticRelevant(change.getEntityId());
+            if (change.getComponent() == null) {
+                visible.remove(id);
+                removeChild(change.getEntityId());
+                interest.forget(id);
+            } else {
+                addChild(change.getEntityId());
+                if (relevant) {
+                    visible.add(id);
+                }
+            }
+            if (relevant) {
+                continue;
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("removing irrelevant change:" + change);
+            }
+            it.remove();
+        }
+
+        // Anything only in the old snapshot left the client's interest and
+        // anything only in the new one came into it, along with their children.
+        // Changes for entering entities that were kept above already made them
+        // visible, so those are not sent twice.
+        diff.begin(updates);
+        SortedIdDiff.diff(shownIds, shownCount, mobileIds, count, diff);
+        final boolean changed = diff.end();
+
+        if (shownIds.length < count) {
+            shownIds = new long[Math.max(count, shownIds.length * 2)];
+        }
+        System.arraycopy(mobileIds, 0, shownIds, 0, count);
+        shownCount = count;
+
+        if (changed && log.isDebugEnabled()) {
+            log.debug("done collectChanges() " + visible.size() + " visible " + type.getSimpleName());
+        }
+
+        return changed;
+    }
+
+    private void addChild(final EntityId id) {
+        final long parent = interest.getMobileParent(id);
+        if (parent == ClientInterest.NO_PARENT) {
+            return;
+        }
+        Children list = children.get(parent);
+        if (list == null) {
+            list = new Children();
+            children.put(parent, list);
+        }
+        list.add(id.getId());
+    }
+
+    private void removeChild(final EntityId id) {
+        final long parent = interest.getMobileParent(id);
+        if (parent == ClientInterest.NO_PARENT) {
+            return;
+        }
+        final Children list = children.get(parent);
+        if (list != null && list.remove(id.getId()) && list.count == 0) {
+            children.remove(parent);
+        }
+    }
+
+    private boolean isVisible(final EntityId id) {
+        return Arrays.binarySearch(shownIds, 0, shownCount, id.getId()) >= 0 || interest.isStaticRelevant(id);
+    }
+
+    /**
+     * Turns the mobile ids that came into and left the interest into entity
+     * changes, for the ones that have the component.
+     */
+    private class Diff implements SortedIdDiff.Listener {
+        private Queue<EntityChange> updates;
+        private boolean changed;
+
+        public void begin(final Queue<EntityChange> updates) {
+            this.updates = updates;
+            changed = false;
+        }
+
+        public boolean end() {
+            updates = null;
+            return changed;
+        }
+
+        @Override
+        public void added(final long is) {
+            show(is);
+            final Children list = children.get(is);
+            if (list != null) {
+                for (int i = 0; i < list.count; i++) {
+                    show(list.ids[i]);
+                }
+            }
+        }
+
+        @Override
+        public void removed(final long was) {
+            hide(was);
+            final Children list = children.get(was);
+            if (list != null) {
+                for (int i = 0; i < list.count; i++) {
+                    hide(list.ids[i]);
+                }
+            }
+        }
+
+        private void show(final long is) {
+            if (visible.contains(is)) {
+                return;
+            }
+            final EntityId id = new EntityId(is);
+            final EntityComponent value = ed.getComponent(id, type);
+            if (value != null) {
+                visible.add(is);
+                updates.add(new EntityChange(id, value));
+                changed = true;
+            }
+        }
+
+        private void hide(final long was) {
+            if (visible.remove(was)) {
+                updates.add(new EntityChange(new EntityId(was), type));
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * The child ids of one parent, unordered.
+     */
+    private static class Children {
+        private long[] ids = new long[4];
+        private int count;
+
+        public void add(final long id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    return;
+                }
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+
+        public boolean remove(final long id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--count];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
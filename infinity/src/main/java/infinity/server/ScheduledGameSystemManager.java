@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.sim.GameSystem;
+import com.simsilica.sim.GameSystemManager;
+import com.simsilica.sim.SimTime;
+
+import infinity.server.profile.ProfiledGameSystemManager;
+import infinity.sim.SystemAccess;
+
+/**
+ * A game system manager that updates systems side by side on a fork-join pool
+ * when their declared SystemAccess does not overlap.
+ *
+ * Systems are grouped into phases in the order they are added. A system with a
+ * SystemAccess joins the phase of the systems added right before it as long as
+ * it does not write anything they read or write and does not read anything
+ * they write. Otherwise it starts a new phase. A system without a SystemAccess,
+ * like the physics system, is a phase of its own and so acts as a barrier: all
+ * systems before it have finished their update before it runs, and none after
+ * it have started.
+ *
+ * Setting the manager to serial runs every phase one system at a time in the
+ * order they were added, on the game loop thread, which is the same as a plain
+ * GameSystemManager and useful for deterministic debugging.
+ *
+ * The systems of a phase are still profiled one by one, each on the thread it
+ * runs on, so their times overlap when the phase runs in parallel.
+ *
+ * The schedule is checked against the declarations when the manager is
+ * initialized, see checkSchedule().
+ *
+ * @author Asser
+ */
+public class ScheduledGameSystemManager extends ProfiledGameSystemManager {
+
+    static Logger log = LoggerFactory.getLogger(ScheduledGameSystemManager.class);
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final List<Phase> phases = new ArrayList<>();
+    private GameSystem last;
+    private volatile boolean parallel = true;
+
+    public ScheduledGameSystemManager() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param parallelism the number of pool threads, the game loop thread runs
+     *                    one system of every phase itself
+     */
+    public ScheduledGameSystemManager(final int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * @param pool a pool shared with other managers, it is not shut down when
+     *             this manager terminates
+     */
+    public ScheduledGameSystemManager(final ForkJoinPool pool) {
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    /**
+     * @param parallel false to update every system in order on the game loop
+     *                 thread
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    @Override
+    public <T extends GameSystem> T addSystem(final T system) {
+        final SystemAccess access = system.getClass().getAnnotation(SystemAccess.class);
+
+        // Systems added to a running manager are not grouped, they would have to
+        // be initialized and started by hand
+        if (access == null || isInitialized()) {
+            last = super.addSystem(system);
+            return system;
+        }
+
+        final Member member = new Member(this, system, system.getClass(), access);
+        if (last instanceof Phase && ((Phase) last).accepts(member)) {
+            ((Phase) last).add(member);
+            return system;
+        }
+
+        final Phase phase = new Phase();
+        phase.add(member);
+        phases.add(phase);
+        last = super.addSystem(phase);
+        return system;
+    }
+
+    @Override
+    public void initialize() {
+        checkSchedule();
+        super.initialize();
+    }
+
+    /**
+     * Makes sure that no two systems of a phase conflict, by comparing every
+     * pair of members and not just each new member with the ones before it.
+     *
+     * @throws IllegalStateException naming the first two conflicting systems
+     */
+    public void checkSchedule() {
+        for (final Phase phase : phases) {
+            for (int i = 0; i < phase.size; i++) {
+                for (int j = i + 1; j < phase.size; j++) {
+                    if (phase.members[i].conflicts(phase.members[j])) {
+                        throw new IllegalStateException("Systems in the same phase conflict: "
+                                + phase.members[i].system.getClass().getName() + " and "
+                                + phase.members[j].system.getClass().getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells if two system types may not update at the same time according to
+     * their SystemAccess. A type without one conflicts with everything.
+     */
+    public static boolean conflicts(final Class<? extends GameSystem> one, final Class<? extends GameSystem> two) {
+        final SystemAccess a = one.getAnnotation(SystemAccess.class);
+        final SystemAccess b = two.getAnnotation(SystemAccess.class);
+        if (a == null || b == null) {
+            return true;
+        }
+        return new Member(null, null, one, a).conflicts(new Member(null, null, two, b));
+    }
+
+    /**
+     * @return the systems of every phase in update order, the systems without
+     *         a SystemAccess are not in a phase
+     */
+    List<List<GameSystem>> getPhases() {
+        final List<List<GameSystem>> result = new ArrayList<>();
+        for (final Phase phase : phases) {
+            final List<GameSystem> systems = new ArrayList<>();
+            for (int i = 0; i < phase.size; i++) {
+                systems.add(phase.members[i].system);
+            }
+            result.add(systems);
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean isProfiled(final GameSystem system) {
+        return !(system instanceof Phase);
+    }
+
+    /**
+     * @return a line per phase with more than one system, naming its systems
+     */
+    public String getSchedule() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Phase phase : phases) {
+            if (phase.size > 1) {
+                sb.append(phase).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void terminate() {
+        super.terminate();
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A system and the types it touches, the system's own class included.
+     */
+    private static class Member extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ScheduledGameSystemManager manager;
+        private final GameSystem system;
+        private final Set<Class<?>> reads;
+        private final Set<Class<?>> writes;
+        private SystemProfile profile;
+        private SimTime time;
+
+        Member(final ScheduledGameSystemManager manager, final GameSystem system, final Class<?> type,
+                final SystemAccess access) {
+            this.manager = manager;
+            this.system = system;
+            this.reads = new HashSet<>(Arrays.asList(access.reads()));
+            this.writes = new HashSet<>(Arrays.asList(access.writes()));
+            writes.add(type);
+        }
+
+        boolean conflicts(final Member other) {
+            return intersects(writes, other.writes) || intersects(writes, other.reads)
+                    || intersects(reads, other.writes);
+        }
+
+        private static boolean intersects(final Set<Class<?>> a, final Set<Class<?>> b) {
+            for (final Class<?> type : a) {
+                if (b.contains(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void update(final SimTime time) {
+            manager.updateProfiled(profile, time);
+        }
+
+        @Override
+        protected void compute() {
+            update(time);
+        }
+    }
+
+    /**
+     * Systems that may update at the same time. The first one is updated on the
+     * calling thread while the others run on the pool.
+     */
+    private class Phase implements GameSystem {
+        private Member[] members = new Member[4];
+        private int size;
+        private String name;
+
+        boolean accepts(final Member member) {
+            for (int i = 0; i < size; i++) {
+                if (members[i].conflicts(member)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(final Member member) {
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            member.profile = addProfile(member.system);
+            members[size++] = member;
+            name = null;
+        }
+
+        @Override
+        public void initialize(final GameSystemManager manager) {
+            for (int i = 0; i < size; i++) {
+                members[i].system.initialize(manager);
+            }
+        }
+
+        @Override
+        public void start() {
+            for (int i = 0; i < size; i++) {
+                members[i].system.start();
+            }
+        }
+
+        @Override
+        public void update(final SimTime time) {
+            if (size == 1 || !parallel) {
+                for (int i = 0; i < size; i++) {
+                    members[i].update(time);
+                }
+                return;
+            }
+
+            int submitted = 1;
+            try {
+                for (; submitted < size; submitted++) {
+                    final Member m = members[submitted];
+                    m.time = time;
+                    m.reinitialize();
+                    pool.execute(m);
+                }
+                members[0].update(time);
+            } finally {
+                // Only the members that made it onto the pool, a shut down pool
+                // rejects the rest
+                for (int i = 1; i < submitted; i++) {
+                    members[i].quietlyJoin();
+                }
+            }
+            for (int i = 1; i < size; i++) {
+                // Rethrows whatever the system threw
+                members[i].join();
+            }
+        }
+
+        @Override
+        public void stop() {
+            for (int i = size - 1; i >= 0; i--) {
+                members[i].system.stop();
+            }
+        }
+
+        @Override
+        public void terminate(final GameSystemManager manager) {
+            for (int i = size - 1; i >= 0; i--) {
+                members[i].system.terminate(manager);
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (name == null) {
+                final StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    if (i > 0) {
+                        sb.append('+');
+                    }
+                    sb.append(members[i].system.getClass().getSimpleName());
+                }
+                name = sb.toString();
+            }
+            return name;
+        }
+    }
+}
@@ -48,6 +48,8 @@ import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 
+import infinity.jfr.ZoneUpdateEvent;
+
 /**
  * A game system that registers a listener with the SimplePhysics system and
  * then forwards those events to the SimEtheral zone manager, which in turn will
@@ -107,18 +109,31 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
         // object. 2x2x2 meters should be good enough... until it isn't.
         // private final AaBBox box = new AaBBox(1);
 
+        // Only set while a recording has zone updates enabled
+        private ZoneUpdateEvent event;
+
         public PhysicsObserver() {
             super();
         }
 
         @Override
         public void startFrame(final long frameTime, final double stepSize) {
+            final ZoneUpdateEvent e = new ZoneUpdateEvent();
+            if (e.isEnabled()) {
+                e.frameTime = frameTime;
+                e.begin();
+                event = e;
+            }
             zones.beginUpdate(frameTime);
         }
 
         @Override
         public void endFrame() {
             zones.endUpdate();
+            if (event != null) {
+                event.commit();
+                event = null;
+            }
         }
 
         @Override
@@ -133,6 +148,9 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
 //        + "  cog bounds:" + body.shape.getCogBounds());
             zones.updateEntity(Long.valueOf(body.id.getId()), active, body.position, body.orientation,
                     body.getWorldBounds());
+            if (event != null) {
+                event.bodies++;
+            }
         }
 
         @Override
@@ -149,6 +167,9 @@ public class ZoneNetworkSystem<S extends AbstractShape> extends AbstractGameSyst
                 log.trace("objectRemoved(" + id + ", " + body + ")");
             }
             zones.remove(Long.valueOf(id.getId()));
+            if (event != null) {
+                event.removed++;
+            }
         }
     }
 }
@@ -40,6 +40,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,6 +82,10 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
     private final List<ChatSessionImpl> players = new CopyOnWriteArrayList<>();
 
     private final HashMap<Pattern, CommandConsumer> patternBiConsumers;
+
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong messagesDelivered = new AtomicLong();
     // private Matcher m;
 
     /**
@@ -101,6 +106,28 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
         // setAutoHost(false);
     }
 
+    /**
+     * @return the number of chat messages players have sent, not counting
+     *         commands
+     */
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    /**
+     * @return the number of chat lines that matched a command pattern
+     */
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    /**
+     * @return the number of chat messages sent out to players
+     */
+    public long getMessagesDelivered() {
+        return messagesDelivered.get();
+    }
+
     protected ChatSessionImpl getChatSession(final HostedConnection conn) {
         return conn.getAttribute(ATTRIBUTE_SESSION);
     }
@@ -195,13 +222,16 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
         }
 
         if (matched) {
+            commandsReceived.incrementAndGet();
             return;
         }
+        messagesReceived.incrementAndGet();
 
         log.info("chat> " + from.name + " said:" + message);
         for (final ChatSessionImpl chatter : players) {
             chatter.newMessage(from.conn.getId(), from.name, message);
         }
+        messagesDelivered.addAndGet(players.size());
     }
 //This method doesn't match patterns. It is only called from other modules, not from player clients. Could potentially allow matching to allow modules to chain commands to other modules
 
@@ -211,6 +241,7 @@ public class ChatHostedService extends AbstractHostedConnectionService implement
         for (final ChatSessionImpl chatter : players) {
             chatter.newMessage(0, from, message);
         }
+        messagesDelivered.addAndGet(players.size());
     }
 
     /**
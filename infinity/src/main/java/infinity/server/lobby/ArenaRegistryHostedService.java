@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.lobby;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.service.AbstractHostedConnectionService;
+import com.jme3.network.service.HostedServiceManager;
+import com.jme3.network.service.rmi.RmiHostedService;
+import com.jme3.network.service.rmi.RmiRegistry;
+
+import infinity.net.lobby.ArenaProcess;
+import infinity.net.lobby.ArenaRegistry;
+import infinity.server.ArenaRouter;
+
+/**
+ * Keeps track of the arena processes that are connected to the lobby and
+ * routes players to them. A running arena is served by the least loaded process
+ * that runs it, new arenas are opened on the least loaded process.
+ *
+ * Processes number the changes to their arenas. The arena list of a report is
+ * only taken when it is at least as new as what the lobby already knows, so a
+ * report that crossed an arenaOpened() on the wire does not drop the new
+ * arena. Players waiting for an arena that does not open within the open
+ * timeout are told it is not available.
+ *
+ * @author Asser
+ */
+public class ArenaRegistryHostedService extends AbstractHostedConnectionService implements ArenaRouter {
+
+    static Logger log = LoggerFactory.getLogger(ArenaRegistryHostedService.class);
+
+    private static final String ATTRIBUTE_PROCESS = "lobby.process";
+
+    /**
+     * The load an arena that is being opened is assumed to add to its process
+     * until the process reports its real load, so that a burst of new arenas is
+     * not all put on the same process.
+     */
+    private static final double OPENING_LOAD = 0.1;
+
+    /**
+     * How long a process gets to open an arena by default, in milliseconds.
+     */
+    public static final long DEFAULT_OPEN_TIMEOUT = 10000;
+
+    private RmiHostedService rmiService;
+
+    private final CopyOnWriteArrayList<ProcessEntry> processes = new CopyOnWriteArrayList<>();
+    private final Map<String, PendingArena> pending = new HashMap<>();
+    private final long openTimeout;
+
+    public ArenaRegistryHostedService() {
+        this(DEFAULT_OPEN_TIMEOUT);
+    }
+
+    /**
+     * @param openTimeout how long a process gets to open an arena, in
+     *                    milliseconds
+     */
+    public ArenaRegistryHostedService(final long openTimeout) {
+        this.openTimeout = TimeUnit.MILLISECONDS.toNanos(openTimeout);
+        setAutoHost(true);
+    }
+
+    @Override
+    protected void onInitialize(final HostedServiceManager s) {
+        rmiService = getService(RmiHostedService.class);
+        if (rmiService == null) {
+            throw new RuntimeException("ArenaRegistryHostedService requires an RMI service.");
+        }
+    }
+
+    @Override
+    public void startHostingOnConnection(final HostedConnection conn) {
+        log.debug("startHostingOnConnection(" + conn + ")");
+
+        final ProcessEntry entry = new ProcessEntry(conn);
+        conn.setAttribute(ATTRIBUTE_PROCESS, entry);
+
+        final RmiRegistry rmi = rmiService.getRmiRegistry(conn);
+        rmi.share(entry, ArenaRegistry.class);
+    }
+
+    @Override
+    public void stopHostingOnConnection(final HostedConnection conn) {
+        log.debug("stopHostingOnConnection(" + conn + ")");
+
+        final ProcessEntry entry = conn.getAttribute(ATTRIBUTE_PROCESS);
+        if (entry == null) {
+            return;
+        }
+        conn.setAttribute(ATTRIBUTE_PROCESS, null);
+        processes.remove(entry);
+        log.info("Arena process left:" + entry);
+
+        // Whoever was waiting for an arena of the process has to go elsewhere
+        final List<PendingArena> orphans = new ArrayList<>();
+        synchronized (this) {
+            pending.values().removeIf(p -> {
+                if (p.process == entry) {
+                    orphans.add(p);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (final PendingArena p : orphans) {
+            for (final Destination d : p.destinations) {
+                route(p.arenaId, d);
+            }
+        }
+    }
+
+    @Override
+    public void route(final String arenaId, final Destination destination) {
+        expirePending();
+
+        ProcessEntry best = null;
+        int bestPort = -1;
+        synchronized (this) {
+            for (final ProcessEntry e : processes) {
+                final Integer port = e.arenas.get(arenaId);
+                if (port != null && (best == null || e.getLoad() < best.getLoad())) {
+                    best = e;
+                    bestPort = port;
+                }
+            }
+            if (best == null) {
+                final PendingArena existing = pending.get(arenaId);
+                if (existing != null) {
+                    existing.destinations.add(destination);
+                    return;
+                }
+                for (final ProcessEntry e : processes) {
+                    if (best == null || e.getLoad() < best.getLoad()) {
+                        best = e;
+                    }
+                }
+                if (best != null) {
+                    final PendingArena p = new PendingArena(arenaId, best, System.nanoTime() + openTimeout);
+                    p.destinations.add(destination);
+                    pending.put(arenaId, p);
+                    best.opening++;
+                }
+            }
+        }
+
+        if (best == null) {
+            log.warn("No arena process available for:" + arenaId);
+            destination.redirect(arenaId, null, -1);
+        } else if (bestPort < 0) {
+            log.info("Opening arena " + arenaId + " on:" + best);
+            best.getCallback().openArena(arenaId);
+        } else {
+            destination.redirect(arenaId, best.host, bestPort);
+        }
+    }
+
+    /**
+     * Gives up on the arenas that did not open in time.
+     */
+    protected void expirePending() {
+        final long now = System.nanoTime();
+        final List<PendingArena> expired = new ArrayList<>();
+        synchronized (this) {
+            pending.values().removeIf(p -> {
+                if (now - p.deadline >= 0) {
+                    p.process.opening--;
+                    expired.add(p);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (final PendingArena p : expired) {
+            log.warn("Arena " + p.arenaId + " did not open in time on:" + p.process);
+            for (final Destination d : p.destinations) {
+                d.redirect(p.arenaId, null, -1);
+            }
+        }
+    }
+
+    /**
+     * @return a line per arena process with its load and arenas
+     */
+    public String getReport() {
+        final StringBuilder sb = new StringBuilder();
+        for (final ProcessEntry e : processes) {
+            sb.append(e).append(" load:").append(String.format("%.2f", Double.valueOf(e.load)));
+            sb.append(" players:").append(e.players).append(" arenas:").append(e.arenas).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private class ProcessEntry implements ArenaRegistry {
+
+        private final HostedConnection conn;
+        private ArenaProcess callback;
+
+        // Written by the connection thread, read under the service lock
+        private volatile String host;
+        private volatile int basePort;
+        private volatile double load;
+        private volatile int players;
+        private volatile Map<String, Integer> arenas = new HashMap<>();
+        // The arena generation of the process the arenas are from
+        private long generation = -1;
+        private int opening;
+
+        ProcessEntry(final HostedConnection conn) {
+            this.conn = conn;
+        }
+
+        protected ArenaProcess getCallback() {
+            if (callback == null) {
+                final RmiRegistry rmi = rmiService.getRmiRegistry(conn);
+                callback = rmi.getRemoteObject(ArenaProcess.class);
+                if (callback == null) {
+                    throw new RuntimeException("Unable to locate process callback for ArenaProcess");
+                }
+            }
+            return callback;
+        }
+
+        double getLoad() {
+            return load + opening * OPENING_LOAD;
+        }
+
+        @Override
+        public void register(final String host, final int basePort) {
+            this.host = host;
+            this.basePort = basePort;
+            // A process that registers again, after a lost answer for example,
+            // is still one process
+            if (processes.addIfAbsent(this)) {
+                log.info("Arena process joined:" + this);
+            }
+        }
+
+        @Override
+        public void report(final long generation, final double tickLoad, final int players,
+                final String[] arenaIds, final int[] ports) {
+            final Map<String, Integer> map = new HashMap<>();
+            for (int i = 0; i < arenaIds.length; i++) {
+                map.put(arenaIds[i], Integer.valueOf(ports[i]));
+            }
+            synchronized (ArenaRegistryHostedService.this) {
+                this.load = tickLoad;
+                this.players = players;
+                if (generation >= this.generation) {
+                    this.generation = generation;
+                    this.arenas = map;
+                }
+            }
+            expirePending();
+        }
+
+        @Override
+        public void arenaOpened(final String arenaId, final int port, final long generation) {
+            final PendingArena p;
+            synchronized (ArenaRegistryHostedService.this) {
+                // A newer report already has the arena, or has it closed again
+                if (port >= 0 && generation > this.generation) {
+                    final Map<String, Integer> map = new HashMap<>(arenas);
+                    map.put(arenaId, Integer.valueOf(port));
+                    arenas = map;
+                    this.generation = generation;
+                }
+                p = pending.get(arenaId);
+                if (p == null || p.process != this) {
+                    return;
+                }
+                pending.remove(arenaId);
+                opening--;
+            }
+            log.info("Arena " + arenaId + " opened on " + this + " port:" + port);
+            for (final Destination d : p.destinations) {
+                d.redirect(arenaId, host, port);
+            }
+        }
+
+        @Override
+        public void route(final int requestId, final String arenaId) {
+            ArenaRegistryHostedService.this.route(arenaId,
+                    (id, toHost, toPort) -> getCallback().routed(requestId, id, toHost, toPort));
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + basePort;
+        }
+    }
+
+    private static class PendingArena {
+        private final String arenaId;
+        private final ProcessEntry process;
+        private final long deadline;
+        private final List<Destination> destinations = new ArrayList<>();
+
+        PendingArena(final String arenaId, final ProcessEntry process, final long deadline) {
+            this.arenaId = arenaId;
+            this.process = process;
+            this.deadline = deadline;
+        }
+    }
+}
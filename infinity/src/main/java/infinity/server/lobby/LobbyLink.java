@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.lobby;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.Client;
+import com.jme3.network.Network;
+import com.jme3.network.service.rmi.RmiClientService;
+import com.jme3.network.service.rpc.RpcClientService;
+
+import infinity.InfinityConstants;
+import infinity.net.lobby.ArenaProcess;
+import infinity.net.lobby.ArenaRegistry;
+import infinity.server.ArenaHost;
+import infinity.server.ArenaRouter;
+
+/**
+ * Connects the arenas of this process to a lobby. The link registers the
+ * process, reports its load every second, opens arenas when the lobby asks for
+ * them and looks up arenas for players that move, which may send them to
+ * another process.
+ *
+ * @author Asser
+ */
+public class LobbyLink implements ArenaRouter {
+
+    static Logger log = LoggerFactory.getLogger(LobbyLink.class);
+
+    private static final long REPORT_INTERVAL = 1000;
+
+    private final ArenaHost arenas;
+    private final String host;
+    private final Client client;
+    private final ScheduledExecutorService reporter;
+    private final ProcessCallback callback = new ProcessCallback();
+    private final AtomicInteger nextRequest = new AtomicInteger();
+    private final Map<Integer, Destination> requests = new ConcurrentHashMap<>();
+    private volatile ArenaRegistry registry;
+
+    /**
+     * @param arenas       the arenas of this process
+     * @param host         the host players should connect to for this process
+     * @param lobbyHost    the host of the lobby
+     * @param registryPort the port the lobby takes registrations on
+     */
+    public LobbyLink(final ArenaHost arenas, final String host, final String lobbyHost, final int registryPort)
+            throws IOException {
+        this.arenas = arenas;
+        this.host = host;
+
+        client = Network.connectToServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, lobbyHost,
+                registryPort);
+        client.getServices().addServices(new RpcClientService(), new RmiClientService());
+
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "LobbyLink");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        log.info("Connecting to lobby...");
+        client.getServices().getService(RmiClientService.class).share(callback, ArenaProcess.class);
+        client.start();
+        reporter.scheduleAtFixedRate(this::report, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        reporter.shutdown();
+        if (client.isStarted()) {
+            client.close();
+        }
+    }
+
+    /**
+     * Looks the registry up lazily because the lobby shares it some time after
+     * the connection is up.
+     */
+    protected ArenaRegistry getRegistry() {
+        if (registry == null && client.isConnected()) {
+            final ArenaRegistry r = client.getServices().getService(RmiClientService.class)
+                    .getRemoteObject(ArenaRegistry.class);
+            if (r != null) {
+                r.register(host, arenas.getBasePort());
+                registry = r;
+                log.info("Registered with lobby as " + host);
+            }
+        }
+        return registry;
+    }
+
+    private void report() {
+        try {
+            final ArenaRegistry r = getRegistry();
+            if (r == null) {
+                return;
+            }
+            final long generation;
+            final String[] ids;
+            final int[] ports;
+            synchronized (arenas) {
+                generation = arenas.getGeneration();
+                ids = arenas.getArenaIds();
+                ports = arenas.getArenaPorts();
+            }
+            r.report(generation, arenas.getLoad(), arenas.getPlayerCount(), ids, ports);
+        } catch (final RuntimeException e) {
+            log.error("Error reporting to lobby", e);
+        }
+    }
+
+    @Override
+    public void route(final String arenaId, final Destination destination) {
+        final ArenaRegistry r = getRegistry();
+        if (r == null) {
+            // Without a lobby we can only offer our own arenas
+            log.warn("Not registered with the lobby, routing " + arenaId + " locally");
+            destination.redirect(arenaId, host, arenas.requestArena(arenaId));
+            return;
+        }
+        final int requestId = nextRequest.incrementAndGet();
+        requests.put(Integer.valueOf(requestId), destination);
+        r.route(requestId, arenaId);
+    }
+
+    private class ProcessCallback implements ArenaProcess {
+
+        @Override
+        public void openArena(final String arenaId) {
+            final int port;
+            final long generation;
+            synchronized (arenas) {
+                port = arenas.requestArena(arenaId);
+                generation = arenas.getGeneration();
+            }
+            getRegistry().arenaOpened(arenaId, port, generation);
+        }
+
+        @Override
+        public void routed(final int requestId, final String arenaId, final String toHost, final int toPort) {
+            final Destination d = requests.remove(Integer.valueOf(requestId));
+            if (d != null) {
+                d.redirect(arenaId, toHost, toPort);
+            }
+        }
+    }
+}
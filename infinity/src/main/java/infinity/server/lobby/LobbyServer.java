@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.lobby;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Network;
+import com.jme3.network.Server;
+import com.jme3.network.service.rmi.RmiHostedService;
+import com.jme3.network.service.rpc.RpcHostedService;
+
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.es.server.EntityDataHostedService;
+
+import infinity.InfinityConstants;
+import infinity.server.AccountHostedService;
+
+/**
+ * The lobby players log in to before they are sent on to the game server that
+ * runs their arena. Game servers in other processes, on this or other hosts,
+ * register with the lobby on a separate port and report their load, the lobby
+ * opens new arenas on the least loaded of them.
+ *
+ * To try it on one machine start a lobby and a couple of game servers with
+ * their own port ranges:
+ *
+ * <pre>
+ * LobbyServer
+ * GameServer -port 7000 -lobby 127.0.0.1
+ * GameServer -port 7100 -lobby 127.0.0.1
+ * </pre>
+ *
+ * @author Asser
+ */
+public class LobbyServer {
+
+    static Logger log = LoggerFactory.getLogger(LobbyServer.class);
+
+    private final Server server;
+    private final Server registryServer;
+    private final ArenaRegistryHostedService registry;
+
+    /**
+     * @param port         the port clients log in on, the next two ports are used
+     *                     for the chat and ES channels
+     * @param registryPort the port arena processes register on
+     */
+    public LobbyServer(final int port, final int registryPort, final String description) throws IOException {
+        registry = new ArenaRegistryHostedService();
+
+        registryServer = Network.createServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION,
+                registryPort, registryPort);
+        registryServer.getServices().addServices(new RpcHostedService(), new RmiHostedService(), registry);
+
+        server = Network.createServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, port, port);
+        // The ES channel comes after the chat channel, chat is not used in the lobby
+        server.addChannel(port + 1);
+        server.addChannel(port + 2);
+
+        // The account service keeps its player entities in a lobby local ES
+        server.getServices().addServices(new RpcHostedService(), new RmiHostedService(),
+                new EntityDataHostedService(InfinityConstants.ES_CHANNEL, new DefaultEntityData()),
+                new AccountHostedService(description, registry));
+    }
+
+    public ArenaRegistryHostedService getRegistry() {
+        return registry;
+    }
+
+    public void start() {
+        log.info("Starting lobby...");
+        registryServer.start();
+        server.start();
+        log.info("Lobby started.");
+    }
+
+    public void close() {
+        log.info("Stopping lobby...");
+        for (final HostedConnection conn : server.getConnections()) {
+            conn.close("Lobby closed.");
+        }
+        server.close();
+        registryServer.close();
+        log.info("Lobby stopped.");
+    }
+
+    public static void main(final String... args) throws Exception {
+        int port = InfinityConstants.DEFAULT_LOBBY_PORT;
+        int registryPort = InfinityConstants.DEFAULT_REGISTRY_PORT;
+        for (int i = 0; i < args.length; i++) {
+            if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-registry".equals(args[i])) {
+                registryPort = Integer.parseInt(args[++i]);
+            }
+        }
+
+        final LobbyServer lobby = new LobbyServer(port, registryPort, "Lobby");
+        lobby.start();
+
+        final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.length() == 0) {
+                continue;
+            }
+            if ("exit".equals(line)) {
+                break;
+            } else if ("processes".equals(line)) {
+                System.out.print(lobby.registry.getReport());
+            } else {
+                System.err.println("Unknown command:" + line);
+            }
+        }
+        lobby.close();
+    }
+}
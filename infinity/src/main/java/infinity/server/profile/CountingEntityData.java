@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.profile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+
+/**
+ * A DefaultEntityData that counts how many entities have been created and
+ * removed, so that the profiler can charge entity churn to the game system
+ * that caused it. The counts are also kept per thread for the systems that are
+ * updated side by side.
+ *
+ * @author Asser
+ */
+public class CountingEntityData extends DefaultEntityData {
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * The created and removed counts of the calling thread.
+     */
+    private final ThreadLocal<long[]> threadCounts = ThreadLocal.withInitial(() -> new long[2]);
+
+    @Override
+    public EntityId createEntity() {
+        created.incrementAndGet();
+        threadCounts.get()[0]++;
+        return super.createEntity();
+    }
+
+    @Override
+    public void removeEntity(final EntityId entityId) {
+        removed.incrementAndGet();
+        threadCounts.get()[1]++;
+        super.removeEntity(entityId);
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getRemovedCount() {
+        return removed.get();
+    }
+
+    /**
+     * @return the number of entities created by the calling thread
+     */
+    public long getThreadCreatedCount() {
+        return threadCounts.get()[0];
+    }
+
+    /**
+     * @return the number of entities removed by the calling thread
+     */
+    public long getThreadRemovedCount() {
+        return threadCounts.get()[1];
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.profile;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jme3.network.Filter;
+import com.jme3.network.kernel.Endpoint;
+import com.jme3.network.kernel.EndpointEvent;
+import com.jme3.network.kernel.Envelope;
+import com.jme3.network.kernel.Kernel;
+
+/**
+ * Wraps a SpiderMonkey kernel to count the bytes and packets that go through
+ * it in both directions. The server only ever sees the wrapped endpoints, so
+ * every send to a connection is counted along with the broadcasts.
+ *
+ * The counters are bumped on the network threads and read by the metrics, so
+ * they are adders.
+ *
+ * @author Asser
+ */
+public class CountingKernel implements Kernel {
+
+    private final Kernel delegate;
+    private final String name;
+    private final Map<Endpoint, CountingEndpoint> endpoints = new ConcurrentHashMap<>();
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+
+    /**
+     * @param delegate the kernel that does the work
+     * @param name     the channel name used in the metrics
+     */
+    public CountingKernel(final Kernel delegate, final String name) {
+        this.delegate = delegate;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public void terminate() throws InterruptedException {
+        delegate.terminate();
+        endpoints.clear();
+    }
+
+    @Override
+    public void broadcast(final Filter<? super Endpoint> filter, final ByteBuffer data, final boolean reliable,
+            final boolean copy) {
+        final int size = data.remaining();
+        delegate.broadcast(endpoint -> {
+            final CountingEndpoint wrapped = wrap(endpoint);
+            if (filter != null && !filter.apply(wrapped)) {
+                return false;
+            }
+            bytesOut.add(size);
+            packetsOut.increment();
+            return true;
+        }, data, reliable, copy);
+    }
+
+    @Override
+    public boolean hasEnvelopes() {
+        return delegate.hasEnvelopes();
+    }
+
+    @Override
+    public Envelope read() throws InterruptedException {
+        final Envelope env = delegate.read();
+        if (env == null || env == EVENTS_PENDING) {
+            return env;
+        }
+        bytesIn.add(env.getData().length);
+        packetsIn.increment();
+        return new Envelope(wrap(env.getSource()), env.getData(), env.isReliable());
+    }
+
+    @Override
+    public EndpointEvent nextEvent() {
+        final EndpointEvent event = delegate.nextEvent();
+        if (event == null) {
+            return null;
+        }
+        final CountingEndpoint wrapped = wrap(event.getEndpoint());
+        if (event.getType() == EndpointEvent.Type.REMOVE) {
+            endpoints.remove(event.getEndpoint());
+        }
+        return new EndpointEvent(this, wrapped, event.getType());
+    }
+
+    private CountingEndpoint wrap(final Endpoint endpoint) {
+        if (endpoint == null) {
+            return null;
+        }
+        return endpoints.computeIfAbsent(endpoint, CountingEndpoint::new);
+    }
+
+    /**
+     * Counts the sends to one connection.
+     */
+    private class CountingEndpoint implements Endpoint {
+        private final Endpoint delegate;
+
+        CountingEndpoint(final Endpoint delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public long getId() {
+            return delegate.getId();
+        }
+
+        @Override
+        public String getAddress() {
+            return delegate.getAddress();
+        }
+
+        @Override
+        public Kernel getKernel() {
+            return CountingKernel.this;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public void send(final ByteBuffer data) {
+            bytesOut.add(data.remaining());
+            packetsOut.increment();
+            delegate.send(data);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public void close(final boolean flush) {
+            delegate.close(flush);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.profile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.MessageListener;
+import com.jme3.network.Server;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import com.simsilica.es.EntityComponent;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.common.Decay;
+import com.simsilica.ethereal.net.ConnectionStats;
+import com.simsilica.ethereal.EtherealHost;
+import com.simsilica.ethereal.NetworkStateListener;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+
+import infinity.es.AudioType;
+import infinity.es.BodyPosition;
+import infinity.es.CollisionCategory;
+import infinity.es.Flag;
+import infinity.es.Frequency;
+import infinity.es.LargeGridCell;
+import infinity.es.Parent;
+import infinity.es.TileType;
+import infinity.es.WeaponType;
+import infinity.server.chat.ChatHostedService;
+import infinity.systems.ContactSystem;
+import infinity.systems.ProjectileSystem;
+
+/**
+ * Serves the server's numbers on /metrics in the Prometheus text format, using
+ * the http server that ships with the JDK. Everything is gathered when the page
+ * is requested, so nothing here costs the game loop anything between scrapes.
+ *
+ * @author Asser
+ */
+public class MetricsEndpoint {
+
+    static Logger log = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+    public static final String PATH = "/metrics";
+
+    private final Server server;
+    private final ProfiledGameSystemManager systems;
+    private final int port;
+    private final List<Class<? extends EntityComponent>> componentTypes = new ArrayList<>();
+    private final List<CountingKernel> channels = new ArrayList<>();
+    private final Map<Class<?>, LongAdder> messagesReceived = new ConcurrentHashMap<>();
+    private final MessageCounter messageCounter = new MessageCounter();
+
+    private HttpServer http;
+
+    public MetricsEndpoint(final Server server, final ProfiledGameSystemManager systems, final int port) {
+        this.server = server;
+        this.systems = systems;
+        this.port = port;
+
+        addComponentType(BodyPosition.class);
+        addComponentType(SpawnPosition.class);
+        addComponentType(ShapeInfo.class);
+        addComponentType(Parent.class);
+        addComponentType(CollisionCategory.class);
+        addComponentType(WeaponType.class);
+        addComponentType(AudioType.class);
+        addComponentType(Decay.class);
+        addComponentType(Frequency.class);
+        addComponentType(Flag.class);
+        addComponentType(TileType.class);
+        addComponentType(LargeGridCell.class);
+    }
+
+    /**
+     * Adds a component type to the per type entity counts. Every type costs a
+     * full component scan per scrape, so keep the list short.
+     */
+    public void addComponentType(final Class<? extends EntityComponent> type) {
+        componentTypes.add(type);
+    }
+
+    /**
+     * Adds a counted network channel to the traffic metrics.
+     */
+    public void addChannel(final CountingKernel channel) {
+        channels.add(channel);
+    }
+
+    public void start() throws IOException {
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext(PATH, this::handle);
+        http.start();
+        server.addMessageListener(messageCounter);
+        log.info("Serving metrics on port " + port + PATH);
+    }
+
+    public void stop() {
+        if (http == null) {
+            return;
+        }
+        server.removeMessageListener(messageCounter);
+        http.stop(0);
+        http = null;
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final byte[] body;
+        try {
+            final MetricsWriter out = new MetricsWriter();
+            writeMetrics(out);
+            body = out.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (final RuntimeException e) {
+            log.error("Error collecting metrics", e);
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", MetricsWriter.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    protected void writeMetrics(final MetricsWriter out) {
+        writeConnections(out);
+        writeEntities(out);
+        systems.writeMetrics(out);
+        writePhysics(out);
+        writeChat(out);
+    }
+
+    private void writeConnections(final MetricsWriter out) {
+        out.gauge("infinity_connections", "Number of connected clients");
+        out.sample("infinity_connections", server.getConnections().size());
+
+        final EtherealHost ethereal = server.getServices().getService(EtherealHost.class);
+        if (ethereal != null) {
+            out.gauge("infinity_connection_ping_seconds", "Average ping time of a connection");
+            out.gauge("infinity_connection_ack_miss_ratio", "Share of state messages that were not acknowledged");
+            out.gauge("infinity_connection_message_bytes", "Average size of the state messages sent to a connection");
+            for (final HostedConnection conn : server.getConnections()) {
+                final NetworkStateListener listener = ethereal.getStateListener(conn);
+                if (listener == null) {
+                    continue;
+                }
+                final ConnectionStats stats = listener.getConnectionStats();
+                final String id = Integer.toString(conn.getId());
+                out.sample("infinity_connection_ping_seconds", stats.getAveragePingTime() / 1e9, "connection", id);
+                out.sample("infinity_connection_ack_miss_ratio", stats.getAckMissPercent() / 100, "connection", id);
+                out.sample("infinity_connection_message_bytes", stats.getAverageMessageSize(), "connection", id);
+            }
+        }
+
+        out.counter("infinity_network_bytes_total", "Bytes sent and received by network channel");
+        for (final CountingKernel channel : channels) {
+            out.sample("infinity_network_bytes_total", channel.getBytesIn(), "channel", channel.getName(),
+                    "direction", "in");
+            out.sample("infinity_network_bytes_total", channel.getBytesOut(), "channel", channel.getName(),
+                    "direction", "out");
+        }
+        out.counter("infinity_network_packets_total", "Packets sent and received by network channel");
+        for (final CountingKernel channel : channels) {
+            out.sample("infinity_network_packets_total", channel.getPacketsIn(), "channel", channel.getName(),
+                    "direction", "in");
+            out.sample("infinity_network_packets_total", channel.getPacketsOut(), "channel", channel.getName(),
+                    "direction", "out");
+        }
+
+        out.counter("infinity_messages_received_total", "Messages received from clients by message type");
+        for (final Map.Entry<Class<?>, LongAdder> e : messagesReceived.entrySet()) {
+            out.sample("infinity_messages_received_total", e.getValue().sum(), "type", e.getKey().getSimpleName());
+        }
+    }
+
+    private void writeEntities(final MetricsWriter out) {
+        final EntityData ed = systems.get(EntityData.class);
+
+        out.gauge("infinity_entities", "Number of entities with a component type");
+        for (final Class<? extends EntityComponent> type : componentTypes) {
+            out.sample("infinity_entities", ed.findEntities(null, type).size(), "component", type.getSimpleName());
+        }
+        if (ed instanceof CountingEntityData) {
+            final CountingEntityData counting = (CountingEntityData) ed;
+            out.counter("infinity_entities_created_total", "Number of entities created");
+            out.sample("infinity_entities_created_total", counting.getCreatedCount());
+            out.counter("infinity_entities_removed_total", "Number of entities removed");
+            out.sample("infinity_entities_removed_total", counting.getRemovedCount());
+        }
+    }
+
+    private void writePhysics(final MetricsWriter out) {
+        final ContactSystem contacts = systems.get(ContactSystem.class);
+        if (contacts != null) {
+            out.gauge("infinity_physics_bodies", "Number of bodies in the last physics frame");
+            out.sample("infinity_physics_bodies", contacts.getBodyCount());
+            out.counter("infinity_physics_contacts_total", "Number of contacts the physics space dispatched");
+            out.sample("infinity_physics_contacts_total", contacts.getContactCount());
+            out.counter("infinity_physics_contacts_disabled_total", "Number of contacts that were filtered out");
+            out.sample("infinity_physics_contacts_disabled_total", contacts.getDisabledContactCount());
+        }
+
+        final ProjectileSystem projectiles = systems.get(ProjectileSystem.class);
+        if (projectiles != null) {
+            out.gauge("infinity_projectiles", "Number of live projectiles");
+            out.sample("infinity_projectiles", projectiles.getLiveCount());
+            out.counter("infinity_projectile_entities_created_total", "Number of projectile entities created");
+            out.sample("infinity_projectile_entities_created_total", projectiles.getCreatedCount());
+        }
+    }
+
+    private void writeChat(final MetricsWriter out) {
+        final ChatHostedService chat = server.getServices().getService(ChatHostedService.class);
+        if (chat == null) {
+            return;
+        }
+        out.counter("infinity_chat_messages_received_total", "Chat messages sent by players");
+        out.sample("infinity_chat_messages_received_total", chat.getMessagesReceived());
+        out.counter("infinity_chat_commands_received_total", "Chat lines that were commands");
+        out.sample("infinity_chat_commands_received_total", chat.getCommandsReceived());
+        out.counter("infinity_chat_messages_delivered_total", "Chat messages sent out to players");
+        out.sample("infinity_chat_messages_delivered_total", chat.getMessagesDelivered());
+    }
+
+    /**
+     * Counts the incoming messages by type. This runs on the network threads
+     * for every message, so it does nothing more than bump an adder.
+     */
+    private class MessageCounter implements MessageListener<HostedConnection> {
+        @Override
+        public void messageReceived(final HostedConnection source, final Message m) {
+            messagesReceived.computeIfAbsent(m.getClass(), k -> new LongAdder()).increment();
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.profile;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.EventType;
+
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.GameSystem;
+import com.simsilica.sim.GameSystemManager;
+import com.simsilica.sim.SimTime;
+
+import infinity.jfr.SimTickEvent;
+import infinity.jfr.SystemUpdateEvent;
+
+/**
+ * A GameSystemManager that profiles the update of every game system it runs.
+ * For each system it records the wall time in a TickHistogram, the bytes
+ * allocated by the update thread and the number of entities created and
+ * removed. Ticks that take longer than the frame budget are logged along with
+ * the systems that took the most time.
+ *
+ * The measuring is done by a small probe system that is added in front of every
+ * system: a probe closes the measurement of the system before it and opens the
+ * one for the system after it, so the systems themselves are not wrapped and
+ * can still be looked up by type. Subclasses that update systems themselves,
+ * possibly on other threads, register them with addProfile() and update them
+ * through updateProfiled() instead. Allocations and entity churn are counted
+ * for the thread the system runs on.
+ *
+ * The report can be fetched at any time with getReport() or written to a file
+ * with dump(). When a flight recording is running with the infinity events
+ * enabled, every tick and system update is also recorded as a JFR event.
+ *
+ * @author Asser
+ */
+public class ProfiledGameSystemManager extends GameSystemManager {
+
+    static Logger log = LoggerFactory.getLogger(ProfiledGameSystemManager.class);
+
+    /**
+     * The GameLoop default of 60 updates a second.
+     */
+    public static final long DEFAULT_BUDGET = 1000000000L / 60;
+
+    private static final EventType SYSTEM_UPDATE = EventType.getEventType(SystemUpdateEvent.class);
+
+    /**
+     * How many of the most recent overruns are kept for the report.
+     */
+    private static final int OVERRUN_HISTORY = 32;
+
+    /**
+     * How many systems are named in an overrun.
+     */
+    private static final int OVERRUN_OFFENDERS = 3;
+
+    /**
+     * The percentiles exported by writeMetrics().
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /**
+     * How much a single tick moves the load average, about a second worth of
+     * ticks dominates it.
+     */
+    private static final double LOAD_SMOOTHING = 1.0 / 64;
+
+    private final long budget;
+    private final com.sun.management.ThreadMXBean threads;
+    private final boolean allocationSupported;
+    private CountingEntityData entityCounter;
+
+    private final List<SystemProfile> profiles = new ArrayList<>();
+    private final Set<GameSystem> probed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final SystemProfile[] offenders = new SystemProfile[OVERRUN_OFFENDERS];
+
+    private SystemProfile current;
+    private volatile boolean recordSystems;
+
+    private final TickHistogram tickTimes = new TickHistogram();
+    private long overrunCount;
+    private final ArrayDeque<String> overruns = new ArrayDeque<>(OVERRUN_HISTORY);
+    private long since = System.currentTimeMillis();
+    private volatile double load;
+
+    public ProfiledGameSystemManager() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget the time one tick may take in nanoseconds
+     */
+    public ProfiledGameSystemManager(final long budget) {
+        this.budget = budget;
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        allocationSupported = threads.isThreadAllocatedMemorySupported();
+        if (allocationSupported && !threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * Sets the entity data whose entity creation and removal is charged to the
+     * systems.
+     */
+    public void setEntityCounter(final CountingEntityData entityCounter) {
+        this.entityCounter = entityCounter;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the recent tick time as a fraction of the budget. 0.5 means that
+     * the ticks use half of their time, above 1 the ticks overrun.
+     */
+    public double getLoad() {
+        return load;
+    }
+
+    @Override
+    public <T extends GameSystem> T addSystem(final T system) {
+        if (!(system instanceof Probe)) {
+            addProbe(system);
+        }
+        return super.addSystem(system);
+    }
+
+    private void addProbe(final GameSystem system) {
+        // register() adds the system through addSystem(), make sure a system
+        // is only ever probed once
+        if (!probed.add(system)) {
+            return;
+        }
+        // A system that profiles its parts itself still gets a probe to close
+        // the measurement of the system before it
+        super.addSystem(new Probe(isProfiled(system) ? newProfile(system) : null));
+    }
+
+    private synchronized SystemProfile newProfile(final GameSystem system) {
+        final SystemProfile profile = new SystemProfile(system);
+        profiles.add(profile);
+        return profile;
+    }
+
+    /**
+     * @return false for systems that are not measured as a whole because they
+     *         update other systems through updateProfiled()
+     */
+    protected boolean isProfiled(final GameSystem system) {
+        return true;
+    }
+
+    /**
+     * Profiles a system that is updated through updateProfiled() rather than by
+     * this manager.
+     */
+    protected SystemProfile addProfile(final GameSystem system) {
+        probed.add(system);
+        return newProfile(system);
+    }
+
+    /**
+     * Updates the profile's system and measures it on the calling thread. A
+     * profile must only be updated by one thread at a time.
+     */
+    protected void updateProfiled(final SystemProfile profile, final SimTime time) {
+        begin(profile);
+        try {
+            profile.system.update(time);
+        } finally {
+            end(profile, System.nanoTime());
+        }
+    }
+
+    /**
+     * @return the name a system is reported under
+     */
+    protected String getProfileName(final GameSystem system) {
+        return system.getClass().getSimpleName();
+    }
+
+    @Override
+    public void update() {
+        final SimTickEvent event = new SimTickEvent();
+        event.begin();
+        recordSystems = SYSTEM_UPDATE.isEnabled();
+
+        final long start = System.nanoTime();
+        current = null;
+
+        super.update();
+
+        final long end = System.nanoTime();
+        close(end);
+
+        final long elapsed = end - start;
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = getStepTime().getFrame();
+            event.overrun = elapsed > budget;
+            event.commit();
+        }
+        load += ((double) elapsed / budget - load) * LOAD_SMOOTHING;
+        synchronized (this) {
+            tickTimes.record(elapsed);
+            for (final SystemProfile p : profiles) {
+                p.commit();
+            }
+            if (elapsed > budget) {
+                overrun(elapsed);
+            }
+        }
+    }
+
+    private long allocatedBytes() {
+        return allocationSupported ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private void open(final SystemProfile profile) {
+        close(System.nanoTime());
+        current = profile;
+        begin(profile);
+    }
+
+    private void close(final long now) {
+        if (current == null) {
+            return;
+        }
+        end(current, now);
+        current = null;
+    }
+
+    private void begin(final SystemProfile profile) {
+        profile.startCreated = entityCounter == null ? 0 : entityCounter.getThreadCreatedCount();
+        profile.startRemoved = entityCounter == null ? 0 : entityCounter.getThreadRemovedCount();
+        profile.event = recordSystems ? new SystemUpdateEvent() : null;
+        profile.startAlloc = allocatedBytes();
+        // Start the clock last so the bookkeeping above is not charged
+        if (profile.event != null) {
+            profile.event.begin();
+        }
+        profile.start = System.nanoTime();
+    }
+
+    private void end(final SystemProfile profile, final long now) {
+        final SystemUpdateEvent event = profile.event;
+        if (event != null) {
+            event.end();
+        }
+        profile.time = now - profile.start;
+        profile.allocated = allocatedBytes() - profile.startAlloc;
+        if (entityCounter != null) {
+            profile.created = entityCounter.getThreadCreatedCount() - profile.startCreated;
+            profile.removed = entityCounter.getThreadRemovedCount() - profile.startRemoved;
+        }
+        profile.updated = true;
+
+        if (event != null) {
+            if (event.shouldCommit()) {
+                event.system = getProfileName(profile.system);
+                event.allocated = profile.allocated;
+                event.entitiesCreated = profile.created;
+                event.entitiesRemoved = profile.removed;
+                event.commit();
+            }
+            profile.event = null;
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void overrun(final long elapsed) {
+        overrunCount++;
+
+        // Pick the systems that took the longest this tick
+        Arrays.fill(offenders, null);
+        for (final SystemProfile p : profiles) {
+            for (int i = 0; i < offenders.length; i++) {
+                if (offenders[i] == null || p.lastTime > offenders[i].lastTime) {
+                    System.arraycopy(offenders, i, offenders, i + 1, offenders.length - i - 1);
+                    offenders[i] = p;
+                    break;
+                }
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date()));
+        sb.append(" tick took ").append(toMillis(elapsed)).append(" ms (budget ").append(toMillis(budget))
+                .append(" ms):");
+        for (final SystemProfile p : offenders) {
+            // Only name the runners up if they took a real share of the budget
+            if (p == null || p != offenders[0] && p.lastTime < budget / 10) {
+                break;
+            }
+            sb.append(' ').append(getProfileName(p.system)).append('=').append(toMillis(p.lastTime)).append(" ms");
+            p.overruns++;
+        }
+        final String overrun = sb.toString();
+        log.warn("Overrun " + overrun);
+
+        if (overruns.size() == OVERRUN_HISTORY) {
+            overruns.removeFirst();
+        }
+        overruns.addLast(overrun);
+    }
+
+    private static String toMillis(final double nanos) {
+        return String.format("%.3f", Double.valueOf(nanos / 1000000.0));
+    }
+
+    /**
+     * Clears all collected statistics.
+     */
+    public synchronized void reset() {
+        for (final SystemProfile p : profiles) {
+            p.reset();
+        }
+        tickTimes.reset();
+        overrunCount = 0;
+        overruns.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the tick time at the percentile in nanoseconds, since the start or
+     *         the last reset()
+     */
+    public synchronized long getTickTime(final double percentile) {
+        return tickTimes.getValueAtPercentile(percentile);
+    }
+
+    public synchronized double getMeanTickTime() {
+        return tickTimes.getMean();
+    }
+
+    public synchronized long getTickCount() {
+        return tickTimes.getCount();
+    }
+
+    public synchronized long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return the report of everything collected since the start or the last
+     *         reset()
+     */
+    public String getReport() {
+        final StringWriter sw = new StringWriter();
+        writeReport(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Writes the current report to a file, replacing it if it exists.
+     */
+    public void dump(final Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            final PrintWriter pw = new PrintWriter(out);
+            writeReport(pw);
+            pw.flush();
+        }
+    }
+
+    public synchronized void writeReport(final PrintWriter out) {
+        final List<SystemProfile> sorted = new ArrayList<>(profiles);
+        sorted.sort((a, b) -> Long.compare(b.times.getTotal(), a.times.getTotal()));
+
+        out.println("Game system profile since " + new Date(since));
+        out.println("Ticks: " + tickTimes.getCount() + "  mean: " + toMillis(tickTimes.getMean()) + " ms  p99: "
+                + toMillis(tickTimes.getValueAtPercentile(99)) + " ms  max: " + toMillis(tickTimes.getMax())
+                + " ms  overruns: " + overrunCount + " (budget " + toMillis(budget) + " ms)");
+        if (!allocationSupported) {
+            out.println("Thread allocation accounting is not supported by this JVM");
+        }
+        out.println();
+        out.println(String.format("%-28s %10s %10s %10s %10s %12s %12s %9s %9s %8s", "system", "mean ms", "p50 ms",
+                "p99 ms", "max ms", "alloc/tick", "alloc max", "created", "removed", "overrun"));
+        for (final SystemProfile p : sorted) {
+            final TickHistogram t = p.times;
+            final long ticks = Math.max(1, t.getCount());
+            out.println(String.format("%-28s %10s %10s %10s %10s %12d %12d %9d %9d %8d", getProfileName(p.system),
+                    toMillis(t.getMean()), toMillis(t.getValueAtPercentile(50)), toMillis(t.getValueAtPercentile(99)),
+                    toMillis(t.getMax()), Long.valueOf(p.allocatedTotal / ticks), Long.valueOf(p.allocatedMax),
+                    Long.valueOf(p.createdTotal), Long.valueOf(p.removedTotal), Long.valueOf(p.overruns)));
+        }
+        if (!overruns.isEmpty()) {
+            out.println();
+            out.println("Most recent overruns:");
+            for (final String s : overruns) {
+                out.println(s);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the tick and per system timings as metrics, times in seconds.
+     */
+    public synchronized void writeMetrics(final MetricsWriter out) {
+        out.summary("infinity_tick_seconds", "Duration of a full game system tick");
+        for (final double p : PERCENTILES) {
+            out.sample("infinity_tick_seconds", tickTimes.getValueAtPercentile(p) / 1e9, "quantile",
+                    Double.toString(p / 100));
+        }
+        out.sample("infinity_tick_seconds_sum", tickTimes.getTotal() / 1e9);
+        out.sample("infinity_tick_seconds_count", tickTimes.getCount());
+        out.counter("infinity_ticks_total", "Number of game system ticks");
+        out.sample("infinity_ticks_total", tickTimes.getCount());
+        out.counter("infinity_tick_overruns_total", "Number of ticks that took longer than the budget");
+        out.sample("infinity_tick_overruns_total", overrunCount);
+
+        out.summary("infinity_system_update_seconds", "Duration of one game system update");
+        for (final SystemProfile p : profiles) {
+            final String name = getProfileName(p.system);
+            for (final double q : PERCENTILES) {
+                out.sample("infinity_system_update_seconds", p.times.getValueAtPercentile(q) / 1e9, "system", name,
+                        "quantile", Double.toString(q / 100));
+            }
+            out.sample("infinity_system_update_seconds_sum", p.times.getTotal() / 1e9, "system", name);
+            out.sample("infinity_system_update_seconds_count", p.times.getCount(), "system", name);
+        }
+        out.counter("infinity_system_allocated_bytes_total", "Bytes allocated during a game system's updates");
+        for (final SystemProfile p : profiles) {
+            out.sample("infinity_system_allocated_bytes_total", p.allocatedTotal, "system", getProfileName(p.system));
+        }
+        out.counter("infinity_system_entities_created_total", "Entities created during a game system's updates");
+        for (final SystemProfile p : profiles) {
+            out.sample("infinity_system_entities_created_total", p.createdTotal, "system", getProfileName(p.system));
+        }
+        out.counter("infinity_system_entities_removed_total", "Entities removed during a game system's updates");
+        for (final SystemProfile p : profiles) {
+            out.sample("infinity_system_entities_removed_total", p.removedTotal, "system", getProfileName(p.system));
+        }
+    }
+
+    /**
+     * The collected numbers of one system. The measurement fields are written
+     * by the thread updating the system during a tick and folded into the
+     * totals under the manager's lock at the end of it.
+     */
+    protected static final class SystemProfile {
+        private final GameSystem system;
+        private final TickHistogram times = new TickHistogram();
+
+        private long start;
+        private long startAlloc;
+        private long startCreated;
+        private long startRemoved;
+        private SystemUpdateEvent event;
+
+        private boolean updated;
+        private long time;
+        private long allocated;
+        private long created;
+        private long removed;
+
+        private long lastTime;
+        private long allocatedTotal;
+        private long allocatedMax;
+        private long createdTotal;
+        private long removedTotal;
+        private long overruns;
+
+        SystemProfile(final GameSystem system) {
+            this.system = system;
+        }
+
+        void commit() {
+            if (!updated) {
+                lastTime = 0;
+                return;
+            }
+            updated = false;
+            lastTime = time;
+            times.record(time);
+            allocatedTotal += allocated;
+            allocatedMax = Math.max(allocatedMax, allocated);
+            createdTotal += created;
+            removedTotal += removed;
+        }
+
+        void reset() {
+            times.reset();
+            allocatedTotal = 0;
+            allocatedMax = 0;
+            createdTotal = 0;
+            removedTotal = 0;
+            overruns = 0;
+        }
+    }
+
+    /**
+     * Runs right before the system it belongs to. Without a profile it only
+     * closes the measurement of the system before it.
+     */
+    private class Probe extends AbstractGameSystem {
+        private final SystemProfile profile;
+
+        Probe(final SystemProfile profile) {
+            this.profile = profile;
+        }
+
+        @Override
+        protected void initialize() {
+            return;
+        }
+
+        @Override
+        protected void terminate() {
+            return;
+        }
+
+        @Override
+        public void update(final SimTime time) {
+            if (profile == null) {
+                close(System.nanoTime());
+            } else {
+                open(profile);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.simsilica.mphys.RigidBody;
 import com.simsilica.mphys.StaticBody;
 
 import infinity.es.ShapeNames;
+import infinity.util.LongObjectMap;
 
 /**
  *
@@ -27,8 +28,16 @@ import infinity.es.ShapeNames;
  */
 public class InfinityEntityBodyFactory extends EntityBodyFactory<MBlockShape> {
 
+    private static final Vec3d ZERO = new Vec3d();
+
     EntityData ed;
 
+    /**
+     * Rigid bodies handed back through recycle(), by entity id. Only used from
+     * the physics thread.
+     */
+    private final LongObjectMap<RigidBody<EntityId, MBlockShape>> recycled = new LongObjectMap<>();
+
     public InfinityEntityBodyFactory(final EntityData ed, final Vec3d defaultGravity,
             final ShapeFactory<MBlockShape> shapeFactory) {
         super(ed, defaultGravity, shapeFactory);
@@ -44,9 +53,35 @@ public class InfinityEntityBodyFactory extends EntityBodyFactory<MBlockShape> {
         return result;// To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * Keeps a body that has left the physics space so that the next body for
+     * the same entity id reuses it. Meant for pooled entities, like the
+     * projectiles, whose ids come back with the same shape and mass.
+     */
+    public void recycle(final RigidBody<EntityId, MBlockShape> body) {
+        recycled.put(body.id.getId(), body);
+    }
+
+    /**
+     * Drops the recycled body of an entity that will not come back.
+     */
+    public void forget(final EntityId id) {
+        recycled.remove(id.getId());
+    }
+
     @Override
     protected RigidBody<EntityId, MBlockShape> createRigidBody(final EntityId id, final SpawnPosition pos,
             final ShapeInfo info, final Mass mass, final Gravity gravity) {
+        final RigidBody<EntityId, MBlockShape> old = recycled.remove(id.getId());
+        if (old != null) {
+            // Same id, same shape and mass. Only the motion state is reset.
+            old.position.set(pos.getLocation());
+            old.orientation.set(pos.getOrientation());
+            old.setLinearVelocity(ZERO);
+            old.setRotationalVelocity(0, 0, 0);
+            old.wakeUp(true);
+            return old;
+        }
         final RigidBody<EntityId, MBlockShape> result = super.createRigidBody(id, pos, info, mass, gravity); // To
                                                                                                              // change
                                                                                                              // body
@@ -78,7 +113,7 @@ public class InfinityEntityBodyFactory extends EntityBodyFactory<MBlockShape> {
         case ShapeNames.SHIP_LANCASTER:
         case ShapeNames.SHIP_WEASEL:
         case ShapeNames.SHIP_SHARK:
-            result.setLinearDamping(0.5);
+            result.setLinearDamping(ShipMotion.SHIP_DAMPING);
             break;
         // Static bodies:
         case ShapeNames.MINEL1:
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.es.input.MovementInput;
+import infinity.net.InputFrames;
+
+/**
+ * The movement inputs a player has sent but the physics has not used yet. The
+ * network thread adds the inputs in sequence order, skipping the ones it has
+ * already seen, and the player's driver takes one input per physics step so
+ * that a short tap between two steps still gets its step.
+ *
+ * If the client gets ahead of the physics (a burst of packets after a
+ * stall), the oldest inputs are dropped so the ship does not lag behind the
+ * controls.
+ *
+ * The last input used and the step that used it are kept for the client, which
+ * lines up its prediction with the server frames from them.
+ *
+ * @author Asser
+ */
+public class InputBuffer {
+
+    // A power of two so the ring index survives the counts wrapping
+    private static final int SIZE = 16;
+
+    /**
+     * The most inputs that are kept waiting for the physics.
+     */
+    private static final int MAX_PENDING = 4;
+
+    private final int[] inputs = new int[SIZE];
+    private final short[] sequences = new short[SIZE];
+    // Both count up forever, the ring index is the count modulo SIZE
+    private int head;
+    private int tail;
+    private boolean started;
+    private short lastSequence;
+    private short lastConsumed;
+    private long lastConsumedTime;
+    private boolean consumed;
+
+    /**
+     * Adds the inputs from a client packet that are newer than the ones already
+     * received.
+     */
+    public synchronized void offer(final InputFrames frames) {
+        final short sequence = frames.getSequence();
+        int count = frames.size();
+        if (started) {
+            // Sequence numbers wrap around, newer is a positive difference
+            final int newer = (short) (sequence - lastSequence);
+            if (newer <= 0) {
+                return;
+            }
+            count = Math.min(count, newer);
+        }
+        started = true;
+        for (int i = count - 1; i >= 0; i--) {
+            inputs[head & (SIZE - 1)] = frames.getInput(i);
+            sequences[head & (SIZE - 1)] = (short) (sequence - i);
+            head++;
+        }
+        lastSequence = sequence;
+        if (head - tail > MAX_PENDING) {
+            tail = head - MAX_PENDING;
+        }
+    }
+
+    /**
+     * Takes the oldest waiting input.
+     *
+     * @param frameTime the time of the physics step the input is used in
+     * @return the input or null if there is none
+     */
+    public synchronized MovementInput poll(final long frameTime) {
+        if (tail == head) {
+            return null;
+        }
+        final int input = inputs[tail & (SIZE - 1)];
+        lastConsumed = sequences[tail & (SIZE - 1)];
+        lastConsumedTime = frameTime;
+        consumed = true;
+        tail++;
+        final Vec3d move = new Vec3d(InputFrames.getRotate(input), 0, InputFrames.getThrust(input));
+        return new MovementInput(move, new Quatd(), InputFrames.getFlags(input));
+    }
+
+    /**
+     * Tells if the client should hear about the last input the physics used.
+     *
+     * @param resend true to also tell when the input was already acknowledged,
+     *               in case the acknowledgement was lost
+     */
+    public synchronized boolean takeAcknowledgement(final boolean resend) {
+        final boolean result = consumed || resend && lastConsumedTime > 0;
+        consumed = false;
+        return result;
+    }
+
+    /**
+     * @return the sequence number of the last input the physics used
+     */
+    public synchronized short getLastConsumed() {
+        return lastConsumed;
+    }
+
+    /**
+     * @return the time of the physics step that first used the last input
+     */
+    public synchronized long getLastConsumedTime() {
+        return lastConsumedTime;
+    }
+}
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.base.DefaultWatchedEntity;
+import com.simsilica.mathd.Quatd;
 import com.simsilica.mathd.Vec3d;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.ControlDriver;
@@ -59,18 +60,24 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
     // Keep track of what the player has provided.
     // private volatile Quaternion orientation = new Quaternion();
     private volatile MovementInput movementForces = new MovementInput(new Vec3d());
-
-    private final double pickup = 3;
+    // Inputs from the player's input stream, used one per physics step
+    private final InputBuffer inputs;
 
     // Local reference to the body that we want to update
     private RigidBody<?, ?> body;
     private final Vec3d velocity = new Vec3d();
+    private final Quatd turn = new Quatd();
     // private final EntityData ed;
     // private final SettingsSystem settings;
 
+    public PlayerDriver(final EntityId shipEntityId, final EntityData ed, final SettingsSystem settings) {
+        this(shipEntityId, ed, settings, null);
+    }
+
     @SuppressWarnings({ "unchecked" })
     public PlayerDriver(final EntityId shipEntityId, final EntityData ed,
-            @SuppressWarnings("unused") final SettingsSystem settings) {
+            @SuppressWarnings("unused") final SettingsSystem settings, final InputBuffer inputs) {
+        this.inputs = inputs;
         // Watch all the relevant movement components of the ship
         @SuppressWarnings("rawtypes")
         final Class[] types = { Energy.class, Rotation.class, Speed.class, Thrust.class };
@@ -84,26 +91,6 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
         movementForces = input;
     }
 
-    private double applyThrust(final double vel, final double thrust, final double tpf) {
-        double v = vel;
-        if (thrust > 0) {
-            // Accelerate
-            v = Math.min(thrust, v + pickup * tpf);
-        } else if (thrust < 0) {
-            // Decelerate
-            v = Math.max(thrust, v - pickup * tpf);
-        } else {
-            if (v > 0) {
-                // Fall to zero
-                v = Math.max(0, v - pickup * tpf);
-            } else {
-                // Rist to zero
-                v = Math.min(0, v + pickup * tpf);
-            }
-        }
-        return v;
-    }
-
     @Override
     public void update(final long frameTime, final double step) {
         // Drivable bodies should not fall asleep, keep them awake at all times
@@ -111,6 +98,13 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
 
         shipEntity.applyChanges();
 
+        if (inputs != null) {
+            final MovementInput input = inputs.poll(frameTime);
+            if (input != null) {
+                movementForces = input;
+            }
+        }
+
         // x-axis is side-to-side
         // Grab local versions of the player settings in case another
         // thread sets them while we are calculating.
@@ -120,19 +114,21 @@ public class PlayerDriver implements ControlDriver<EntityId, MBlockShape>, Drive
         // x is rotate - we dont need to clamp that
         // velocity.x = applyThrust(velocity.x, vec.x, step);
         // z is forward
-        velocity.z = applyThrust(velocity.z, vec.z, step);
+        velocity.z = ShipMotion.applyThrust(velocity.z, vec.z, step);
 
         // Rotate the ship according to left and right (should stop rotating right away
-        // when not pressing the keys
-        // Rotate around the y-axis (y is upwards)
-        body.setRotationalVelocity(0, vec.x, 0);
+        // when not pressing the keys). The turn is applied to the body here, with
+        // the same code as the client's prediction, rather than left to the
+        // physics engine's integration of a rotational velocity.
+        ShipMotion.turn(body.orientation, vec.x, step, turn);
+        body.setRotationalVelocity(0, 0, 0);
 
         // Set a clamped velocity on the forward axis rotated by the bodies current
         // rotation
         final Vec3d newLinearVelocity = body.orientation.mult(velocity);
         // body.setLinearVelocity(newLinearVelocity);
 
-        body.addForce(newLinearVelocity.mult(20));
+        body.addForce(newLinearVelocity.mult(ShipMotion.THRUST_FORCE));
         // log.info("Player (body) velocity (length of linvel):
         // "+body.getLinearVelocity().length());
     }
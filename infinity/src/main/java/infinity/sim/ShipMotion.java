@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+
+import infinity.net.InputFrames;
+
+/**
+ * The movement model of a player ship, shared between PlayerDriver on the
+ * server and the client's prediction of its own ship. Both turn the ship with
+ * turn() and pick up thrust with applyThrust(), so the headings agree exactly.
+ * The server then feeds the thrust into the physics engine as a force, the
+ * client integrates the same force itself with the ship's mass and damping,
+ * which is close enough for the server corrections to be small.
+ *
+ * @author Asser
+ */
+public class ShipMotion {
+
+    /**
+     * The seconds per physics step, the game loop runs at 60 steps a second.
+     */
+    public static final double STEP = 1.0 / 60;
+    public static final long STEP_NANOS = 1000000000L / 60;
+
+    /**
+     * How fast the thrust velocity picks up or falls off, per second.
+     */
+    public static final double PICKUP = 3;
+
+    /**
+     * The force per unit of thrust velocity.
+     */
+    public static final double THRUST_FORCE = 20;
+
+    /**
+     * The linear damping of ship bodies.
+     */
+    public static final double SHIP_DAMPING = 0.5;
+
+    private static final double SHIP_MASS = 1;
+
+    private final Vec3d position = new Vec3d();
+    private final Quatd orientation = new Quatd();
+    private final Vec3d linearVelocity = new Vec3d();
+    private double thrustVelocity;
+
+    // Scratch space, a motion is only ever stepped by one thread
+    private final Vec3d thrust = new Vec3d();
+    private final Vec3d move = new Vec3d();
+    private final Quatd turn = new Quatd();
+
+    /**
+     * Moves the thrust velocity towards the thrust the player asks for.
+     */
+    public static double applyThrust(final double vel, final double thrust, final double tpf) {
+        double v = vel;
+        if (thrust > 0) {
+            // Accelerate
+            v = Math.min(thrust, v + PICKUP * tpf);
+        } else if (thrust < 0) {
+            // Decelerate
+            v = Math.max(thrust, v - PICKUP * tpf);
+        } else {
+            if (v > 0) {
+                // Fall to zero
+                v = Math.max(0, v - PICKUP * tpf);
+            } else {
+                // Rise to zero
+                v = Math.min(0, v + PICKUP * tpf);
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Turns an orientation around the up axis for one step. Rotation is a
+     * velocity set directly from the input, the ship stops turning as soon as
+     * the input does.
+     *
+     * @param scratch a quaternion to compute the step's turn in
+     */
+    public static void turn(final Quatd orientation, final double rotate, final double step, final Quatd scratch) {
+        scratch.fromAngles(0, rotate * step, 0);
+        orientation.multLocal(scratch);
+        orientation.normalizeLocal();
+    }
+
+    /**
+     * Advances the ship one physics step with a packed input.
+     */
+    public void step(final int input, final double step) {
+        thrustVelocity = applyThrust(thrustVelocity, InputFrames.getThrust(input), step);
+
+        turn(orientation, InputFrames.getRotate(input), step, turn);
+
+        final Vec3d force = orientation.mult(thrust.set(0, 0, thrustVelocity * THRUST_FORCE));
+        linearVelocity.addLocal(force.multLocal(step / SHIP_MASS));
+        linearVelocity.multLocal(Math.pow(1 - SHIP_DAMPING, step));
+        position.addLocal(move.set(linearVelocity).multLocal(step));
+    }
+
+    public void set(final ShipMotion motion) {
+        position.set(motion.position);
+        orientation.set(motion.orientation);
+        linearVelocity.set(motion.linearVelocity);
+        thrustVelocity = motion.thrustVelocity;
+    }
+
+    /**
+     * Moves the ship to where the server says it is, keeping the velocities
+     * which the server does not send.
+     */
+    public void set(final Vec3d position, final Quatd orientation) {
+        this.position.set(position);
+        this.orientation.set(orientation);
+    }
+
+    public Vec3d getPosition() {
+        return position;
+    }
+
+    public Quatd getOrientation() {
+        return orientation;
+    }
+
+    public Vec3d getLinearVelocity() {
+        return linearVelocity;
+    }
+
+    public double getThrustVelocity() {
+        return thrustVelocity;
+    }
+}
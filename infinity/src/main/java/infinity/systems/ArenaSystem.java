@@ -25,7 +25,7 @@
  */
 package infinity.systems;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections4.map.ListOrderedMap;
@@ -44,8 +44,11 @@ import com.simsilica.sim.SimTime;
 
 import infinity.es.ArenaId;
 import infinity.map.LevelLoader;
+import infinity.server.ArenaHost;
+import infinity.server.ArenaRouter;
 import infinity.sim.ArenaManager;
 import infinity.sim.CoreGameConstants;
+import infinity.sim.SystemAccess;
 
 /**
  * State to keep track of different arenas. Arenas are composed of a tileset and
@@ -53,8 +56,12 @@ import infinity.sim.CoreGameConstants;
  * of where the next arena can be loaded and associates rulesets to each loaded
  * arena
  *
+ * Every arena runs in its own GameServer, this system knows which arena it
+ * belongs to and opens and closes the others through the ArenaHost.
+ *
  * @author Asser
  */
+@SystemAccess(reads = { ArenaId.class })
 public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
 
     private EntityData ed;
@@ -65,7 +72,8 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
     static Logger log = LoggerFactory.getLogger(ArenaSystem.class);
     // private SimTime time;
 
-    private final HashMap<String, EntityId> currentOpenArenas = new HashMap<>();
+    private final String arenaId;
+    private final ArenaHost host;
 
     // private final boolean createdDefaultArena = false;
 
@@ -73,6 +81,15 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
     // private MapSystem mapSystem;
     // private int xCoord, zCoord;
 
+    /**
+     * @param arenaId the arena this system runs in
+     * @param host    the host of all the arenas in this process
+     */
+    public ArenaSystem(final String arenaId, final ArenaHost host) {
+        this.arenaId = arenaId;
+        this.host = host;
+    }
+
     @Override
     protected void initialize() {
 
@@ -119,13 +136,26 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
 
     @Override
     public String[] getActiveArenas() {
-        return (String[]) currentOpenArenas.keySet().toArray();
+        return host.getArenaIds();
     }
 
-    @SuppressWarnings("unused")
-    private void closeArena(final String arenaId) {
-        ed.removeEntity(currentOpenArenas.get(arenaId));
-        currentOpenArenas.remove(arenaId);
+    /**
+     * Stops another arena, kicking its players. The arena this system runs in
+     * can not close itself.
+     */
+    public void closeArena(final String name) {
+        if (arenaId.equals(name)) {
+            log.warn("Arena " + name + " can not close itself");
+            return;
+        }
+        host.closeArena(name);
+    }
+
+    /**
+     * @return the arena this system runs in
+     */
+    public String getArenaId() {
+        return arenaId;
     }
 
     @Override
@@ -133,15 +163,26 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
         return CoreGameConstants.DEFAULTARENAID;
     }
 
-    public void loadArena(final String name, final boolean forceLoad) {
-        if (!arenas.containsKey(name)) {
-            // find next coordinate pair to load map on
-
+    /**
+     * Makes sure an arena is running.
+     *
+     * @param name      the arena
+     * @param forceLoad restart the arena if it is already running
+     * @return the port the arena listens on
+     */
+    public int loadArena(final String name, final boolean forceLoad) throws IOException {
+        if (forceLoad && !arenaId.equals(name)) {
+            host.closeArena(name);
         }
+        return host.openArena(name);
+    }
 
-        if (arenas.containsKey(name) && forceLoad) {
-            // TODO implement me
-        }
+    /**
+     * Finds the game server of an arena, which may run in another process when
+     * the server is part of a lobby.
+     */
+    public void routeArena(final String name, final ArenaRouter.Destination destination) {
+        host.route(name, destination);
     }
 
     @SuppressWarnings("unused")
@@ -19,18 +19,25 @@ import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
+import com.simsilica.es.StringIndex;
+import com.simsilica.es.common.Decay;
 import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
 import com.simsilica.mathd.Quatd;
 import com.simsilica.mathd.Vec3d;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.PhysicsSpace;
 import com.simsilica.mphys.RigidBody;
+import com.simsilica.mworld.base.DefaultWorld;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.AudioTypes;
 import infinity.es.Damage;
 import infinity.es.GravityWell;
+import infinity.es.Parent;
 import infinity.es.ship.actions.Burst;
 import infinity.es.ship.actions.Thor;
 import infinity.es.ship.weapons.Bomb;
@@ -50,12 +57,18 @@ import infinity.es.ship.weapons.MineFireDelay;
 import infinity.sim.CoreGameConstants;
 import infinity.sim.CorePhysicsConstants;
 import infinity.sim.GameEntities;
-import infinity.sim.GameSounds;
+import infinity.sim.SystemAccess;
 
 /**
  *
  * @author AFahrenholz
  */
+@SystemAccess(reads = { Gun.class, GunCost.class, Bomb.class, BombCost.class, GravityBomb.class,
+        GravityBombCost.class, Mine.class, MineCost.class, PhysicsSpace.class, LagCompensationSystem.class,
+        DefaultWorld.class }, writes = { GunFireDelay.class, BombFireDelay.class, GravityBombFireDelay.class,
+        MineFireDelay.class, Burst.class, Thor.class, Damage.class, GravityWell.class, ShapeInfo.class,
+        SpawnPosition.class, Mass.class, Decay.class, Parent.class, EnergySystem.class, ProjectileSystem.class,
+        AudioEventSystem.class, StringIndex.class })
 public class AttackSystem extends AbstractGameSystem {
 
     public static final byte GUN = 0x0;
@@ -65,6 +78,12 @@ public class AttackSystem extends AbstractGameSystem {
     public static final byte BURST = 0x4;
     public static final byte THOR = 0x5;
 
+    /**
+     * Components are immutable, so pooled projectiles can all share the one
+     * instance and never need their Damage set again.
+     */
+    private static final Damage PROJECTILE_DAMAGE = new Damage(-20);
+
     private EntityData ed;
     private MPhysSystem<MBlockShape> physics;
     private PhysicsSpace<EntityId, MBlockShape> space;
@@ -77,6 +96,9 @@ public class AttackSystem extends AbstractGameSystem {
 
     private SimTime time;
     private EnergySystem health;
+    private ProjectileSystem projectiles;
+    private AudioEventSystem audio;
+    private LagCompensationSystem lagCompensation;
     // private SettingsSystem settings;
 
     protected MPhysSystem<MBlockShape> getPhysicsSystem() {
@@ -103,6 +125,19 @@ public class AttackSystem extends AbstractGameSystem {
 
         health = getSystem(EnergySystem.class);
 
+        projectiles = getSystem(ProjectileSystem.class);
+        if (projectiles == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the ProjectileSystem system.");
+        }
+
+        audio = getSystem(AudioEventSystem.class);
+        if (audio == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the AudioEventSystem system.");
+        }
+
+        // Optional, without it every attack happens at the server's time
+        lagCompensation = getSystem(LagCompensationSystem.class);
+
         guns = ed.getEntities(Gun.class, GunFireDelay.class, GunCost.class);
 
         bombs = ed.getEntities(Bomb.class, BombFireDelay.class, BombCost.class);
@@ -163,7 +198,7 @@ public class AttackSystem extends AbstractGameSystem {
         while (iterator.hasNext()) {
             final Attack a = iterator.next();
 
-            attack(a.getOwner(), a.getWeaponType());
+            attack(a.getOwner(), a.getWeaponType(), a.getLag());
 
             iterator.remove();
         }
@@ -179,13 +214,13 @@ public class AttackSystem extends AbstractGameSystem {
      * @param requestor the requesting entity
      * @param type      the weapon type to attack with
      */
-    private void attack(final EntityId requestor, final byte flag) {
+    private void attack(final EntityId requestor, final byte flag, final long lag) {
         switch (flag) {
         case AttackSystem.BOMB:
-            entityAttackBomb(requestor);
+            entityAttackBomb(requestor, lag);
             break;
         case AttackSystem.GUN:
-            entityAttackGuns(requestor);
+            entityAttackGuns(requestor, lag);
             break;
         case AttackSystem.BURST:
             entityBurst(requestor);
@@ -243,8 +278,9 @@ public class AttackSystem extends AbstractGameSystem {
      * Checks that an entity can attack with Bullets
      *
      * @param requestor requesting entity
+     * @param lag       how far behind the server the requestor saw the ships
      */
-    private void entityAttackGuns(final EntityId requestor) {
+    private void entityAttackGuns(final EntityId requestor, final long lag) {
         final Entity entity = guns.getEntity(requestor);
         // Entity doesnt have guns
         if (entity == null) {
@@ -269,7 +305,9 @@ public class AttackSystem extends AbstractGameSystem {
         // Perform attack
         final AttackInfo info = getAttackInfo(requestor, AttackSystem.GUN);
 
-        attackGuns(info, shipGuns.getLevel(), new Damage(-20), requestor);
+        if (!compensate(info, requestor, lag, CorePhysicsConstants.BULLETSIZERADIUS, PROJECTILE_DAMAGE)) {
+            attackGuns(info, shipGuns.getLevel(), PROJECTILE_DAMAGE, requestor);
+        }
 
         // Set new cooldown
         ed.setComponent(requestor, shipGunCooldown.copy());
@@ -279,8 +317,9 @@ public class AttackSystem extends AbstractGameSystem {
      * Checks that an entity can attack with Bombs
      *
      * @param requestor requesting entity
+     * @param lag       how far behind the server the requestor saw the ships
      */
-    private void entityAttackBomb(final EntityId requestor) {
+    private void entityAttackBomb(final EntityId requestor, final long lag) {
         final Entity entity = bombs.getEntity(requestor);
         final Bomb shipBombs = entity.get(Bomb.class);
         final BombFireDelay shipBombCooldown = entity.get(BombFireDelay.class);
@@ -301,7 +340,9 @@ public class AttackSystem extends AbstractGameSystem {
         // Perform attack
         final AttackInfo info = getAttackInfo(requestor, AttackSystem.BOMB);
 
-        attackBomb(info, shipBombs.getLevel(), new Damage(-20), requestor);
+        if (!compensate(info, requestor, lag, CorePhysicsConstants.BOMBSIZERADIUS, PROJECTILE_DAMAGE)) {
+            attackBomb(info, shipBombs.getLevel(), PROJECTILE_DAMAGE, requestor);
+        }
 
         // Set new cooldown
         ed.setComponent(requestor, shipBombCooldown.copy());
@@ -334,7 +375,7 @@ public class AttackSystem extends AbstractGameSystem {
         // Perform attack
         final AttackInfo info = getAttackInfo(requestor, AttackSystem.MINE);
 
-        attackBomb(info, shipMines.getLevel(), new Damage(-20), requestor);
+        attackBomb(info, shipMines.getLevel(), PROJECTILE_DAMAGE, requestor);
 
         // Set new cooldown
         ed.setComponent(requestor, shipMineCooldown.copy());
@@ -433,10 +474,9 @@ public class AttackSystem extends AbstractGameSystem {
      */
     private void attackBomb(final AttackInfo info, final BombLevelEnum level, final Damage damage,
             final EntityId owner) {
-        final EntityId projectile = GameEntities.createBomb(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.BULLETDECAY, level);
-        ed.setComponent(projectile, damage);
-        GameSounds.createBombSound(ed, owner, space, time.getTime(), info.getLocation(), level);
+        projectiles.fireBomb(owner, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.BULLETDECAY, level, damage);
+        audio.playSound(AudioTypes.fire_bomb(level), info.getLocation(), owner);
     }
 
     /**
@@ -451,7 +491,7 @@ public class AttackSystem extends AbstractGameSystem {
         projectile = GameEntities.createBurst(ed, owner, space, time.getTime(), info.getLocation(),
                 info.getAttackVelocity(), CoreGameConstants.BULLETDECAY);
         ed.setComponent(projectile, damage);
-        GameSounds.createBurstSound(ed, owner, space, time.getTime(), info.getLocation());
+        audio.playSound(AudioTypes.BURST, info.getLocation(), owner);
     }
 
     /**
@@ -464,13 +504,9 @@ public class AttackSystem extends AbstractGameSystem {
     private void attackGuns(final AttackInfo info, final GunLevelEnum level, final Damage damage,
             final EntityId owner) {
 
-        final String shapeName = "bullet_l" + level.level;
-
-        EntityId projectile;
-        projectile = GameEntities.createBullet(ed, owner, space, time.getTime(), info.getLocation(),
-                info.getAttackVelocity(), CoreGameConstants.BULLETDECAY, level, shapeName);
-        ed.setComponent(projectile, damage);
-        GameSounds.createBulletSound(ed, owner, space, time.getTime(), info.getLocation(), level);
+        projectiles.fireBullet(owner, time.getTime(), info.getLocation(), info.getAttackVelocity(),
+                CoreGameConstants.BULLETDECAY, level, damage);
+        audio.playSound(AudioTypes.fire_bullet(level), info.getLocation(), owner);
     }
 
     /**
@@ -495,7 +531,7 @@ public class AttackSystem extends AbstractGameSystem {
                 delayedComponents, level);
         ed.setComponent(projectile, new Damage(damage.getDamage()));
 
-        GameSounds.createSound(ed, owner, space, time.getTime(), info.getLocation(), AudioTypes.FIRE_GRAVBOMB);
+        audio.playSound(AudioTypes.FIRE_GRAVBOMB, info.getLocation(), owner);
     }
 
     /**
@@ -512,17 +548,23 @@ public class AttackSystem extends AbstractGameSystem {
 
         ed.setComponent(projectile, new Damage(damage.getDamage()));
 
-        GameSounds.createSound(ed, owner, space, time.getTime(), info.getLocation(), AudioTypes.FIRE_THOR);
+        audio.playSound(AudioTypes.FIRE_THOR, info.getLocation(), owner);
     }
 
     public class Attack {
 
         final EntityId owner;
         final byte flag;
+        final long lag;
 
         public Attack(final EntityId owner, final byte flag) {
+            this(owner, flag, 0);
+        }
+
+        public Attack(final EntityId owner, final byte flag, final long lag) {
             this.owner = owner;
             this.flag = flag;
+            this.lag = lag;
         }
 
         public EntityId getOwner() {
@@ -532,6 +574,10 @@ public class AttackSystem extends AbstractGameSystem {
         public byte getWeaponType() {
             return flag;
         }
+
+        public long getLag() {
+            return lag;
+        }
     }
 
     /**
@@ -556,7 +602,6 @@ public class AttackSystem extends AbstractGameSystem {
             return attackVelocity;
         }
 
-        @SuppressWarnings("unused")
         public void setLocation(final Vec3d location) {
             this.location = location;
         }
@@ -571,6 +616,49 @@ public class AttackSystem extends AbstractGameSystem {
         }
     }
 
+    /**
+     * Plays a shot out as the shooter saw it. The projectile is followed from
+     * the time the shooter fired, against the ships where they were at that
+     * time, up to now. If it passes through a ship on the way the hit is
+     * registered right here, otherwise the projectile is moved ahead to where it
+     * has got to by now and from there on hits through the ProjectileSystem,
+     * like a shot without compensation. A projectile that reaches a wall or a
+     * static body on the way stops there: ships behind it are not hit and it is
+     * spawned at the contact.
+     *
+     * The shooter's own ship is not moved back, the client predicts it and so
+     * fires from where the server has it.
+     *
+     * @return true if the shot already hit a ship and no projectile is needed
+     */
+    private boolean compensate(final AttackInfo info, final EntityId shooter, final long lag, final double radius,
+            final Damage damage) {
+        if (lag <= 0 || lagCompensation == null) {
+            return false;
+        }
+        final long now = lagCompensation.getLastFrameTime();
+        if (now < 0) {
+            return false;
+        }
+        final long fired = now - lag;
+        final double flown = lagCompensation.clip(info.getLocation(), info.getAttackVelocity(), radius, lag / 1e9);
+        final EntityId target = lagCompensation.sweep(shooter, info.getLocation(), info.getAttackVelocity(), radius,
+                fired, flown);
+        if (target != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Compensated hit of " + target + " by " + shooter + " " + lag / 1000000 + " ms back");
+            }
+            health.createHealthChange(target, damage.getDamage());
+            return true;
+        }
+        // The projectile has been on its way for as long as the shooter lags, or
+        // until it reached the map
+        final Vec3d location = info.getLocation().clone();
+        location.addLocal(info.getAttackVelocity().mult(flown));
+        info.setLocation(location);
+        return false;
+    }
+
     /**
      * Find the velocity and the position of the projectile
      *
@@ -649,6 +737,18 @@ public class AttackSystem extends AbstractGameSystem {
      * @param weaponType the weapon of choice
      */
     public void sessionAttack(final EntityId attacker, final byte flag) {
-        sessionAttackCreations.add(new Attack(attacker, flag));
+        sessionAttack(attacker, flag, 0);
+    }
+
+    /**
+     * Queue up an attack from a player that sees the other ships late.
+     *
+     * @param attacker the attacking entity
+     * @param flag     the weapon of choice
+     * @param lag      how far behind the server the attacker sees the other
+     *                 ships, in nanoseconds
+     */
+    public void sessionAttack(final EntityId attacker, final byte flag, final long lag) {
+        sessionAttackCreations.add(new Attack(attacker, flag, lag));
     }
 }
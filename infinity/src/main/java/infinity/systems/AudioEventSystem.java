@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.zone.ZoneGrid;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.net.AudioEvents;
+import infinity.sim.SystemAccess;
+
+/**
+ * Collects the sounds played during a tick and hands them out in one batch per
+ * listener at the end of the update. Sounds are never entities, a listener only
+ * gets the sounds that fall within the zones around its location, using the
+ * same zone grid and radius as SimEthereal.
+ *
+ * Every listener has its own batch that is refilled in a single pass over the
+ * tick's sounds. The batch is only valid during playAudio(), the network
+ * listeners serialize it before the call returns.
+ *
+ * The update only calls the listeners. Sounds are added by the callers of
+ * playSound(), which list this system's class and the StringIndex the sound
+ * names are interned in among their writes.
+ *
+ * @author Asser
+ */
+@SystemAccess(writes = { AudioEventSystem.AudioListener.class })
+public class AudioEventSystem extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(AudioEventSystem.class);
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Vec3i zoneSize;
+    private final Vec3i zoneRadius;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private EntityData ed;
+
+    private int size;
+    private int[] types = new int[INITIAL_CAPACITY];
+    private double[] positions = new double[INITIAL_CAPACITY * 3];
+    private long[] owners = new long[INITIAL_CAPACITY];
+    private int[] zones = new int[INITIAL_CAPACITY * 3];
+
+    private final Vec3d listenerLocation = new Vec3d();
+
+    public AudioEventSystem(final ZoneGrid grid, final Vec3i zoneRadius) {
+        zoneSize = grid.getZoneSize();
+        this.zoneRadius = zoneRadius;
+    }
+
+    @Override
+    protected void initialize() {
+        ed = getSystem(EntityData.class);
+        if (ed == null) {
+            throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
+        }
+    }
+
+    @Override
+    protected void terminate() {
+        listeners.clear();
+        size = 0;
+    }
+
+    public void addAudioListener(final AudioListener l) {
+        listeners.add(new Listener(l));
+    }
+
+    public void removeAudioListener(final AudioListener l) {
+        for (final Listener listener : listeners) {
+            if (listener.audioListener == l) {
+                listeners.remove(listener);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Plays a sound at a location for everyone who can see that location.
+     *
+     * @param audioType one of the AudioTypes names
+     * @param pos       the location of the sound
+     * @param owner     the entity that made the sound, may be null
+     */
+    public void playSound(final String audioType, final Vec3d pos, final EntityId owner) {
+        if (size == types.length) {
+            final int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            owners = Arrays.copyOf(owners, capacity);
+            zones = Arrays.copyOf(zones, capacity * 3);
+        }
+        types[size] = ed.getStrings().getStringId(audioType, true);
+        positions[size * 3] = pos.x;
+        positions[size * 3 + 1] = pos.y;
+        positions[size * 3 + 2] = pos.z;
+        owners[size] = owner == null ? 0 : owner.getId();
+        zones[size * 3] = toZone(pos.x, zoneSize.x);
+        zones[size * 3 + 1] = toZone(pos.y, zoneSize.y);
+        zones[size * 3 + 2] = toZone(pos.z, zoneSize.z);
+        size++;
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        if (size == 0) {
+            return;
+        }
+        for (final Listener l : listeners) {
+            l.audioListener.getAudioLocation(listenerLocation);
+            final int x = toZone(listenerLocation.x, zoneSize.x);
+            final int y = toZone(listenerLocation.y, zoneSize.y);
+            final int z = toZone(listenerLocation.z, zoneSize.z);
+
+            final AudioEvents events = l.events;
+            events.reset(time.getTime());
+            for (int i = 0; i < size; i++) {
+                if (isInRange(i, x, y, z)) {
+                    events.add(types[i], positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], owners[i]);
+                }
+            }
+            if (events.size() > 0) {
+                l.audioListener.playAudio(events);
+            }
+        }
+        size = 0;
+    }
+
+    private boolean isInRange(final int index, final int x, final int y, final int z) {
+        return Math.abs(zones[index * 3] - x) <= zoneRadius.x && Math.abs(zones[index * 3 + 1] - y) <= zoneRadius.y
+                && Math.abs(zones[index * 3 + 2] - z) <= zoneRadius.z;
+    }
+
+    /**
+     * A zone size of 0 means the grid is flat along that axis.
+     */
+    private static int toZone(final double value, final int zoneSize) {
+        if (zoneSize == 0) {
+            return 0;
+        }
+        return (int) Math.floor(value / zoneSize);
+    }
+
+    /**
+     * A listener and the batch that is refilled for it every tick.
+     */
+    private static class Listener {
+        final AudioListener audioListener;
+        final AudioEvents events = new AudioEvents(0, INITIAL_CAPACITY);
+
+        Listener(final AudioListener audioListener) {
+            this.audioListener = audioListener;
+        }
+    }
+
+    /**
+     * Receives the sounds near a location, on the simulation thread.
+     */
+    public interface AudioListener {
+
+        /**
+         * Fills in the current location of the listener.
+         *
+         * @param store the vector to store the location in
+         */
+        void getAudioLocation(Vec3d store);
+
+        /**
+         * Called with the sounds near the listener. The batch is reused for the
+         * next tick, so it must not be kept past the call.
+         */
+        void playAudio(AudioEvents events);
+    }
+}
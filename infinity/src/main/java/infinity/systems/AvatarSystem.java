@@ -48,11 +48,13 @@ import infinity.server.chat.ChatHostedService;
 import infinity.sim.AccessLevel;
 import infinity.sim.CommandConsumer;
 import infinity.sim.CorePhysicsConstants;
+import infinity.sim.SystemAccess;
 
 /**
  *
  * @author Asser
  */
+@SystemAccess(reads = { ShapeInfo.class, Frequency.class, Captain.class })
 public class AvatarSystem extends AbstractGameSystem {
 
     private EntityData ed;
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.es.Name;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.es.ArenaId;
+import infinity.es.input.MovementInput;
+import infinity.sim.GameEntities;
+import infinity.sim.SystemAccess;
+
+/**
+ * Flies server side bot ships. Every bot is a player entity with a warbird
+ * just like a connected player gets, and it is steered the same way: through
+ * the MovementInput of its ship, which MovementSystem hands to the ship's
+ * PlayerDriver, and AttackSystem.sessionAttack() for its guns.
+ *
+ * The bots decide a few times a second. The positions of all ships are copied
+ * out of the physics space on the game loop and the decisions are computed in
+ * batches on the worker pool. They are applied DECISION_TICKS later, on the
+ * tick that starts the next decisions, waiting for the pool if it is behind.
+ * The decisions only depend on the copied positions and always take effect
+ * on the same tick, so the same bots in the same world decide the same.
+ *
+ * The system can also keep a minimum number of ships in the arena by adding
+ * bots when players leave and removing them when players join. Bots are
+ * created and removed by the Population system, which has to be added to the
+ * manager next to this one. It has no SystemAccess because a bot's entities
+ * get components from all over, so it is updated on its own.
+ *
+ * @author Asser
+ */
+@SystemAccess(reads = { PhysicsSpace.class }, writes = { MovementInput.class, AttackSystem.class })
+public class BotSystem extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(BotSystem.class);
+
+    /**
+     * Ticks between decisions, a bit slower than a human's reaction time at
+     * 60 ticks a second.
+     */
+    private static final int DECISION_TICKS = 6;
+
+    /**
+     * Bots per worker task.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Ticks between checks of the minimum population.
+     */
+    private static final int FILL_TICKS = 60;
+
+    /**
+     * Bots start out scattered over a square this wide around the origin.
+     */
+    private static final double SPAWN_AREA = 200;
+
+    private static final double TURN_GAIN = 2;
+    private static final double KEEP_DISTANCE = 8;
+    private static final double FIRE_RANGE = 40;
+    private static final double FIRE_ANGLE = 0.15;
+
+    private final ForkJoinPool pool;
+    private EntityData ed;
+    private PhysicsSpace<EntityId, MBlockShape> space;
+    private AttackSystem attacks;
+    private ArenaSystem arenas;
+    private EntitySet ships;
+
+    private final List<Bot> bots = new ArrayList<>();
+    private final Set<EntityId> botShips = new HashSet<>();
+    private final ConcurrentLinkedQueue<Integer> requests = new ConcurrentLinkedQueue<>();
+    private volatile int minimumPopulation;
+    private int spawned;
+    private long ticks;
+
+    // The snapshot the current decisions are computed from and their results
+    private Bot[] deciding = new Bot[0];
+    private double[] posX = new double[0];
+    private double[] posZ = new double[0];
+    private double[] dirX = new double[0];
+    private double[] dirZ = new double[0];
+    private int shipCount;
+    // Where each deciding bot's ship is in the snapshot, -1 if it has no body
+    private int[] selfIndex = new int[0];
+    private double[] turn = new double[0];
+    private double[] thrust = new double[0];
+    private boolean[] fire = new boolean[0];
+    private final List<Batch> batches = new ArrayList<>();
+
+    private final Population population = new Population();
+
+    /**
+     * @param pool the pool the decisions are computed on
+     */
+    public BotSystem(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void initialize() {
+        ed = getSystem(EntityData.class);
+        if (ed == null) {
+            throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
+        }
+        final MPhysSystem<MBlockShape> physics = getSystem(MPhysSystem.class);
+        if (physics == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the MPhysSystem system.");
+        }
+        space = physics.getPhysicsSpace();
+        attacks = getSystem(AttackSystem.class);
+        if (attacks == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the AttackSystem system.");
+        }
+        arenas = getSystem(ArenaSystem.class);
+    }
+
+    @Override
+    protected void terminate() {
+        return;
+    }
+
+    @Override
+    public void start() {
+        // Every ship that can be flown, players and bots alike
+        ships = ed.getEntities(MovementInput.class);
+    }
+
+    @Override
+    public void stop() {
+        for (final Batch b : batches) {
+            b.quietlyJoin();
+        }
+        batches.clear();
+        while (!bots.isEmpty()) {
+            removeBot();
+        }
+        ships.release();
+        ships = null;
+    }
+
+    /**
+     * Adds bots, or removes them for a negative count. Safe to call from any
+     * thread, the change happens on the next tick.
+     */
+    public void addBots(final int count) {
+        requests.add(Integer.valueOf(count));
+    }
+
+    /**
+     * Keeps at least this many ships in the arena by adding bots, which are
+     * removed again as players join. 0 turns this off.
+     */
+    public void setMinimumPopulation(final int minimumPopulation) {
+        this.minimumPopulation = minimumPopulation;
+    }
+
+    public int getMinimumPopulation() {
+        return minimumPopulation;
+    }
+
+    public int getBotCount() {
+        return bots.size();
+    }
+
+    /**
+     * @return the system that adds and removes the bots, to be added to the
+     *         same manager
+     */
+    public Population getPopulation() {
+        return population;
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        ships.applyChanges();
+
+        ticks++;
+        if (ticks % DECISION_TICKS != 0) {
+            return;
+        }
+
+        if (!batches.isEmpty()) {
+            for (final Batch b : batches) {
+                // Rethrows if the batch failed
+                b.join();
+            }
+            batches.clear();
+            apply();
+        }
+
+        if (!bots.isEmpty()) {
+            snapshot();
+            for (int from = 0; from < deciding.length; from += BATCH_SIZE) {
+                final Batch b = new Batch(from, Math.min(deciding.length, from + BATCH_SIZE));
+                batches.add(b);
+                pool.execute(b);
+            }
+        }
+    }
+
+    private void changeBots(final int count, final SimTime time) {
+        for (int i = 0; i < count; i++) {
+            addBot(time);
+        }
+        for (int i = 0; i > count && !bots.isEmpty(); i--) {
+            removeBot();
+        }
+    }
+
+    private void fill(final SimTime time) {
+        final int min = minimumPopulation;
+        if (min <= 0) {
+            return;
+        }
+        final int population = ships.size();
+        if (population < min) {
+            changeBots(min - population, time);
+        } else if (population > min && !bots.isEmpty()) {
+            changeBots(-Math.min(bots.size(), population - min), time);
+        }
+    }
+
+    private void addBot(final SimTime time) {
+        final int number = spawned++;
+        final EntityId player = ed.createEntity();
+        ed.setComponent(player, new Name("Bot" + number));
+
+        final EntityId ship = GameEntities.createWarbird(ed, player, space, time.getTime());
+        final Random random = new Random(number);
+        final Vec3d pos = new Vec3d((random.nextDouble() - 0.5) * SPAWN_AREA, 0.5,
+                (random.nextDouble() - 0.5) * SPAWN_AREA);
+        ed.setComponent(ship, new SpawnPosition(space.getGrid(), pos));
+        // Having a MovementInput is what gets the ship a PlayerDriver
+        ed.setComponent(ship, new MovementInput(new Vec3d()));
+        if (arenas != null) {
+            final ArenaId arena = new ArenaId(arenas.getArenaId());
+            ed.setComponent(player, arena);
+            ed.setComponent(ship, arena);
+        }
+        bots.add(new Bot(player, ship));
+        botShips.add(ship);
+    }
+
+    private void removeBot() {
+        final Bot bot = bots.remove(bots.size() - 1);
+        botShips.remove(bot.ship);
+        ed.removeEntity(bot.ship);
+        ed.removeEntity(bot.player);
+    }
+
+    /**
+     * Copies the positions and headings of all ships, bots first.
+     */
+    private void snapshot() {
+        // Bots added this tick are not in the ship set yet
+        final int count = ships.size() + bots.size();
+        if (posX.length < count) {
+            posX = new double[count];
+            posZ = new double[count];
+            dirX = new double[count];
+            dirZ = new double[count];
+        }
+        deciding = bots.toArray(new Bot[bots.size()]);
+        if (turn.length < deciding.length) {
+            selfIndex = new int[deciding.length];
+            turn = new double[deciding.length];
+            thrust = new double[deciding.length];
+            fire = new boolean[deciding.length];
+        }
+
+        int n = 0;
+        for (int i = 0; i < deciding.length; i++) {
+            final int next = copy(deciding[i].ship, n);
+            selfIndex[i] = next > n ? n : -1;
+            n = next;
+        }
+        for (final Entity e : ships) {
+            if (!botShips.contains(e.getId())) {
+                n = copy(e.getId(), n);
+            }
+        }
+        shipCount = n;
+    }
+
+    /**
+     * Copies one ship into the snapshot if it has a body.
+     *
+     * @return the next free index
+     */
+    private int copy(final EntityId id, final int n) {
+        final RigidBody<EntityId, MBlockShape> body = space.getBinIndex().getRigidBody(id);
+        if (body == null) {
+            return n;
+        }
+        // Forward is +z turned by the body's orientation
+        final Vec3d forward = body.orientation.mult(new Vec3d(0, 0, 1));
+        posX[n] = body.position.x;
+        posZ[n] = body.position.z;
+        dirX[n] = forward.x;
+        dirZ[n] = forward.z;
+        return n + 1;
+    }
+
+    /**
+     * Feeds the finished decisions in the same way a player's input arrives.
+     */
+    private void apply() {
+        for (int i = 0; i < deciding.length; i++) {
+            final Bot bot = deciding[i];
+            // Skips bots that were removed while the batches were running
+            if (bot == null || !botShips.contains(bot.ship)) {
+                continue;
+            }
+            ed.setComponent(bot.ship, new MovementInput(new Vec3d(turn[i], 0, thrust[i])));
+            if (fire[i]) {
+                attacks.sessionAttack(bot.ship, AttackSystem.GUN);
+            }
+        }
+    }
+
+    /**
+     * Steers bot i towards the nearest other ship and fires when it is lined
+     * up. Only reads the snapshot and writes the bot's own decision.
+     */
+    private void decide(final int i) {
+        final int self = selfIndex[i];
+        if (self < 0) {
+            turn[i] = 0;
+            thrust[i] = 0;
+            fire[i] = false;
+            return;
+        }
+
+        int target = -1;
+        double best = Double.MAX_VALUE;
+        for (int j = 0; j < shipCount; j++) {
+            if (j == self) {
+                continue;
+            }
+            final double dx = posX[j] - posX[self];
+            final double dz = posZ[j] - posZ[self];
+            final double d = dx * dx + dz * dz;
+            if (d < best) {
+                best = d;
+                target = j;
+            }
+        }
+        if (target < 0) {
+            // Alone in the arena, circle around
+            turn[i] = 0.5;
+            thrust[i] = 0.5;
+            fire[i] = false;
+            return;
+        }
+
+        final double dx = posX[target] - posX[self];
+        final double dz = posZ[target] - posZ[self];
+        final double fx = dirX[self];
+        final double fz = dirZ[self];
+        // Positive turns forward towards +x around the up axis
+        final double angle = Math.atan2(fz * dx - fx * dz, fx * dx + fz * dz);
+        final double distance = Math.sqrt(best);
+
+        turn[i] = Math.max(-1, Math.min(1, angle * TURN_GAIN));
+        thrust[i] = distance > KEEP_DISTANCE ? 1 : 0;
+        fire[i] = distance < FIRE_RANGE && Math.abs(angle) < FIRE_ANGLE;
+    }
+
+    /**
+     * Adds and removes bots. Creating a ship writes most of the ship
+     * components and removing one removes whatever the other systems gave it,
+     * so this runs without a SystemAccess, on its own.
+     */
+    public class Population extends AbstractGameSystem {
+
+        private long populationTicks;
+
+        @Override
+        protected void initialize() {
+            return;
+        }
+
+        @Override
+        protected void terminate() {
+            return;
+        }
+
+        @Override
+        public void update(final SimTime time) {
+            Integer request;
+            while ((request = requests.poll()) != null) {
+                changeBots(request.intValue(), time);
+            }
+            populationTicks++;
+            if (populationTicks % FILL_TICKS == 0) {
+                fill(time);
+            }
+        }
+    }
+
+    private static class Bot {
+        private final EntityId player;
+        private final EntityId ship;
+
+        Bot(final EntityId player, final EntityId ship) {
+            this.player = player;
+            this.ship = ship;
+        }
+    }
+
+    /**
+     * Decides for a range of the bots on the worker pool.
+     */
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Batch(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to; i++) {
+                decide(i);
+            }
+        }
+    }
+}
@@ -5,8 +5,12 @@
  */
 package infinity.systems;
 
-import java.util.logging.Logger;
+import java.util.Arrays;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
@@ -14,94 +18,144 @@ import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.Contact;
 import com.simsilica.mphys.ContactListener;
+import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
-import com.simsilica.sim.SimTime;
 
 import infinity.es.CollisionCategory;
 import infinity.es.Parent;
+import infinity.jfr.ContactDispatchedEvent;
 import infinity.sim.CategoryFilter;
+import infinity.sim.SystemAccess;
+import infinity.util.LongIntMap;
 
 /**
+ * Filters contacts on collision categories and parents. The category, mask and
+ * parent of every entity that has either component are kept in flat arrays,
+ * indexed by a slot per entity, so that newContact() is one primitive lookup
+ * per body followed by a few array reads. The tables are refreshed at the start
+ * of every physics frame.
+ *
+ * Contacts that pass the filters are handed to the ProjectileSystem, which
+ * turns a projectile touching a ship into a hit.
  *
  * @author AFahrenholz
  */
+@SystemAccess(reads = { CollisionCategory.class, Parent.class })
 public class ContactSystem extends AbstractGameSystem implements ContactListener<EntityId, MBlockShape> {
 
-    private static final Logger log = Logger.getLogger(ContactSystem.class.getName());
+    static Logger log = LoggerFactory.getLogger(ContactSystem.class);
+
+    private static final byte HAS_FILTER = 0x1;
+    private static final byte HAS_PARENT = 0x2;
+
+    private static final int INITIAL_CAPACITY = 256;
 
     private EntityData ed;
-    private MPhysSystem<?> physics;
+    private MPhysSystem<MBlockShape> physics;
+    private ProjectileSystem projectiles;
     // private PhysicsSpace<EntityId, MBlockShape> space;
     // private BinIndex binIndex;
     // private BinEntityManager binEntityManager;
-    EntitySet categoryFilters;
+    private EntitySet categoryFilters;
+    private EntitySet parents;
+
+    private final FrameObserver frameObserver = new FrameObserver();
+
+    // Entity id to slot in the tables below
+    private final LongIntMap slots = new LongIntMap(INITIAL_CAPACITY);
+    private int slotCount;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private long[] categories = new long[INITIAL_CAPACITY];
+    private long[] masks = new long[INITIAL_CAPACITY];
+    private long[] parentIds = new long[INITIAL_CAPACITY];
+
+    // Statistics, written from the physics thread only and read by the metrics
+    // without synchronization, a slightly stale value is fine there
+    private long contactCount;
+    private long disabledCount;
+    private int bodyCount;
+    private int frameBodies;
+
+    protected MPhysSystem<MBlockShape> getPhysicsSystem() {
+        final MPhysSystem<?> s = getSystem(MPhysSystem.class);
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> result = (MPhysSystem<MBlockShape>) s;
+        return result;
+    }
 
     @Override
     public void newContact(final Contact<EntityId, MBlockShape> contact) {
+        contactCount++;
+        final boolean disabled = filter(contact);
+        if (disabled) {
+            disabledCount++;
+        }
+
+        final ContactDispatchedEvent event = new ContactDispatchedEvent();
+        if (event.shouldCommit()) {
+            event.body1 = contact.body1 == null ? -1 : contact.body1.id.getId();
+            event.body2 = contact.body2 == null ? -1 : contact.body2.id.getId();
+            event.disabled = disabled;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return true if the contact was disabled
+     */
+    private boolean filter(final Contact<EntityId, MBlockShape> contact) {
         final RigidBody<EntityId, MBlockShape> bodyOne = contact.body1;
         final RigidBody<EntityId, MBlockShape> bodyTwo = contact.body2;
 
         if (bodyOne != null && bodyTwo != null) {
-            final EntityId one = contact.body1.id;
-            final EntityId two = contact.body2.id;
+            final long one = bodyOne.id.getId();
+            final long two = bodyTwo.id.getId();
+            final int slotOne = slots.get(one, -1);
+            final int slotTwo = slots.get(two, -1);
 
-            if (categoryFilters.containsId(two) && categoryFilters.containsId(one)) {
-                final CategoryFilter filterOne = categoryFilters.getEntity(one).get(CollisionCategory.class)
-                        .getFilter();
-                final CategoryFilter filterTwo = categoryFilters.getEntity(two).get(CollisionCategory.class)
-                        .getFilter();
-
-                if (!filterTwo.isAllowed(filterOne)) {
+            if (slotOne >= 0 && slotTwo >= 0 && (flags[slotOne] & flags[slotTwo] & HAS_FILTER) != 0) {
+                // Same test as CategoryFilter.isAllowed()
+                if ((categories[slotOne] & masks[slotTwo]) <= 0 || (categories[slotTwo] & masks[slotOne]) <= 0) {
                     contact.disable();
-                    return;
+                    return true;
                 }
             }
 
-            final Parent parentOfOne = ed.getComponent(one, Parent.class);
-            if (parentOfOne != null && parentOfOne.getParentEntity().compareTo(two) == 0) {
+            if (slotOne >= 0 && (flags[slotOne] & HAS_PARENT) != 0 && parentIds[slotOne] == two) {
                 // We have a parent on entity one and its equal to two
                 contact.disable();
-                return;
+                return true;
             }
 
-            final Parent parentOfTwo = ed.getComponent(two, Parent.class);
-            if (parentOfTwo != null && parentOfTwo.getParentEntity().compareTo(one) == 0) {
+            if (slotTwo >= 0 && (flags[slotTwo] & HAS_PARENT) != 0 && parentIds[slotTwo] == one) {
                 // We have a parent on entity two and its equal to one
                 contact.disable();
-                return;
+                return true;
+            }
+
+            if (projectiles != null && (projectiles.hit(bodyOne.id, bodyTwo.id)
+                    || projectiles.hit(bodyTwo.id, bodyOne.id))) {
+                // The projectile is spent and does not bounce off
+                contact.disable();
+                return true;
             }
 
-            log.info("Collision between: " + bodyOne + " and " + bodyTwo);
+            if (log.isTraceEnabled()) {
+                log.trace("Collision between: " + bodyOne + " and " + bodyTwo);
+            }
 
         } else {
             // This happens when a dynamic collides with a static body or the world
-            if (bodyOne != null) {
-                log.info("Collided: " + bodyOne.toString() + " with null");
-            } else if (bodyTwo != null) {
-                log.info("Collided: " + bodyTwo.toString() + " with null");
+            if (log.isTraceEnabled()) {
+                log.trace("Collided: " + (bodyOne != null ? bodyOne : bodyTwo) + " with null");
             }
 
             contact.restitution = 1;
         }
-
-    }
-
-    @Override
-    public void stop() {
-        super.stop(); // To change body of generated methods, choose Tools | Templates.
-    }
-
-    @Override
-    public void update(final SimTime time) {
-        super.update(time); // To change body of generated methods, choose Tools | Templates.
-
-        categoryFilters.applyChanges();
-    }
-
-    @Override
-    public void start() {
-        super.start(); // To change body of generated methods, choose Tools | Templates.
+        return false;
     }
 
     @Override
@@ -110,21 +164,157 @@ public class ContactSystem extends AbstractGameSystem implements ContactListener
         if (ed == null) {
             throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
         }
-        physics = getSystem(MPhysSystem.class);
+        physics = getPhysicsSystem();
         if (physics == null) {
             throw new RuntimeException(getClass().getName() + " system requires the MPhysSystem system.");
         }
 
+        // Optional, without it projectiles only bounce
+        projectiles = getSystem(ProjectileSystem.class);
+
         // space = physics.getPhysicsSpace();
         // binIndex = space.getBinIndex();
         // binEntityManager = physics.getBinEntityManager();
 
         categoryFilters = ed.getEntities(CollisionCategory.class);
+        parents = ed.getEntities(Parent.class);
+        setFilters(categoryFilters);
+        setParents(parents);
+
+        // The tables are refreshed at the start of every physics frame, right
+        // before the contacts they filter, so that bodies spawned since the
+        // last frame already have their filters
+        physics.addPhysicsListener(frameObserver);
     }
 
     @Override
     protected void terminate() {
+        physics.removePhysicsListener(frameObserver);
+
         categoryFilters.release();
         categoryFilters = null;
+        parents.release();
+        parents = null;
+
+        slots.clear();
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * Brings the tables up to date with the CollisionCategory and Parent
+     * components.
+     */
+    protected void refresh() {
+        if (categoryFilters.applyChanges()) {
+            for (final Entity e : categoryFilters.getRemovedEntities()) {
+                clearFlag(e.getId().getId(), HAS_FILTER);
+            }
+            setFilters(categoryFilters.getAddedEntities());
+            setFilters(categoryFilters.getChangedEntities());
+        }
+        if (parents.applyChanges()) {
+            for (final Entity e : parents.getRemovedEntities()) {
+                clearFlag(e.getId().getId(), HAS_PARENT);
+            }
+            setParents(parents.getAddedEntities());
+            setParents(parents.getChangedEntities());
+        }
+    }
+
+    private void setFilters(final Iterable<Entity> entities) {
+        for (final Entity e : entities) {
+            final CategoryFilter filter = e.get(CollisionCategory.class).getFilter();
+            final int slot = getSlot(e.getId().getId());
+            categories[slot] = filter.getCategory();
+            masks[slot] = filter.getMask();
+            flags[slot] |= HAS_FILTER;
+        }
+    }
+
+    private void setParents(final Iterable<Entity> entities) {
+        for (final Entity e : entities) {
+            final int slot = getSlot(e.getId().getId());
+            parentIds[slot] = e.get(Parent.class).getParentEntity().getId();
+            flags[slot] |= HAS_PARENT;
+        }
+    }
+
+    private int getSlot(final long id) {
+        int slot = slots.get(id, -1);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == flags.length) {
+                final int capacity = slot * 2;
+                flags = Arrays.copyOf(flags, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                masks = Arrays.copyOf(masks, capacity);
+                parentIds = Arrays.copyOf(parentIds, capacity);
+            }
+        }
+        slots.put(id, slot);
+        return slot;
+    }
+
+    private void clearFlag(final long id, final byte flag) {
+        final int slot = slots.get(id, -1);
+        if (slot < 0) {
+            return;
+        }
+        flags[slot] &= ~flag;
+        if (flags[slot] != 0) {
+            return;
+        }
+        // Neither component left, the slot can be reused
+        slots.remove(id);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * @return the number of contacts seen since the start
+     */
+    public long getContactCount() {
+        return contactCount;
+    }
+
+    /**
+     * @return the number of contacts that were filtered out since the start
+     */
+    public long getDisabledContactCount() {
+        return disabledCount;
+    }
+
+    /**
+     * @return the number of bodies updated in the last physics frame
+     */
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    private class FrameObserver implements PhysicsListener<EntityId, MBlockShape> {
+
+        @Override
+        public void startFrame(final long time, final double stepSize) {
+            frameBodies = 0;
+            refresh();
+        }
+
+        @Override
+        public void endFrame() {
+            bodyCount = frameBodies;
+        }
+
+        @Override
+        public void update(final RigidBody<EntityId, MBlockShape> body) {
+            frameBodies++;
+        }
     }
 }
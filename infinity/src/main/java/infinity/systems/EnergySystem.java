@@ -25,9 +25,6 @@
  */
 package infinity.systems;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,13 +41,21 @@ import infinity.es.HealthChange;
 import infinity.es.ship.Energy;
 import infinity.es.ship.EnergyMax;
 import infinity.es.ship.Recharge;
+import infinity.sim.SystemAccess;
+import infinity.util.LongIntMap;
 
 /**
  * Watches entities with hitpoints and entities with health changes and applies
  * them to the hitpoints of an entity, possibly causing death.
  *
+ * Changes that apply right away are accumulated per entity in memory and
+ * applied once per update, only delayed changes are created as Buff +
+ * HealthChange entities.
+ *
  * @author Paul Speed
  */
+@SystemAccess(reads = { EnergyMax.class, Recharge.class }, writes = { Energy.class, Dead.class, Buff.class,
+        HealthChange.class })
 public class EnergySystem extends AbstractGameSystem {
 
     static Logger log = LoggerFactory.getLogger(EnergySystem.class);
@@ -58,7 +63,8 @@ public class EnergySystem extends AbstractGameSystem {
     private EntityData ed;
     private EntitySet living;
     private EntitySet changes;
-    private final Map<EntityId, Integer> health = new HashMap<>();
+    // The accumulated health change per entity id for this update
+    private final LongIntMap health = new LongIntMap(256);
     private EntitySet recharges;
     private EntitySet maxLiving;
 
@@ -114,13 +120,7 @@ public class EnergySystem extends AbstractGameSystem {
             }
 
             final HealthChange change = e.get(HealthChange.class);
-            Integer hp = health.get(b.getTarget());
-            if (hp == null) {
-                hp = Integer.valueOf(change.getDelta());
-            } else {
-                hp = Integer.valueOf(hp.intValue() + change.getDelta());
-            }
-            health.put(b.getTarget(), hp);
+            health.addTo(b.getTarget().getId(), change.getDelta());
 
             // Delete the buff entity
             ed.removeEntity(e.getId());
@@ -135,24 +135,28 @@ public class EnergySystem extends AbstractGameSystem {
                     final double tpf = time.getTpf();
                     final Recharge recharge = e.get(Recharge.class);
                     final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-                    createHealthChange(e.getId(), charge);
+                    health.addTo(e.getId().getId(), charge);
                 }
             } else {
                 final double tpf = time.getTpf();
                 final Recharge recharge = e.get(Recharge.class);
                 final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-                createHealthChange(e.getId(), charge);
+                health.addTo(e.getId().getId(), charge);
             }
         }
 
         // Now apply all accumulated adjustments
-        for (final Map.Entry<EntityId, Integer> entry : health.entrySet()) {
-            final Entity target = living.getEntity(entry.getKey());
-
-            if (target == null) {
-                log.warn("No target for id:" + entry.getKey());
+        int applied = 0;
+        for (final Entity target : living) {
+            if (applied == health.size()) {
+                break;
+            }
+            final long id = target.getId().getId();
+            if (!health.containsKey(id)) {
                 continue;
             }
+            final int delta = health.get(id, 0);
+            applied++;
 
             Energy hp = target.get(Energy.class);
 
@@ -162,13 +166,13 @@ public class EnergySystem extends AbstractGameSystem {
 
             // If we dont have a max hitpoint, just set new hp
             if (!maxLiving.containsId(target.getId())) {
-                hp = hp.newAdjusted(entry.getValue().intValue());
+                hp = hp.newAdjusted(delta);
             } // If we do have a maximum
             else {
                 final EnergyMax maxHp = maxLiving.getEntity(target.getId()).get(EnergyMax.class);
                 // Check if we go above max hp
-                if (entry.getValue().intValue() <= maxHp.getMaxHealth()) {
-                    hp = hp.newAdjusted(entry.getValue().intValue());
+                if (delta <= maxHp.getMaxHealth()) {
+                    hp = hp.newAdjusted(delta);
                 } // Otherwise, set new hp
                 else {
                     hp = hp.newAdjusted(maxHp.getMaxHealth());
@@ -186,6 +190,10 @@ public class EnergySystem extends AbstractGameSystem {
             }
         }
 
+        if (applied < health.size()) {
+            log.warn("No target for " + (health.size() - applied) + " health changes");
+        }
+
         // Clear our health book-keeping map.
         health.clear();
 
@@ -216,12 +224,28 @@ public class EnergySystem extends AbstractGameSystem {
     }
 
     /**
+     * Adds a health change that is applied on the next update. No entity is
+     * created for it. Must be called from the simulation thread.
+     *
      * @param eId            the entity to create a health change for
      * @param deltaHitPoints the change in hitpoints (can be both positive an
      *                       negative)
      */
     public void createHealthChange(final EntityId eId, final int deltaHitPoints) {
+        health.addTo(eId.getId(), deltaHitPoints);
+    }
+
+    /**
+     * Creates a health change that starts applying at the given time, as a Buff +
+     * HealthChange entity.
+     *
+     * @param eId            the entity to create a health change for
+     * @param deltaHitPoints the change in hitpoints (can be both positive an
+     *                       negative)
+     * @param startTime      the sim time at which to apply the change
+     */
+    public void createHealthChange(final EntityId eId, final int deltaHitPoints, final long startTime) {
         final EntityId healthChange = ed.createEntity();
-        ed.setComponents(healthChange, new Buff(eId, 0), new HealthChange(deltaHitPoints));
+        ed.setComponents(healthChange, new Buff(eId, startTime), new HealthChange(deltaHitPoints));
     }
 }
@@ -8,12 +8,14 @@ package infinity.systems;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
+import infinity.sim.SystemAccess;
 import infinity.sim.TimeManager;
 
 /**
  *
  * @author AFahrenholz
  */
+@SystemAccess(writes = { TimeManager.class })
 public class InfinityTimeSystem extends AbstractGameSystem implements TimeManager {
 
     long time;
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsListener;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.World;
+import com.simsilica.mworld.base.DefaultWorld;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.es.input.MovementInput;
+import infinity.sim.CorePhysicsConstants;
+import infinity.sim.SystemAccess;
+import infinity.util.LongIntMap;
+
+/**
+ * Remembers where every ship was for the last second of physics frames, so
+ * that a shot can be checked against the ships as the shooter saw them. A
+ * player sees the other ships a round trip plus the client's interpolation
+ * delay late, see getCompensation().
+ *
+ * The positions are written straight from the physics frames into one flat
+ * ring per ship, so recording does not allocate. The ring is only read and
+ * written on the game loop.
+ *
+ * Shots do not pass through the map: clip() finds where a shot first touches a
+ * solid world cell or a static body, and the sweep stops there.
+ *
+ * @author Asser
+ */
+@SystemAccess(reads = { MovementInput.class, Mass.class, ShapeInfo.class, SpawnPosition.class })
+public class LagCompensationSystem extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(LagCompensationSystem.class);
+
+    /**
+     * Physics frames kept per ship, a power of two.
+     */
+    private static final int HISTORY = 64;
+
+    /**
+     * How far behind the server the client draws the other ships. This is the
+     * offset of SimEthereal's remote time source.
+     */
+    public static final long VIEW_DELAY = 100 * 1000000L;
+
+    /**
+     * Shots are never moved back further than this, so a lagging player cannot
+     * hit ships that have long since moved on.
+     */
+    public static final long MAX_COMPENSATION = 400 * 1000000L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private EntityData ed;
+    private MPhysSystem<MBlockShape> physics;
+    private EntitySet ships;
+    private World world;
+    // Bodies with a mass of 0 never move, their spawn position is where they are
+    private EntitySet statics;
+
+    private final FrameObserver frameObserver = new FrameObserver();
+
+    // The time of every frame in the ring and the number of frames so far
+    private final long[] frameTimes = new long[HISTORY];
+    private long frames;
+
+    // Entity id to slot, each slot has HISTORY frames of x, y, z and the frame
+    // number each was written in
+    private final LongIntMap slots = new LongIntMap(INITIAL_CAPACITY);
+    private int slotCount;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private long[] slotIds = new long[INITIAL_CAPACITY];
+    private double[] positions = new double[INITIAL_CAPACITY * HISTORY * 3];
+    private long[] written = new long[INITIAL_CAPACITY * HISTORY];
+
+    protected MPhysSystem<MBlockShape> getPhysicsSystem() {
+        final MPhysSystem<?> s = getSystem(MPhysSystem.class);
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> result = (MPhysSystem<MBlockShape>) s;
+        return result;
+    }
+
+    @Override
+    protected void initialize() {
+        ed = getSystem(EntityData.class);
+        if (ed == null) {
+            throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
+        }
+        physics = getPhysicsSystem();
+        if (physics == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the MPhysSystem system.");
+        }
+
+        world = getSystem(DefaultWorld.class);
+        if (world == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the World system.");
+        }
+
+        ships = ed.getEntities(MovementInput.class);
+        statics = ed.getEntities(Mass.class, ShapeInfo.class, SpawnPosition.class);
+        Arrays.fill(slotIds, -1);
+        addShips(ships);
+        physics.addPhysicsListener(frameObserver);
+    }
+
+    @Override
+    protected void terminate() {
+        physics.removePhysicsListener(frameObserver);
+        ships.release();
+        ships = null;
+        statics.release();
+        statics = null;
+        slots.clear();
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        statics.applyChanges();
+    }
+
+    /**
+     * Brings the slots up to date with the ships.
+     */
+    protected void refresh() {
+        if (ships.applyChanges()) {
+            for (final Entity e : ships.getRemovedEntities()) {
+                final long id = e.getId().getId();
+                final int slot = slots.get(id, -1);
+                if (slot < 0) {
+                    continue;
+                }
+                slots.remove(id);
+                slotIds[slot] = -1;
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            }
+            addShips(ships.getAddedEntities());
+        }
+    }
+
+    private void addShips(final Iterable<Entity> entities) {
+        for (final Entity e : entities) {
+            final long id = e.getId().getId();
+            if (slots.containsKey(id)) {
+                continue;
+            }
+            final int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                slot = slotCount++;
+                if (slot == slotIds.length) {
+                    final int capacity = slot * 2;
+                    slotIds = Arrays.copyOf(slotIds, capacity);
+                    Arrays.fill(slotIds, slot, capacity, -1);
+                    positions = Arrays.copyOf(positions, capacity * HISTORY * 3);
+                    written = Arrays.copyOf(written, capacity * HISTORY);
+                }
+            }
+            slots.put(id, slot);
+            slotIds[slot] = id;
+            // Nothing the previous ship in this slot left behind counts
+            Arrays.fill(written, slot * HISTORY, (slot + 1) * HISTORY, -1);
+        }
+    }
+
+    /**
+     * How far back a player sees the other ships.
+     *
+     * @param ping the player's round trip time in nanoseconds
+     * @return the time to move their shots back by, in nanoseconds
+     */
+    public static long getCompensation(final long ping) {
+        return Math.max(0, Math.min(MAX_COMPENSATION, ping + VIEW_DELAY));
+    }
+
+    /**
+     * @return the position of the ship at the last frame at or before the time,
+     *         or null if the history does not go back that far
+     */
+    public Vec3d getPosition(final EntityId ship, final long time, final Vec3d store) {
+        final int slot = slots.get(ship.getId(), -1);
+        final long frame = findFrame(time);
+        if (slot < 0 || frame < 0 || written[index(slot, frame)] != frame) {
+            return null;
+        }
+        final int i = index(slot, frame) * 3;
+        return store.set(positions[i], positions[i + 1], positions[i + 2]);
+    }
+
+    /**
+     * Follows a projectile from the time it was fired, as the shooter saw it,
+     * up to the last physics frame and returns the first ship it passes
+     * through, using where the ships were at each frame.
+     *
+     * @param shooter  the ship that fired, it is never hit
+     * @param start    where the projectile starts
+     * @param velocity the projectile velocity per second
+     * @param radius   the projectile radius
+     * @param fired    the time the shooter fired as they saw it
+     * @param limit    the seconds after firing the projectile stops at, see
+     *                 clip()
+     * @return the ship hit, or null
+     */
+    public EntityId sweep(final EntityId shooter, final Vec3d start, final Vec3d velocity, final double radius,
+            final long fired, final double limit) {
+        long frame = findFrame(fired);
+        if (frame < 0) {
+            // Older than the history, start as far back as we can
+            frame = Math.max(0, frames - HISTORY);
+        }
+        final double reach = radius + CorePhysicsConstants.SHIPSIZERADIUS;
+        final double reachSq = reach * reach;
+
+        EntityId result = null;
+        double best = Double.MAX_VALUE;
+        for (; frame + 1 < frames; frame++) {
+            // Where the projectile is at the frame and the next, relative to the start
+            final double t0 = Math.max(0, frameTimes[ring(frame)] - fired) / 1e9;
+            if (t0 >= limit) {
+                // Stopped by the map before this frame
+                return null;
+            }
+            final double end = Math.max(0, frameTimes[ring(frame + 1)] - fired) / 1e9;
+            final double t1 = Math.min(end, limit);
+            // The part of the frame the projectile is still flying, the ships
+            // are moved along by the same part
+            final double part = end > t0 ? (t1 - t0) / (end - t0) : 1;
+
+            for (int slot = 0; slot < slotCount; slot++) {
+                final long id = slotIds[slot];
+                if (id < 0 || id == shooter.getId() || written[index(slot, frame)] != frame
+                        || written[index(slot, frame + 1)] != frame + 1) {
+                    continue;
+                }
+                final int a = index(slot, frame) * 3;
+                final int b = index(slot, frame + 1) * 3;
+
+                // The ship relative to the projectile at both ends of the frame,
+                // closest approach of a straight line between them
+                final double ax = positions[a] - (start.x + velocity.x * t0);
+                final double ay = positions[a + 1] - (start.y + velocity.y * t0);
+                final double az = positions[a + 2] - (start.z + velocity.z * t0);
+                final double bx = positions[a] + (positions[b] - positions[a]) * part;
+                final double by = positions[a + 1] + (positions[b + 1] - positions[a + 1]) * part;
+                final double bz = positions[a + 2] + (positions[b + 2] - positions[a + 2]) * part;
+                final double dx = bx - (start.x + velocity.x * t1) - ax;
+                final double dy = by - (start.y + velocity.y * t1) - ay;
+                final double dz = bz - (start.z + velocity.z * t1) - az;
+
+                final double lengthSq = dx * dx + dy * dy + dz * dz;
+                double t = 0;
+                if (lengthSq > 0) {
+                    t = Math.max(0, Math.min(1, -(ax * dx + ay * dy + az * dz) / lengthSq));
+                }
+                final double x = ax + dx * t;
+                final double y = ay + dy * t;
+                final double z = az + dz * t;
+                final double distSq = x * x + y * y + z * z;
+                if (distSq < reachSq && distSq < best) {
+                    best = distSq;
+                    result = new EntityId(id);
+                }
+            }
+            if (result != null) {
+                // The earliest frame wins
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds how long a projectile flies before it touches the map. World cells
+     * are walked one by one along the path, static bodies are treated as
+     * spheres as large as their shape's scale.
+     *
+     * @param start    where the projectile starts
+     * @param velocity the projectile velocity per second
+     * @param radius   the projectile radius
+     * @param seconds  how long to follow the projectile for
+     * @return the seconds until the first contact, or seconds if there is none
+     */
+    public double clip(final Vec3d start, final Vec3d velocity, final double radius, final double seconds) {
+        final double speed = velocity.length();
+        if (speed == 0 || seconds <= 0) {
+            return Math.max(0, seconds);
+        }
+        double result = Math.min(seconds, clipCells(start, velocity, seconds) - radius / speed);
+        result = clipStatics(start, velocity, radius, result);
+        return Math.max(0, result);
+    }
+
+    /**
+     * Walks the unit world cells along the path, in the order the path enters
+     * them.
+     *
+     * @return the seconds until the path enters a solid cell, or seconds
+     */
+    private double clipCells(final Vec3d start, final Vec3d velocity, final double seconds) {
+        int x = Coordinates.worldToCell(start.x);
+        int y = Coordinates.worldToCell(start.y);
+        int z = Coordinates.worldToCell(start.z);
+        final int stepX = velocity.x > 0 ? 1 : -1;
+        final int stepY = velocity.y > 0 ? 1 : -1;
+        final int stepZ = velocity.z > 0 ? 1 : -1;
+        // Seconds to cross one cell and until the next cell border on each axis
+        final double deltaX = velocity.x == 0 ? Double.MAX_VALUE : Math.abs(1 / velocity.x);
+        final double deltaY = velocity.y == 0 ? Double.MAX_VALUE : Math.abs(1 / velocity.y);
+        final double deltaZ = velocity.z == 0 ? Double.MAX_VALUE : Math.abs(1 / velocity.z);
+        double nextX = velocity.x == 0 ? Double.MAX_VALUE : (stepX > 0 ? x + 1 - start.x : start.x - x) * deltaX;
+        double nextY = velocity.y == 0 ? Double.MAX_VALUE : (stepY > 0 ? y + 1 - start.y : start.y - y) * deltaY;
+        double nextZ = velocity.z == 0 ? Double.MAX_VALUE : (stepZ > 0 ? z + 1 - start.z : start.z - z) * deltaZ;
+
+        final Vec3d cell = new Vec3d();
+        double time = 0;
+        while (time <= seconds) {
+            if (isSolid(cell.set(x + 0.5, y + 0.5, z + 0.5))) {
+                return time;
+            }
+            if (nextX <= nextY && nextX <= nextZ) {
+                x += stepX;
+                time = nextX;
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                y += stepY;
+                time = nextY;
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                time = nextZ;
+                nextZ += deltaZ;
+            }
+        }
+        return seconds;
+    }
+
+    private boolean isSolid(final Vec3d location) {
+        final int value = world.getWorldCell(location);
+        return value > 0 && MaskUtils.getType(value) != 0;
+    }
+
+    /**
+     * @return the seconds until the path first touches a static body, or
+     *         seconds
+     */
+    private double clipStatics(final Vec3d start, final Vec3d velocity, final double radius, final double seconds) {
+        double result = seconds;
+        final double a = velocity.lengthSquared();
+        for (final Entity e : statics) {
+            if (e.get(Mass.class).getMass() != 0) {
+                continue;
+            }
+            final Vec3d center = e.get(SpawnPosition.class).getLocation();
+            final double reach = radius + e.get(ShapeInfo.class).getScale();
+            // First time the path is within reach of the center
+            final double ox = start.x - center.x;
+            final double oy = start.y - center.y;
+            final double oz = start.z - center.z;
+            final double b = ox * velocity.x + oy * velocity.y + oz * velocity.z;
+            final double c = ox * ox + oy * oy + oz * oz - reach * reach;
+            final double d = b * b - a * c;
+            if (d < 0) {
+                continue;
+            }
+            final double t = Math.max(0, (-b - Math.sqrt(d)) / a);
+            if (t < result && (-b + Math.sqrt(d)) / a >= 0) {
+                result = t;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the time of the last recorded physics frame, -1 if there is none
+     */
+    public long getLastFrameTime() {
+        return frames == 0 ? -1 : frameTimes[ring(frames - 1)];
+    }
+
+    /**
+     * @return the number of the last frame at or before the time, -1 if the
+     *         history does not go back that far
+     */
+    private long findFrame(final long time) {
+        final long oldest = Math.max(0, frames - HISTORY);
+        for (long frame = frames - 1; frame >= oldest; frame--) {
+            if (frameTimes[ring(frame)] <= time) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private static int ring(final long frame) {
+        return (int) (frame & (HISTORY - 1));
+    }
+
+    private static int index(final int slot, final long frame) {
+        return slot * HISTORY + ring(frame);
+    }
+
+    private class FrameObserver implements PhysicsListener<EntityId, MBlockShape> {
+        private long frame;
+
+        @Override
+        public void startFrame(final long time, final double stepSize) {
+            refresh();
+            frame = frames;
+            frameTimes[ring(frame)] = time;
+        }
+
+        @Override
+        public void endFrame() {
+            // Only now is the frame complete enough to be looked up
+            frames = frame + 1;
+        }
+
+        @Override
+        public void update(final RigidBody<EntityId, MBlockShape> body) {
+            final int slot = slots.get(body.id.getId(), -1);
+            if (slot < 0) {
+                return;
+            }
+            final int i = index(slot, frame);
+            positions[i * 3] = body.position.x;
+            positions[i * 3 + 1] = body.position.y;
+            positions[i * 3 + 2] = body.position.z;
+            written[i] = frame;
+        }
+    }
+}
@@ -25,13 +25,13 @@
  */
 package infinity.systems;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,16 +47,22 @@ import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.mathd.Vec3d;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.Coordinates;
 import com.simsilica.mworld.base.DefaultWorld;
+import com.simsilica.mworld.db.LeafDb;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.BodyPosition;
 import infinity.es.TileType;
 import infinity.es.TileTypes;
+import infinity.map.LegacyMapBatchLoader;
 import infinity.map.LevelFile;
 import infinity.map.LevelLoader;
+import infinity.map.MapCache;
+import infinity.map.TileGrid;
 import infinity.server.AssetLoaderService;
+import infinity.server.FileLeafDb;
 import infinity.sim.GameEntities;
 
 /**
@@ -80,13 +86,18 @@ public class MapSystem extends AbstractGameSystem {
     // private BinEntityManager binEntityManager;
     private SimTime time;
 
-    private final java.util.Map<Vec3d, EntityId> index = new ConcurrentHashMap<>();
     public static final int MAP_SIZE = 1024;
+    // How much of a tick the legacy map loading may use
+    private static final long MAP_LOAD_BUDGET_NANOS = 4_000_000L;
     private static final int HALF = 512;
+    // Session tiles are indexed by tile coordinate, one arena centered on origo.
+    // Only touched from the game loop thread, sessions go through the edit
+    // queues below.
+    private final TileGrid index = new TileGrid(-HALF, -HALF, MAP_SIZE);
     private EntitySet tileTypes;
 
-    private final LinkedHashSet<Vec3d> sessionTileRemovals = new LinkedHashSet<>();
-    private final LinkedHashSet<Vec3d> sessionTileCreations = new LinkedHashSet<>();
+    private final TileEditQueue sessionTileRemovals = new TileEditQueue();
+    private final TileEditQueue sessionTileCreations = new TileEditQueue();
 
     public static final float NOISE4J_CORRIDOR = 0f;
     public static final float NOISE4J_FLOOR = 0.5f;
@@ -95,6 +106,12 @@ public class MapSystem extends AbstractGameSystem {
     private boolean mapCreated = false;
     private LinkedList<MapTileCallable> mapTileQueue;
     private DefaultWorld world;
+    private LeafDb leafDb;
+    private LegacyMapBatchLoader mapLoader;
+    // Optional, remembers which maps are already in the persisted world
+    private FileLeafDb leafStore;
+    private String mapStampKey;
+    private long mapStamp;
     private double accumulatedTime;
     // private final boolean logged = false;
 
@@ -125,6 +142,12 @@ public class MapSystem extends AbstractGameSystem {
         if (world == null) {
             throw new RuntimeException(getClass().getName() + " system requires the World system.");
         }
+        leafDb = getSystem(LeafDb.class);
+        if (leafDb == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the LeafDb system.");
+        }
+
+        leafStore = getSystem(FileLeafDb.class);
 
         space = physics.getPhysicsSpace();
         // binIndex = space.getBinIndex();
@@ -186,172 +209,204 @@ public class MapSystem extends AbstractGameSystem {
     }
 
     /**
-     * Creates map tiles for a legacy map
+     * Loads a lvz-map that is a plain file by memory mapping it, falling back to
+     * the asset manager if the file can't be mapped.
      *
-     * @param map         the lvz-based-map to create create entities from
-     * @param arenaOffset where to position the map
+     * @param mapFile the lvz-map to load
+     * @param source  the file the map is loaded from
+     * @return the lvz-map wrapped in a LevelFile
      */
-    public void createEntitiesFromLegacyMap(final LevelFile map, final Vec3d arenaOffset) {
-        final Set<Integer> tileSet = new HashSet<>();
-        final short[][] tiles = map.getMap();
-        // int count = 0;
-
-        // for (int xpos = 510; xpos < 516; xpos++) {
-        for (int xpos = 0; xpos < tiles.length; xpos++) {
-            // for (int zpos = 260; zpos >= 250; zpos--) {
-            for (int zpos = 0; zpos < tiles[xpos].length; zpos++) {
-                short s = tiles[1024 - xpos - 1][1024 - zpos - 1];
-                if (s != 0) {
-                    // TODO: Check on the short and only create the map tiles, not the extras
-                    // (asteroids, wormholes etc.)
-                    /*
-                     * TILE STATUS Row 2, tile 1 - Border tile Row 9, tile 10 - Vertical warpgate
-                     * (Mostly open) Row 9, tile 11 - Vertical warpgate (Frequently open) Row 9,
-                     * tile 12 - Vertical warpgate (Frequently closed) Row 9, tile 13 - Vertical
-                     * warpgate (Mostly closed) Row 9, tile 14 - Horizontal warpgate (Mostly open)
-                     * Row 9, tile 15 - Horizontal warpgate (Frequently open) Row 9, tile 16 -
-                     * Horizontal warpgate (Frequently closed) Row 9, tile 17 - Horizontal warpgate
-                     * (Mostly closed) 170 DONE Row 9, tile 18 - Flag for turf Row 9, tile 19 -
-                     * Safezone Row 10, tile 1 - Soccer goal (leave blank if you want) Row 10, tile
-                     * 2 - Flyover tile Row 10, tile 3 - Flyover tile Row 10, tile 4 - Flyover tile
-                     * Row 10, tile 5 - Flyunder (opaque) tile Row 10, tile 6 - Flyunder (opaque)
-                     * tile Row 10, tile 7 - Flyunder (opaque) tile Row 10, tile 8 - Flyunder
-                     * (opaque) tile Row 10, tile 9 - Flyunder (opaque) tile Row 10, tile 10 -
-                     * Flunder (opaque) tile Row 10, tile 11 - Flyunder (opaque) tile Row 10, tile
-                     * 12 - Flyunder (opaque) tile Row 10, tile 13 - Flyunder (black = transparent)
-                     * tile Row 10, tile 14 - Flyunder (black = transparent) tile Row 10, tile 15 -
-                     * Flyunder (black = transparent) tile Row 10, tile 16 - Flyunder (black =
-                     * transparent) tile Row 10, tile 17 - Flyunder (black = transparent) tile Row
-                     * 10, tile 18 - Flyunder (black = transparent) tile Row 10, tile 19 - Flyunder
-                     * (black = transparent) tile
-                     *
-                     * /* VIE tile constants.
-                     *
-                     * public static final char vieNoTile = 0;
-                     *
-                     * public static final char vieNormalStart = 1; public static final char
-                     * vieBorder = 20; // Borders are not included in the .lvl files public static
-                     * final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
-                     *
-                     * public static final char vieVDoorStart = 162; public static final char
-                     * vieVDoorEnd = 165;
-                     *
-                     * public static final char vieHDoorStart = 166; public static final char
-                     * vieHDoorEnd = 169;
-                     *
-                     * public static final char vieTurfFlag = 170;
-                     *
-                     * public static final char vieSafeZone = 171; // Also included in sec.chk
-                     *
-                     * public static final char vieGoalArea = 172;
-                     *
-                     * public static final char vieFlyOverStart = 173; public static final char
-                     * vieFlyOverEnd = 175; public static final char vieFlyUnderStart = 176; public
-                     * static final char vieFlyUnderEnd = 190;
-                     *
-                     * public static final char vieAsteroidStart = 216; public static final char
-                     * vieAsteroidEnd = 218;
-                     *
-                     * public static final char vieStation = 219;
-                     *
-                     * public static final char vieWormhole = 220;
-                     *
-                     * public static final char ssbTeamBrick = 221; // These are internal public
-                     * static final char ssbEnemyBrick = 222;
-                     *
-                     * public static final char ssbTeamGoal = 223; public static final char
-                     * ssbEnemyGoal = 224;
-                     *
-                     * public static final char ssbTeamFlag = 225; public static final char
-                     * ssbEnemyFlag = 226;
-                     *
-                     * public static final char ssbPrize = 227;
-                     *
-                     * public static final char ssbBorder = 228; // Use ssbBorder instead of
-                     * vieBorder to fill border
-                     *
-                     * 20: Border 162: Door Horizontal 1 163: Door Horizontal 2 164: Door Horizontal
-                     * 3 165: Door Horizontal 4 166: Door Vertical 1 167: Door Vertical 2 168: Door
-                     * Vertical 3 169: Door Vertical 4 170: flag 171: safe 172: goal 173: fly over 1
-                     * 174: fly over 2 175: fly over 3 176: fly Under 1 177: fly Under 2 178: fly
-                     * Under 3 179: fly Under 4 180: fly Under 5 181: fly Under 6 182: fly Under 7
-                     * 183: fly Under 8 184: fly Under 9 185: fly Under 10 186: fly Under 11 187:
-                     * fly Under 12 188: fly Under 13 189: fly Under 14 190: fly Under 15 191:
-                     * invisible, Ships go through, items bounce off, Thors go through if you fire
-                     * an item while in it, it will float suspended in space. 192: invisible 193:
-                     * invisible 194: invisible 195: invisible 196: invisible 197: invisible 198:
-                     * invisible 199: invisible 200: invisible 201: invisible 202: invisible 203:
-                     * invisible 204: invisible 205: invisible 206: invisible 207: invisible 216:
-                     * small Asteroid 217: large Asteroid 218: small Asteroid 2 219: space Station
-                     * 220: wormhole 240: invisible 241: absorbs weapons, invisible 242: warp on
-                     * contact, not on radar, invisible 242: not on radar, invisible 243: not on
-                     * radar, invisible 244: not on radar, invisible 245: not on radar, invisible
-                     * 246: not on radar, invisible 247: not on radar, invisible 248: not on radar,
-                     * invisible 249: not on radar, invisible 250: not on radar, invisible 251:
-                     * invisible, not on radar, warps ship on contact, items bounce off, thors
-                     * dissappear 252: animated enemy brick, visible, not on radar. Items go
-                     * through, ship gets warped after 0-2 seconds 253: animated team brick.
-                     * Visible, invisible on radar. Items and ship go through. 254: invisible, not
-                     * on radar. Impossible to lay bricks while on/near it. 255: animated green.
-                     * visible, not on radar. Items and ship go through.
-                     *
-                     */
-
-                    if (s > 190) {
-                        // TODO: will handle special tiles later
-                        s = 1;
-                    }
-
-                    final Vec3d location = new Vec3d(xpos, 0, zpos).add(arenaOffset);
-                    // Vec3d topPlane = new Vec3d(xpos, 1, -zpos).add(arenaOffset);
-
-                    // final Vec3i i = new Vec3i(bottomPlane.toVector3f());
-
-                    final int mapId = 20;
-                    final int tileId = Short.toUnsignedInt(s);
-                    tileSet.add(Integer.valueOf(tileId));
-
-                    final int value = tileId | (mapId << 8);
-                    // log.info("createEntitiesFromLegacyMap:: value = " + value + " <= (Tile,Map)
-                    // =(" + tileId + ","
-                    // + mapId + ") - Coords: " + i);
-                    // value = InfinityMaskUtils.setSideMask(value, DirectionMasks.UP_MASK);
-                    // world.setWorldCell(bottomPlane, value);
-                    //log.info("Creating block at: " + location);
-                    world.setWorldCell(location, 10);
+    private LevelFile loadMap(final String mapFile, final Path source) {
+        try {
+            return new LevelLoader().load(assetLoader.getAssetManager(), source);
+        } catch (final IOException e) {
+            log.warn("Could not map " + source + ", loading it as an asset instead", e);
+            return loadMap(mapFile);
+        }
+    }
 
-                    // world.setWorldCell(topPlane, 0);
+    /**
+     * Prepares loading a lvz-map into the world. If the map has an up to date
+     * cache next to it, the cache is memory mapped and the .lvl is not parsed at
+     * all. Otherwise the map is memory mapped and parsed, and the cache is
+     * written once the map has been loaded. Maps packed in a jar are read through
+     * the asset manager and get no cache.
+     *
+     * When the world is persisted and already holds this version of the map,
+     * nothing is loaded so that edits made to the world are kept.
+     *
+     * The loader writes straight to the LeafDb and fires no cell change events,
+     * so this is only meant for arenas nobody is looking at yet.
+     *
+     * @param mapFile     the lvz-map to load
+     * @param arenaOffset where to position the map
+     * @return the loader to step until the map is loaded, or null if the map is
+     *         already in the world
+     */
+    public LegacyMapBatchLoader loadMap(final String mapFile, final Vec3d arenaOffset) {
+        final Path source = assetLoader.getAssetPath(mapFile);
+        if (source == null) {
+            // Packed assets can't have a cache next to them
+            return new LegacyMapBatchLoader(leafDb, loadMap(mapFile), arenaOffset);
+        }
 
-                    // count++;
+        final int originX = Coordinates.worldToCell(arenaOffset.x);
+        final int originY = Coordinates.worldToCell(arenaOffset.y);
+        final int originZ = Coordinates.worldToCell(arenaOffset.z);
+        final Path cachePath = MapCache.getCachePath(source);
+        long length = -1;
+        long checksum = -1;
+        try {
+            length = Files.size(source);
+            checksum = MapCache.checksum(source);
+            if (leafStore != null) {
+                final String key = mapFile + "@v" + MapCache.VERSION + ":" + originX + "," + originY + "," + originZ;
+                if (leafStore.getStamp(key) == checksum) {
+                    log.info(mapFile + " is already in the world");
+                    return null;
                 }
+                mapStampKey = key;
+                mapStamp = checksum;
             }
+            final MapCache cache = MapCache.open(cachePath, length, checksum, originX, originY, originZ);
+            if (cache != null) {
+                log.info("Loading " + mapFile + " from " + cachePath);
+                return new LegacyMapBatchLoader(leafDb, cache);
+            }
+        } catch (final IOException e) {
+            log.warn("Could not read the map cache " + cachePath, e);
         }
 
-        // Test:
+        final LevelFile map = loadMap(mapFile, source);
+        final LegacyMapBatchLoader loader = new LegacyMapBatchLoader(leafDb, map, arenaOffset);
+        if (checksum != -1) {
+            loader.setCacheBuilder(
+                    new MapCache.Builder(cachePath, length, checksum, LevelFile.MAP_SIZE, originX, originY, originZ));
+        }
+        return loader;
+    }
+
+    /**
+     * Creates map tiles for a legacy map
+     *
+     * @param map         the lvz-based-map to create create entities from
+     * @param arenaOffset where to position the map
+     */
+    public void createEntitiesFromLegacyMap(final LevelFile map, final Vec3d arenaOffset) {
+        // Only the wall tiles become cells, LegacyMapBatchLoader.isWall() decides
+        // which ones those are
         /*
-         * for (int i = 0; i < 380; i++) { short s = (short) (i % 190); Vec3d
-         * bottomPlane = new Vec3d(i % 19, 0, (Math.floor(i / 19))); Vec3d topPlane =
-         * new Vec3d(i % 19, 1, (Math.floor(i / 19))); int mapId = 20; int tileId =
-         * Short.toUnsignedInt(s); tileSet.add(tileId);
+         * TILE STATUS Row 2, tile 1 - Border tile Row 9, tile 10 - Vertical warpgate
+         * (Mostly open) Row 9, tile 11 - Vertical warpgate (Frequently open) Row 9,
+         * tile 12 - Vertical warpgate (Frequently closed) Row 9, tile 13 - Vertical
+         * warpgate (Mostly closed) Row 9, tile 14 - Horizontal warpgate (Mostly open)
+         * Row 9, tile 15 - Horizontal warpgate (Frequently open) Row 9, tile 16 -
+         * Horizontal warpgate (Frequently closed) Row 9, tile 17 - Horizontal warpgate
+         * (Mostly closed) 170 DONE Row 9, tile 18 - Flag for turf Row 9, tile 19 -
+         * Safezone Row 10, tile 1 - Soccer goal (leave blank if you want) Row 10, tile
+         * 2 - Flyover tile Row 10, tile 3 - Flyover tile Row 10, tile 4 - Flyover tile
+         * Row 10, tile 5 - Flyunder (opaque) tile Row 10, tile 6 - Flyunder (opaque)
+         * tile Row 10, tile 7 - Flyunder (opaque) tile Row 10, tile 8 - Flyunder
+         * (opaque) tile Row 10, tile 9 - Flyunder (opaque) tile Row 10, tile 10 -
+         * Flunder (opaque) tile Row 10, tile 11 - Flyunder (opaque) tile Row 10, tile
+         * 12 - Flyunder (opaque) tile Row 10, tile 13 - Flyunder (black = transparent)
+         * tile Row 10, tile 14 - Flyunder (black = transparent) tile Row 10, tile 15 -
+         * Flyunder (black = transparent) tile Row 10, tile 16 - Flyunder (black =
+         * transparent) tile Row 10, tile 17 - Flyunder (black = transparent) tile Row
+         * 10, tile 18 - Flyunder (black = transparent) tile Row 10, tile 19 - Flyunder
+         * (black = transparent) tile
+         *
+         * /* VIE tile constants.
+         *
+         * public static final char vieNoTile = 0;
+         *
+         * public static final char vieNormalStart = 1; public static final char
+         * vieBorder = 20; // Borders are not included in the .lvl files public static
+         * final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
+         *
+         * public static final char vieVDoorStart = 162; public static final char
+         * vieVDoorEnd = 165;
+         *
+         * public static final char vieHDoorStart = 166; public static final char
+         * vieHDoorEnd = 169;
+         *
+         * public static final char vieTurfFlag = 170;
+         *
+         * public static final char vieSafeZone = 171; // Also included in sec.chk
+         *
+         * public static final char vieGoalArea = 172;
+         *
+         * public static final char vieFlyOverStart = 173; public static final char
+         * vieFlyOverEnd = 175; public static final char vieFlyUnderStart = 176; public
+         * static final char vieFlyUnderEnd = 190;
+         *
+         * public static final char vieAsteroidStart = 216; public static final char
+         * vieAsteroidEnd = 218;
+         *
+         * public static final char vieStation = 219;
+         *
+         * public static final char vieWormhole = 220;
+         *
+         * public static final char ssbTeamBrick = 221; // These are internal public
+         * static final char ssbEnemyBrick = 222;
+         *
+         * public static final char ssbTeamGoal = 223; public static final char
+         * ssbEnemyGoal = 224;
+         *
+         * public static final char ssbTeamFlag = 225; public static final char
+         * ssbEnemyFlag = 226;
+         *
+         * public static final char ssbPrize = 227;
+         *
+         * public static final char ssbBorder = 228; // Use ssbBorder instead of
+         * vieBorder to fill border
+         *
+         * 20: Border 162: Door Horizontal 1 163: Door Horizontal 2 164: Door Horizontal
+         * 3 165: Door Horizontal 4 166: Door Vertical 1 167: Door Vertical 2 168: Door
+         * Vertical 3 169: Door Vertical 4 170: flag 171: safe 172: goal 173: fly over 1
+         * 174: fly over 2 175: fly over 3 176: fly Under 1 177: fly Under 2 178: fly
+         * Under 3 179: fly Under 4 180: fly Under 5 181: fly Under 6 182: fly Under 7
+         * 183: fly Under 8 184: fly Under 9 185: fly Under 10 186: fly Under 11 187:
+         * fly Under 12 188: fly Under 13 189: fly Under 14 190: fly Under 15 191:
+         * invisible, Ships go through, items bounce off, Thors go through if you fire
+         * an item while in it, it will float suspended in space. 192: invisible 193:
+         * invisible 194: invisible 195: invisible 196: invisible 197: invisible 198:
+         * invisible 199: invisible 200: invisible 201: invisible 202: invisible 203:
+         * invisible 204: invisible 205: invisible 206: invisible 207: invisible 216:
+         * small Asteroid 217: large Asteroid 218: small Asteroid 2 219: space Station
+         * 220: wormhole 240: invisible 241: absorbs weapons, invisible 242: warp on
+         * contact, not on radar, invisible 242: not on radar, invisible 243: not on
+         * radar, invisible 244: not on radar, invisible 245: not on radar, invisible
+         * 246: not on radar, invisible 247: not on radar, invisible 248: not on radar,
+         * invisible 249: not on radar, invisible 250: not on radar, invisible 251:
+         * invisible, not on radar, warps ship on contact, items bounce off, thors
+         * dissappear 252: animated enemy brick, visible, not on radar. Items go
+         * through, ship gets warped after 0-2 seconds 253: animated team brick.
+         * Visible, invisible on radar. Items and ship go through. 254: invisible, not
+         * on radar. Impossible to lay bricks while on/near it. 255: animated green.
+         * visible, not on radar. Items and ship go through.
          *
-         * int value = tileId | (mapId << 8);
-         * log.info("createEntitiesFromLegacyMap:: value = " + value +
-         * " <= (Tile,Map) = (" + tileId + "," + mapId + ") - Coords: " + bottomPlane);
-         * world.setWorldCell(bottomPlane, value); world.setWorldCell(topPlane, 0);
-         * count++; }
          */
-        // log.info("Counted: " + count + " tiles in the world");
-        // log.info("Counted: " + tileSet.size() + " different tiles added to world");
+        new LegacyMapBatchLoader(leafDb, map, arenaOffset).loadAll();
     }
 
     /**
-     * Finds the map tile entity for the given coordinate
+     * @return true when the arena map has been fully loaded into the world
+     */
+    public boolean isMapLoaded() {
+        return mapCreated && mapLoader == null;
+    }
+
+    /**
+     * Finds the map tile entity for the given coordinate. Must be called from
+     * the game loop thread.
      *
      * @param coord the x,y-coordinate to lookup
      * @return the entityid of the map tile
      */
     public EntityId getEntityId(final Vec3d coord) {
-        return index.get(coord);
+        final long id = index.get(TileGrid.toTile(coord.x), TileGrid.toTile(coord.z));
+        return id == TileGrid.EMPTY ? null : new EntityId(id);
     }
 
     @Override
@@ -369,9 +424,9 @@ public class MapSystem extends AbstractGameSystem {
         time = tpf;
         accumulatedTime += tpf.getTpf();
 
-        // Create map:
+        // Create map, a few leaves per tick so the arena load doesn't stall the sim:
         if (!mapCreated && accumulatedTime > 2) {
-            createEntitiesFromLegacyMap(loadMap("Maps/aswz/aswz.lvl"), new Vec3d(-MAP_SIZE * 0.5, 0, -MAP_SIZE * 0.5));
+            mapLoader = loadMap("Maps/aswz/aswz.lvl", new Vec3d(-MAP_SIZE * 0.5, 0, -MAP_SIZE * 0.5));
             // createEntitiesFromLegacyMap(loadMap("Maps/tunnelbase.lvl"), new
             // Vec3d(-MAP_SIZE, 0, MAP_SIZE));
             // createEntitiesFromLegacyMap(loadMap("Maps/trench.lvl"), new
@@ -380,44 +435,55 @@ public class MapSystem extends AbstractGameSystem {
             // Vec3d(0,MAP_SIZE,0,0));
             mapCreated = true;
         }
+        if (mapLoader != null && mapLoader.step(MAP_LOAD_BUDGET_NANOS)) {
+            mapLoader = null;
+            if (mapStampKey != null) {
+                leafStore.setStamp(mapStampKey, mapStamp);
+                mapStampKey = null;
+            }
+        }
 
-        for (final Vec3d remove : sessionTileRemovals) {
-            final Vec3d clampedLocation = getKey(remove);
-
-            if (index.containsKey(clampedLocation)) {
-                final EntityId eId = index.get(clampedLocation);
-                ed.removeEntity(eId);
+        synchronized (sessionTileRemovals) {
+            for (int i = 0; i < sessionTileRemovals.size; i++) {
+                final long key = sessionTileRemovals.keys[i];
+                final int x = TileGrid.unpackX(key);
+                final int z = TileGrid.unpackZ(key);
 
-                index.remove(remove);
+                final long eId = index.remove(x, z);
+                if (eId != TileGrid.EMPTY) {
+                    ed.removeEntity(new EntityId(eId));
+                }
+                // Update surrounding tiles
+                updateWangBlobNeighbours(x, z);
             }
-            // Update surrounding tiles
-            final ArrayList<Vec3d> locations = new ArrayList<>();
-            locations.add(clampedLocation);
-            updateWangBlobIndexNumber(locations, true, false);
+            sessionTileRemovals.size = 0;
         }
-        sessionTileRemovals.clear();
-
-        for (final Vec3d create : sessionTileCreations) {
-            // Clamp location
-            final Vec3d clampedLocation = getKey(create);
-            if (index.containsKey(clampedLocation)) {
-                // A map entity already exists here
-                continue;
-            }
-
-            final ArrayList<Vec3d> locations = new ArrayList<>();
-            locations.add(clampedLocation);
 
-            final EntityId eId = ed.createEntity();
+        synchronized (sessionTileCreations) {
+            for (int i = 0; i < sessionTileCreations.size; i++) {
+                final long key = sessionTileCreations.keys[i];
+                final int x = TileGrid.unpackX(key);
+                final int z = TileGrid.unpackZ(key);
+                if (index.isSet(x, z)) {
+                    // A map entity already exists here
+                    continue;
+                }
 
-            index.put(clampedLocation, eId);
+                final EntityId eId = ed.createEntity();
+                if (!index.set(x, z, eId.getId())) {
+                    log.warn("Tile at " + x + ", " + z + " is outside of the map, ignoring it");
+                    ed.removeEntity(eId);
+                    continue;
+                }
 
-            final short tileIndexNumber = updateWangBlobIndexNumber(locations, true, true);
+                final short tileIndexNumber = updateWangBlobIndexNumber(x, z);
+                updateWangBlobNeighbours(x, z);
 
-            GameEntities.updateWangBlobEntity(ed, eId, space, time.getTime(), eId, "", tileIndexNumber,
-                    new Vec3d(clampedLocation.x, 0, clampedLocation.z));
+                GameEntities.updateWangBlobEntity(ed, eId, space, time.getTime(), eId, "", tileIndexNumber,
+                        new Vec3d(x + 0.5, 0, z + 0.5));
+            }
+            sessionTileCreations.size = 0;
         }
-        sessionTileCreations.clear();
 
         // Create the legacy maps in an ordered fashion instead of all at once:
         if (mapTileQueue.size() > 0) {
@@ -439,132 +505,32 @@ public class MapSystem extends AbstractGameSystem {
     }
 
     /**
-     * Updates the wang blob index number in the locations given
+     * Updates the wang blob index number of the tile at x, z
      *
-     * @param locations the clamped locations to update wangblob tile index number
-     *                  for
-     * @param cascade   cascade to surrounding tiles
-     * @param create    create or remove tile
-     * @return the tileindex of the current tile being updated
+     * @param x the tile x-coordinate
+     * @param z the tile z-coordinate
+     * @return the tileindex of the tile
      */
-    private short updateWangBlobIndexNumber(final ArrayList<Vec3d> locations, final boolean cascade,
-            final boolean create) {
-        int result = 0;
-        final ArrayList<Vec3d> cascadedLocations = new ArrayList<>();
-
-        for (final Vec3d clampedLocation : locations) {
-            int north = 0, northEast = 0, east = 0, southEast = 0, south = 0, southWest = 0, west = 0, northWest = 0;
-
-            north = 0;
-            final Vec3d northKey = clampedLocation.clone().add(0, 0, 1);
-            if (index.containsKey(northKey)) {
-                north = 1;
-                if (cascade) {
-                    cascadedLocations.add(northKey);
-                }
-            }
-
-            northEast = 0;
-            final Vec3d northEastKey = clampedLocation.clone().add(1, 0, 1);
-            if (index.containsKey(northEastKey)) {
-                northEast = 1;
-                if (cascade) {
-                    cascadedLocations.add(northEastKey);
-                }
-            }
-
-            east = 0;
-            final Vec3d eastKey = clampedLocation.clone().add(1, 0, 0);
-            if (index.containsKey(eastKey)) {
-                east = 1;
-                if (cascade) {
-                    cascadedLocations.add(eastKey);
-                }
-            }
-
-            southEast = 0;
-            final Vec3d southEastKey = clampedLocation.clone().add(1, 0, -1);
-            if (index.containsKey(southEastKey)) {
-                southEast = 1;
-                if (cascade) {
-                    cascadedLocations.add(southEastKey);
-                }
-            }
-
-            south = 0;
-            final Vec3d southKey = clampedLocation.clone().add(0, 0, -1);
-            if (index.containsKey(southKey)) {
-                south = 1;
-                if (cascade) {
-                    cascadedLocations.add(southKey);
-                }
-            }
-
-            southWest = 0;
-            final Vec3d southWestKey = clampedLocation.clone().add(-1, 0, -1);
-            if (index.containsKey(southWestKey)) {
-                southWest = 1;
-                if (cascade) {
-                    cascadedLocations.add(southWestKey);
-                }
-            }
-
-            west = 0;
-            final Vec3d westKey = clampedLocation.clone().add(-1, 0, 0);
-            if (index.containsKey(westKey)) {
-                west = 1;
-                if (cascade) {
-                    cascadedLocations.add(westKey);
-                }
-            }
-
-            northWest = 0;
-            final Vec3d northWestkey = clampedLocation.clone().add(-1, 0, 1);
-            if (index.containsKey(northWestkey)) {
-                northWest = 1;
-                if (cascade) {
-                    cascadedLocations.add(northWestkey);
-                }
-            }
-
-            if (north == 0) {
-                northEast = 0;
-                northWest = 0;
-            }
-
-            if (west == 0) {
-                northWest = 0;
-                southWest = 0;
-            }
-
-            if (south == 0) {
-                southEast = 0;
-                southWest = 0;
-            }
-
-            if (east == 0) {
-                southEast = 0;
-                northEast = 0;
-            }
-
-            result = north + 2 * northEast + 4 * east + 8 * southEast + 16 * south + 32 * southWest + 64 * west
-                    + 128 * northWest;
-
-            if (create || !cascade) {
-
-                final EntityId currentEntity = index.get(clampedLocation);
-                final TileType tt = TileTypes.wangblob("", (short) result, ed);
+    private short updateWangBlobIndexNumber(final int x, final int z) {
+        final short result = (short) index.getWangBlobMask(x, z);
+        ed.setComponent(new EntityId(index.get(x, z)), TileTypes.wangblob("", result, ed));
+        return result;
+    }
 
-                ed.setComponent(currentEntity, tt);
+    /**
+     * Updates the wang blob index number of the tiles surrounding x, z
+     *
+     * @param x the tile x-coordinate
+     * @param z the tile z-coordinate
+     */
+    private void updateWangBlobNeighbours(final int x, final int z) {
+        for (int i = 0; i < 8; i++) {
+            final int nx = x + TileGrid.NEIGHBOUR_DX[i];
+            final int nz = z + TileGrid.NEIGHBOUR_DZ[i];
+            if (index.isSet(nx, nz)) {
+                updateWangBlobIndexNumber(nx, nz);
             }
-
         }
-
-        if (cascade && cascadedLocations.size() > 0) {
-            updateWangBlobIndexNumber(cascadedLocations, false, create);
-        }
-
-        return (short) result;
     }
 
     @Override
@@ -577,17 +543,6 @@ public class MapSystem extends AbstractGameSystem {
         return;
     }
 
-    /**
-     * Returns a tile location key based on a Vec3d
-     *
-     * @param location the Vec3d to clamp
-     * @return the clamped Vec3d location
-     */
-    private Vec3d getKey(final Vec3d location) {
-        final Vec3d coordinates = new Vec3d(Math.round(location.x - 0.5) + 0.5, 0, Math.round(location.z - 0.5) + 0.5);
-        return coordinates;
-    }
-
     /**
      * Queue up a tile for removal
      *
@@ -595,8 +550,7 @@ public class MapSystem extends AbstractGameSystem {
      * @param z the y-coordinate
      */
     public void sessionRemoveTile(final double x, final double z) {
-        final Vec3d clampedLocation = getKey(new Vec3d(x, 0, z));
-        sessionTileRemovals.add(clampedLocation);
+        sessionTileRemovals.add(TileGrid.pack(TileGrid.toTile(x), TileGrid.toTile(z)));
     }
 
     /**
@@ -606,8 +560,7 @@ public class MapSystem extends AbstractGameSystem {
      * @param z the y-coordinate
      */
     public void sessionCreateTile(final double x, final double z) {
-        final Vec3d clampedLocation = getKey(new Vec3d(x, 0, z));
-        sessionTileCreations.add(clampedLocation);
+        sessionTileCreations.add(TileGrid.pack(TileGrid.toTile(x), TileGrid.toTile(z)));
     }
 
     @SuppressWarnings("unused")
@@ -772,31 +725,49 @@ public class MapSystem extends AbstractGameSystem {
         }
     }
 
+    /**
+     * Returns the locations of the occupied edge neighbours of a tile. Must be
+     * called from the game loop thread.
+     */
     public ArrayList<Vec3d> getNeighbours(final double locX, final double locZ) {
-        final Vec3d loc = new Vec3d(locX, 0, locZ);
+        final int x = TileGrid.toTile(locX);
+        final int z = TileGrid.toTile(locZ);
         final ArrayList<Vec3d> result = new ArrayList<>();
 
-        final Vec3d west = new Vec3d(loc.x - 1, 0, loc.z);
-        final Vec3d east = new Vec3d(loc.x + 1, 0, loc.z);
-        final Vec3d north = new Vec3d(loc.x, 0, loc.z + 1);
-        final Vec3d south = new Vec3d(loc.x, 0, loc.z - 1);
         // ((Check west))
-        if (index.containsKey(west)) {
-            result.add(west);
+        if (index.isSet(x - 1, z)) {
+            result.add(new Vec3d(locX - 1, 0, locZ));
         }
         // ((Check east))
-        if (index.containsKey(east)) {
-            result.add(east);
+        if (index.isSet(x + 1, z)) {
+            result.add(new Vec3d(locX + 1, 0, locZ));
         }
         // ((Check north))
-        if (index.containsKey(north)) {
-            result.add(north);
+        if (index.isSet(x, z + 1)) {
+            result.add(new Vec3d(locX, 0, locZ + 1));
         }
         // ((Check south))
-        if (index.containsKey(south)) {
-            result.add(south);
+        if (index.isSet(x, z - 1)) {
+            result.add(new Vec3d(locX, 0, locZ - 1));
         }
 
         return result;
     }
+
+    /**
+     * Packed tile coordinates queued up by the sessions. Guarded by its own
+     * monitor since sessions add to it from the network threads.
+     */
+    private static final class TileEditQueue {
+
+        private long[] keys = new long[16];
+        private int size;
+
+        public synchronized void add(final long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+    }
 }
@@ -35,6 +35,10 @@
  */
 package infinity.systems;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,7 +56,9 @@ import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 
 import infinity.es.input.MovementInput;
+import infinity.sim.InputBuffer;
 import infinity.sim.PlayerDriver;
+import infinity.sim.SystemAccess;
 
 /**
  * Manages the control drivers of entities with MovementInput components and
@@ -60,15 +66,25 @@ import infinity.sim.PlayerDriver;
  *
  * @author Paul Speed
  */
+@SystemAccess(reads = { MovementInput.class, SettingsSystem.class }, writes = { PhysicsSpace.class })
 public class MovementSystem extends AbstractGameSystem {
 
     static Logger log = LoggerFactory.getLogger(MovementSystem.class);
 
+    /**
+     * Input listeners are told about the last used input this often even if it
+     * has not changed, in case the last notification was lost.
+     */
+    private static final int ACKNOWLEDGE_TICKS = 30;
+
     private EntityData ed;
     private MPhysSystem<MBlockShape> physics;
     private PlayerContainer players;
     private final MovementBodyInitializer initializer = new MovementBodyInitializer();
     private PhysicsSpace<EntityId, MBlockShape> space;
+    private final ConcurrentMap<EntityId, InputBuffer> inputs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<EntityId, InputListener> inputListeners = new ConcurrentHashMap<>();
+    private long ticks;
     // private EntitySet thors, mines, gravityBombs, bursts, bombs, guns;
     // private EnergySystem health;
 
@@ -135,6 +151,14 @@ public class MovementSystem extends AbstractGameSystem {
     @Override
     public void update(final SimTime time) {
         players.update();
+
+        final boolean resend = ++ticks % ACKNOWLEDGE_TICKS == 0;
+        for (final Map.Entry<EntityId, InputListener> e : inputListeners.entrySet()) {
+            final InputBuffer buffer = inputs.get(e.getKey());
+            if (buffer != null && buffer.takeAcknowledgement(resend)) {
+                e.getValue().inputConsumed(buffer.getLastConsumed(), buffer.getLastConsumedTime());
+            }
+        }
     }
 
     @Override
@@ -143,6 +167,28 @@ public class MovementSystem extends AbstractGameSystem {
         players = null;
     }
 
+    /**
+     * Returns the buffer that queues sequenced inputs for the driver of the
+     * given entity. The inputs in the buffer are used one per physics step on
+     * top of the entity's MovementInput component, which only needs to be set
+     * once to get the entity a driver. Safe to call from any thread.
+     */
+    public InputBuffer getInputBuffer(final EntityId entityId) {
+        return inputs.computeIfAbsent(entityId, id -> new InputBuffer());
+    }
+
+    /**
+     * Tells the listener which input from the entity's input buffer the physics
+     * used last, whenever that changes.
+     */
+    public void addInputListener(final EntityId entityId, final InputListener l) {
+        inputListeners.put(entityId, l);
+    }
+
+    public void removeInputListener(final EntityId entityId) {
+        inputListeners.remove(entityId);
+    }
+
     /**
      * All moving ships will be mapped to a driver. We use this to lookup the
      * drivers when we need to fire a weapon on that ship
@@ -162,7 +208,8 @@ public class MovementSystem extends AbstractGameSystem {
         @Override
         protected PlayerDriver addObject(final Entity e) {
             log.info("addObject(" + e + ")");
-            final PlayerDriver result = new PlayerDriver(e.getId(), ed, getSystem(SettingsSystem.class));
+            final PlayerDriver result = new PlayerDriver(e.getId(), ed, getSystem(SettingsSystem.class),
+                    getInputBuffer(e.getId()));
 
             // See if the physics engine already has a body for this entity
             final RigidBody<EntityId, MBlockShape> body = space.getBinIndex().getRigidBody(e.getId());
@@ -186,6 +233,7 @@ public class MovementSystem extends AbstractGameSystem {
         @Override
         protected void removeObject(final PlayerDriver driver, final Entity e) {
             log.info("removeObject(" + e + ")");
+            inputs.remove(e.getId());
             // physics.setControlDriver(e.getId(), null);
         }
     }
@@ -203,4 +251,13 @@ public class MovementSystem extends AbstractGameSystem {
             return null;
         }
     }
+
+    public interface InputListener {
+
+        /**
+         * @param sequence the sequence number of the input
+         * @param time     the time of the physics step that first used it
+         */
+        void inputConsumed(short sequence, long time);
+    }
 }
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.systems;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.simsilica.es.EntityComponent;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.ext.mphys.EntityBodyFactory;
+import com.simsilica.ext.mphys.Impulse;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ObjectStatusListener;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.es.CollisionCategory;
+import infinity.es.Damage;
+import infinity.es.Meta;
+import infinity.es.Parent;
+import infinity.es.WeaponType;
+import infinity.es.WeaponTypes;
+import infinity.es.ship.weapons.BombLevelEnum;
+import infinity.es.ship.weapons.GunLevelEnum;
+import infinity.jfr.ProjectileSpawnedEvent;
+import infinity.sim.CollisionFilters;
+import infinity.sim.InfinityEntityBodyFactory;
+import infinity.sim.SystemAccess;
+import infinity.util.LongObjectMap;
+
+/**
+ * Hands out and takes back the short lived projectile entities (bullets and
+ * bombs). Instead of creating a fresh entity for every shot and having the
+ * DecaySystem remove it again, an expired projectile is parked: all of its
+ * components are removed, so it drops out of every entity set, the clients and
+ * the physics, and only its id stays in the pool here. The next shot of the
+ * same kind reuses the id together with the component instances that never
+ * change for that kind (shape, mass, weapon type, collision category) and the
+ * shared Parent of the owner.
+ *
+ * When the physics drops the body of a parked projectile, the body is handed
+ * to the InfinityEntityBodyFactory, which gives it back to the next shot with
+ * the same id instead of building a new one.
+ *
+ * Pooled projectiles have no Decay component, their lifetime is tracked here.
+ *
+ * Hits are reported by the ContactSystem through hit(). The first body with
+ * Energy a projectile touches takes its Damage and the projectile is parked on
+ * the next update, whether it was fired with lag compensation or not.
+ *
+ * @author Asser
+ */
+@SystemAccess(writes = { ShapeInfo.class, Mass.class, WeaponType.class, CollisionCategory.class, Parent.class,
+        Damage.class, SpawnPosition.class, Impulse.class, Meta.class })
+public class ProjectileSystem extends AbstractGameSystem {
+
+    static Logger log = LoggerFactory.getLogger(ProjectileSystem.class);
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Every component a projectile has while it is in flight.
+     */
+    private static final List<Class<? extends EntityComponent>> COMPONENT_TYPES = Arrays.asList(ShapeInfo.class,
+            Mass.class, WeaponType.class, CollisionCategory.class, Parent.class, Damage.class, SpawnPosition.class,
+            Impulse.class, Meta.class);
+
+    private EntityData ed;
+    private MPhysSystem<MBlockShape> physics;
+    private EnergySystem health;
+    private InfinityEntityBodyFactory bodies;
+    private final BodyRecycler recycler = new BodyRecycler();
+
+    private final Kind[] bulletKinds = new Kind[GunLevelEnum.values().length];
+    private final Kind[] bombKinds = new Kind[BombLevelEnum.values().length];
+    private final List<Kind> kinds = new ArrayList<>();
+
+    /**
+     * The owners that have projectiles in flight, by entity id.
+     */
+    private final LongObjectMap<Owner> owners = new LongObjectMap<>();
+
+    /**
+     * All pooled projectiles by entity id.
+     */
+    private final LongObjectMap<Projectile> pool = new LongObjectMap<>(INITIAL_CAPACITY);
+
+    /**
+     * Projectiles that hit something since the last update.
+     */
+    private final List<Projectile> hits = new ArrayList<>();
+
+    /**
+     * Live projectiles ordered by expiry time as a binary min-heap.
+     */
+    private Projectile[] live = new Projectile[INITIAL_CAPACITY];
+    private int liveCount;
+
+    /**
+     * Projectiles that were parked during the last update. They are not handed
+     * out again until the next update so that the physics system gets to see
+     * the removal of the old body before the new SpawnPosition shows up.
+     */
+    private final ArrayDeque<Projectile> parked = new ArrayDeque<>(INITIAL_CAPACITY);
+
+    private long createdCount;
+
+    @Override
+    protected void initialize() {
+        ed = getSystem(EntityData.class);
+        if (ed == null) {
+            throw new RuntimeException(getClass().getName() + " system requires an EntityData object.");
+        }
+        @SuppressWarnings("unchecked")
+        final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+        physics = mphys;
+        if (physics == null) {
+            throw new RuntimeException(getClass().getName() + " system requires the MPhysSystem system.");
+        }
+        final EntityBodyFactory<?> factory = getSystem(EntityBodyFactory.class);
+        if (factory instanceof InfinityEntityBodyFactory) {
+            bodies = (InfinityEntityBodyFactory) factory;
+            physics.getBinEntityManager().addObjectStatusListener(recycler);
+        }
+        // Optional, without it projectiles never hit anything
+        health = getSystem(EnergySystem.class);
+    }
+
+    @Override
+    protected void terminate() {
+        if (bodies != null) {
+            physics.getBinEntityManager().removeObjectStatusListener(recycler);
+        }
+        // Whatever is still out there is removed for good
+        for (int i = 0; i < liveCount; i++) {
+            remove(live[i]);
+            live[i] = null;
+        }
+        liveCount = 0;
+        for (final Projectile p : parked) {
+            remove(p);
+        }
+        parked.clear();
+        for (final Kind kind : kinds) {
+            for (final Projectile p : kind.free) {
+                remove(p);
+            }
+            kind.free.clear();
+        }
+        kinds.clear();
+        Arrays.fill(bulletKinds, null);
+        Arrays.fill(bombKinds, null);
+        owners.clear();
+        pool.clear();
+        hits.clear();
+    }
+
+    private void remove(final Projectile p) {
+        ed.removeEntity(p.id);
+        if (bodies != null) {
+            bodies.forget(p.id);
+        }
+    }
+
+    @Override
+    public void update(final SimTime time) {
+        // Last update's parked projectiles are ready to be used again
+        while (!parked.isEmpty()) {
+            final Projectile p = parked.poll();
+            p.kind.free.push(p);
+        }
+
+        // Projectiles that hit something are due right away
+        if (!hits.isEmpty()) {
+            for (int i = 0; i < hits.size(); i++) {
+                hits.get(i).expires = Long.MIN_VALUE;
+            }
+            hits.clear();
+            for (int i = (liveCount >>> 1) - 1; i >= 0; i--) {
+                siftDown(i, live[i]);
+            }
+        }
+
+        final long now = time.getTime();
+        while (liveCount > 0 && live[0].expires <= now) {
+            park(pollExpired());
+        }
+    }
+
+    /**
+     * Fires a bullet, reusing a parked bullet entity of the same level if there
+     * is one.
+     *
+     * @param owner          the entity that fired the bullet
+     * @param createdTime    the time the bullet is fired
+     * @param pos            the starting location
+     * @param linearVelocity the velocity of the bullet
+     * @param decayMillis    how long the bullet lives
+     * @param level          the gun level
+     * @param damage         the damage the bullet does
+     * @return the bullet entity
+     */
+    public EntityId fireBullet(final EntityId owner, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final GunLevelEnum level, final Damage damage) {
+        Kind kind = bulletKinds[level.ordinal()];
+        if (kind == null) {
+            kind = createKind("bullet_l" + level.level, 0.125, 1, WeaponTypes.BULLET);
+            bulletKinds[level.ordinal()] = kind;
+        }
+        return fire(kind, owner, createdTime, pos, linearVelocity, decayMillis, damage);
+    }
+
+    /**
+     * Fires a bomb, reusing a parked bomb entity of the same level if there is
+     * one.
+     *
+     * @param owner          the entity that fired the bomb
+     * @param createdTime    the time the bomb is fired
+     * @param pos            the starting location
+     * @param linearVelocity the velocity of the bomb
+     * @param decayMillis    how long the bomb lives
+     * @param level          the bomb level
+     * @param damage         the damage the bomb does
+     * @return the bomb entity
+     */
+    public EntityId fireBomb(final EntityId owner, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final BombLevelEnum level, final Damage damage) {
+        Kind kind = bombKinds[level.ordinal()];
+        if (kind == null) {
+            kind = createKind("bomb_l" + level.level, 0.5, 5, WeaponTypes.BOMB);
+            bombKinds[level.ordinal()] = kind;
+        }
+        return fire(kind, owner, createdTime, pos, linearVelocity, decayMillis, damage);
+    }
+
+    /**
+     * Called for every contact between two bodies that was not filtered out. If
+     * the projectile is in flight and has not hit anything yet and the target
+     * has Energy, the target takes the projectile's damage. Must be called from
+     * the simulation thread.
+     *
+     * @return true if it was a hit, the projectile should not bounce off then
+     */
+    public boolean hit(final EntityId projectile, final EntityId target) {
+        final Projectile p = pool.get(projectile.getId());
+        if (p == null || p.owner == null || health == null || !health.hasEnergy(target)) {
+            return false;
+        }
+        if (!p.spent) {
+            p.spent = true;
+            hits.add(p);
+            health.createHealthChange(target, p.damage.getDamage());
+            if (log.isDebugEnabled()) {
+                log.debug("Hit of " + target + " by " + projectile);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of projectiles currently in flight
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * @return the number of projectile entities ever created by the pool, in a
+     *         steady state this stops growing
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    private Kind createKind(final String shapeName, final double scale, final double mass, final String weaponType) {
+        final Kind kind = new Kind(shapeName, ShapeInfo.create(shapeName, scale, ed), new Mass(mass),
+                WeaponType.create(weaponType, ed));
+        kinds.add(kind);
+        return kind;
+    }
+
+    private EntityId fire(final Kind kind, final EntityId owner, final long createdTime, final Vec3d pos,
+            final Vec3d linearVelocity, final long decayMillis, final Damage damage) {
+        final ProjectileSpawnedEvent event = new ProjectileSpawnedEvent();
+        event.begin();
+
+        Projectile p = kind.free.poll();
+        final boolean pooled = p != null;
+        if (p == null) {
+            p = new Projectile(ed.createEntity(), kind);
+            pool.put(p.id.getId(), p);
+            createdCount++;
+        }
+
+        p.owner = acquireOwner(owner);
+        p.damage = damage;
+        p.spent = false;
+        ed.setComponents(p.id, kind.shape, kind.mass, kind.weaponType, kind.category, p.owner.parent, damage,
+                new SpawnPosition(physics.getPhysicsSpace().getGrid(), pos), new Impulse(linearVelocity),
+                new Meta(createdTime));
+
+        p.expires = createdTime + TimeUnit.NANOSECONDS.convert(decayMillis, TimeUnit.MILLISECONDS);
+        offer(p);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.projectile = p.id.getId();
+            event.owner = owner.getId();
+            event.shape = kind.shapeName;
+            event.pooled = pooled;
+            event.commit();
+        }
+        return p.id;
+    }
+
+    private Owner acquireOwner(final EntityId id) {
+        Owner result = owners.get(id.getId());
+        if (result == null) {
+            result = new Owner(new Parent(id));
+            owners.put(id.getId(), result);
+        }
+        result.inFlight++;
+        return result;
+    }
+
+    private void releaseOwner(final Owner owner) {
+        // Once nothing of an owner is in flight anymore it is forgotten, so
+        // owners that left the game do not pile up
+        if (--owner.inFlight == 0) {
+            owners.remove(owner.parent.getParentEntity().getId());
+        }
+    }
+
+    private void park(final Projectile p) {
+        // Strip the entity bare, it is not a projectile until it is fired again
+        for (int i = 0; i < COMPONENT_TYPES.size(); i++) {
+            ed.removeComponent(p.id, COMPONENT_TYPES.get(i));
+        }
+        releaseOwner(p.owner);
+        p.owner = null;
+        parked.add(p);
+    }
+
+    private void offer(final Projectile p) {
+        if (liveCount == live.length) {
+            live = Arrays.copyOf(live, liveCount * 2);
+        }
+        int i = liveCount++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (live[parent].expires <= p.expires) {
+                break;
+            }
+            live[i] = live[parent];
+            i = parent;
+        }
+        live[i] = p;
+    }
+
+    private Projectile pollExpired() {
+        final Projectile result = live[0];
+        final Projectile last = live[--liveCount];
+        live[liveCount] = null;
+        if (liveCount > 0) {
+            siftDown(0, last);
+        }
+        return result;
+    }
+
+    /**
+     * Moves the projectile down from the index until its children expire no
+     * earlier than it does.
+     */
+    private void siftDown(final int from, final Projectile p) {
+        int i = from;
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= liveCount) {
+                break;
+            }
+            if (child + 1 < liveCount && live[child + 1].expires < live[child].expires) {
+                child++;
+            }
+            if (p.expires <= live[child].expires) {
+                break;
+            }
+            live[i] = live[child];
+            i = child;
+        }
+        live[i] = p;
+    }
+
+    /**
+     * The components that are the same for every projectile of a kind plus the
+     * parked projectiles of that kind.
+     */
+    private static class Kind {
+        final String shapeName;
+        final ShapeInfo shape;
+        final Mass mass;
+        final WeaponType weaponType;
+        final CollisionCategory category = new CollisionCategory(
+                CollisionFilters.FILTER_CATEGORY_DYNAMIC_PROJECTILES);
+        final ArrayDeque<Projectile> free = new ArrayDeque<>();
+
+        Kind(final String shapeName, final ShapeInfo shape, final Mass mass, final WeaponType weaponType) {
+            this.shapeName = shapeName;
+            this.shape = shape;
+            this.mass = mass;
+            this.weaponType = weaponType;
+        }
+    }
+
+    /**
+     * The shared Parent of an owner and how many of its projectiles are in
+     * flight.
+     */
+    private static class Owner {
+        final Parent parent;
+        int inFlight;
+
+        Owner(final Parent parent) {
+            this.parent = parent;
+        }
+    }
+
+    private static class Projectile {
+        final EntityId id;
+        final Kind kind;
+        Owner owner;
+        Damage damage;
+        long expires;
+        // Set once the projectile hit something, until it is fired again
+        boolean spent;
+
+        Projectile(final EntityId id, final Kind kind) {
+            this.id = id;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Hands the bodies of parked projectiles to the body factory for reuse.
+     */
+    private class BodyRecycler implements ObjectStatusListener<MBlockShape> {
+
+        @Override
+        public void objectLoaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+            return;
+        }
+
+        @Override
+        public void objectUnloaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+            if (pool.containsKey(id.getId())) {
+                bodies.recycle(body);
+            }
+        }
+    }
+}
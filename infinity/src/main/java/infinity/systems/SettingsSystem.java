@@ -41,6 +41,7 @@ import infinity.settings.IniLoader;
 import infinity.settings.SSSLoader;
 import infinity.settings.SettingListener;
 import infinity.sim.CoreGameConstants;
+import infinity.sim.SystemAccess;
 import infinity.util.AdaptiveLoadingService;
 
 /**
@@ -48,8 +49,12 @@ import infinity.util.AdaptiveLoadingService;
  * the new settings. Listeners are meant to keep a local copy of the settings so
  * as not to reference this state every time they have use for a setting
  *
+ * Systems that read settings during their update list this system's class,
+ * the settings only change through the listeners.
+ *
  * @author Asser Fahrenholz
  */
+@SystemAccess(writes = { SettingListener.class })
 public class SettingsSystem extends AbstractGameSystem {
 
     ArrayList<SettingListener> listeners = new ArrayList<>();
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * The open addressing core shared by the primitive long keyed collections. It
+ * owns the key table: hashing, linear probing, growing and the backward shift
+ * that keeps probe chains intact when a key is removed. Subclasses keep their
+ * values in an array parallel to the keys and follow the slot moves through
+ * the value hooks.
+ *
+ * Long.MIN_VALUE marks free slots and cannot be used as a key.
+ *
+ * @author Asser
+ */
+abstract class AbstractLongHash {
+
+    protected static final long FREE = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    protected long[] keys;
+    private int mask;
+    private int shift;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * @return the table capacity for the expected number of keys
+     */
+    protected static int capacityFor(final int expected) {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, (int) (expected / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    /**
+     * Replaces the key table with an empty one of the given capacity. The value
+     * array is replaced through allocateValues().
+     */
+    protected void allocate(final int capacity) {
+        allocateKeys(capacity);
+        allocateValues(capacity);
+    }
+
+    private void allocateKeys(final int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Replaces the value array with an empty one of the given capacity.
+     *
+     * @return the old value array, null if there was none
+     */
+    protected Object allocateValues(final int capacity) {
+        return null;
+    }
+
+    /**
+     * Copies a value from the old value array, as returned by allocateValues(),
+     * into the current one while rehashing.
+     */
+    protected void copyValue(final Object oldValues, final int from, final int to) {
+        return;
+    }
+
+    /**
+     * Moves a value within the current value array.
+     */
+    protected void moveValue(final int from, final int to) {
+        return;
+    }
+
+    /**
+     * Resets the value of a slot that has just been freed.
+     */
+    protected void clearValue(final int slot) {
+        return;
+    }
+
+    /**
+     * Resets the values of all slots.
+     */
+    protected void clearValues() {
+        return;
+    }
+
+    private int slot(final long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) & mask;
+    }
+
+    /**
+     * @return the slot of the key or -1 if it is not in the table
+     */
+    protected int indexOf(final long key) {
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the slot of the key, adding the key if needed. The value of a slot
+     * that was just added is always the cleared value.
+     *
+     * @return the slot of the key
+     */
+    protected int insert(final long key) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key not supported:" + key);
+        }
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size + 1 > resizeAt) {
+            rehash(keys.length << 1);
+            i = slot(key);
+            while (keys[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+        }
+        keys[i] = key;
+        size++;
+        return i;
+    }
+
+    /**
+     * Frees the slot and shifts back any entries that probed past it, so the
+     * table never needs tombstones.
+     */
+    protected void removeAt(int i) {
+        size--;
+        int next = (i + 1) & mask;
+        while (keys[next] != FREE) {
+            final int home = slot(keys[next]);
+            // Move the entry if its home slot is not between the hole and itself
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                moveValue(next, i);
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[i] = FREE;
+        clearValue(i);
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final Object oldValues = allocateValues(capacity);
+        allocateKeys(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long key = oldKeys[i];
+            if (key == FREE) {
+                continue;
+            }
+            int j = slot(key);
+            while (keys[j] != FREE) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = key;
+            copyValue(oldValues, i, j);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries, keeping the capacity.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, FREE);
+            clearValues();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to primitive int values, for example an
+ * amount per entity id. Nothing is boxed and only growing the map allocates.
+ * Uses open addressing with linear probing, so it is not thread safe.
+ *
+ * The entries can be walked without an iterator:
+ *
+ * <pre>
+ * for (int i = 0; i &lt; map.capacity(); i++) {
+ *     if (map.isSlotUsed(i)) {
+ *         use(map.keyAt(i), map.valueAt(i));
+ *     }
+ * }
+ * </pre>
+ *
+ * Long.MIN_VALUE marks free slots and cannot be used as a key.
+ *
+ * @author Asser
+ */
+public class LongIntMap extends AbstractLongHash {
+
+    private int[] values;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of entries expected, the map grows past it
+     */
+    public LongIntMap(final int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    @Override
+    protected Object allocateValues(final int capacity) {
+        final int[] old = values;
+        values = new int[capacity];
+        return old;
+    }
+
+    @Override
+    protected void copyValue(final Object oldValues, final int from, final int to) {
+        values[to] = ((int[]) oldValues)[from];
+    }
+
+    @Override
+    protected void moveValue(final int from, final int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(final int slot) {
+        values[slot] = 0;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, 0);
+    }
+
+    /**
+     * @return the value for the key or defaultValue if the key is not mapped
+     */
+    public int get(final long key, final int defaultValue) {
+        final int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public void put(final long key, final int value) {
+        // insert() may grow the value array, so it has to run first
+        final int i = insert(key);
+        values[i] = value;
+    }
+
+    /**
+     * Adds to the value of the key, a key that isn't mapped yet starts at 0.
+     *
+     * @return the new value
+     */
+    public int addTo(final long key, final int delta) {
+        final int i = insert(key);
+        values[i] += delta;
+        return values[i];
+    }
+
+    /**
+     * @return true if the key was mapped
+     */
+    public boolean remove(final long key) {
+        final int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * @return the number of slots, for walking the entries
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isSlotUsed(final int slot) {
+        return keys[slot] != FREE;
+    }
+
+    public long keyAt(final int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(final int slot) {
+        return values[slot];
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys, such as entity ids, to objects. Keys are
+ * not boxed and lookups don't allocate. Uses open addressing with linear
+ * probing, so it is not thread safe.
+ *
+ * Long.MIN_VALUE marks free slots and cannot be used as a key.
+ *
+ * @param <V> the value type
+ * @author Asser
+ */
+public class LongObjectMap<V> extends AbstractLongHash {
+
+    private V[] values;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of entries expected, the map grows past it
+     */
+    public LongObjectMap(final int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object allocateValues(final int capacity) {
+        final V[] old = values;
+        values = (V[]) new Object[capacity];
+        return old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void copyValue(final Object oldValues, final int from, final int to) {
+        values[to] = ((V[]) oldValues)[from];
+    }
+
+    @Override
+    protected void moveValue(final int from, final int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(final int slot) {
+        values[slot] = null;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, null);
+    }
+
+    public V get(final long key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    public boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the previous value for the key or null if there was none
+     */
+    public V put(final long key, final V value) {
+        final int i = insert(key);
+        final V old = values[i];
+        values[i] = value;
+        return old;
+    }
+
+    /**
+     * @return the removed value or null if the key was not in the map
+     */
+    public V remove(final long key) {
+        final int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        final V old = values[i];
+        removeAt(i);
+        return old;
+    }
+}
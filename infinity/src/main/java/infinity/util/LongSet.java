@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+/**
+ * A hash set of primitive longs, such as entity ids. Values are not boxed and
+ * lookups don't allocate. Uses open addressing with linear probing, so it is
+ * not thread safe.
+ *
+ * Long.MIN_VALUE marks free slots and cannot be added to the set.
+ *
+ * @author Asser
+ */
+public class LongSet extends AbstractLongHash {
+
+    public LongSet() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of values expected, the set grows past it
+     */
+    public LongSet(final int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    public boolean contains(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    public boolean add(final long key) {
+        final int before = size();
+        insert(key);
+        return size() != before;
+    }
+
+    /**
+     * @return true if the value was in the set
+     */
+    public boolean remove(final long key) {
+        final int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+}
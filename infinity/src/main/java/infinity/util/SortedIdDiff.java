@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+/**
+ * Compares two sorted arrays of ids, for example the entity ids a client could
+ * see before and after an update, in a single merge pass. Nothing is boxed and
+ * nothing is allocated.
+ *
+ * @author Asser
+ */
+public final class SortedIdDiff {
+
+    /**
+     * Told about every id that is only in one of the two arrays.
+     */
+    public interface Listener {
+
+        /**
+         * The id is only in the new array.
+         */
+        void added(long id);
+
+        /**
+         * The id is only in the old array.
+         */
+        void removed(long id);
+    }
+
+    private SortedIdDiff() {
+    }
+
+    /**
+     * Walks both sorted arrays and reports the ids that are only in one of them,
+     * in ascending order. Neither array may contain duplicates.
+     */
+    public static void diff(final long[] before, final int beforeCount, final long[] after, final int afterCount,
+            final Listener listener) {
+        int i = 0;
+        int j = 0;
+        while (i < beforeCount || j < afterCount) {
+            if (i < beforeCount && j < afterCount && before[i] == after[j]) {
+                i++;
+                j++;
+            } else if (j == afterCount || i < beforeCount && before[i] < after[j]) {
+                listener.removed(before[i++]);
+            } else {
+                listener.added(after[j++]);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class ArenaHostTest {
+
+    private final ArenaHost host = new ArenaHost(7000, "test");
+
+    @After
+    public void close() {
+        host.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idsThatNameTheSameDirectoryAreRejected() throws IOException {
+        host.openArena("a.b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pathsAreRejected() {
+        ArenaHost.checkArenaId("../world");
+    }
+
+    @Test
+    public void playersOnlyStartOpenableArenas() {
+        assertEquals(-1, host.requestArena("anything"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hostsRunALimitedNumberOfArenas() throws IOException {
+        host.setMaxArenas(0);
+        host.openArena("duel");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+
+import infinity.es.BodyPosition;
+import infinity.es.Parent;
+import infinity.es.ship.Energy;
+
+/**
+ * @author Asser
+ */
+public class ClientInterestTest {
+
+    @Test
+    public void entityIsMobileOnceItsBodyLoads() {
+        final EntityData ed = new DefaultEntityData();
+        final ClientInterest interest = new ClientInterest(ed, null, null);
+
+        // Like a new ship, which gets its BodyPosition when its body loads
+        final EntityId ship = ed.createEntity();
+        ed.setComponent(ship, new Energy(100));
+        assertTrue(interest.isStaticRelevant(ship));
+
+        ed.setComponent(ship, new BodyPosition());
+        assertFalse(interest.isStaticRelevant(ship));
+    }
+
+    @Test
+    public void childFollowsParentOnceItsBodyLoads() {
+        final EntityData ed = new DefaultEntityData();
+        final ClientInterest interest = new ClientInterest(ed, null, null);
+
+        final EntityId ship = ed.createEntity();
+        final EntityId child = ed.createEntity();
+        ed.setComponent(child, new Parent(ship));
+        assertEquals(ClientInterest.NO_PARENT, interest.getMobileParent(child));
+        assertTrue(interest.isStaticRelevant(child));
+
+        ed.setComponent(ship, new BodyPosition());
+        assertEquals(ship.getId(), interest.getMobileParent(child));
+        // The parent is not in any of the client's zones
+        assertFalse(interest.isStaticRelevant(child));
+    }
+
+    @Test
+    public void forgottenEntityIsLookedUpAgain() {
+        final EntityData ed = new DefaultEntityData();
+        final ClientInterest interest = new ClientInterest(ed, null, null);
+
+        final EntityId id = ed.createEntity();
+        ed.setComponent(id, new BodyPosition());
+        assertFalse(interest.isStaticRelevant(id));
+
+        ed.removeComponent(id, BodyPosition.class);
+        interest.forget(id.getId());
+        assertTrue(interest.isStaticRelevant(id));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.ext.mblock.BlocksResourceShapeFactory;
+import com.simsilica.ext.mblock.SphereFactory;
+import com.simsilica.ext.mphys.EntityBodyFactory;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ShapeFactory;
+import com.simsilica.ext.mphys.ShapeFactoryRegistry;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mblock.config.DefaultBlockSet;
+import com.simsilica.mblock.phys.Collider;
+import com.simsilica.mblock.phys.MBlockCollisionSystem;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mblock.phys.collision.ColliderFactories;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+import com.simsilica.mworld.db.LeafDbCache;
+import com.simsilica.sim.GameSystemManager;
+
+import infinity.InfinityConstants;
+import infinity.es.BodyPosition;
+import infinity.es.ShapeNames;
+import infinity.es.ship.weapons.GunLevelEnum;
+import infinity.sim.GameEntities;
+import infinity.sim.InfinityEntityBodyFactory;
+
+/**
+ * @author Asser
+ */
+public class CollisionLeafDbTest {
+
+    @Test
+    public void emptyLeavesGetTheSharedEmptyCells() {
+        final long leafId = Coordinates.leafToLeafId(3, 0, -2);
+        final CollisionLeafDb db = new CollisionLeafDb(new EmptyLeafDb());
+
+        final LeafData first = db.loadLeaf(leafId);
+        final LeafData second = db.loadLeaf(Coordinates.leafToLeafId(4, 0, -2));
+        assertNotNull(first.getRawCells());
+        assertSame(first.getRawCells(), second.getRawCells());
+        assertTrue(first.isEmpty());
+        assertEquals(leafId, first.getInfo().leafId);
+        assertEquals(0, first.getCell(5, 5, 5));
+    }
+
+    @Test
+    public void leavesWithCellsPassThrough() {
+        final long leafId = Coordinates.leafToLeafId(0, 0, 0);
+        final CellArray cells = new CellArray(LeafInfo.SIZE);
+        cells.setCell(1, 2, 3, 10);
+        final LeafData leaf = new LeafData(new LeafInfo(Coordinates.leafIdToWorld(leafId), leafId), cells,
+                LeafInfo.CELL_COUNT - 1);
+        final LeafDb source = new EmptyLeafDb() {
+            @Override
+            public LeafData loadLeaf(final long id) {
+                return leaf;
+            }
+        };
+        assertSame(leaf, new CollisionLeafDb(source).loadLeaf(leafId));
+    }
+
+    @Test
+    public void bulletCrossesEmptySpace() {
+        final GameSystemManager systems = new GameSystemManager();
+        final DefaultEntityData ed = new DefaultEntityData();
+        systems.register(EntityData.class, ed);
+
+        final ShapeFactoryRegistry<MBlockShape> shapes = new ShapeFactoryRegistry<>();
+        shapes.registerFactory(ShapeInfo.create(ShapeNames.BULLETL1, 1, ed), new SphereFactory());
+        shapes.setDefaultFactory(new BlocksResourceShapeFactory(ed));
+        systems.register(ShapeFactory.class, shapes);
+
+        final InfinityEntityBodyFactory bodies = new InfinityEntityBodyFactory(ed,
+                Gravity.ZERO.getLinearAcceleration(), shapes);
+        final MPhysSystem<MBlockShape> mphys = new MPhysSystem<>(InfinityConstants.PHYSICS_GRID, bodies);
+        final Collider[] colliders = new ColliderFactories(true).createColliders(DefaultBlockSet.createBlockTypes());
+        final LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
+        mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(new CollisionLeafDb(leafDb), colliders));
+        systems.register(MPhysSystem.class, mphys);
+        systems.register(PhysicsSpace.class, mphys.getPhysicsSpace());
+        systems.register(EntityBodyFactory.class, bodies);
+        systems.addSystem(new BodyPositionPublisher<>());
+
+        systems.initialize();
+        systems.start();
+        try {
+            // Far away from anything, every leaf the bullet passes is empty
+            final Vec3d start = new Vec3d(1000.5, 0.5, 1000.5);
+            final EntityId bullet = GameEntities.createBullet(ed, ed.createEntity(), mphys.getPhysicsSpace(), 0,
+                    start, new Vec3d(20, 0, 0), 60_000, GunLevelEnum.LEVEL_1, ShapeNames.BULLETL1);
+            for (int i = 0; i < 120; i++) {
+                systems.update();
+            }
+
+            final BodyPosition pos = ed.getComponent(bullet, BodyPosition.class);
+            assertNotNull(pos);
+            final Vec3d loc = pos.getLastLocation();
+            assertTrue("bullet at " + loc, loc.x > start.x + 1);
+            assertEquals(start.z, loc.z, 0.01);
+        } finally {
+            systems.stop();
+            systems.terminate();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.Coordinates;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafInfo;
+
+/**
+ * @author Asser
+ */
+public class FileLeafDbTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LeafData createLeaf(final long leafId, final int cellCount, final int value) {
+        final CellArray cells = new CellArray(LeafInfo.SIZE);
+        for (int c = 0; c < cellCount; c++) {
+            // Spread over all layers so that the leaf is not stored flat
+            cells.setCell(c % LeafInfo.SIZE, (c / LeafInfo.SIZE) % LeafInfo.SIZE, c % 7, value + c % 3);
+        }
+        return new LeafData(new LeafInfo(Coordinates.leafIdToWorld(leafId), leafId), cells,
+                LeafInfo.CELL_COUNT - cellCount);
+    }
+
+    private static void assertSameCells(final LeafData expected, final LeafData actual) {
+        for (int j = 0; j < LeafInfo.SIZE; j++) {
+            for (int k = 0; k < LeafInfo.SIZE; k++) {
+                for (int i = 0; i < LeafInfo.SIZE; i++) {
+                    assertEquals(expected.getCell(i, j, k), actual.getCell(i, j, k));
+                }
+            }
+        }
+    }
+
+    private long regionBytes(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".leaves")).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    public void leavesSurviveReopening() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        final long leafId = Coordinates.leafToLeafId(1, 0, 2);
+        final LeafData leaf = createLeaf(leafId, 500, 3);
+
+        FileLeafDb db = new FileLeafDb(dir, new EmptyLeafDb());
+        db.storeLeaf(leaf);
+        db.close();
+
+        db = new FileLeafDb(dir, new EmptyLeafDb());
+        assertSameCells(leaf, db.loadLeaf(leafId));
+        db.close();
+    }
+
+    @Test
+    public void rewritingLeavesDoesNotGrowTheRegionForever() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        final FileLeafDb db = new FileLeafDb(dir, new EmptyLeafDb());
+        final long[] ids = { Coordinates.leafToLeafId(0, 0, 0), Coordinates.leafToLeafId(1, 0, 0) };
+
+        // Leaves that keep getting bigger never fit their old slot and always
+        // have to move
+        LeafData last = null;
+        for (int round = 1; round <= 200; round++) {
+            for (final long id : ids) {
+                last = createLeaf(id, round * 10, round);
+                db.storeLeaf(last);
+            }
+        }
+        final long grown = regionBytes(dir);
+
+        // Shrinking and regrowing reuses the slot capacity
+        for (int round = 0; round < 200; round++) {
+            db.storeLeaf(createLeaf(ids[1], round % 2 == 0 ? 10 : 2000, 1));
+        }
+        db.storeLeaf(last);
+        assertEquals(grown, regionBytes(dir));
+        assertSameCells(last, db.loadLeaf(ids[1]));
+        db.close();
+
+        // Without compaction every move would leave its old copy behind
+        assertTrue("region file is " + grown + " bytes", grown < 2 * 1024 * 1024);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.GameSystem;
+import com.simsilica.sim.SimTime;
+
+import infinity.sim.SystemAccess;
+import infinity.systems.AttackSystem;
+import infinity.systems.AudioEventSystem;
+import infinity.systems.InfinityTimeSystem;
+import infinity.systems.MovementSystem;
+import infinity.systems.SettingsSystem;
+
+/**
+ * @author Asser
+ */
+public class ScheduledGameSystemManagerTest {
+
+    @Test
+    public void readersShareAPhase() {
+        final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+        final ReadsA one = manager.addSystem(new ReadsA());
+        final AlsoReadsA two = manager.addSystem(new AlsoReadsA());
+
+        assertEquals(Arrays.asList(Arrays.asList(one, two)), manager.getPhases());
+        manager.checkSchedule();
+        manager.terminate();
+    }
+
+    @Test
+    public void writersStartANewPhase() {
+        final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+        final ReadsA reader = manager.addSystem(new ReadsA());
+        final WritesA writer = manager.addSystem(new WritesA());
+        final AlsoReadsA other = manager.addSystem(new AlsoReadsA());
+
+        assertEquals(Arrays.asList(Arrays.asList(reader), Arrays.asList(writer), Arrays.asList(other)),
+                manager.getPhases());
+        manager.terminate();
+    }
+
+    @Test
+    public void systemsWriteTheirOwnClass() {
+        assertTrue(ScheduledGameSystemManager.conflicts(ReadsA.class, ReadsReadsA.class));
+        assertFalse(ScheduledGameSystemManager.conflicts(ReadsA.class, AlsoReadsA.class));
+
+        final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+        manager.addSystem(new ReadsA());
+        manager.addSystem(new ReadsReadsA());
+        assertEquals(2, manager.getPhases().size());
+        manager.terminate();
+    }
+
+    @Test
+    public void unannotatedSystemsAreBarriers() {
+        assertTrue(ScheduledGameSystemManager.conflicts(ReadsA.class, Unannotated.class));
+
+        final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+        final ReadsA before = manager.addSystem(new ReadsA());
+        manager.addSystem(new Unannotated());
+        final AlsoReadsA after = manager.addSystem(new AlsoReadsA());
+
+        assertEquals(Arrays.asList(Arrays.asList(before), Arrays.asList(after)), manager.getPhases());
+        manager.terminate();
+    }
+
+    @Test
+    public void everyMemberIsUpdated() {
+        final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+        final ReadsA one = manager.addSystem(new ReadsA());
+        final AlsoReadsA two = manager.addSystem(new AlsoReadsA());
+        final ReadsB three = manager.addSystem(new ReadsB());
+        final List<List<GameSystem>> phases = manager.getPhases();
+        assertEquals(1, phases.size());
+        assertEquals(3, phases.get(0).size());
+
+        manager.initialize();
+        manager.start();
+        for (int i = 0; i < 10; i++) {
+            manager.update();
+        }
+        manager.stop();
+        manager.terminate();
+
+        assertEquals(10, one.updates.get());
+        assertEquals(10, two.updates.get());
+        assertEquals(10, three.updates.get());
+    }
+
+    @Test
+    public void membersAreProfiledOneByOne() {
+        for (final boolean parallel : new boolean[] { true, false }) {
+            final ScheduledGameSystemManager manager = new ScheduledGameSystemManager(2);
+            manager.setParallel(parallel);
+            manager.addSystem(new ReadsA());
+            manager.addSystem(new AlsoReadsA());
+            assertEquals(1, manager.getPhases().size());
+
+            manager.initialize();
+            manager.start();
+            manager.update();
+            manager.stop();
+            manager.terminate();
+
+            final String report = manager.getReport();
+            assertTrue(report, report.contains("\nReadsA "));
+            assertTrue(report, report.contains("\nAlsoReadsA "));
+            assertFalse(report, report.contains("+"));
+        }
+    }
+
+    @Test
+    public void serverSystemsKeepTheirSideEffectsApart() {
+        // Sounds are queued by the attacks and sent by the audio system
+        assertTrue(ScheduledGameSystemManager.conflicts(AttackSystem.class, AudioEventSystem.class));
+        // The settings are only read by the movement
+        assertTrue(ScheduledGameSystemManager.conflicts(MovementSystem.class, SettingsSystem.class));
+        // Nothing reads the time during an update
+        assertFalse(ScheduledGameSystemManager.conflicts(InfinityTimeSystem.class, AudioEventSystem.class));
+    }
+
+    private static class Counting extends AbstractGameSystem {
+        final AtomicInteger updates = new AtomicInteger();
+
+        @Override
+        protected void initialize() {
+            return;
+        }
+
+        @Override
+        protected void terminate() {
+            return;
+        }
+
+        @Override
+        public void update(final SimTime time) {
+            updates.incrementAndGet();
+        }
+    }
+
+    private static class TypeA {
+    }
+
+    private static class TypeB {
+    }
+
+    @SystemAccess(reads = { TypeA.class })
+    private static class ReadsA extends Counting {
+    }
+
+    @SystemAccess(reads = { TypeA.class })
+    private static class AlsoReadsA extends Counting {
+    }
+
+    @SystemAccess(reads = { TypeB.class })
+    private static class ReadsB extends Counting {
+    }
+
+    @SystemAccess(writes = { TypeA.class })
+    private static class WritesA extends Counting {
+    }
+
+    @SystemAccess(reads = { ReadsA.class })
+    private static class ReadsReadsA extends Counting {
+    }
+
+    private static class Unannotated extends Counting {
+    }
+}
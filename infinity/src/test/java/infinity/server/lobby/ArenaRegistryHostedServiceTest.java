@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.lobby;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.jme3.network.Client;
+import com.jme3.network.Network;
+import com.jme3.network.Server;
+import com.jme3.network.service.rmi.RmiClientService;
+import com.jme3.network.service.rmi.RmiHostedService;
+import com.jme3.network.service.rpc.RpcClientService;
+import com.jme3.network.service.rpc.RpcHostedService;
+
+import infinity.InfinityConstants;
+import infinity.net.lobby.ArenaProcess;
+import infinity.net.lobby.ArenaRegistry;
+import infinity.server.ArenaRouter.Destination;
+
+/**
+ * Runs the registry and fake arena processes over loopback connections.
+ *
+ * @author Asser
+ */
+public class ArenaRegistryHostedServiceTest {
+
+    private static final long WAIT = 5000;
+
+    private Server server;
+    private ArenaRegistryHostedService registry;
+    private Process process;
+
+    @After
+    public void close() {
+        if (process != null) {
+            process.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void start(final long openTimeout) throws IOException {
+        final int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        registry = new ArenaRegistryHostedService(openTimeout);
+        server = Network.createServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION, port, port);
+        server.getServices().addServices(new RpcHostedService(), new RmiHostedService(), registry);
+        server.start();
+
+        process = new Process(port);
+        process.registry.register("127.0.0.1", 7000);
+        await(() -> !registry.getReport().isEmpty());
+    }
+
+    @Test
+    public void registeringTwiceIsOneProcess() throws Exception {
+        start(ArenaRegistryHostedService.DEFAULT_OPEN_TIMEOUT);
+        process.registry.register("127.0.0.1", 7000);
+        process.registry.report(0, 0.25, 0, new String[0], new int[0]);
+        await(() -> registry.getReport().contains("load:0.25"));
+
+        assertEquals(1, registry.getReport().split("\n").length);
+    }
+
+    @Test
+    public void staleReportKeepsTheOpenedArena() throws Exception {
+        start(ArenaRegistryHostedService.DEFAULT_OPEN_TIMEOUT);
+        final Redirects first = new Redirects();
+        registry.route("arena", first);
+        assertEquals("arena", process.opened.poll(WAIT, TimeUnit.MILLISECONDS));
+
+        // The process reports the arenas it had before it opened the new one,
+        // and the report arrives after the answer
+        process.registry.arenaOpened("arena", 7004, 2);
+        process.registry.report(1, 0.5, 0, new String[] { "default" }, new int[] { 7000 });
+        assertEquals(Integer.valueOf(7004), first.ports.poll(WAIT, TimeUnit.MILLISECONDS));
+        await(() -> registry.getReport().contains("load:0.50"));
+
+        final Redirects second = new Redirects();
+        registry.route("arena", second);
+        assertEquals(Integer.valueOf(7004), second.ports.poll(WAIT, TimeUnit.MILLISECONDS));
+        assertNull(process.opened.poll(100, TimeUnit.MILLISECONDS));
+
+        // A newer report wins, here the arena was closed again
+        process.registry.report(3, 0.5, 0, new String[] { "default" }, new int[] { 7000 });
+        await(() -> !registry.getReport().contains("arena="));
+    }
+
+    @Test
+    public void pendingArenasTimeOut() throws Exception {
+        start(200);
+        final Redirects waiting = new Redirects();
+        registry.route("arena", waiting);
+        assertEquals("arena", process.opened.poll(WAIT, TimeUnit.MILLISECONDS));
+
+        // The process never answers, the next report gives up on the arena
+        Thread.sleep(300);
+        process.registry.report(0, 0, 0, new String[0], new int[0]);
+        assertEquals(Integer.valueOf(-1), waiting.ports.poll(WAIT, TimeUnit.MILLISECONDS));
+
+        // And the next player gets a fresh attempt
+        registry.route("arena", new Redirects());
+        assertEquals("arena", process.opened.poll(WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + WAIT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                fail("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Redirects implements Destination {
+        final BlockingQueue<Integer> ports = new LinkedBlockingQueue<>();
+
+        @Override
+        public void redirect(final String arenaId, final String host, final int port) {
+            ports.add(Integer.valueOf(port));
+        }
+    }
+
+    /**
+     * An arena process that only records what the lobby asks of it.
+     */
+    private static class Process implements ArenaProcess {
+        final BlockingQueue<String> opened = new LinkedBlockingQueue<>();
+        final Client client;
+        final ArenaRegistry registry;
+
+        Process(final int port) throws IOException, InterruptedException {
+            client = Network.connectToServer(InfinityConstants.NAME, InfinityConstants.PROTOCOL_VERSION,
+                    "127.0.0.1", port);
+            client.getServices().addServices(new RpcClientService(), new RmiClientService());
+            client.getServices().getService(RmiClientService.class).share(this, ArenaProcess.class);
+            client.start();
+
+            final RmiClientService rmi = client.getServices().getService(RmiClientService.class);
+            await(() -> rmi.getRemoteObject(ArenaRegistry.class) != null);
+            registry = rmi.getRemoteObject(ArenaRegistry.class);
+            assertNotNull(registry);
+        }
+
+        @Override
+        public void openArena(final String arenaId) {
+            opened.add(arenaId);
+        }
+
+        @Override
+        public void routed(final int requestId, final String arenaId, final String host, final int port) {
+            return;
+        }
+
+        void close() {
+            client.close();
+        }
+    }
+}
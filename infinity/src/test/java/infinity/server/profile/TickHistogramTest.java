@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.server.profile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class TickHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        final TickHistogram h = new TickHistogram();
+        for (int i = 1; i <= 20; i++) {
+            h.record(i);
+        }
+        assertEquals(20, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(20, h.getMax());
+        assertEquals(10, h.getValueAtPercentile(50));
+        assertEquals(20, h.getValueAtPercentile(100));
+        assertEquals(10.5, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        final Random random = new Random(5);
+        for (int n = 0; n < 100_000; n++) {
+            final long value = random.nextLong() >>> (1 + random.nextInt(63));
+            final int index = TickHistogram.indexOf(value);
+            assertTrue(value <= TickHistogram.highestValueAt(index));
+            if (index > 0) {
+                assertTrue(value > TickHistogram.highestValueAt(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, TickHistogram.highestValueAt(TickHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        final Random random = new Random(9);
+        final TickHistogram h = new TickHistogram();
+        final long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            // Tick times between 0.1 and 50 ms
+            values[i] = 100_000 + (long) (random.nextDouble() * 49_900_000);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double p : new double[] { 50, 90, 99, 99.9 }) {
+            final long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            final long value = h.getValueAtPercentile(p);
+            assertTrue(p + ":" + value + " vs " + exact, value >= exact && value <= exact * 1.04);
+        }
+        assertEquals(values[values.length - 1], h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        final TickHistogram h = new TickHistogram();
+        h.record(1_000_000);
+        h.record(-5);
+        assertEquals(0, h.getMin());
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+}
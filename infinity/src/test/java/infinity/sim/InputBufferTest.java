@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import infinity.es.input.MovementInput;
+import infinity.net.InputFrames;
+
+/**
+ * @author Asser
+ */
+public class InputBufferTest {
+
+    /**
+     * A packet with the given newest sequence number, each input tagged with its
+     * own sequence number in the flags.
+     */
+    private static InputFrames frames(final int sequence, final int count) {
+        final int[] inputs = new int[count];
+        for (int i = 0; i < count; i++) {
+            inputs[i] = InputFrames.pack(0, 0, (byte) (sequence - i));
+        }
+        return new InputFrames((short) sequence, inputs, count);
+    }
+
+    private static byte poll(final InputBuffer buffer, final long time) {
+        final MovementInput input = buffer.poll(time);
+        return input.getFlags();
+    }
+
+    @Test
+    public void redundantInputsAreUsedOnce() {
+        final InputBuffer buffer = new InputBuffer();
+        buffer.offer(frames(10, InputFrames.REDUNDANCY));
+        buffer.offer(frames(11, InputFrames.REDUNDANCY));
+        assertEquals(8, poll(buffer, 1));
+        assertEquals(9, poll(buffer, 2));
+        assertEquals(10, poll(buffer, 3));
+        assertEquals(11, poll(buffer, 4));
+        assertNull(buffer.poll(5));
+        assertEquals(11, buffer.getLastConsumed());
+        assertEquals(4, buffer.getLastConsumedTime());
+    }
+
+    @Test
+    public void sequenceNumbersWrapAround() {
+        final InputBuffer buffer = new InputBuffer();
+        buffer.offer(frames(Short.MAX_VALUE, 1));
+        assertEquals((byte) Short.MAX_VALUE, poll(buffer, 1));
+
+        // Short.MIN_VALUE comes right after Short.MAX_VALUE
+        buffer.offer(frames(Short.MIN_VALUE + 1, InputFrames.REDUNDANCY));
+        assertEquals((byte) Short.MIN_VALUE, poll(buffer, 2));
+        assertEquals((byte) (Short.MIN_VALUE + 1), poll(buffer, 3));
+        assertNull(buffer.poll(4));
+        assertEquals(Short.MIN_VALUE + 1, buffer.getLastConsumed());
+
+        // A late packet from before the wrap is old, not new
+        buffer.offer(frames(Short.MAX_VALUE - 1, InputFrames.REDUNDANCY));
+        assertNull(buffer.poll(5));
+    }
+
+    @Test
+    public void oldestInputsAreDroppedWhenTheClientGetsAhead() {
+        final InputBuffer buffer = new InputBuffer();
+        for (int sequence = 1; sequence <= 10; sequence++) {
+            buffer.offer(frames(sequence, 1));
+        }
+        // Only the newest few are kept
+        final byte first = poll(buffer, 1);
+        assertTrue("kept:" + first, first > 1);
+        byte last = first;
+        MovementInput input;
+        while ((input = buffer.poll(2)) != null) {
+            assertEquals(last + 1, input.getFlags());
+            last = input.getFlags();
+        }
+        assertEquals(10, last);
+    }
+
+    @Test
+    public void acknowledgementsAreOnlyResentWhenAsked() {
+        final InputBuffer buffer = new InputBuffer();
+        assertFalse(buffer.takeAcknowledgement(true));
+        buffer.offer(frames(1, 1));
+        buffer.poll(7);
+        assertTrue(buffer.takeAcknowledgement(false));
+        assertFalse(buffer.takeAcknowledgement(false));
+        assertTrue(buffer.takeAcknowledgement(true));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.ext.mblock.BlocksResourceShapeFactory;
+import com.simsilica.ext.mblock.SphereFactory;
+import com.simsilica.ext.mphys.EntityBodyFactory;
+import com.simsilica.ext.mphys.Gravity;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.Mass;
+import com.simsilica.ext.mphys.ShapeFactory;
+import com.simsilica.ext.mphys.ShapeFactoryRegistry;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.config.DefaultBlockSet;
+import com.simsilica.mblock.phys.Collider;
+import com.simsilica.mblock.phys.MBlockCollisionSystem;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mblock.phys.collision.ColliderFactories;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.base.DefaultWorld;
+import com.simsilica.mworld.db.LeafDb;
+import com.simsilica.mworld.db.LeafDbCache;
+import com.simsilica.sim.GameSystemManager;
+
+import infinity.InfinityConstants;
+import infinity.es.ShapeNames;
+import infinity.es.input.MovementInput;
+import infinity.es.ship.Energy;
+import infinity.es.ship.weapons.Gun;
+import infinity.es.ship.weapons.GunCost;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.es.ship.weapons.GunLevelEnum;
+import infinity.server.BodyPositionPublisher;
+import infinity.server.CollisionLeafDb;
+import infinity.server.EmptyLeafDb;
+import infinity.sim.InfinityEntityBodyFactory;
+
+/**
+ * @author Asser
+ */
+public class AttackSystemTest {
+
+    private static final int ENERGY = 1000;
+
+    private GameSystemManager systems;
+    private EntityData ed;
+    private AttackSystem attacks;
+    private EntityId shooter;
+    private EntityId target;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        systems = new GameSystemManager();
+        ed = new DefaultEntityData();
+        systems.register(EntityData.class, ed);
+
+        final ShapeFactoryRegistry<MBlockShape> shapes = new ShapeFactoryRegistry<>();
+        shapes.registerFactory(ShapeInfo.create(ShapeNames.SHIP_WARBIRD, 1, ed), new SphereFactory());
+        shapes.registerFactory(ShapeInfo.create(ShapeNames.BULLETL1, 1, ed), new SphereFactory());
+        shapes.setDefaultFactory(new BlocksResourceShapeFactory(ed));
+        systems.register(ShapeFactory.class, shapes);
+
+        final InfinityEntityBodyFactory bodies = new InfinityEntityBodyFactory(ed,
+                Gravity.ZERO.getLinearAcceleration(), shapes);
+        final MPhysSystem<MBlockShape> mphys = new MPhysSystem<>(InfinityConstants.PHYSICS_GRID, bodies);
+        final Collider[] colliders = new ColliderFactories(true).createColliders(DefaultBlockSet.createBlockTypes());
+        final LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
+        mphys.setCollisionSystem(new MBlockCollisionSystem<EntityId>(new CollisionLeafDb(leafDb), colliders));
+        systems.register(MPhysSystem.class, mphys);
+        systems.register(PhysicsSpace.class, mphys.getPhysicsSpace());
+        systems.register(EntityBodyFactory.class, bodies);
+        systems.register(DefaultWorld.class, new DefaultWorld(leafDb));
+
+        systems.register(EnergySystem.class, new EnergySystem());
+        systems.register(ProjectileSystem.class, new ProjectileSystem());
+        attacks = systems.register(AttackSystem.class, new AttackSystem());
+        systems.register(LagCompensationSystem.class, new LagCompensationSystem());
+        systems.register(AudioEventSystem.class,
+                new AudioEventSystem(InfinityConstants.ZONE_GRID, InfinityConstants.ZONE_RADIUS));
+        final ContactSystem contacts = systems.register(ContactSystem.class, new ContactSystem());
+        mphys.getPhysicsSpace().setContactDispatcher(contacts);
+        systems.addSystem(new BodyPositionPublisher<>());
+
+        systems.initialize();
+        systems.start();
+
+        // Far away from anything, the shooter faces the target
+        shooter = createShip(new Vec3d(1000.5, 0.5, 1000.5));
+        ed.setComponents(shooter, new Gun(GunLevelEnum.LEVEL_1), new GunCost(1), new GunFireDelay(0));
+        target = createShip(new Vec3d(1000.5, 0.5, 1006.5));
+
+        // Let the bodies load and the lag compensation build some history
+        step(30);
+    }
+
+    @After
+    public void tearDown() {
+        systems.stop();
+        systems.terminate();
+    }
+
+    @Test
+    public void shotWithoutLagHits() throws InterruptedException {
+        attacks.sessionAttack(shooter, AttackSystem.GUN, 0);
+        step(60);
+
+        assertHit();
+    }
+
+    @Test
+    public void shotWithLagHits() throws InterruptedException {
+        attacks.sessionAttack(shooter, AttackSystem.GUN, LagCompensationSystem.VIEW_DELAY);
+        step(60);
+
+        assertHit();
+    }
+
+    private void assertHit() {
+        final int energy = ed.getComponent(target, Energy.class).getHealth();
+        assertTrue("target energy " + energy, energy < ENERGY);
+    }
+
+    private EntityId createShip(final Vec3d location) {
+        final EntityId ship = ed.createEntity();
+        ed.setComponents(ship, ShapeInfo.create(ShapeNames.SHIP_WARBIRD, 1, ed),
+                new SpawnPosition(InfinityConstants.PHYSICS_GRID, location), new Mass(1), Gravity.ZERO,
+                new Energy(ENERGY), new MovementInput(new Vec3d()));
+        return ship;
+    }
+
+    private void step(final int frames) throws InterruptedException {
+        for (int i = 0; i < frames; i++) {
+            systems.update();
+            // The simulation time follows the clock
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void behavesLikeAHashMap() {
+        final Random random = new Random(11);
+        final LongIntMap map = new LongIntMap(4);
+        final Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            final long key = random.nextInt(700) * 31L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, i);
+                    expected.put(key, i);
+                    break;
+                case 1:
+                    assertEquals(expected.merge(key, 5, Integer::sum).intValue(), map.addTo(key, 5));
+                    break;
+                default:
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long k = 0; k < 700; k++) {
+            final Integer value = expected.get(k * 31);
+            assertEquals(value == null ? -1 : value.intValue(), map.get(k * 31, -1));
+        }
+    }
+
+    @Test
+    public void removedAndClearedKeysStartAtZero() {
+        final LongIntMap map = new LongIntMap();
+        for (long key = 1; key <= 100; key++) {
+            map.addTo(key, 3);
+        }
+        for (long key = 1; key <= 100; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        for (long key = 1; key <= 100; key++) {
+            assertEquals(key % 2 == 0 ? 4 : 1, map.addTo(key, 1));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(2));
+        assertEquals(1, map.addTo(2, 1));
+    }
+
+    @Test
+    public void slotsWalkEveryEntry() {
+        final LongIntMap map = new LongIntMap();
+        long sum = 0;
+        for (long key = 10; key < 60; key++) {
+            map.put(key, (int) key);
+            sum += key;
+        }
+        long walked = 0;
+        int count = 0;
+        for (int i = 0; i < map.capacity(); i++) {
+            if (map.isSlotUsed(i)) {
+                assertEquals(map.keyAt(i), map.valueAt(i));
+                walked += map.valueAt(i);
+                count++;
+            }
+        }
+        assertEquals(map.size(), count);
+        assertEquals(sum, walked);
+    }
+}
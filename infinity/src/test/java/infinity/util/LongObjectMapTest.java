@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void behavesLikeAHashMap() {
+        final Random random = new Random(3);
+        final LongObjectMap<String> map = new LongObjectMap<>(4);
+        final Map<Long, String> expected = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            final long key = random.nextInt(600) - 300;
+            if (random.nextInt(3) > 0) {
+                final String value = "v" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = -300; key < 300; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void valuesMoveWithTheirKeys() {
+        final LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long key = 0; key < 1000; key++) {
+            map.put(key, key);
+        }
+        for (long key = 0; key < 1000; key += 3) {
+            assertEquals(Long.valueOf(key), map.remove(key));
+        }
+        for (long key = 0; key < 1000; key++) {
+            if (key % 3 == 0) {
+                assertNull(map.get(key));
+            } else {
+                assertEquals(Long.valueOf(key), map.get(key));
+            }
+        }
+        final Long value = Long.valueOf(-1);
+        map.clear();
+        assertNull(map.put(5, value));
+        assertSame(value, map.get(5));
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class LongSetTest {
+
+    @Test
+    public void everyValueIsFoundAfterEachRemoval() {
+        final Random random = new Random(42);
+        final LongSet set = new LongSet();
+        final List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            // Sequential ids like the entity ids, plus some anywhere in the range
+            final long value = i % 4 == 0 ? random.nextLong() : i;
+            if (set.add(value)) {
+                values.add(value);
+            }
+        }
+        assertEquals(values.size(), set.size());
+
+        // Removing has to shift the rest of a probe chain back, any value left
+        // behind a hole would no longer be found
+        Collections.shuffle(values, random);
+        for (int i = 0; i < values.size(); i++) {
+            assertTrue(set.remove(values.get(i)));
+            assertFalse(set.contains(values.get(i)));
+            for (int j = i + 1; j < values.size(); j++) {
+                assertTrue(set.contains(values.get(j)));
+            }
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void behavesLikeAHashSet() {
+        final Random random = new Random(7);
+        final LongSet set = new LongSet(4);
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            final long value = random.nextInt(500);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value = 0; value < 500; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void freeMarkerIsRejected() {
+        new LongSet().add(Long.MIN_VALUE);
+    }
+}
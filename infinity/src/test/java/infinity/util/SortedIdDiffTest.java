@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Asser
+ */
+public class SortedIdDiffTest {
+
+    private static final class Recorder implements SortedIdDiff.Listener {
+        private final List<Long> added = new ArrayList<>();
+        private final List<Long> removed = new ArrayList<>();
+
+        @Override
+        public void added(final long id) {
+            added.add(id);
+        }
+
+        @Override
+        public void removed(final long id) {
+            removed.add(id);
+        }
+
+        private static long[] toArray(final List<Long> ids) {
+            return ids.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    private static Recorder diff(final long[] before, final long[] after) {
+        final Recorder recorder = new Recorder();
+        SortedIdDiff.diff(before, before.length, after, after.length, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void reportsIdsOnlyInOneSide() {
+        final Recorder r = diff(new long[] { 1, 3, 5, 7, 9 }, new long[] { 2, 3, 4, 9, 10, 11 });
+        assertArrayEquals(new long[] { 2, 4, 10, 11 }, Recorder.toArray(r.added));
+        assertArrayEquals(new long[] { 1, 5, 7 }, Recorder.toArray(r.removed));
+    }
+
+    @Test
+    public void emptySides() {
+        Recorder r = diff(new long[0], new long[] { 4, 8 });
+        assertArrayEquals(new long[] { 4, 8 }, Recorder.toArray(r.added));
+        assertArrayEquals(new long[0], Recorder.toArray(r.removed));
+
+        r = diff(new long[] { 4, 8 }, new long[0]);
+        assertArrayEquals(new long[0], Recorder.toArray(r.added));
+        assertArrayEquals(new long[] { 4, 8 }, Recorder.toArray(r.removed));
+
+        r = diff(new long[] { 4, 8 }, new long[] { 4, 8 });
+        assertArrayEquals(new long[0], Recorder.toArray(r.added));
+        assertArrayEquals(new long[0], Recorder.toArray(r.removed));
+    }
+
+    @Test
+    public void onlyTheCountedEntriesAreUsed() {
+        final Recorder r = new Recorder();
+        // Stale entries past the counts, as left over in reused arrays
+        SortedIdDiff.diff(new long[] { 1, 2, 99 }, 2, new long[] { 2, 3, 98, 99 }, 2, r);
+        assertArrayEquals(new long[] { 3 }, Recorder.toArray(r.added));
+        assertArrayEquals(new long[] { 1 }, Recorder.toArray(r.removed));
+    }
+
+    @Test
+    public void negativeIdsSortFirst() {
+        final Recorder r = diff(new long[] { -5, 0, 5 }, new long[] { -6, -5, 5 });
+        assertArrayEquals(new long[] { -6 }, Recorder.toArray(r.added));
+        assertArrayEquals(new long[] { 0 }, Recorder.toArray(r.removed));
+    }
+}